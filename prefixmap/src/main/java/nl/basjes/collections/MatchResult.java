@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections;
+
+import java.util.Objects;
+
+/**
+ * <p>The result of a prefix match: the value of the matching prefix and the length of the matched prefix.</p>
+ * <p>The length is the number of characters (chars, so a surrogate pair counts as 2) of the input
+ * that were matched. So after a match on <code>input</code> the part after the prefix
+ * is <code>input.subSequence(result.getLength(), input.length())</code>.</p>
+ * <p>An instance can be reused for many lookups (it is overwritten by each lookup)
+ * so a lookup in a hot path does not need to create any objects.</p>
+ *
+ * @param <V> The type of the value that is stored in the PrefixMap.
+ */
+public final class MatchResult<V> {
+    private V   value;
+    private int length;
+
+    /**
+     * Create an empty (i.e. no match) MatchResult.
+     */
+    public MatchResult() {
+        reset();
+    }
+
+    /**
+     * Create a MatchResult with a match.
+     * @param value The value of the matched prefix.
+     * @param length The number of characters of the input that were matched.
+     */
+    public MatchResult(V value, int length) {
+        set(value, length);
+    }
+
+    /**
+     * Clear this MatchResult so it represents "no match".
+     */
+    public void reset() {
+        this.value = null;
+        this.length = -1;
+    }
+
+    /**
+     * Set this MatchResult to a match.
+     * @param newValue The value of the matched prefix.
+     * @param newLength The number of characters of the input that were matched.
+     */
+    public void set(V newValue, int newLength) {
+        this.value = newValue;
+        this.length = newLength;
+    }
+
+    /**
+     * @return True if a prefix was matched.
+     */
+    public boolean isMatch() {
+        return value != null;
+    }
+
+    /**
+     * @return The value of the matched prefix, null if nothing was matched.
+     */
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * @return The number of characters of the input that were matched, -1 if nothing was matched.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MatchResult)) {
+            return false;
+        }
+        MatchResult<?> that = (MatchResult<?>) o;
+        return length == that.length && Objects.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(value, length);
+    }
+
+    @Override
+    public String toString() {
+        return "MatchResult{value=" + value + ", length=" + length + '}';
+    }
+}
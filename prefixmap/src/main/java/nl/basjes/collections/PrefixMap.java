@@ -17,12 +17,14 @@
 package nl.basjes.collections;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator;
 import java.util.Set;
-import java.util.stream.IntStream;
 
 /**
  * <p>
@@ -177,9 +179,39 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * for the specified prefix.
      */
     default boolean containsPrefix(String prefix) {
+        return containsPrefix((CharSequence) prefix);
+    }
+
+    /**
+     * <p>Returns <code>true</code> if this map contains an exact mapping
+     * for the specified prefix.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     * <p>Implementations should read the characters directly from the sequence without creating any objects.</p>
+     *
+     * @param prefix The character sequence (like a String, StringBuilder or CharBuffer) whose presence in this prefixmap is to be checked
+     * @return <code>true</code> if this map contains an the exact mapping
+     * for the specified prefix.
+     */
+    default boolean containsPrefix(CharSequence prefix) {
         return containsPrefix(prefix.codePoints().iterator());
     }
 
+    /**
+     * <p>Same as {@link #containsPrefix(CharSequence)} but only the region [start, end) of the prefix is used.</p>
+     * <p>This is the same as doing <code>containsPrefix(prefix.subSequence(start, end))</code>.
+     * Implementations should read the characters directly from the region without copying them.</p>
+     *
+     * @param prefix The character sequence (like a String, StringBuilder or CharBuffer) that contains the region
+     * @param start The index of the first character of the region.
+     * @param end The index of the character after the last character of the region.
+     * @return <code>true</code> if this map contains an the exact mapping for the specified region.
+     * @throws IndexOutOfBoundsException if the region is not within the prefix.
+     */
+    default boolean containsPrefix(CharSequence prefix, int start, int end) {
+        return containsPrefix(prefix.subSequence(start, end));
+    }
+
     /**
      * <p>Return the value of the <code>shortest</code> matching prefix. </p>
      * <p>The value returned is the shortest stored prefix for which is true:
@@ -191,9 +223,39 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * @return The value, null if not found.
      */
     default V getShortestMatch(String input) {
+        return getShortestMatch((CharSequence) input);
+    }
+
+    /**
+     * <p>Return the value of the <code>shortest</code> matching prefix. </p>
+     * <p>The value returned is the shortest stored prefix for which is true:
+     * <code>input.startsWith(prefix)</code>.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     * <p>Implementations should read the characters directly from the sequence without creating any objects.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need value of the stored prefix
+     * @return The value, null if not found.
+     */
+    default V getShortestMatch(CharSequence input) {
         return getShortestMatch(input.codePoints().iterator());
     }
 
+    /**
+     * <p>Same as {@link #getShortestMatch(CharSequence)} but only the region [start, end) of the input is used.</p>
+     * <p>This is the same as doing <code>getShortestMatch(input.subSequence(start, end))</code>.
+     * Implementations should read the characters directly from the region without copying them.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) that contains the region
+     * @param start The index of the first character of the region.
+     * @param end The index of the character after the last character of the region.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default V getShortestMatch(CharSequence input, int start, int end) {
+        return getShortestMatch(input.subSequence(start, end));
+    }
+
     /**
      * <p>Return the value of the longest matching prefix.</p>
      * <p>The value returned is the longest stored prefix for which is true:
@@ -205,9 +267,39 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * @return The value, null if not found.
      */
     default V getLongestMatch(String input){
+        return getLongestMatch((CharSequence) input);
+    }
+
+    /**
+     * <p>Return the value of the longest matching prefix.</p>
+     * <p>The value returned is the longest stored prefix for which is true:
+     * <code>input.startsWith(prefix)</code>.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     * <p>Implementations should read the characters directly from the sequence without creating any objects.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need value of the stored prefix
+     * @return The value, null if not found.
+     */
+    default V getLongestMatch(CharSequence input) {
         return getLongestMatch(input.codePoints().iterator());
     }
 
+    /**
+     * <p>Same as {@link #getLongestMatch(CharSequence)} but only the region [start, end) of the input is used.</p>
+     * <p>This is the same as doing <code>getLongestMatch(input.subSequence(start, end))</code>.
+     * Implementations should read the characters directly from the region without copying them.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) that contains the region
+     * @param start The index of the first character of the region.
+     * @param end The index of the character after the last character of the region.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default V getLongestMatch(CharSequence input, int start, int end) {
+        return getLongestMatch(input.subSequence(start, end));
+    }
+
     /**
      * <p>Returns List of all matches that have a value.</p>
      * <p>The list contains all non-null values for the prefix values where this is true:
@@ -219,9 +311,162 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * @return The list of values, an empty List if nothing is found.
      */
     default Iterator<V> getAllMatches(String input){
+        return getAllMatches((CharSequence) input);
+    }
+
+    /**
+     * <p>Returns List of all matches that have a value.</p>
+     * <p>The list contains all non-null values for the prefix values where this is true:
+     * <code>input.startsWith(prefix)</code>.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     * <p>Implementations should read the characters directly from the sequence without creating any objects.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need value of the stored prefix
+     * @return The list of values, an empty List if nothing is found.
+     */
+    default Iterator<V> getAllMatches(CharSequence input) {
         return getAllMatches(input.codePoints().iterator());
     }
 
+    /**
+     * <p>Same as {@link #getAllMatches(CharSequence)} but only the region [start, end) of the input is used.</p>
+     * <p>This is the same as doing <code>getAllMatches(input.subSequence(start, end))</code>.
+     * Implementations should read the characters directly from the region without copying them.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) that contains the region
+     * @param start The index of the first character of the region.
+     * @param end The index of the character after the last character of the region.
+     * @return The list of values, an empty List if nothing is found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        return getAllMatches(input.subSequence(start, end));
+    }
+
+    // ====================================================
+    // Matches that also report how many characters of the input were matched.
+
+    /**
+     * <p>Find the <code>shortest</code> matching prefix and put both the value and the length
+     * (in characters of the input) of the matched prefix in the provided result.</p>
+     * <p>The result can be reused for many lookups so no objects need to be created.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need the match
+     * @param result The (reusable) holder that receives the match. It is reset if nothing matches.
+     * @return True if a prefix matched.
+     */
+    default boolean getShortestMatch(CharSequence input, MatchResult<V> result) {
+        return getShortestMatch(input, 0, input.length(), result);
+    }
+
+    /**
+     * <p>Same as {@link #getShortestMatch(CharSequence, MatchResult)} but only the region [start, end) of the input is used.
+     * The length in the result is relative to the start of the region.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) that contains the region
+     * @param start The index of the first character of the region.
+     * @param end The index of the character after the last character of the region.
+     * @param result The (reusable) holder that receives the match. It is reset if nothing matches.
+     * @return True if a prefix matched.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Iterator<MatchResult<V>> matches = getAllMatchResults(input, start, end);
+        if (!matches.hasNext()) {
+            result.reset();
+            return false;
+        }
+        MatchResult<V> match = matches.next();
+        result.set(match.getValue(), match.getLength());
+        return true;
+    }
+
+    /**
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need the match
+     * @return The number of characters of the input matched by the <code>shortest</code> matching prefix, -1 if nothing matched.
+     */
+    default int getShortestMatchLength(CharSequence input) {
+        MatchResult<V> result = new MatchResult<>();
+        getShortestMatch(input, result);
+        return result.getLength();
+    }
+
+    /**
+     * <p>Find the <code>longest</code> matching prefix and put both the value and the length
+     * (in characters of the input) of the matched prefix in the provided result.</p>
+     * <p>The result can be reused for many lookups so no objects need to be created.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need the match
+     * @param result The (reusable) holder that receives the match. It is reset if nothing matches.
+     * @return True if a prefix matched.
+     */
+    default boolean getLongestMatch(CharSequence input, MatchResult<V> result) {
+        return getLongestMatch(input, 0, input.length(), result);
+    }
+
+    /**
+     * <p>Same as {@link #getLongestMatch(CharSequence, MatchResult)} but only the region [start, end) of the input is used.
+     * The length in the result is relative to the start of the region.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) that contains the region
+     * @param start The index of the first character of the region.
+     * @param end The index of the character after the last character of the region.
+     * @param result The (reusable) holder that receives the match. It is reset if nothing matches.
+     * @return True if a prefix matched.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        result.reset();
+        getAllMatchResults(input, start, end).forEachRemaining(match -> result.set(match.getValue(), match.getLength()));
+        return result.isMatch();
+    }
+
+    /**
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need the match
+     * @return The number of characters of the input matched by the <code>longest</code> matching prefix, -1 if nothing matched.
+     */
+    default int getLongestMatchLength(CharSequence input) {
+        MatchResult<V> result = new MatchResult<>();
+        getLongestMatch(input, result);
+        return result.getLength();
+    }
+
+    /**
+     * <p>Returns all matches (shortest first) with for each match the value and the length
+     * (in characters of the input) of the matched prefix.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) for which we need the matches
+     * @return The matches, empty if nothing is found.
+     */
+    default Iterator<MatchResult<V>> getAllMatchResults(CharSequence input) {
+        return getAllMatchResults(input, 0, input.length());
+    }
+
+    /**
+     * <p>Same as {@link #getAllMatchResults(CharSequence)} but only the region [start, end) of the input is used.
+     * The lengths in the results are relative to the start of the region.</p>
+     *
+     * @param input The character sequence (like a String, StringBuilder or CharBuffer) that contains the region
+     * @param start The index of the first character of the region.
+     * @param end The index of the character after the last character of the region.
+     * @return The matches, empty if nothing is found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        // Slow but generic: try the prefix of the region at every code point boundary.
+        String region = input.subSequence(start, end).toString();
+        List<MatchResult<V>> results = new ArrayList<>();
+        int length = 0;
+        while (length <= region.length()) {
+            if (containsPrefix(region, 0, length)) {
+                results.add(new MatchResult<>(getLongestMatch(region, 0, length), length));
+            }
+            length += length < region.length() ? Character.charCount(region.codePointAt(length)) : 1;
+        }
+        return results.iterator();
+    }
+
     /**
      * <p>Returns <code>true</code> if this map contains an exact mapping
      * for the specified prefix.</p>
@@ -233,7 +478,21 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * for the specified prefix.
      */
     default boolean containsPrefix(int[] prefix){
-        return containsPrefix(IntStream.of(prefix).iterator());
+        return containsPrefix(prefix, 0, prefix.length);
+    }
+
+    /**
+     * <p>Same as {@link #containsPrefix(int[])} but only the range [offset, offset + length) of the array is used.</p>
+     * <p>Implementations should read the code points directly from the array.</p>
+     *
+     * @param prefix The Unicode CodePoints that contain the range
+     * @param offset The index of the first code point of the range.
+     * @param length The number of code points in the range.
+     * @return <code>true</code> if this map contains an the exact mapping for the specified range.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default boolean containsPrefix(int[] prefix, int offset, int length) {
+        return containsPrefix(Arrays.stream(prefix, offset, offset + length).iterator());
     }
 
     /**
@@ -247,7 +506,21 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * @return The value, null if not found.
      */
     default V getShortestMatch(int[] input){
-        return getShortestMatch(IntStream.of(input).iterator());
+        return getShortestMatch(input, 0, input.length);
+    }
+
+    /**
+     * <p>Same as {@link #getShortestMatch(int[])} but only the range [offset, offset + length) of the array is used.</p>
+     * <p>Implementations should read the code points directly from the array.</p>
+     *
+     * @param input The Unicode CodePoints that contain the range
+     * @param offset The index of the first code point of the range.
+     * @param length The number of code points in the range.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default V getShortestMatch(int[] input, int offset, int length) {
+        return getShortestMatch(Arrays.stream(input, offset, offset + length).iterator());
     }
 
     /**
@@ -261,7 +534,21 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * @return The value, null if not found.
      */
     default V getLongestMatch(int[] input){
-        return getLongestMatch(IntStream.of(input).iterator());
+        return getLongestMatch(input, 0, input.length);
+    }
+
+    /**
+     * <p>Same as {@link #getLongestMatch(int[])} but only the range [offset, offset + length) of the array is used.</p>
+     * <p>Implementations should read the code points directly from the array.</p>
+     *
+     * @param input The Unicode CodePoints that contain the range
+     * @param offset The index of the first code point of the range.
+     * @param length The number of code points in the range.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default V getLongestMatch(int[] input, int offset, int length) {
+        return getLongestMatch(Arrays.stream(input, offset, offset + length).iterator());
     }
 
     /**
@@ -275,7 +562,21 @@ public interface PrefixMap<V extends Serializable> extends Serializable, Map<Str
      * @return The list of values, an empty List if nothing is found.
      */
     default Iterator<V> getAllMatches(int[] input){
-        return getAllMatches(IntStream.of(input).iterator());
+        return getAllMatches(input, 0, input.length);
+    }
+
+    /**
+     * <p>Same as {@link #getAllMatches(int[])} but only the range [offset, offset + length) of the array is used.</p>
+     * <p>Implementations should read the code points directly from the array.</p>
+     *
+     * @param input The Unicode CodePoints that contain the range
+     * @param offset The index of the first code point of the range.
+     * @param length The number of code points in the range.
+     * @return The list of values, an empty List if nothing is found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        return getAllMatches(Arrays.stream(input, offset, offset + length).iterator());
     }
 
     /**
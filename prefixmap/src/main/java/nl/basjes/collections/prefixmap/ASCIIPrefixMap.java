@@ -35,10 +35,47 @@ public class ASCIIPrefixMap<V extends Serializable> extends StringPrefixMap<V> {
         super(caseSensitive);
     }
 
-    PrefixTrie<V> createTrie(boolean caseSensitive) {
+    /**
+     * @param caseSensitive  Are the lookups case sensitive or not.
+     * @param pathCompressed If true a path compressed (radix) trie is used instead of a trie
+     *                       with a 128 element array in every node.
+     */
+    public ASCIIPrefixMap(boolean caseSensitive, boolean pathCompressed) {
+        super(caseSensitive, pathCompressed);
+    }
+
+    /**
+     * @param caseSensitive  Are the lookups case sensitive or not.
+     * @param pathCompressed If true a path compressed (radix) trie is used instead of a trie
+     *                       with a 128 element array in every node.
+     * @param compactKeys    If true the prefixes are only stored in the trie (see {@link StringPrefixMap}).
+     */
+    public ASCIIPrefixMap(boolean caseSensitive, boolean pathCompressed, boolean compactKeys) {
+        super(caseSensitive, pathCompressed, compactKeys);
+    }
+
+    PrefixTrie<V> createTrie(boolean caseSensitive, boolean pathCompressed) {
+        if (pathCompressed) {
+            return new RadixPrefixTrie<>(caseSensitive, true);
+        }
         return new ASCIIPrefixTrie<>(caseSensitive);
     }
 
+    @Override
+    boolean asciiOnly() {
+        return true;
+    }
+
+    /**
+     * Create a builder that collects all prefixes and builds the map in a single pass over the sorted prefixes.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param <V> The type of the value that is to be stored.
+     * @return The builder, the maps it builds are ASCIIPrefixMaps.
+     */
+    public static <V extends Serializable> Builder<V> builder(boolean caseSensitive) {
+        return new Builder<>(() -> new ASCIIPrefixMap<>(caseSensitive));
+    }
+
     /**
      * This is used to configure the provided Kryo instance if Kryo serialization is desired.
      * The expected type here is Object because otherwise the Kryo library becomes
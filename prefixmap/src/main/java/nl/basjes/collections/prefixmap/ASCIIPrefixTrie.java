@@ -16,13 +16,19 @@
 
 package nl.basjes.collections.prefixmap;
 
+import nl.basjes.collections.MatchResult;
+
 import java.io.Serializable;
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.PrimitiveIterator;
 
-class ASCIIPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+final class ASCIIPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
     private final boolean        caseSensitive;
     private final int            charIndex;
     private ASCIIPrefixTrie<V>[] childNodes;
@@ -47,148 +53,432 @@ class ASCIIPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
         return (myChar < 32 || myChar > 126);
     }
 
-    @SuppressWarnings("unchecked") // Creating the array of generics is tricky
     @Override
     public V add(PrimitiveIterator.OfInt prefix, V value) {
-        V previousValue = theValue;
-
-        if (!prefix.hasNext()) {
-            theValue = value;
-            return previousValue;
+        ASCIIPrefixTrie<V> node = this;
+        while (prefix.hasNext()) {
+            node = node.addChild(prefix.nextInt()); // This will give us the ASCII value of the char
         }
+        V previousValue = node.theValue;
+        node.theValue = value;
+        return previousValue;
+    }
 
-        int myChar = prefix.nextInt(); // This will give us the ASCII value of the char
+    /**
+     * @return The child via the provided character, it is created if it does not exist yet.
+     */
+    @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+    private ASCIIPrefixTrie<V> addChild(int myChar) {
         throwOnInvalidASCIIChar(myChar);
 
         if (childNodes == null) {
             childNodes = (ASCIIPrefixTrie<V>[]) Array.newInstance(ASCIIPrefixTrie.class, 128);
         }
 
+        ASCIIPrefixTrie<V>[] children = childNodes;
         if (caseSensitive) {
-            if (childNodes[myChar] == null) {
-                childNodes[myChar] = new ASCIIPrefixTrie<>(true, charIndex + 1);
+            if (children[myChar] == null) {
+                children[myChar] = new ASCIIPrefixTrie<>(true, charIndex + 1);
             }
-            previousValue = childNodes[myChar].add(prefix, value);
-        } else {
-            // If case INsensitive we build the tree
-            // and we link the same child to both the
-            // lower and uppercase entries in the child array.
-            int lower = Character.toLowerCase(myChar);
-            int upper = Character.toUpperCase(myChar);
+            return children[myChar];
+        }
+        // If case INsensitive we build the tree
+        // and we link the same child to both the
+        // lower and uppercase entries in the child array.
+        int lower = Character.toLowerCase(myChar);
+        int upper = Character.toUpperCase(myChar);
+
+        if (children[lower] == null) {
+            children[lower] = new ASCIIPrefixTrie<>(false, charIndex + 1);
+        }
+        children[upper] = children[lower];
+        return children[lower];
+    }
+
+    @Override
+    public SortedLoader<V> sortedLoader() {
+        return new PathLoader();
+    }
+
+    @Override
+    public PrefixTrie<V> newSubTrie(int firstChar) {
+        throwOnInvalidASCIIChar(firstChar);
+        return new ASCIIPrefixTrie<>(caseSensitive, 1);
+    }
+
+    @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+    @Override
+    public void attachSubTrie(int firstChar, PrefixTrie<V> subTrie) {
+        if (childNodes == null) {
+            childNodes = (ASCIIPrefixTrie<V>[]) Array.newInstance(ASCIIPrefixTrie.class, 128);
+        }
+        ASCIIPrefixTrie<V> child = (ASCIIPrefixTrie<V>) subTrie;
+        if (caseSensitive) {
+            childNodes[firstChar] = child;
+            return;
+        }
+        childNodes[Character.toLowerCase(firstChar)] = child;
+        childNodes[Character.toUpperCase(firstChar)] = child;
+    }
 
-            if (childNodes[lower] == null) {
-                childNodes[lower] = new ASCIIPrefixTrie<>(false, charIndex + 1);
+    /**
+     * Remembers the nodes along the previous prefix so the next prefix only has to add the part that is not shared.
+     */
+    private final class PathLoader implements SortedLoader<V> {
+        // The node after each char of the previous prefix.
+        private ASCIIPrefixTrie<V>[] path = newPathArray(16);
+        private int previousLength = 0;
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        private ASCIIPrefixTrie<V>[] newPathArray(int length) {
+            return (ASCIIPrefixTrie<V>[]) Array.newInstance(ASCIIPrefixTrie.class, length);
+        }
+
+        @Override
+        public V add(String prefix, int shared, V value) {
+            if (path.length <= prefix.length()) {
+                path = Arrays.copyOf(path, Math.max(2 * path.length, prefix.length() + 1));
+            }
+            // A sub trie (see newSubTrie) gets the full prefixes: skip the first character.
+            int start = Math.min(charIndex, prefix.length());
+            int offset = Math.max(PrefixTrie.sharedPart(prefix, shared, previousLength), start);
+            ASCIIPrefixTrie<V> node = offset == start ? ASCIIPrefixTrie.this : path[offset];
+            while (offset < prefix.length()) {
+                node = node.addChild(prefix.charAt(offset));
+                offset++;
+                path[offset] = node;
             }
-            previousValue = childNodes[lower].add(prefix, value);
-            childNodes[upper] = childNodes[lower];
+            previousLength = prefix.length();
+            V previousValue = node.theValue;
+            node.theValue = value;
+            return previousValue;
         }
-        return previousValue;
     }
 
     @Override
     public V remove(PrimitiveIterator.OfInt  prefix) {
-        if (!prefix.hasNext()) {
-            V previousValue = theValue;
-            theValue = null;
-            return previousValue;
-        }
+        ASCIIPrefixTrie<V> node = this;
+        // The deepest node on the path that must remain (it has a value or other children) and its child on the path.
+        ASCIIPrefixTrie<V> keepNode = this;
+        ASCIIPrefixTrie<V> keepChild = null;
+        while (prefix.hasNext()) {
+            if (node.childNodes == null) {
+                return null;
+            }
 
-        if (childNodes == null) {
-            return null;
-        }
+            int myChar = prefix.nextInt(); // This will give us the ASCII value of the char
+            throwOnInvalidASCIIChar(myChar);
 
-        int myChar = prefix.nextInt(); // This will give us the ASCII value of the char
-        throwOnInvalidASCIIChar(myChar);
+            if (!caseSensitive) {
+                // If case INsensitive we only follow the lower case one.
+                myChar = Character.toLowerCase(myChar);
+            }
 
-        if (!caseSensitive) {
-            // If case INsensitive we only follow the lower case one.
-            myChar = Character.toLowerCase(myChar);
+            ASCIIPrefixTrie<V> child = node.childNodes[myChar];
+            if (child == null) {
+                return null;
+            }
+            if (node == this || node.theValue != null || node.hasOtherChild(child)) {
+                keepNode = node;
+                keepChild = child;
+            }
+            node = child;
+        }
+        V previousValue = node.theValue;
+        node.theValue = null;
+        if (previousValue != null && node.childNodes == null && keepChild != null) {
+            // Nothing is left below the kept node: prune the entire branch.
+            keepNode.removeChild(keepChild);
         }
+        return previousValue;
+    }
 
-        PrefixTrie<V> child = childNodes[myChar];
-        if (child == null) {
-            return null;
+    /**
+     * @return True if this node has a child that is not the provided child.
+     */
+    private boolean hasOtherChild(ASCIIPrefixTrie<V> child) {
+        for (ASCIIPrefixTrie<V> childNode : childNodes) {
+            if (childNode != null && childNode != child) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove all links (both the lower and upper case if case INsensitive) to the provided child.
+     * If no children remain the child array is released.
+     */
+    private void removeChild(ASCIIPrefixTrie<V> child) {
+        boolean hasChildren = false;
+        for (int i = 0; i < childNodes.length; i++) {
+            if (childNodes[i] == child) {
+                childNodes[i] = null;
+            } else if (childNodes[i] != null) {
+                hasChildren = true;
+            }
+        }
+        if (!hasChildren) {
+            childNodes = null;
         }
-        return child.remove(prefix);
     }
 
     // ==============================================================
     // GET
     @Override
     public V get(PrimitiveIterator.OfInt prefix) {
-        if (!prefix.hasNext()) {
-            return theValue;
-        }
+        ASCIIPrefixTrie<V> node = this;
+        while (prefix.hasNext()) {
+            ASCIIPrefixTrie<V>[] children = node.childNodes;
+            if (children == null) {
+                return null;
+            }
 
-        if (childNodes == null) {
-            return null;
-        }
+            int myChar = prefix.nextInt(); // This will give us the ASCII value of the char
+            if (isInvalidASCIIChar(myChar)) {
+                return null; // Cannot store these, so is false.
+            }
 
-        int myChar = prefix.nextInt(); // This will give us the ASCII value of the char
-        if (isInvalidASCIIChar(myChar)) {
-            return null; // Cannot store these, so is false.
+            node = children[myChar];
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        ASCIIPrefixTrie<V> child = childNodes[myChar];
-        if (child == null) {
-            return null;
+    // ==============================================================
+    // GET SHORTEST
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        ASCIIPrefixTrie<V> node = this;
+        while (node.theValue == null &&
+               node.childNodes != null &&
+               input.hasNext()) {
+            int myChar = input.nextInt(); // This will give us the ASCII value of the char
+            if (isInvalidASCIIChar(myChar)) {
+                return null; // Cannot store these, so this is where it ends.
+            }
+
+            node = node.childNodes[myChar];
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        return child.get(prefix);
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        ASCIIPrefixTrie<V> node = this;
+        V result = theValue;
+        while (input.hasNext()) {
+            ASCIIPrefixTrie<V>[] children = node.childNodes;
+            if (children == null) {
+                return result;
+            }
+
+            int myChar = input.nextInt(); // This will give us the ASCII value of the char
+            if (myChar < 32 || myChar > 126) {
+                return result; // Cannot store these, so this is where it ends.
+            }
+
+            node = children[myChar];
+            if (node == null) {
+                return result;
+            }
+            if (node.theValue != null) {
+                result = node.theValue;
+            }
+        }
+        return result;
     }
 
     // ==============================================================
-    // GET SHORTEST
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+    // A surrogate (i.e. part of a code point above 126) is never valid
+    // so there is no need to combine surrogate pairs into a code point.
+
     @Override
-    public V getShortestMatch(PrimitiveIterator.OfInt input) {
-        if (theValue != null ||
-            !input.hasNext() ||
-            childNodes == null) {
-            return theValue;
+    public V get(CharSequence input, int start, int end) {
+        ASCIIPrefixTrie<V> node = this;
+        for (int index = start; index < end; index++) {
+            ASCIIPrefixTrie<V>[] children = node.childNodes;
+            if (children == null) {
+                return null;
+            }
+            char myChar = input.charAt(index);
+            if (isInvalidASCIIChar(myChar)) {
+                return null; // Cannot store these, so is false.
+            }
+            node = children[myChar];
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        int myChar = input.nextInt(); // This will give us the ASCII value of the char
-        if (isInvalidASCIIChar(myChar)) {
-            return null; // Cannot store these, so this is where it ends.
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        ASCIIPrefixTrie<V> node = this;
+        for (int index = start; index < end && node.theValue == null && node.childNodes != null; index++) {
+            char myChar = input.charAt(index);
+            if (isInvalidASCIIChar(myChar)) {
+                return null; // Cannot store these, so this is where it ends.
+            }
+            node = node.childNodes[myChar];
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        ASCIIPrefixTrie<V> child = childNodes[myChar];
-        if (child == null) {
-            return null;
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        ASCIIPrefixTrie<V> node = this;
+        V result = theValue;
+        for (int index = start; index < end; index++) {
+            ASCIIPrefixTrie<V>[] children = node.childNodes;
+            if (children == null) {
+                return result;
+            }
+            char myChar = input.charAt(index);
+            if (myChar < 32 || myChar > 126) {
+                return result; // Cannot store these, so this is where it ends.
+            }
+            node = children[myChar];
+            if (node == null) {
+                return result;
+            }
+            if (node.theValue != null) {
+                result = node.theValue;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        ASCIIPrefixTrie<V> node = this;
+        int index = start;
+        while (index < end && node.theValue == null && node.childNodes != null) {
+            char myChar = input.charAt(index++);
+            if (isInvalidASCIIChar(myChar)) {
+                return setMatch(result, null, 0); // Cannot store these, so this is where it ends.
+            }
+            node = node.childNodes[myChar];
+            if (node == null) {
+                return setMatch(result, null, 0);
+            }
         }
+        return setMatch(result, node.theValue, index - start);
+    }
 
-        return child.getShortestMatch(input);
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        ASCIIPrefixTrie<V> node = this;
+        V value = theValue;
+        int length = 0;
+        for (int index = start; index < end; index++) {
+            ASCIIPrefixTrie<V>[] children = node.childNodes;
+            if (children == null) {
+                break;
+            }
+            char myChar = input.charAt(index);
+            if (myChar < 32 || myChar > 126) {
+                break; // Cannot store these, so this is where it ends.
+            }
+            node = children[myChar];
+            if (node == null) {
+                break;
+            }
+            if (node.theValue != null) {
+                value = node.theValue;
+                length = index + 1 - start;
+            }
+        }
+        return setMatch(result, value, length);
     }
 
     // ==============================================================
-    // GET LONGEST
+    // LOOKUPS DIRECTLY ON AN ARRAY OF CODE POINTS
 
     @Override
-    public V getLongestMatch(PrimitiveIterator.OfInt input) {
-        if (!input.hasNext() ||
-            childNodes == null) {
-            return theValue;
+    public V get(int[] input, int offset, int length) {
+        ASCIIPrefixTrie<V> node = this;
+        int end = offset + length;
+        for (int index = offset; index < end; index++) {
+            ASCIIPrefixTrie<V>[] children = node.childNodes;
+            if (children == null) {
+                return null;
+            }
+            int myChar = input[index];
+            if (isInvalidASCIIChar(myChar)) {
+                return null; // Cannot store these, so is false.
+            }
+            node = children[myChar];
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        int myChar = input.nextInt(); // This will give us the ASCII value of the char
-        if (myChar < 32 || myChar > 126) {
-            return theValue; // Cannot store these, so this is where it ends.
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        ASCIIPrefixTrie<V> node = this;
+        int end = offset + length;
+        for (int index = offset; index < end && node.theValue == null && node.childNodes != null; index++) {
+            int myChar = input[index];
+            if (isInvalidASCIIChar(myChar)) {
+                return null; // Cannot store these, so this is where it ends.
+            }
+            node = node.childNodes[myChar];
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        ASCIIPrefixTrie<V> child = childNodes[myChar];
-        if (child == null) {
-            return theValue;
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        ASCIIPrefixTrie<V> node = this;
+        V result = theValue;
+        int end = offset + length;
+        for (int index = offset; index < end; index++) {
+            ASCIIPrefixTrie<V>[] children = node.childNodes;
+            if (children == null) {
+                return result;
+            }
+            int myChar = input[index];
+            if (myChar < 32 || myChar > 126) {
+                return result; // Cannot store these, so this is where it ends.
+            }
+            node = children[myChar];
+            if (node == null) {
+                return result;
+            }
+            if (node.theValue != null) {
+                result = node.theValue;
+            }
         }
-
-        V returnValue = child.getLongestMatch(input);
-        return (returnValue == null) ? theValue : returnValue;
+        return result;
     }
 
     // ==============================================================
     // GET ALL VIA ITERATOR
 
-    public static class ASCIITrieIterator<V extends Serializable> implements Iterator<V> {
+    public static class ASCIITrieIterator<V extends Serializable> implements MatchIterator<V> {
         private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
         private final PrimitiveIterator.OfInt input;
         private ASCIIPrefixTrie<V> node;
 
@@ -209,48 +499,143 @@ class ASCIIPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
                 throw new NoSuchElementException("Trying next() when hasNext() is false.");
             }
             V result = next;
+            matchedLength = nextLength;
             next = getNext();
             return result;
         }
 
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
         private V getNext() {
-            if (node == null) {
-                return null;
+            // Walk down until a node with a value is found (the node is then left at its child).
+            while (node != null) {
+                V theValue = node.theValue;
+                nextLength = length;
+
+                // Are we at the last possible one for the given input?
+                if (!input.hasNext() ||
+                    node.childNodes == null) {
+                    node = null;
+                    return theValue;
+                }
+
+                // Find the next
+                int myChar = input.nextInt(); // This will give us the ASCII value of the char
+                length += Character.charCount(myChar);
+                if (myChar < 32 || myChar > 126) {
+                    node = null; // Cannot store these, so this is where it ends.
+                    return theValue;
+                }
+
+                node = node.childNodes[myChar]; // If there is no child this is where it ends.
+                if (theValue != null) {
+                    return theValue;
+                }
             }
+            return null;
+        }
+    }
 
-            V theValue = node.theValue;
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new ASCIITrieIterator<>(input, this);
+    }
 
-            // Are we at the last possible one for the given input?
-            if (!input.hasNext() ||
-                node.childNodes == null) {
-                node = null;
-                return theValue;
-            }
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new ASCIITrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
 
-            // Find the next
-            int myChar = input.nextInt(); // This will give us the ASCII value of the char
-            if (myChar < 32 || myChar > 126) {
-                node = null; // Cannot store these, so this is where it ends.
-                return theValue;
+    // ==============================================================
+    // NODE COUNT
+
+    /**
+     * @return The number of nodes in this trie (including this node).
+     */
+    int nodeCount() {
+        int count = 1;
+        if (childNodes != null) {
+            for (int myChar = 32; myChar <= 126; myChar++) {
+                ASCIIPrefixTrie<V> child = childNodes[myChar];
+                if (child != null && (caseSensitive || myChar < 'A' || myChar > 'Z')) {
+                    count += child.nodeCount();
+                }
             }
+        }
+        return count;
+    }
 
-            ASCIIPrefixTrie<V> child = node.childNodes[myChar];
-            if (child == null) {
-                node = null; // No more children, so this is where it ends.
-                return theValue;
-            }
+    // ==============================================================
+    // WALK ALL PREFIXES
 
-            node = child;
-            if (theValue == null) {
-                return getNext();
-            }
-            return theValue;
-        }
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
     }
 
     @Override
-    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
-        return new ASCIITrieIterator<>(input, this);
+    public PrefixWalker<V> prefixIterator() {
+        return new ASCIITrieWalker<>(this);
+    }
+
+    /**
+     * Walks depth first over the trie with an explicit stack of the nodes on the path to the current node.
+     */
+    private static final class ASCIITrieWalker<V extends Serializable> extends PrefixWalker<V> {
+        private ASCIIPrefixTrie<V>[] nodes   = newNodeArray(16);
+        private int[]                next    = new int[16]; // The character of the next child to visit.
+        private int                  depth   = 0;
+        private boolean              started = false;
+
+        ASCIITrieWalker(ASCIIPrefixTrie<V> root) {
+            nodes[0] = root;
+            next[0] = 32;
+        }
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        private static <V extends Serializable> ASCIIPrefixTrie<V>[] newNodeArray(int length) {
+            return (ASCIIPrefixTrie<V>[]) Array.newInstance(ASCIIPrefixTrie.class, length);
+        }
+
+        @Override
+        V findNext() {
+            if (!started) {
+                started = true;
+                if (nodes[0].theValue != null) {
+                    return nodes[0].theValue;
+                }
+            }
+            while (depth >= 0) {
+                ASCIIPrefixTrie<V> node = nodes[depth];
+                int myChar = next[depth]++;
+                if (node.childNodes == null || myChar > 126) {
+                    nodes[depth] = null;
+                    depth--;
+                    continue;
+                }
+                ASCIIPrefixTrie<V> child = node.childNodes[myChar];
+                if (child == null ||
+                    (!node.caseSensitive && myChar >= 'A' && myChar <= 'Z')) {
+                    continue; // Nothing here or the upper case link to a child that is also present as lower case.
+                }
+                setLabel(depth, myChar);
+                depth++;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next  = Arrays.copyOf(next,  depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 32;
+                if (child.theValue != null) {
+                    length = depth;
+                    return child.theValue;
+                }
+            }
+            return null;
+        }
     }
 
     // ==============================================================
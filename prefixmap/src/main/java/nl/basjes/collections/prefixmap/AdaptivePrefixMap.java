@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+
+/**
+ * The AdaptivePrefixMap is an implementation of PrefixMap for prefixes that only contain characters
+ * in the human readable range of the ASCII encoding (just like the ASCIIPrefixMap).
+ * The size of each node in the trie adapts to the number of children of that node so it uses only
+ * a fraction of the memory of the ASCIIPrefixMap (which has a 128 element array in every node)
+ * while the lookups remain about as fast.
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+@DefaultSerializer(AdaptivePrefixMap.KryoSerializer.class)
+public class AdaptivePrefixMap<V extends Serializable> extends ASCIIPrefixMap<V> {
+
+    /**
+     * @param caseSensitive  Are the lookups case sensitive or not.
+     */
+    public AdaptivePrefixMap(boolean caseSensitive) {
+        super(caseSensitive);
+    }
+
+    // Used by the Kryo deserialization, there is no path compressed variant.
+    AdaptivePrefixMap(boolean caseSensitive, boolean pathCompressed) {
+        super(caseSensitive, pathCompressed);
+    }
+
+    // Used by the deserialization, there is no path compressed variant.
+    AdaptivePrefixMap(boolean caseSensitive, boolean pathCompressed, boolean compactKeys) {
+        super(caseSensitive, pathCompressed, compactKeys);
+    }
+
+    @Override
+    PrefixTrie<V> createTrie(boolean caseSensitive, boolean pathCompressed) {
+        return new AdaptivePrefixTrie<>(caseSensitive);
+    }
+
+    /**
+     * Create a builder that collects all prefixes and builds the map in a single pass over the sorted prefixes.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param <V> The type of the value that is to be stored.
+     * @return The builder, the maps it builds are AdaptivePrefixMaps.
+     */
+    public static <V extends Serializable> Builder<V> builder(boolean caseSensitive) {
+        return new Builder<>(() -> new AdaptivePrefixMap<>(caseSensitive));
+    }
+
+    /**
+     * This is used to configure the provided Kryo instance if Kryo serialization is desired.
+     * The expected type here is Object because otherwise the Kryo library becomes
+     * a mandatory dependency on any project that uses Yauaa.
+     *
+     * @param kryoInstance The instance of com.esotericsoftware.kryo.Kryo that needs to be configured.
+     */
+    public static void configureKryo(Object kryoInstance) {
+        Kryo kryo = (Kryo) kryoInstance;
+        kryo.register(AdaptivePrefixMap.class);
+        kryo.register(AdaptivePrefixTrie.class);
+        kryo.register(AdaptivePrefixTrie.Node.class);
+        kryo.register(Array.newInstance(AdaptivePrefixTrie.Node.class, 0).getClass());
+        ASCIIPrefixMap.configureKryo(kryo);
+    }
+
+}
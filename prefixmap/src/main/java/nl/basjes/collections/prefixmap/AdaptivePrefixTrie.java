@@ -0,0 +1,545 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static nl.basjes.collections.prefixmap.ASCIIPrefixTrie.isInvalidASCIIChar;
+import static nl.basjes.collections.prefixmap.ASCIIPrefixTrie.throwOnInvalidASCIIChar;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>A trie for readable ASCII where the layout of a node adapts to the number of children
+ * (as in the Adaptive Radix Tree):</p>
+ * <ul>
+ * <li>Up to 4 or 16 children: a sorted array of the characters and an array of the children.</li>
+ * <li>Up to 48 children: a 128 byte index (character to position) and an array of 48 children.</li>
+ * <li>More children: an array of 128 children that is indexed directly by the character.</li>
+ * </ul>
+ * <p>So the (memory expensive) direct array is only used for the few nodes with a really large fan out
+ * (usually close to the root) and the many deep nodes with only one or two children remain small.</p>
+ * <p>If case INsensitive all characters are stored in lower case and the input is lower cased while matching.</p>
+ */
+final class AdaptivePrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    private static final int SMALL_SIZE  = 4;
+    private static final int MEDIUM_SIZE = 16;
+    private static final int LARGE_SIZE  = 48;
+    private static final int DIRECT_SIZE = 128;
+
+    private final boolean caseSensitive;
+    private Node<V>       root;
+
+    static final class Node<V extends Serializable> implements Serializable {
+        private byte[]    keys;     // Node4 and Node16: The sorted characters of the children.
+        private byte[]    index;    // Node48: For each character the position (+1) in children, 0 means no child.
+        private Node<V>[] children; // Node128: Indexed directly by the character.
+        private int       childCount;
+        private V         value;
+
+        Node<V> getChild(int myChar) {
+            if (keys != null) {
+                for (int i = 0; i < childCount; i++) {
+                    int key = keys[i];
+                    if (key == myChar) {
+                        return children[i];
+                    }
+                    if (key > myChar) {
+                        return null; // The keys are sorted
+                    }
+                }
+                return null;
+            }
+            if (index != null) {
+                int position = index[myChar];
+                return position == 0 ? null : children[position - 1];
+            }
+            if (children != null) {
+                return children[myChar];
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        private static <V extends Serializable> Node<V>[] newChildArray(int length) {
+            return (Node<V>[]) Array.newInstance(Node.class, length);
+        }
+
+        /**
+         * Adds a new child (the character must not yet have a child).
+         */
+        void addChild(int myChar, Node<V> child) {
+            if (children == null) {
+                keys = new byte[SMALL_SIZE];
+                children = newChildArray(SMALL_SIZE);
+            }
+
+            if (keys != null) {
+                if (childCount == keys.length) {
+                    if (childCount == SMALL_SIZE) {
+                        byte[] newKeys = new byte[MEDIUM_SIZE];
+                        System.arraycopy(keys, 0, newKeys, 0, childCount);
+                        Node<V>[] newChildren = newChildArray(MEDIUM_SIZE);
+                        System.arraycopy(children, 0, newChildren, 0, childCount);
+                        keys = newKeys;
+                        children = newChildren;
+                    } else {
+                        growToLarge();
+                        addChild(myChar, child);
+                        return;
+                    }
+                }
+                int insertAt = 0;
+                while (insertAt < childCount && keys[insertAt] < myChar) {
+                    insertAt++;
+                }
+                System.arraycopy(keys,     insertAt, keys,     insertAt + 1, childCount - insertAt);
+                System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+                keys[insertAt] = (byte) myChar;
+                children[insertAt] = child;
+                childCount++;
+                return;
+            }
+
+            if (index != null) {
+                if (childCount == LARGE_SIZE) {
+                    growToDirect();
+                    addChild(myChar, child);
+                    return;
+                }
+                children[childCount] = child;
+                childCount++;
+                index[myChar] = (byte) childCount;
+                return;
+            }
+
+            children[myChar] = child;
+            childCount++;
+        }
+
+        private void growToLarge() {
+            byte[] newIndex = new byte[DIRECT_SIZE];
+            Node<V>[] newChildren = newChildArray(LARGE_SIZE);
+            for (int i = 0; i < childCount; i++) {
+                newChildren[i] = children[i];
+                newIndex[keys[i]] = (byte) (i + 1);
+            }
+            keys = null;
+            index = newIndex;
+            children = newChildren;
+        }
+
+        private void growToDirect() {
+            Node<V>[] newChildren = newChildArray(DIRECT_SIZE);
+            for (int myChar = 0; myChar < DIRECT_SIZE; myChar++) {
+                if (index[myChar] != 0) {
+                    newChildren[myChar] = children[index[myChar] - 1];
+                }
+            }
+            index = null;
+            children = newChildren;
+        }
+
+        /**
+         * @return The maximum number of children for the current layout of this node (0 means no children).
+         */
+        int capacity() {
+            if (keys != null) {
+                return keys.length;
+            }
+            if (index != null) {
+                return LARGE_SIZE;
+            }
+            return children == null ? 0 : DIRECT_SIZE;
+        }
+    }
+
+    AdaptivePrefixTrie(boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        this.root = new Node<>();
+    }
+
+    /**
+     * @return The character as it is stored in the nodes, -1 if it can never be stored.
+     */
+    private int normalize(int myChar) {
+        if (isInvalidASCIIChar(myChar)) {
+            return -1;
+        }
+        if (!caseSensitive && myChar >= 'A' && myChar <= 'Z') {
+            return myChar + ('a' - 'A');
+        }
+        return myChar;
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            int myChar = prefix.nextInt();
+            throwOnInvalidASCIIChar(myChar);
+            myChar = normalize(myChar);
+            Node<V> child = node.getChild(myChar);
+            if (child == null) {
+                child = new Node<>();
+                node.addChild(myChar, child);
+            }
+            node = child;
+        }
+        V previousValue = node.value;
+        node.value = value;
+        return previousValue;
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            int myChar = prefix.nextInt();
+            throwOnInvalidASCIIChar(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return null;
+            }
+        }
+        V previousValue = node.value;
+        node.value = null;
+        return previousValue;
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            int myChar = normalize(prefix.nextInt());
+            if (myChar < 0) {
+                return null;
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        while (node.value == null && input.hasNext()) {
+            int myChar = normalize(input.nextInt());
+            if (myChar < 0) {
+                return null;
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        V result = node.value;
+        while (input.hasNext()) {
+            int myChar = normalize(input.nextInt());
+            if (myChar < 0) {
+                return result;
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                return result;
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+    // A surrogate (i.e. part of a code point above 126) is never valid
+    // so there is no need to combine surrogate pairs into a code point.
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        for (int index = start; index < end; index++) {
+            int myChar = normalize(input.charAt(index));
+            if (myChar < 0) {
+                return null;
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        for (int index = start; index < end && node.value == null; index++) {
+            int myChar = normalize(input.charAt(index));
+            if (myChar < 0) {
+                return null;
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        V result = node.value;
+        for (int index = start; index < end; index++) {
+            int myChar = normalize(input.charAt(index));
+            if (myChar < 0) {
+                return result;
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                return result;
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        int index = start;
+        while (index < end && node.value == null) {
+            int myChar = normalize(input.charAt(index++));
+            if (myChar < 0) {
+                return setMatch(result, null, 0);
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                return setMatch(result, null, 0);
+            }
+        }
+        return setMatch(result, node.value, index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        V value = node.value;
+        int length = 0;
+        for (int index = start; index < end; index++) {
+            int myChar = normalize(input.charAt(index));
+            if (myChar < 0) {
+                break;
+            }
+            node = node.getChild(myChar);
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                value = node.value;
+                length = index + 1 - start;
+            }
+        }
+        return setMatch(result, value, length);
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class AdaptiveTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final AdaptivePrefixTrie<V> trie;
+        private Node<V> node;
+
+        AdaptiveTrieIterator(PrimitiveIterator.OfInt input, AdaptivePrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.node = trie.root;
+            this.next = node.value == null ? getNext() : node.value;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (node != null && input.hasNext()) {
+                int inputChar = input.nextInt();
+                length += Character.charCount(inputChar);
+                int myChar = trie.normalize(inputChar);
+                node = myChar < 0 ? null : node.getChild(myChar);
+                if (node == null) {
+                    return null;
+                }
+                if (node.value != null) {
+                    nextLength = length;
+                    return node.value;
+                }
+            }
+            node = null;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new AdaptiveTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new AdaptiveTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixWalker<V> prefixIterator() {
+        return new AdaptiveTrieWalker<>(root);
+    }
+
+    /**
+     * Walks depth first over the trie with an explicit stack of the nodes on the path to the current node.
+     */
+    private static final class AdaptiveTrieWalker<V extends Serializable> extends PrefixWalker<V> {
+        private Node<V>[] nodes   = Node.newChildArray(16);
+        private int[]     next    = new int[16]; // The character of the next child to visit.
+        private int       depth   = 0;
+        private boolean   started = false;
+
+        AdaptiveTrieWalker(Node<V> root) {
+            nodes[0] = root;
+            next[0] = 32;
+        }
+
+        @Override
+        V findNext() {
+            if (!started) {
+                started = true;
+                if (nodes[0].value != null) {
+                    return nodes[0].value;
+                }
+            }
+            while (depth >= 0) {
+                Node<V> node = nodes[depth];
+                int myChar = next[depth]++;
+                if (node.children == null || myChar > 126) {
+                    nodes[depth] = null;
+                    depth--;
+                    continue;
+                }
+                // Walking all possible characters in order also gives the sorted order for the small nodes.
+                Node<V> child = node.getChild(myChar);
+                if (child == null) {
+                    continue;
+                }
+                setLabel(depth, myChar);
+                depth++;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next  = Arrays.copyOf(next,  depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 32;
+                if (child.value != null) {
+                    length = depth;
+                    return child.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    // ==============================================================
+
+    @Override
+    public void clear() {
+        root = new Node<>();
+    }
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+
+    /**
+     * @return The node capacity (see {@link Node#capacity()}) of the node reached via the provided prefix.
+     */
+    int nodeCapacity(String prefix) {
+        Node<V> node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.getChild(normalize(prefix.charAt(i)));
+        }
+        return node == null ? -1 : node.capacity();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Walks a case INsensitive trie that links the lower and the upper case variant of every character that is added
+ * to the same child (like the {@link StringPrefixTrie} and the {@link Utf8PrefixTrie}) and visits the prefixes that
+ * rebuild exactly the same links (see {@link PrefixTrie#forEachAddedPrefix(PrefixTrie.PrefixVisitor)}).</p>
+ * <p>The lower case prefixes are not enough for that: after adding "İ" only "i" and "İ" are linked (not "I") and a few
+ * upper case characters belong to more than one lower case character (like "Σ" to both "σ" and "ς") so the child they
+ * lead to depends on the order in which the prefixes were added.</p>
+ * <p>So the path to a child uses a character of which the lower and upper case are linked to that child, and every upper
+ * case link that this does not rebuild is visited once more (with a null value) either before (if the first link stays)
+ * or after (if the last link wins) the children of the node.
+ * The nodes on the path to the current node are kept on an explicit stack.</p>
+ * @param <N> The type of the nodes of the trie.
+ * @param <V> The type of the value that is stored.
+ */
+abstract class CaseLinkWalker<N, V> {
+    private final boolean lastLinkWins;
+
+    /**
+     * @param lastLinkWins True if linking a character that is already linked replaces the link, false if the first link stays.
+     */
+    CaseLinkWalker(boolean lastLinkWins) {
+        this.lastLinkWins = lastLinkWins;
+    }
+
+    /**
+     * @return The value of the node, null if the node has no value.
+     */
+    abstract V valueOf(N node);
+
+    /**
+     * Put all links from the node to its children in ascending code point order in the provided links.
+     */
+    abstract void links(N node, Links<N> links);
+
+    /**
+     * The code points and children of the links of a node.
+     * @param <N> The type of the nodes of the trie.
+     */
+    static final class Links<N> {
+        private int[]    chars    = new int[4];
+        private Object[] children = new Object[4];
+        private int      count    = 0;
+
+        void add(int myChar, N child) {
+            if (count == chars.length) {
+                chars    = Arrays.copyOf(chars,    count * 2);
+                children = Arrays.copyOf(children, count * 2);
+            }
+            chars[count] = myChar;
+            children[count] = child;
+            count++;
+        }
+    }
+
+    /**
+     * The state of a node on the path: its lower case links and the character to add for each of them.
+     */
+    private static final class Level<N> {
+        private final Links<N> links     = new Links<>();
+        private int[]          lower     = new int[4];    // The lower case links (ascending).
+        private Object[]       children  = new Object[4]; // The child of each lower case link.
+        private int[]          add       = new int[4];    // The character that must be added to get to the child.
+        private int            count;
+        private int            next;
+        private int[]          fixes     = new int[4];    // The characters that must be added once more for their upper case link.
+        private int            fixCount;
+    }
+
+    /**
+     * Visit the prefixes that rebuild the trie below the root.
+     */
+    final void walk(N root, PrefixTrie.PrefixVisitor<V> visitor) {
+        int[] prefix = new int[16];
+        List<Level<N>> levels = new ArrayList<>();
+        V rootValue = valueOf(root);
+        if (rootValue != null) {
+            visitor.visit(prefix, 0, rootValue);
+        }
+        enter(levels, 0, root);
+        if (!lastLinkWins) {
+            prefix = visitFixes(levels.get(0), prefix, 0, visitor);
+        }
+        int depth = 0;
+        while (depth >= 0) {
+            Level<N> level = levels.get(depth);
+            if (level.next == level.count) {
+                if (lastLinkWins) {
+                    prefix = visitFixes(level, prefix, depth, visitor);
+                }
+                Arrays.fill(level.children, 0, level.count, null);
+                depth--;
+                continue;
+            }
+            int index = level.next++;
+            if (depth == prefix.length) {
+                prefix = Arrays.copyOf(prefix, depth * 2);
+            }
+            prefix[depth] = level.add[index];
+            @SuppressWarnings("unchecked")
+            N child = (N) level.children[index];
+            depth++;
+            V value = valueOf(child);
+            if (value != null) {
+                visitor.visit(prefix, depth, value);
+            }
+            enter(levels, depth, child);
+            if (!lastLinkWins) {
+                prefix = visitFixes(levels.get(depth), prefix, depth, visitor);
+            }
+        }
+    }
+
+    private int[] visitFixes(Level<N> level, int[] prefix, int length, PrefixTrie.PrefixVisitor<V> visitor) {
+        int[] buffer = prefix;
+        if (level.fixCount > 0 && length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, length * 2);
+        }
+        for (int i = 0; i < level.fixCount; i++) {
+            buffer[length] = level.fixes[i];
+            visitor.visit(buffer, length + 1, null);
+        }
+        return buffer;
+    }
+
+    private void enter(List<Level<N>> levels, int depth, N node) {
+        if (depth == levels.size()) {
+            levels.add(new Level<>());
+        }
+        Level<N> level = levels.get(depth);
+        Links<N> links = level.links;
+        links.count = 0;
+        links(node, links);
+
+        level.count = 0;
+        level.next = 0;
+        level.fixCount = 0;
+        if (level.lower.length < links.count) {
+            level.lower    = new int[links.count];
+            level.children = new Object[links.count];
+            level.add      = new int[links.count];
+        }
+        for (int i = 0; i < links.count; i++) {
+            int myChar = links.chars[i];
+            if (Character.toLowerCase(myChar) == myChar) {
+                level.lower[level.count] = myChar;
+                level.children[level.count] = links.children[i];
+                level.add[level.count] = myChar;
+                level.count++;
+            }
+        }
+        if (level.count < links.count) {
+            fixUpperCaseLinks(level);
+        }
+        Arrays.fill(links.children, 0, links.count, null);
+    }
+
+    private void fixUpperCaseLinks(Level<N> level) {
+        Links<N> links = level.links;
+
+        // The upper case links: the first one of a child determines the character that is added to get there.
+        boolean[] hasUpper = new boolean[level.count];
+        int[] owners = new int[links.count];
+        for (int i = 0; i < links.count; i++) {
+            int myChar = links.chars[i];
+            owners[i] = -1;
+            if (Character.toLowerCase(myChar) != myChar) {
+                int owner = lowerIndex(level, myChar, links.children[i]);
+                owners[i] = owner;
+                if (owner >= 0 && !hasUpper[owner]) {
+                    hasUpper[owner] = true;
+                    level.add[owner] = linking(level.lower[owner], myChar);
+                }
+            }
+        }
+
+        // Every upper case link that adding the children in order does not end up at the right child must be fixed.
+        for (int i = 0; i < links.count; i++) {
+            int owner = owners[i];
+            if (owner < 0) {
+                continue;
+            }
+            int upper = links.chars[i];
+            if (linkedBy(level, upper) != owner) {
+                if (level.fixCount == level.fixes.length) {
+                    level.fixes = Arrays.copyOf(level.fixes, level.fixCount * 2);
+                }
+                level.fixes[level.fixCount++] = linking(level.lower[owner], upper);
+            }
+        }
+    }
+
+    /**
+     * @return The index of the lower case link to the child, -1 if there is none.
+     */
+    private static int lowerIndex(Level<?> level, int upper, Object child) {
+        int index = Arrays.binarySearch(level.lower, 0, level.count, Character.toLowerCase(upper));
+        if (index >= 0 && level.children[index] == child) {
+            return index;
+        }
+        // The upper case variant of a different lower case character (like "Σ" of "ς").
+        for (int i = 0; i < level.count; i++) {
+            if (level.children[i] == child) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the child that the upper case character is linked to after adding all children, -1 if none.
+     */
+    private int linkedBy(Level<?> level, int upper) {
+        int result = -1;
+        for (int i = 0; i < level.count; i++) {
+            if (Character.toUpperCase(level.add[i]) == upper) {
+                result = i;
+                if (!lastLinkWins) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The character that links exactly the provided lower and upper case.
+     */
+    static int linking(int lower, int upper) {
+        if (Character.toUpperCase(lower) == upper) {
+            return lower;
+        }
+        // Else the upper case has the lower case as its lower case (like "İ" which is linked to "i" and not "I").
+        return upper;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.prefixmap;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+/**
+ * A lightweight iterator over the Unicode code points of a CharSequence.
+ * This gives the same code points as <code>input.codePoints().iterator()</code> (so an unpaired
+ * surrogate is returned as is) but without the stream pipeline that is behind that.
+ */
+final class CodePointIterator implements PrimitiveIterator.OfInt {
+    private final CharSequence input;
+    private final int          end;
+    private int                index;
+
+    CodePointIterator(CharSequence input) {
+        this(input, 0, input.length());
+    }
+
+    /**
+     * Iterate over the code points in the region [start, end) of the input.
+     * A surrogate pair that is split by the end of the region is NOT combined.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    CodePointIterator(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        this.input = input;
+        this.end = end;
+        this.index = start;
+    }
+
+    /**
+     * Verify that the region [start, end) is within the input.
+     * @param input The characters.
+     * @param start The index of the first character of the region.
+     * @param end   The index of the character after the last character of the region.
+     * @throws NullPointerException if the input is null.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    static void checkRegion(CharSequence input, int start, int end) {
+        Objects.requireNonNull(input, "The input may not be null");
+        if (start < 0 || start > end || end > input.length()) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + input.length());
+        }
+    }
+
+    /**
+     * Read the code point at the index: a surrogate pair is combined into a single code point.
+     * The caller advances the index with <code>Character.charCount(codePoint)</code>.
+     * @param input The characters.
+     * @param index The index of the (first) character of the code point.
+     * @param end   The index of the character after the last character that may be read.
+     * @return The code point.
+     */
+    static int codePointAt(CharSequence input, int index, int end) {
+        char myChar = input.charAt(index);
+        if (Character.isHighSurrogate(myChar) && index + 1 < end) {
+            char low = input.charAt(index + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(myChar, low);
+            }
+        }
+        return myChar;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < end;
+    }
+
+    @Override
+    public int nextInt() {
+        if (index >= end) {
+            throw new NoSuchElementException("Trying nextInt() when hasNext() is false.");
+        }
+        int codePoint = codePointAt(input, index, end);
+        index += Character.charCount(codePoint);
+        return codePoint;
+    }
+}
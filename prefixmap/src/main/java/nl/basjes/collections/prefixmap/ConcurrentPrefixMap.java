@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.collections.MatchResult;
+import nl.basjes.collections.PrefixMap;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.checkRegion;
+import static nl.basjes.collections.prefixmap.IntArrayIterator.checkRange;
+
+/**
+ * <p>The ConcurrentPrefixMap is a PrefixMap that can safely be used (both lookups and changes) by many threads
+ * at the same time without any external locking.</p>
+ * <ul>
+ * <li>The lookups never block and (except for the iterators) never allocate.</li>
+ * <li>A put or remove never blocks a lookup; concurrent puts and removes are all applied (none are lost).</li>
+ * <li>The iterators of getAllMatches and the keySet, entrySet and values are weakly consistent: they may or may not
+ * reflect changes that are made while they are in use and they never throw a ConcurrentModificationException.</li>
+ * </ul>
+ * <p>A remove does not release the nodes of the trie, so for a map with many changes over time
+ * it is better to periodically build a new map.</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+@DefaultSerializer(ConcurrentPrefixMap.KryoSerializer.class)
+public class ConcurrentPrefixMap<V extends Serializable> implements PrefixMap<V>, Serializable {
+    private final ConcurrentPrefixTrie<V> prefixTrie;
+
+    /**
+     * @param caseSensitive Are the lookups case sensitive or not.
+     */
+    public ConcurrentPrefixMap(boolean caseSensitive) {
+        prefixTrie = new ConcurrentPrefixTrie<>(caseSensitive);
+    }
+
+    /**
+     * @return The trie that holds all the prefixes.
+     */
+    PrefixTrie<V> prefixTrie() {
+        return prefixTrie;
+    }
+
+    /**
+     * @return Are the lookups case sensitive or not.
+     */
+    public boolean caseSensitive() {
+        return prefixTrie.caseSensitive();
+    }
+
+    @Override
+    public int size() {
+        return prefixTrie.size();
+    }
+
+    @Override
+    public V put(String prefix, V value) {
+        Objects.requireNonNull(prefix, "The prefix may not be null");
+        Objects.requireNonNull(value, "The value may not be null");
+        return prefixTrie.add(prefix, value);
+    }
+
+    @Override
+    public V remove(String prefix) {
+        if (prefix == null) {
+            throw new NullPointerException("The prefix may not be null");
+        }
+        return prefixTrie.remove(prefix);
+    }
+
+    @Override
+    public void clear() {
+        prefixTrie.clear();
+    }
+
+    @Override
+    public V get(String prefix) {
+        return prefixTrie.get((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(String prefix) {
+        return prefixTrie.containsPrefix((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix) {
+        return prefixTrie.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix, int start, int end) {
+        checkRegion(prefix, start, end);
+        return prefixTrie.containsPrefix(prefix, start, end);
+    }
+
+    @Override
+    public V getShortestMatch(String input) {
+        return prefixTrie.getShortestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input) {
+        return prefixTrie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end);
+    }
+
+    @Override
+    public V getLongestMatch(String input) {
+        return prefixTrie.getLongestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input) {
+        return prefixTrie.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(String input) {
+        return prefixTrie.getAllMatches((CharSequence) input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input) {
+        return prefixTrie.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatches(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix) {
+        return prefixTrie.containsPrefix(prefix, 0, prefix.length);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix, int offset, int length) {
+        checkRange(prefix, offset, length);
+        return prefixTrie.containsPrefix(prefix, offset, length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input) {
+        return prefixTrie.getShortestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getShortestMatch(input, offset, length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input) {
+        return prefixTrie.getLongestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getLongestMatch(input, offset, length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input) {
+        return prefixTrie.getAllMatches(input, 0, input.length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getAllMatches(input, offset, length);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getShortestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end, result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getLongestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end, result);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input) {
+        return prefixTrie.getAllMatchResults(input, 0, input.length());
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatchResults(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(PrimitiveIterator.OfInt prefix) {
+        return prefixTrie.containsPrefix(prefix);
+    }
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getLongestMatch(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getAllMatches(input);
+    }
+
+    /**
+     * @return All prefixes (in lower case if case INsensitive) with their values as they are while walking the trie.
+     */
+    private List<Map.Entry<String, V>> entries() {
+        List<Map.Entry<String, V>> entries = new ArrayList<>();
+        prefixTrie.forEachPrefix((prefix, length, value) ->
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(new String(prefix, 0, length), value)));
+        return entries;
+    }
+
+    /**
+     * The entries are NOT retained in this map, they are read from the trie while iterating.
+     * The iterators are weakly consistent: changes made while iterating may or may not be returned.
+     * The prefixes are in lower case if case INsensitive and in ascending code point order.
+     * @return All prefixes with their values as a read only set.
+     */
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                return prefixTrie.prefixIterator();
+            }
+
+            @Override
+            public int size() {
+                return prefixTrie.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Map.Entry<String, V>> entries = prefixTrie.prefixIterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return entries.next().getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return prefixTrie.size();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                Iterator<Map.Entry<String, V>> entries = prefixTrie.prefixIterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return entries.next().getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return prefixTrie.size();
+            }
+        };
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return prefixTrie.containsPrefix((CharSequence) key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        boolean[] found = {false};
+        prefixTrie.forEachPrefix((prefix, length, storedValue) -> found[0] |= storedValue.equals(value));
+        return found[0];
+    }
+
+    // ------------------------------------------
+    // KRYO SERIALIZATION
+
+    /**
+     * Only the setting and the prefixes with their values are written, the map is rebuilt when reading.
+     */
+    public static class KryoSerializer extends Serializer<ConcurrentPrefixMap<Serializable>> {
+
+        public void write(Kryo kryo, Output output, ConcurrentPrefixMap<Serializable> instance) {
+            List<Map.Entry<String, Serializable>> entries = instance.entries();
+            output.writeBoolean(instance.caseSensitive());
+            output.writeVarInt(entries.size(), true);
+            for (Map.Entry<String, Serializable> entry : entries) {
+                output.writeString(entry.getKey());
+                kryo.writeClassAndObject(output, entry.getValue());
+            }
+        }
+
+        public ConcurrentPrefixMap<Serializable> read(Kryo kryo, Input input, Class<? extends ConcurrentPrefixMap<Serializable>> type) {
+            ConcurrentPrefixMap<Serializable> instance = new ConcurrentPrefixMap<>(input.readBoolean());
+            int size = input.readVarInt(true);
+            for (int i = 0; i < size; i++) {
+                String prefix = input.readString();
+                instance.put(prefix, (Serializable) kryo.readClassAndObject(input));
+            }
+            return instance;
+        }
+    }
+
+    // ------------------------------------------
+    // JAVA SERIALIZATION
+
+    /**
+     * The (Java) serialized form is this proxy which only has the setting and the prefixes with their values.
+     * @return The serialization proxy of this map.
+     */
+    Object writeReplace() {
+        return new SerializationProxy<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A ConcurrentPrefixMap can only be deserialized via its serialization proxy.");
+    }
+
+    private static final class SerializationProxy<V extends Serializable> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean caseSensitive;
+        // The map that is written, or the map that is rebuilt when reading.
+        private transient ConcurrentPrefixMap<V> map;
+
+        SerializationProxy(ConcurrentPrefixMap<V> map) {
+            this.caseSensitive = map.caseSensitive();
+            this.map = map;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            List<Map.Entry<String, V>> entries = map.entries();
+            out.writeInt(entries.size());
+            for (Map.Entry<String, V> entry : entries) {
+                out.writeObject(entry.getKey());
+                out.writeObject(entry.getValue());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int size = in.readInt();
+            if (size < 0) {
+                throw new InvalidObjectException("Invalid number of prefixes: " + size);
+            }
+            map = new ConcurrentPrefixMap<>(caseSensitive);
+            for (int i = 0; i < size; i++) {
+                map.put((String) in.readObject(), (V) in.readObject());
+            }
+        }
+
+        private Object readResolve() {
+            return map;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>A trie that can be read and modified by many threads at the same time.</p>
+ * <p>The children of a node are an immutable array sorted on the label of the child. A new child is added
+ * by creating a new (copied) array and swapping it in with a compare-and-set, so a reader always sees a complete
+ * and safely published array. The value of a node is volatile and is replaced with an atomic get-and-set.</p>
+ * <p>So the lookups never block and never allocate, a put or remove never blocks a reader and
+ * concurrent writers never lose each others changes.</p>
+ * <p>A remove only clears the value, the (empty) nodes are kept because a concurrent put may be adding a child to them.
+ * A clear replaces the entire trie.</p>
+ * <p>If case INsensitive only the lower case variants are stored and the input is lower cased while matching.</p>
+ */
+final class ConcurrentPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    private final boolean    caseSensitive;
+    private volatile Root<V> root = new Root<>();
+
+    ConcurrentPrefixTrie(boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+    }
+
+    static class Node<V> implements Serializable {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Node[]> CHILDREN =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node[].class, "children");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Object> VALUE =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "value");
+
+        private final int          label;
+        private volatile Node<V>[] children; // Sorted on the label, never modified after it has been published.
+        private volatile Object    value;
+
+        Node(int label) {
+            this.label = label;
+        }
+
+        @SuppressWarnings("unchecked")
+        V value() {
+            return (V) value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V getAndSetValue(V newValue) {
+            return (V) VALUE.getAndSet(this, newValue);
+        }
+
+        /**
+         * @return The child via the provided label, null if not present.
+         */
+        Node<V> getChild(int myChar) {
+            Node<V>[] nodes = children;
+            if (nodes == null) {
+                return null;
+            }
+            int index = indexOf(nodes, myChar);
+            return index < 0 ? null : nodes[index];
+        }
+
+        /**
+         * @return The child via the provided label, it is created if it does not exist yet.
+         */
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        Node<V> addChild(int myChar) {
+            while (true) {
+                Node<V>[] current = children;
+                int index = current == null ? -1 : indexOf(current, myChar);
+                if (index >= 0) {
+                    return current[index];
+                }
+                Node<V> child = new Node<>(myChar);
+                int insertAt = -(index + 1);
+                Node<V>[] updated;
+                if (current == null) {
+                    updated = (Node<V>[]) Array.newInstance(Node.class, 1);
+                } else {
+                    updated = (Node<V>[]) Array.newInstance(Node.class, current.length + 1);
+                    System.arraycopy(current, 0, updated, 0, insertAt);
+                    System.arraycopy(current, insertAt, updated, insertAt + 1, current.length - insertAt);
+                }
+                updated[insertAt] = child;
+                if (CHILDREN.compareAndSet(this, current, updated)) {
+                    return child;
+                }
+                // Another writer changed the children: try again with the new children.
+            }
+        }
+
+        private static int indexOf(Node<?>[] nodes, int myChar) {
+            int low = 0;
+            int high = nodes.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int middleLabel = nodes[middle].label;
+                if (middleLabel < myChar) {
+                    low = middle + 1;
+                } else if (middleLabel > myChar) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    /**
+     * The root also counts the number of prefixes so a clear (which replaces the root) also resets the count.
+     */
+    static final class Root<V> extends Node<V> {
+        private final AtomicInteger size = new AtomicInteger();
+
+        Root() {
+            super(-1);
+        }
+    }
+
+    private int normalize(int myChar) {
+        return caseSensitive ? myChar : Character.toLowerCase(myChar);
+    }
+
+    /**
+     * @return The number of prefixes in this trie.
+     */
+    int size() {
+        return root.size.get();
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        Objects.requireNonNull(value, "The value may not be null");
+        Root<V> currentRoot = root;
+        Node<V> node = currentRoot;
+        while (prefix.hasNext()) {
+            node = node.addChild(normalize(prefix.nextInt()));
+        }
+        V previousValue = node.getAndSetValue(value);
+        if (previousValue == null) {
+            currentRoot.size.incrementAndGet();
+        }
+        return previousValue;
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        Root<V> currentRoot = root;
+        Node<V> node = currentRoot;
+        while (prefix.hasNext()) {
+            node = node.getChild(normalize(prefix.nextInt()));
+            if (node == null) {
+                return null;
+            }
+        }
+        V previousValue = node.getAndSetValue(null);
+        if (previousValue != null) {
+            currentRoot.size.decrementAndGet();
+        }
+        return previousValue;
+    }
+
+    @Override
+    public void clear() {
+        root = new Root<>();
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            node = node.getChild(normalize(prefix.nextInt()));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value();
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        V value = node.value();
+        while (value == null && input.hasNext()) {
+            node = node.getChild(normalize(input.nextInt()));
+            if (node == null) {
+                return null;
+            }
+            value = node.value();
+        }
+        return value;
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        V result = node.value();
+        while (input.hasNext()) {
+            node = node.getChild(normalize(input.nextInt()));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value();
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        V value = node.value();
+        int index = start;
+        while (value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return null;
+            }
+            value = node.value();
+        }
+        return value;
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        V result = node.value();
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        V value = node.value();
+        int index = start;
+        while (value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return setMatch(result, null, 0);
+            }
+            value = node.value();
+        }
+        return setMatch(result, value, index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        V found = node.value();
+        int length = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                found = value;
+                length = index - start;
+            }
+        }
+        return setMatch(result, found, length);
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CODE POINTS
+
+    @Override
+    public V get(int[] input, int offset, int length) {
+        Node<V> node = root;
+        for (int index = offset; index < offset + length; index++) {
+            node = node.getChild(normalize(input[index]));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value();
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        Node<V> node = root;
+        V value = node.value();
+        for (int index = offset; value == null && index < offset + length; index++) {
+            node = node.getChild(normalize(input[index]));
+            if (node == null) {
+                return null;
+            }
+            value = node.value();
+        }
+        return value;
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        Node<V> node = root;
+        V result = node.value();
+        for (int index = offset; index < offset + length; index++) {
+            node = node.getChild(normalize(input[index]));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    /**
+     * A weakly consistent iterator: it reflects the trie as it is while walking down,
+     * changes made by other threads may or may not be seen and it never throws a ConcurrentModificationException.
+     */
+    public static class ConcurrentTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final ConcurrentPrefixTrie<V> trie;
+        private Node<V> node;
+
+        ConcurrentTrieIterator(PrimitiveIterator.OfInt input, ConcurrentPrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.node = trie.root;
+            this.next = node.value();
+            if (next == null) {
+                next = getNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (node != null && input.hasNext()) {
+                int myChar = input.nextInt();
+                length += Character.charCount(myChar);
+                node = node.getChild(trie.normalize(myChar));
+                if (node == null) {
+                    return null;
+                }
+                V value = node.value();
+                if (value != null) {
+                    nextLength = length;
+                    return value;
+                }
+            }
+            node = null;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new ConcurrentTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new ConcurrentTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    /**
+     * The iterator is weakly consistent: the children of each node are read when the walk reaches that node,
+     * so changes made while iterating may or may not be returned and it never fails because of a change.
+     * @return An iterator that walks the trie step by step.
+     */
+    @Override
+    public PrefixWalker<V> prefixIterator() {
+        return new ConcurrentPrefixIterator<>(root);
+    }
+
+    private static final class ConcurrentPrefixIterator<V> extends PrefixWalker<V> {
+        // The path from the root to the current node with for each node the children as they were when it was reached.
+        @SuppressWarnings("unchecked")
+        private Node<V>[][] children  = new Node[16][];
+        private int[]       nextChild = new int[16];
+        private int         depth     = 0;
+
+        private Node<V>     root;
+
+        ConcurrentPrefixIterator(Node<V> root) {
+            this.root = root;
+        }
+
+        @Override
+        V findNext() {
+            if (root != null) {
+                children[0] = root.children;
+                V value = root.value();
+                root = null;
+                if (value != null) {
+                    return value;
+                }
+            }
+            while (depth >= 0) {
+                Node<V>[] nodes = children[depth];
+                if (nodes == null || nextChild[depth] == nodes.length) {
+                    children[depth] = null;
+                    depth--;
+                    continue;
+                }
+                Node<V> child = nodes[nextChild[depth]++];
+                if (depth + 1 == children.length) {
+                    children  = Arrays.copyOf(children,  children.length * 2);
+                    nextChild = Arrays.copyOf(nextChild, nextChild.length * 2);
+                }
+                setLabel(depth, child.label);
+                depth++;
+                children[depth] = child.children;
+                nextChild[depth] = 0;
+                V value = child.value();
+                if (value != null) {
+                    length = depth;
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    // ==============================================================
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * <p>A read only PrefixMap for readable ASCII prefixes that stores the trie as a double-array trie (DAT).</p>
+ * <p>Each step in a lookup is a direct array index (base + character code) followed by a single check
+ * which makes the lookups faster than the {@link FrozenPrefixMap} at the cost of some unused slots
+ * in the arrays.</p>
+ * <p>It is built from any Map (so also any existing PrefixMap) where all prefixes only contain readable ASCII.
+ * All methods that try to modify this map throw an UnsupportedOperationException.</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+public final class DoubleArrayPrefixMap<V extends Serializable> extends FrozenPrefixMap<V> {
+
+    /**
+     * Build a DoubleArrayPrefixMap.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param prefixesAndValues The prefixes (only readable ASCII is allowed) and their values.
+     */
+    public DoubleArrayPrefixMap(boolean caseSensitive, Map<String, ? extends V> prefixesAndValues) {
+        this(DoubleArrayPrefixTrie.compile(caseSensitive, prefixesAndValues));
+    }
+
+    private DoubleArrayPrefixMap(DoubleArrayPrefixTrie<V> prefixTrie) {
+        super(prefixTrie, prefixTrie.size());
+    }
+
+    @Override
+    Object[] distinctValues() {
+        return ((DoubleArrayPrefixTrie<V>) prefixTrie()).values();
+    }
+}
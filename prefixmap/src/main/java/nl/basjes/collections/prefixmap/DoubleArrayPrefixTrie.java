@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>A read only double-array trie (DAT) for readable ASCII prefixes.</p>
+ * <p>Every node is a slot (a state) in two parallel arrays: <code>base</code> and <code>check</code>.
+ * The transition from state <code>s</code> over a character <code>c</code> goes to state
+ * <code>t = base[s] + code(c)</code> and only exists if <code>check[t] == s</code>.
+ * So a single step is two array reads and a compare, without any search in a list of children.</p>
+ * <p>The readable ASCII characters 32..126 have the codes 1..95; all other characters have code 0 which is
+ * never used for a transition. If case INsensitive the upper case letters get the same code as their
+ * lower case variant: this is the array equivalent of the double linked upper/lower slots
+ * of the {@link ASCIIPrefixTrie}.</p>
+ */
+final class DoubleArrayPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    // The number of different codes (code 0 is the 'invalid character' code).
+    private static final int ALPHABET_SIZE = 96;
+
+    // The slots that can never be reached via a transition
+    private static final int NOT_REACHABLE = -2;
+    private static final int FREE          = -1;
+
+    private static final byte[] CASE_SENSITIVE_CODES   = new byte[128];
+    private static final byte[] CASE_INSENSITIVE_CODES = new byte[128];
+
+    static {
+        for (int myChar = 32; myChar <= 126; myChar++) {
+            CASE_SENSITIVE_CODES[myChar]   = (byte) (myChar - 31);
+            CASE_INSENSITIVE_CODES[myChar] = (byte) (Character.toLowerCase(myChar) - 31);
+        }
+    }
+
+    private final boolean  caseSensitive;
+    private final int      size;
+    private final byte[]   codes;
+    private final int[]    base;
+    private final int[]    check;
+    private final int[]    valueIndex;
+    private final Object[] values;
+
+    private DoubleArrayPrefixTrie(boolean caseSensitive, int size, int[] base, int[] check, int[] valueIndex, Object[] values) {
+        this.caseSensitive = caseSensitive;
+        this.size = size;
+        this.codes = caseSensitive ? CASE_SENSITIVE_CODES : CASE_INSENSITIVE_CODES;
+        this.base = base;
+        this.check = check;
+        this.valueIndex = valueIndex;
+        this.values = values;
+    }
+
+    /**
+     * Build a DoubleArrayPrefixTrie from all the provided prefixes and values.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param prefixesAndValues The prefixes (only readable ASCII is allowed) and their values.
+     * @param <V> The type of the value that is stored.
+     * @return The compiled trie.
+     */
+    static <V extends Serializable> DoubleArrayPrefixTrie<V> compile(boolean caseSensitive,
+                                                                     Map<String, ? extends V> prefixesAndValues) {
+        RadixPrefixTrie<V> source = new RadixPrefixTrie<>(caseSensitive, true);
+        for (Map.Entry<String, ? extends V> entry : prefixesAndValues.entrySet()) {
+            source.add(entry.getKey(), entry.getValue());
+        }
+        return compile(FrozenPrefixTrie.compile(source, true));
+    }
+
+    /**
+     * Convert a FrozenPrefixTrie (that only contains readable ASCII) into a DoubleArrayPrefixTrie.
+     * Because the nodes of the FrozenPrefixTrie are in breadth first order the state of a node is always
+     * known before its children must be placed.
+     * @param source The trie that must be converted.
+     * @param <V> The type of the value that is stored.
+     * @return The compiled trie.
+     */
+    static <V extends Serializable> DoubleArrayPrefixTrie<V> compile(FrozenPrefixTrie<V> source) {
+        byte[] codes = source.caseSensitive() ? CASE_SENSITIVE_CODES : CASE_INSENSITIVE_CODES;
+        int nodes = source.nodes();
+        Builder builder = new Builder(nodes + nodes / 4 + 2 * ALPHABET_SIZE);
+
+        int[] state = new int[nodes];
+        int[] childCodes = new int[ALPHABET_SIZE];
+        for (int node = 0; node < nodes; node++) {
+            int from = source.firstChild(node);
+            int to   = source.firstChild(node + 1);
+            if (from == to) {
+                continue;
+            }
+            for (int child = from; child < to; child++) {
+                childCodes[child - from] = codes[source.label(child)];
+            }
+            int childBase = builder.place(state[node], childCodes, to - from);
+            for (int child = from; child < to; child++) {
+                state[child] = childBase + childCodes[child - from];
+            }
+        }
+
+        // Every state is at most base + ALPHABET_SIZE - 1 so this also covers
+        // all transitions with an invalid character (code 0) from any state.
+        int length = builder.maxBase + ALPHABET_SIZE;
+        int[] valueIndex = new int[length];
+        Arrays.fill(valueIndex, -1);
+        for (int node = 0; node < nodes; node++) {
+            valueIndex[state[node]] = source.valueIndex(node);
+        }
+
+        return new DoubleArrayPrefixTrie<>(source.caseSensitive(), source.size(),
+            Arrays.copyOf(builder.base, length), Arrays.copyOf(builder.check, length), valueIndex, source.values());
+    }
+
+    /**
+     * Finds the base values using first fit over a (doubly linked) list of all free slots.
+     */
+    private static final class Builder {
+        private int[] base;
+        private int[] check;
+        private int[] nextFree;
+        private int[] previousFree;
+        private int   capacity  = 2;
+        private int   firstFree = -1;
+        private int   lastFree  = -1;
+        private int   maxBase   = 0;
+
+        Builder(int initialCapacity) {
+            // Slot 0 is the root, slot 1 can never be reached because base >= 1 and code >= 1.
+            base         = new int[capacity];
+            check        = new int[] {NOT_REACHABLE, NOT_REACHABLE};
+            nextFree     = new int[capacity];
+            previousFree = new int[capacity];
+            grow(initialCapacity);
+        }
+
+        private void grow(int minimumCapacity) {
+            int newCapacity = Math.max(minimumCapacity, capacity * 2);
+            base         = Arrays.copyOf(base,         newCapacity);
+            check        = Arrays.copyOf(check,        newCapacity);
+            nextFree     = Arrays.copyOf(nextFree,     newCapacity);
+            previousFree = Arrays.copyOf(previousFree, newCapacity);
+            Arrays.fill(check, capacity, newCapacity, FREE);
+            for (int slot = capacity; slot < newCapacity; slot++) {
+                previousFree[slot] = lastFree;
+                if (lastFree < 0) {
+                    firstFree = slot;
+                } else {
+                    nextFree[lastFree] = slot;
+                }
+                lastFree = slot;
+            }
+            nextFree[lastFree] = -1;
+            capacity = newCapacity;
+        }
+
+        private void occupy(int slot, int parent) {
+            check[slot] = parent;
+            int previous = previousFree[slot];
+            int next     = nextFree[slot];
+            if (previous < 0) {
+                firstFree = next;
+            } else {
+                nextFree[previous] = next;
+            }
+            if (next < 0) {
+                lastFree = previous;
+            } else {
+                previousFree[next] = previous;
+            }
+        }
+
+        /**
+         * Find a base for the parent where all the child codes land on a free slot and occupy those slots.
+         * @return The base of the parent.
+         */
+        int place(int parent, int[] childCodes, int count) {
+            int slot = firstFree;
+            while (true) {
+                if (slot < 0) {
+                    slot = capacity;
+                    grow(capacity + ALPHABET_SIZE);
+                }
+                int candidate = slot - childCodes[0];
+                if (candidate >= 1) {
+                    if (candidate + ALPHABET_SIZE > capacity) {
+                        grow(candidate + ALPHABET_SIZE);
+                    }
+                    if (fits(candidate, childCodes, count)) {
+                        base[parent] = candidate;
+                        for (int i = 0; i < count; i++) {
+                            occupy(candidate + childCodes[i], parent);
+                        }
+                        maxBase = Math.max(maxBase, candidate);
+                        return candidate;
+                    }
+                }
+                slot = nextFree[slot];
+            }
+        }
+
+        private boolean fits(int candidate, int[] childCodes, int count) {
+            for (int i = 1; i < count; i++) {
+                if (check[candidate + childCodes[i]] != FREE) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of stored prefixes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return All different values that are stored in this trie.
+     */
+    Object[] values() {
+        return values;
+    }
+
+    /**
+     * @return The number of slots in the arrays of this trie.
+     */
+    int slots() {
+        return check.length;
+    }
+
+    /**
+     * @return The state reached from the provided state via the provided character, -1 if there is no such transition.
+     */
+    private int next(int state, int myChar) {
+        if (myChar >= 128) {
+            return -1;
+        }
+        int target = base[state] + codes[myChar];
+        return check[target] == state ? target : -1;
+    }
+
+    private V valueOf(int state) {
+        return valueOfIndex(valueIndex[state]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueOfIndex(int index) {
+        return index < 0 ? null : (V) values[index];
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        int state = 0;
+        while (prefix.hasNext()) {
+            state = next(state, prefix.nextInt());
+            if (state < 0) {
+                return null;
+            }
+        }
+        return valueOf(state);
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        int state = 0;
+        while (valueIndex[state] < 0 && input.hasNext()) {
+            state = next(state, input.nextInt());
+            if (state < 0) {
+                return null;
+            }
+        }
+        return valueOf(state);
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        int state = 0;
+        int result = valueIndex[0];
+        while (input.hasNext()) {
+            state = next(state, input.nextInt());
+            if (state < 0) {
+                break;
+            }
+            if (valueIndex[state] >= 0) {
+                result = valueIndex[state];
+            }
+        }
+        return valueOfIndex(result);
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+    // A surrogate (i.e. part of a code point above 126) never has a transition
+    // so there is no need to combine surrogate pairs into a code point.
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        int state = 0;
+        for (int index = start; index < end; index++) {
+            state = next(state, input.charAt(index));
+            if (state < 0) {
+                return null;
+            }
+        }
+        return valueOf(state);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        int state = 0;
+        for (int index = start; index < end && valueIndex[state] < 0; index++) {
+            state = next(state, input.charAt(index));
+            if (state < 0) {
+                return null;
+            }
+        }
+        return valueOf(state);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        int state = 0;
+        int result = valueIndex[0];
+        for (int index = start; index < end; index++) {
+            state = next(state, input.charAt(index));
+            if (state < 0) {
+                break;
+            }
+            if (valueIndex[state] >= 0) {
+                result = valueIndex[state];
+            }
+        }
+        return valueOfIndex(result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int state = 0;
+        int index = start;
+        while (index < end && valueIndex[state] < 0) {
+            state = next(state, input.charAt(index++));
+            if (state < 0) {
+                return setMatch(result, null, 0);
+            }
+        }
+        return setMatch(result, valueOf(state), index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int state = 0;
+        int found = valueIndex[0];
+        int length = 0;
+        for (int index = start; index < end; index++) {
+            state = next(state, input.charAt(index));
+            if (state < 0) {
+                break;
+            }
+            if (valueIndex[state] >= 0) {
+                found = valueIndex[state];
+                length = index + 1 - start;
+            }
+        }
+        return setMatch(result, valueOfIndex(found), length);
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class DoubleArrayTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final DoubleArrayPrefixTrie<V> trie;
+        private int state;
+
+        DoubleArrayTrieIterator(PrimitiveIterator.OfInt input, DoubleArrayPrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.state = 0;
+            this.next = trie.valueOf(0);
+            if (next == null) {
+                next = getNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (state >= 0 && input.hasNext()) {
+                int myChar = input.nextInt();
+                length += Character.charCount(myChar);
+                state = trie.next(state, myChar);
+                if (state < 0) {
+                    return null;
+                }
+                V value = trie.valueOf(state);
+                if (value != null) {
+                    nextLength = length;
+                    return value;
+                }
+            }
+            state = -1;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new DoubleArrayTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new DoubleArrayTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixEntryIterator<V> prefixIterator() {
+        return new PrefixEntryIterator<V>() {
+            @Override
+            V valueOf(int state) {
+                return DoubleArrayPrefixTrie.this.valueOf(state);
+            }
+
+            @Override
+            int nextChild(int state, int previous) {
+                int stateBase = base[state];
+                if (stateBase == 0) {
+                    return -1; // No children
+                }
+                // If case INsensitive the codes of the upper case letters are never used so this only walks the lower case variants.
+                for (int code = previous < 0 ? 1 : previous - stateBase + 1; code < ALPHABET_SIZE; code++) {
+                    if (check[stateBase + code] == state) {
+                        return stateBase + code;
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            int label(int state, int child) {
+                return child - base[state] + 31;
+            }
+        };
+    }
+
+    // ==============================================================
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+}
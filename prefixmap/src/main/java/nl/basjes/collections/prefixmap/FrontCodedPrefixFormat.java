@@ -0,0 +1,497 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>A portable (i.e. independent of Java and Kryo serialization) streaming export and import format for
+ * the prefixes and values of a PrefixMap.</p>
+ * <p>The prefixes are written in sorted order (a StringPrefixMap with compactKeys writes them in code point order which
+ * only differs for the characters outside the Basic Multilingual Plane) and are front coded: of each prefix only the length of the part that
+ * is shared with the previous prefix and the rest are written. The prefixes are grouped in blocks where the first
+ * prefix of each block is written in full so each block can be decoded on its own.
+ * The values are deduplicated (using equals) and are written only once via the provided {@link ValueWriter}.</p>
+ * <p>All numbers are unsigned variable length integers (7 bits per byte, least significant group first,
+ * the high bit is set if more bytes follow) unless stated otherwise. The format is:</p>
+ * <ul>
+ *     <li>The header:
+ *     <ul>
+ *         <li>4 bytes: the magic "PFXF".</li>
+ *         <li>1 byte: the format version (currently 1).</li>
+ *         <li>The number of prefixes per block.</li>
+ *         <li>The number of prefixes.</li>
+ *         <li>The number of distinct values followed by all these values (as written by the ValueWriter).</li>
+ *     </ul></li>
+ *     <li>The blocks. For each prefix: the number of UTF-8 bytes shared with the previous prefix (always 0 for the first
+ *     prefix of a block), the number of UTF-8 bytes that follow, those bytes and the index of the value.</li>
+ *     <li>The block index. For each block: the number of bytes of the block, the number of UTF-8 bytes of the first
+ *     prefix of the block and those bytes.</li>
+ *     <li>The trailer: 8 bytes (big endian) with the position (from the start) of the block index.</li>
+ * </ul>
+ * <p>The import always needs all prefixes so it reads the blocks in order and only verifies that the block index
+ * matches them. The block index is there for a reader with random access: via the trailer it can find the block
+ * index, do a binary search over the first prefixes and then decode only the block that can hold a prefix.</p>
+ */
+public final class FrontCodedPrefixFormat {
+
+    private static final byte[] MAGIC           = {'P', 'F', 'X', 'F'};
+    private static final int    VERSION         = 1;
+    private static final int    BUFFER_SIZE     = 65536;
+
+    /**
+     * The default number of prefixes per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private FrontCodedPrefixFormat() {
+    }
+
+    /**
+     * Writes a single value.
+     * @param <V> The type of the value.
+     */
+    @FunctionalInterface
+    public interface ValueWriter<V> {
+        /**
+         * @param out   Where the value must be written to.
+         * @param value The value to write (never null).
+         * @throws IOException If writing fails.
+         */
+        void write(DataOutput out, V value) throws IOException;
+    }
+
+    /**
+     * Reads a single value that was written by the matching {@link ValueWriter}.
+     * @param <V> The type of the value.
+     */
+    @FunctionalInterface
+    public interface ValueReader<V> {
+        /**
+         * @param in Where the value must be read from.
+         * @return The value (never null).
+         * @throws IOException If reading fails.
+         */
+        V read(DataInput in) throws IOException;
+    }
+
+    /**
+     * @return A ValueWriter for String values (a varint with the number of UTF-8 bytes followed by those bytes).
+     */
+    public static ValueWriter<String> stringWriter() {
+        return (out, value) -> {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        };
+    }
+
+    /**
+     * @return A ValueReader for String values written by the {@link #stringWriter()}.
+     */
+    public static ValueReader<String> stringReader() {
+        return in -> {
+            byte[] bytes = new byte[readVarInt(in)];
+            in.readFully(bytes);
+            return new String(bytes, UTF_8);
+        };
+    }
+
+    // ==============================================================
+    // EXPORT
+
+    /**
+     * Export all prefixes and values using the {@link #DEFAULT_BLOCK_SIZE}.
+     * @param prefixesAndValues The prefixes and values to write (for example a PrefixMap).
+     * @param out               The stream to write to, it is flushed but not closed.
+     * @param valueWriter       Writes a single value.
+     * @param <V>               The type of the values.
+     * @throws IOException If writing fails.
+     */
+    public static <V> void write(Map<String, ? extends V> prefixesAndValues, OutputStream out, ValueWriter<? super V> valueWriter)
+        throws IOException {
+        write(prefixesAndValues, out, valueWriter, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Export all prefixes and values using the {@link #DEFAULT_BLOCK_SIZE}.
+     * @param prefixesAndValues The prefixes and values to write (for example a PrefixMap).
+     * @param channel           The channel to write to, it is not closed.
+     * @param valueWriter       Writes a single value.
+     * @param <V>               The type of the values.
+     * @throws IOException If writing fails.
+     */
+    public static <V> void write(Map<String, ? extends V> prefixesAndValues, WritableByteChannel channel, ValueWriter<? super V> valueWriter)
+        throws IOException {
+        write(prefixesAndValues, Channels.newOutputStream(channel), valueWriter, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Export all prefixes and values.
+     * @param prefixesAndValues The prefixes and values to write (for example a PrefixMap).
+     * @param out               The stream to write to, it is flushed but not closed.
+     * @param valueWriter       Writes a single value.
+     * @param blockSize         The number of prefixes per block.
+     * @param <V>               The type of the values.
+     * @throws IOException If writing fails.
+     */
+    public static <V> void write(Map<String, ? extends V> prefixesAndValues, OutputStream out, ValueWriter<? super V> valueWriter,
+                                 int blockSize) throws IOException {
+        Objects.requireNonNull(prefixesAndValues, "The prefixesAndValues may not be null");
+        Objects.requireNonNull(out, "The output may not be null");
+        Objects.requireNonNull(valueWriter, "The valueWriter may not be null");
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be at least 1 (was " + blockSize + ")");
+        }
+        Map<String, ? extends V> sorted = sorted(prefixesAndValues);
+
+        // Deduplicate the values
+        Map<Object, Integer> valueIndex = new HashMap<>();
+        List<V> values = new ArrayList<>();
+        for (V value : sorted.values()) {
+            if (valueIndex.putIfAbsent(value, values.size()) == null) {
+                values.add(value);
+            }
+        }
+
+        CountingOutput output = new CountingOutput(out);
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.write(MAGIC);
+        dataOutput.write(VERSION);
+        writeVarInt(dataOutput, blockSize);
+        writeVarInt(dataOutput, sorted.size());
+        writeVarInt(dataOutput, values.size());
+        for (V value : values) {
+            valueWriter.write(dataOutput, value);
+        }
+
+        List<Long>   blockStarts = new ArrayList<>();
+        List<byte[]> firstKeys   = new ArrayList<>();
+        byte[] previous = new byte[0];
+        int inBlock = 0;
+        for (Map.Entry<String, ? extends V> entry : sorted.entrySet()) {
+            byte[] key = entry.getKey().getBytes(UTF_8);
+            int shared = 0;
+            if (inBlock == 0) {
+                blockStarts.add(output.position);
+                firstKeys.add(key);
+            } else {
+                int maxShared = Math.min(previous.length, key.length);
+                while (shared < maxShared && previous[shared] == key[shared]) {
+                    shared++;
+                }
+            }
+            writeVarInt(dataOutput, shared);
+            writeVarInt(dataOutput, key.length - shared);
+            dataOutput.write(key, shared, key.length - shared);
+            writeVarInt(dataOutput, valueIndex.get(entry.getValue()));
+            previous = key;
+            inBlock = (inBlock + 1) % blockSize;
+        }
+
+        long indexStart = output.position;
+        for (int block = 0; block < blockStarts.size(); block++) {
+            long blockEnd = block + 1 < blockStarts.size() ? blockStarts.get(block + 1) : indexStart;
+            writeVarInt(dataOutput, (int) (blockEnd - blockStarts.get(block)));
+            writeVarInt(dataOutput, firstKeys.get(block).length);
+            dataOutput.write(firstKeys.get(block));
+        }
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            dataOutput.write((int) (indexStart >>> shift));
+        }
+        dataOutput.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Map<String, ? extends V> sorted(Map<String, ? extends V> prefixesAndValues) {
+        if (prefixesAndValues instanceof StringPrefixMap) {
+            // Already sorted: with compactKeys the views walk the trie in code point order (i.e. the order of the UTF-8 bytes).
+            return prefixesAndValues;
+        }
+        if (prefixesAndValues instanceof SortedMap && ((SortedMap<String, ? extends V>) prefixesAndValues).comparator() == null) {
+            return prefixesAndValues;
+        }
+        return new TreeMap<>(prefixesAndValues);
+    }
+
+    // ==============================================================
+    // IMPORT
+
+    /**
+     * Import all prefixes and values into the provided PrefixMap.
+     * Only the bytes of the export are read so anything written after it can still be read from the stream.
+     * This means the stream is not buffered here: wrap a stream like a FileInputStream in a BufferedInputStream.
+     * @param in          The stream to read from, it is not closed.
+     * @param valueReader Reads a single value.
+     * @param target      The map to which all prefixes and values are added.
+     * @param <V>         The type of the values.
+     * @param <M>         The type of the PrefixMap.
+     * @return The target.
+     * @throws IOException If reading fails or the data is not valid.
+     */
+    public static <V extends Serializable, M extends PrefixMap<V>> M read(InputStream in, ValueReader<? extends V> valueReader, M target)
+        throws IOException {
+        Objects.requireNonNull(in, "The input may not be null");
+        return read(new CountingInput(in), valueReader, target);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V extends Serializable, M extends PrefixMap<V>> M read(CountingInput input, ValueReader<? extends V> valueReader, M target)
+        throws IOException {
+        Objects.requireNonNull(valueReader, "The valueReader may not be null");
+        Objects.requireNonNull(target, "The target may not be null");
+
+        DataInputStream dataInput = new DataInputStream(input);
+        byte[] magic = new byte[MAGIC.length];
+        dataInput.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a front coded prefix export: bad magic.");
+        }
+        int version = input.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported front coded prefix export version " + version + " (expected " + VERSION + ").");
+        }
+        int blockSize  = readVarInt(dataInput);
+        int size       = readVarInt(dataInput);
+        int valueCount = readVarInt(dataInput);
+        if (blockSize < 1 || (size > 0 && valueCount < 1)) {
+            throw new IOException("Corrupt front coded prefix export: invalid header.");
+        }
+        List<V> values = new ArrayList<>(Math.min(valueCount, BUFFER_SIZE));
+        for (int i = 0; i < valueCount; i++) {
+            values.add(Objects.requireNonNull(valueReader.read(dataInput), "The valueReader returned null"));
+        }
+
+        PrefixTrie.SortedLoader<V> loader;
+        if (target instanceof StringPrefixMap) {
+            loader = ((StringPrefixMap<V>) target).sortedLoader();
+        } else {
+            loader = (prefix, shared, value) -> target.put(prefix, value);
+        }
+
+        byte[] key = new byte[64];
+        int keyLength = 0;
+        String previous = "";
+        List<Long> blockStarts = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (i % blockSize == 0) {
+                blockStarts.add(input.position);
+            }
+            int shared = readVarInt(dataInput);
+            int rest   = readVarInt(dataInput);
+            if ((i % blockSize == 0 && shared != 0) || shared > keyLength || rest > Integer.MAX_VALUE - shared) {
+                throw new IOException("Corrupt front coded prefix export: invalid prefix " + i + ".");
+            }
+            if (shared + rest > key.length) {
+                key = Arrays.copyOf(key, Math.max(2 * key.length, shared + rest));
+            }
+            dataInput.readFully(key, shared, rest);
+            int index = readVarInt(dataInput);
+            if (index >= values.size()) {
+                throw new IOException("Corrupt front coded prefix export: invalid value index " + index + ".");
+            }
+            keyLength = shared + rest;
+            String prefix = new String(key, 0, keyLength, UTF_8);
+            loader.add(prefix, StringPrefixMap.sharedLength(previous, prefix), values.get(index));
+            previous = prefix;
+        }
+
+        // The block index must match the blocks that were read.
+        long indexStart = input.position;
+        for (int block = 0; block < blockStarts.size(); block++) {
+            long blockEnd = block + 1 < blockStarts.size() ? blockStarts.get(block + 1) : indexStart;
+            int blockLength = readVarInt(dataInput);
+            int firstKeyLength = readVarInt(dataInput);
+            if (blockLength != blockEnd - blockStarts.get(block) || dataInput.skipBytes(firstKeyLength) != firstKeyLength) {
+                throw new IOException("Corrupt front coded prefix export: the block index does not match the blocks.");
+            }
+        }
+        if (dataInput.readLong() != indexStart) {
+            throw new IOException("Corrupt front coded prefix export: invalid trailer.");
+        }
+        return target;
+    }
+
+    /**
+     * Import all prefixes and values into the provided PrefixMap.
+     * If the channel is a SeekableByteChannel (like a FileChannel) it is read in large blocks and afterwards
+     * positioned directly after the export, any other channel is read without buffering (see {@link #read(InputStream,
+     * ValueReader, PrefixMap)}).
+     * @param channel     The channel to read from, it is not closed.
+     * @param valueReader Reads a single value.
+     * @param target      The map to which all prefixes and values are added.
+     * @param <V>         The type of the values.
+     * @param <M>         The type of the PrefixMap.
+     * @return The target.
+     * @throws IOException If reading fails or the data is not valid.
+     */
+    public static <V extends Serializable, M extends PrefixMap<V>> M read(ReadableByteChannel channel, ValueReader<? extends V> valueReader,
+                                                                          M target) throws IOException {
+        Objects.requireNonNull(channel, "The input may not be null");
+        if (!(channel instanceof SeekableByteChannel)) {
+            return read(Channels.newInputStream(channel), valueReader, target);
+        }
+        SeekableByteChannel seekable = (SeekableByteChannel) channel;
+        long start = seekable.position();
+        CountingInput input = new CountingInput(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        read(input, valueReader, target);
+        seekable.position(start + input.position);
+        return target;
+    }
+
+    // ==============================================================
+    // VARINTS AND BUFFERING
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (result < 0) {
+                    break;
+                }
+                return result;
+            }
+        }
+        throw new IOException("Corrupt front coded prefix export: invalid number.");
+    }
+
+    /**
+     * A buffered output that keeps track of the number of bytes written.
+     */
+    private static final class CountingOutput extends OutputStream {
+        private final OutputStream out;
+        private final byte[]       buffer = new byte[BUFFER_SIZE];
+        private int                used   = 0;
+        private long               position = 0;
+
+        CountingOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (used == buffer.length) {
+                flushBuffer();
+            }
+            buffer[used++] = (byte) b;
+            position++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.length - used) {
+                flushBuffer();
+                if (length > buffer.length) {
+                    out.write(bytes, offset, length);
+                    position += length;
+                    return;
+                }
+            }
+            System.arraycopy(bytes, offset, buffer, used, length);
+            used += length;
+            position += length;
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(buffer, 0, used);
+            used = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+    }
+
+    /**
+     * An input that keeps track of the number of bytes read.
+     * It does NOT buffer: only the bytes that are actually needed are read from the underlying stream.
+     */
+    private static final class CountingInput extends FilterInputStream {
+        private long position = 0;
+
+        CountingInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int count = in.read(bytes, offset, length);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long length) throws IOException {
+            long count = in.skip(length);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
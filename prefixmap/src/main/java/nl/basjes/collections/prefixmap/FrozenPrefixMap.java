@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+import nl.basjes.collections.PrefixMap;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.checkRegion;
+import static nl.basjes.collections.prefixmap.IntArrayIterator.checkRange;
+
+/**
+ * <p>The FrozenPrefixMap is a read only PrefixMap where the trie has been compiled into a few flat arrays.</p>
+ * <p>Because of the better memory locality the lookups are faster and because there are only a handful of
+ * objects the garbage collector has (almost) nothing to do for this data structure.</p>
+ * <p>An instance is created by calling {@link StringPrefixMap#freeze()} on a filled StringPrefixMap
+ * (or ASCIIPrefixMap). All methods that try to modify this map throw an UnsupportedOperationException.</p>
+ * <p>Subclasses (like the {@link DoubleArrayPrefixMap}) use a different read only trie layout.</p>
+ * <p>If case INsensitive only the lower case variant of each character is stored and every character of the input
+ * is lower cased (with {@link Character#toLowerCase(int)}) while matching. For ASCII and for all characters where
+ * the upper case and lower case form a simple pair this matches exactly the same as the map it was frozen from.
+ * It differs for the few characters that do not: the StringPrefixMap only matches the lower and upper case
+ * of the character that was put while the frozen map matches every character with the same lower case.
+ * So after putting "ς" (final sigma) the input "Σ" no longer matches (it lower cases to "σ"), after putting
+ * "ſ" (long s) the input "S" no longer matches and after putting "ǅ" (title case) the input "ǅ" now matches.
+ * The keys of the entrySet and keySet are also lower cased per character which is not always the same as
+ * {@link String#toLowerCase()} (that turns "ΣΑΣ" into "σας" instead of "σασ").</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+public class FrozenPrefixMap<V extends Serializable> implements PrefixMap<V>, Serializable {
+    private final PrefixTrie<V> prefixTrie;
+    private final int           size;
+
+    FrozenPrefixMap(FrozenPrefixTrie<V> prefixTrie) {
+        this(prefixTrie, prefixTrie.size());
+    }
+
+    FrozenPrefixMap(PrefixTrie<V> prefixTrie, int size) {
+        this.prefixTrie = prefixTrie;
+        this.size = size;
+    }
+
+    /**
+     * @return The trie that holds all the prefixes.
+     */
+    PrefixTrie<V> prefixTrie() {
+        return prefixTrie;
+    }
+
+    /**
+     * @return All different values that are stored in the trie.
+     */
+    Object[] distinctValues() {
+        return ((FrozenPrefixTrie<V>) prefixTrie).values();
+    }
+
+    /**
+     * @return Are the lookups case sensitive or not.
+     */
+    public boolean caseSensitive() {
+        return prefixTrie.caseSensitive();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public V put(String prefix, V value) {
+        throw new UnsupportedOperationException("A FrozenPrefixMap cannot be modified");
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends V> prefixesAndValues) {
+        throw new UnsupportedOperationException("A FrozenPrefixMap cannot be modified");
+    }
+
+    @Override
+    public V remove(String prefix) {
+        throw new UnsupportedOperationException("A FrozenPrefixMap cannot be modified");
+    }
+
+    @Override
+    public V remove(Object prefix) {
+        throw new UnsupportedOperationException("A FrozenPrefixMap cannot be modified");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A FrozenPrefixMap cannot be modified");
+    }
+
+    @Override
+    public V get(String prefix) {
+        return prefixTrie.get((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(String prefix) {
+        return prefixTrie.containsPrefix((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix) {
+        return prefixTrie.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix, int start, int end) {
+        checkRegion(prefix, start, end);
+        return prefixTrie.containsPrefix(prefix, start, end);
+    }
+
+    @Override
+    public V getShortestMatch(String input) {
+        return prefixTrie.getShortestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input) {
+        return prefixTrie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end);
+    }
+
+    @Override
+    public V getLongestMatch(String input) {
+        return prefixTrie.getLongestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input) {
+        return prefixTrie.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(String input) {
+        return prefixTrie.getAllMatches((CharSequence) input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input) {
+        return prefixTrie.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatches(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix) {
+        return prefixTrie.containsPrefix(prefix, 0, prefix.length);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix, int offset, int length) {
+        checkRange(prefix, offset, length);
+        return prefixTrie.containsPrefix(prefix, offset, length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input) {
+        return prefixTrie.getShortestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getShortestMatch(input, offset, length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input) {
+        return prefixTrie.getLongestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getLongestMatch(input, offset, length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input) {
+        return prefixTrie.getAllMatches(input, 0, input.length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getAllMatches(input, offset, length);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getShortestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end, result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getLongestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end, result);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input) {
+        return prefixTrie.getAllMatchResults(input, 0, input.length());
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatchResults(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(PrimitiveIterator.OfInt prefix) {
+        return prefixTrie.containsPrefix(prefix);
+    }
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getLongestMatch(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getAllMatches(input);
+    }
+
+    /**
+     * The entries are NOT retained in this map, they are read from the trie while iterating.
+     * The prefixes are in lower case if case INsensitive and in ascending code point order.
+     * @return All prefixes with their values as a read only set.
+     */
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                return prefixTrie.prefixIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Map.Entry<String, V>> entries = prefixTrie.prefixIterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return entries.next().getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                Iterator<Map.Entry<String, V>> entries = prefixTrie.prefixIterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return entries.next().getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return prefixTrie.containsPrefix((CharSequence) key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        // Every different value is stored only once so this does not need to walk all prefixes.
+        for (Object storedValue : distinctValues()) {
+            if (storedValue.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
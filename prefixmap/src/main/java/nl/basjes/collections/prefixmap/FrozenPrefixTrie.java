@@ -0,0 +1,542 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>A read only trie where all nodes are stored in a few flat arrays.</p>
+ * <p>The nodes are numbered in breadth first order (the root is node 0) which makes the children of a node
+ * a consecutive range of node numbers: the children of node <code>n</code> are the nodes
+ * <code>firstChild[n]</code> up to (excluding) <code>firstChild[n+1]</code>.
+ * The <code>label</code> of a node is the code point on the edge that leads into the node and within
+ * the children of a node these are sorted so they can be searched.</p>
+ * <p>If case INsensitive only the lower case variants are stored and the input is lower cased (per code point) while
+ * matching. This is NOT the same as the linking via the lower and upper case of the original character in the
+ * {@link StringPrefixTrie} for the characters without a simple case pair (like "ς", "ſ" and "ǅ").</p>
+ */
+final class FrozenPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    private final boolean  caseSensitive;
+    private final boolean  asciiOnly;
+    private final int      size;
+    private final int[]    firstChild;
+    private final int[]    label;
+    private final int[]    valueIndex;
+    private final Object[] values;
+
+    private FrozenPrefixTrie(boolean caseSensitive, boolean asciiOnly, int size,
+                             int[] firstChild, int[] label, int[] valueIndex, Object[] values) {
+        this.caseSensitive = caseSensitive;
+        this.asciiOnly = asciiOnly;
+        this.size = size;
+        this.firstChild = firstChild;
+        this.label = label;
+        this.valueIndex = valueIndex;
+        this.values = values;
+    }
+
+    /**
+     * Compile the content of a trie into a FrozenPrefixTrie.
+     * @param source The trie that must be compiled.
+     * @param asciiOnly If the source only accepts readable ASCII.
+     * @param <V> The type of the value that is stored.
+     * @return The compiled trie.
+     */
+    static <V extends Serializable> FrozenPrefixTrie<V> compile(PrefixTrie<V> source, boolean asciiOnly) {
+        Compiler<V> compiler = new Compiler<>();
+        source.forEachPrefix(compiler);
+        return compiler.build(source.caseSensitive(), asciiOnly);
+    }
+
+    /**
+     * Builds the arrays from the prefixes that are provided in depth first (i.e. sorted) order.
+     */
+    static final class Compiler<V extends Serializable> implements PrefixVisitor<V> {
+        // The nodes in depth first order
+        private int[] parent     = new int[1024];
+        private int[] depth      = new int[1024];
+        private int[] nodeLabel  = new int[1024];
+        private int[] nodeValue  = new int[1024];
+        private int   nodes      = 1; // The root node always exists
+
+        // All different values are only stored once
+        private final Map<V, Integer> valueIndexes = new HashMap<>();
+        private Object[]              valueList    = new Object[16];
+        private int                   size         = 0;
+
+        // The path of nodes of the previously added prefix
+        private int[] previous     = new int[16];
+        private int   previousLen  = 0;
+        private int[] pathNodes    = new int[17];
+
+        Compiler() {
+            nodeValue[0] = -1;
+        }
+
+        @Override
+        public void visit(int[] prefix, int length, V value) {
+            int common = 0;
+            int maxCommon = Math.min(length, previousLen);
+            while (common < maxCommon && prefix[common] == previous[common]) {
+                common++;
+            }
+
+            if (length >= pathNodes.length) {
+                pathNodes = Arrays.copyOf(pathNodes, length * 2 + 1);
+                previous = Arrays.copyOf(previous, length * 2 + 1);
+            }
+
+            for (int i = common; i < length; i++) {
+                if (nodes == parent.length) {
+                    int newLength = nodes * 2;
+                    parent    = Arrays.copyOf(parent,    newLength);
+                    depth     = Arrays.copyOf(depth,     newLength);
+                    nodeLabel = Arrays.copyOf(nodeLabel, newLength);
+                    nodeValue = Arrays.copyOf(nodeValue, newLength);
+                }
+                parent[nodes]    = pathNodes[i];
+                depth[nodes]     = i + 1;
+                nodeLabel[nodes] = prefix[i];
+                nodeValue[nodes] = -1;
+                pathNodes[i + 1] = nodes;
+                nodes++;
+            }
+
+            System.arraycopy(prefix, common, previous, common, length - common);
+            previousLen = length;
+
+            int node = pathNodes[length];
+            if (nodeValue[node] == -1) {
+                size++;
+            }
+            Integer index = valueIndexes.get(value);
+            if (index == null) {
+                index = valueIndexes.size();
+                valueIndexes.put(value, index);
+                if (index == valueList.length) {
+                    valueList = Arrays.copyOf(valueList, index * 2);
+                }
+                valueList[index] = value;
+            }
+            nodeValue[node] = index;
+        }
+
+        FrozenPrefixTrie<V> build(boolean caseSensitive, boolean asciiOnly) {
+            // Reorder the nodes from depth first into breadth first order.
+            // A stable sort on the depth does exactly that because in depth first order the
+            // nodes on the same level are already ordered by their parent.
+            int maxDepth = 0;
+            for (int node = 0; node < nodes; node++) {
+                maxDepth = Math.max(maxDepth, depth[node]);
+            }
+            int[] levelStart = new int[maxDepth + 2];
+            for (int node = 0; node < nodes; node++) {
+                levelStart[depth[node] + 1]++;
+            }
+            for (int level = 1; level < levelStart.length; level++) {
+                levelStart[level] += levelStart[level - 1];
+            }
+            int[] bfsIndex = new int[nodes];
+            for (int node = 0; node < nodes; node++) {
+                bfsIndex[node] = levelStart[depth[node]]++;
+            }
+
+            int[] childCount    = new int[nodes];
+            int[] label         = new int[nodes];
+            int[] valueIndex    = new int[nodes];
+            for (int node = 0; node < nodes; node++) {
+                int index = bfsIndex[node];
+                label[index]      = nodeLabel[node];
+                valueIndex[index] = nodeValue[node];
+                if (node > 0) {
+                    childCount[bfsIndex[parent[node]]]++;
+                }
+            }
+
+            int[] firstChild = new int[nodes + 1];
+            firstChild[0] = 1;
+            for (int index = 0; index < nodes; index++) {
+                firstChild[index + 1] = firstChild[index] + childCount[index];
+            }
+
+            return new FrozenPrefixTrie<>(caseSensitive, asciiOnly, size,
+                firstChild, label, valueIndex, Arrays.copyOf(valueList, valueIndexes.size()));
+        }
+    }
+
+    /**
+     * @return The number of stored prefixes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of nodes in this trie.
+     */
+    int nodes() {
+        return label.length;
+    }
+
+    /**
+     * @return The first child of the node, the children of node n are the nodes firstChild(n) .. firstChild(n+1)-1.
+     */
+    int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @return The code point on the edge that leads into the node.
+     */
+    int label(int node) {
+        return label[node];
+    }
+
+    /**
+     * @return The index of the value of the node in {@link #values()}, -1 if the node has no value.
+     */
+    int valueIndex(int node) {
+        return valueIndex[node];
+    }
+
+    /**
+     * @return All different values that are stored in this trie.
+     */
+    Object[] values() {
+        return values;
+    }
+
+    /**
+     * @return If this trie only accepts readable ASCII.
+     */
+    boolean asciiOnly() {
+        return asciiOnly;
+    }
+
+    /**
+     * @return The character as it is stored in the labels, -1 if it can never be part of a label.
+     */
+    private int normalize(int myChar) {
+        if (caseSensitive) {
+            return myChar;
+        }
+        if (myChar < 128) {
+            return (myChar >= 'A' && myChar <= 'Z') ? myChar + ('a' - 'A') : myChar;
+        }
+        return asciiOnly ? -1 : Character.toLowerCase(myChar);
+    }
+
+    /**
+     * @return The node that is the child of the provided node via the provided character, -1 if not found.
+     */
+    int getChild(int node, int myChar) {
+        int from = firstChild[node];
+        int to   = firstChild[node + 1];
+        if (to - from <= 8) {
+            for (int child = from; child < to; child++) {
+                if (label[child] == myChar) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+        int child = Arrays.binarySearch(label, from, to, myChar);
+        return child < 0 ? -1 : child;
+    }
+
+    V valueOf(int node) {
+        return valueOfIndex(valueIndex[node]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueOfIndex(int index) {
+        return index < 0 ? null : (V) values[index];
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        int node = 0;
+        while (prefix.hasNext()) {
+            node = getChild(node, normalize(prefix.nextInt()));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        int node = 0;
+        while (valueIndex[node] < 0 && input.hasNext()) {
+            node = getChild(node, normalize(input.nextInt()));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        int node = 0;
+        int result = valueIndex[0];
+        while (input.hasNext()) {
+            node = getChild(node, normalize(input.nextInt()));
+            if (node < 0) {
+                break;
+            }
+            if (valueIndex[node] >= 0) {
+                result = valueIndex[node];
+            }
+        }
+        return valueOfIndex(result);
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        int node = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        int node = 0;
+        int index = start;
+        while (valueIndex[node] < 0 && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        int node = 0;
+        int result = valueIndex[0];
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                break;
+            }
+            if (valueIndex[node] >= 0) {
+                result = valueIndex[node];
+            }
+        }
+        return valueOfIndex(result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int node = 0;
+        int index = start;
+        while (valueIndex[node] < 0 && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                return setMatch(result, null, 0);
+            }
+        }
+        return setMatch(result, valueOf(node), index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int node = 0;
+        int found = valueIndex[0];
+        int length = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                break;
+            }
+            if (valueIndex[node] >= 0) {
+                found = valueIndex[node];
+                length = index - start;
+            }
+        }
+        return setMatch(result, valueOfIndex(found), length);
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class FrozenTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final FrozenPrefixTrie<V> trie;
+        private int node;
+
+        FrozenTrieIterator(PrimitiveIterator.OfInt input, FrozenPrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.node = 0;
+            this.next = trie.valueOf(0);
+            if (next == null) {
+                next = getNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (node >= 0 && input.hasNext()) {
+                int myChar = input.nextInt();
+                length += Character.charCount(myChar);
+                node = trie.getChild(node, trie.normalize(myChar));
+                if (node < 0) {
+                    return null;
+                }
+                V value = trie.valueOf(node);
+                if (value != null) {
+                    nextLength = length;
+                    return value;
+                }
+            }
+            node = -1;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new FrozenTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new FrozenTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixEntryIterator<V> prefixIterator() {
+        return new PrefixEntryIterator<V>() {
+            @Override
+            V valueOf(int node) {
+                return FrozenPrefixTrie.this.valueOf(node);
+            }
+
+            @Override
+            int nextChild(int node, int previous) {
+                int child = previous < 0 ? firstChild[node] : previous + 1;
+                return child < firstChild[node + 1] ? child : -1;
+            }
+
+            @Override
+            int label(int node, int child) {
+                return label[child];
+            }
+        };
+    }
+
+    // ==============================================================
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+}
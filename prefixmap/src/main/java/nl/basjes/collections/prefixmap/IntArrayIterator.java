@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+/**
+ * A lightweight iterator over a range of an array of (Unicode code point) ints.
+ * This is the same as <code>Arrays.stream(input, offset, offset + length).iterator()</code>
+ * but without the stream pipeline that is behind that.
+ */
+final class IntArrayIterator implements PrimitiveIterator.OfInt {
+    private final int[] input;
+    private final int   end;
+    private int         index;
+
+    /**
+     * Iterate over the ints in the range [offset, offset + length) of the input.
+     * @throws IndexOutOfBoundsException if the range is not within the input.
+     */
+    IntArrayIterator(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        this.input = input;
+        this.end = offset + length;
+        this.index = offset;
+    }
+
+    /**
+     * Verify that the range [offset, offset + length) is within the input.
+     * @param input  The array.
+     * @param offset The index of the first element of the range.
+     * @param length The number of elements in the range.
+     * @throws NullPointerException if the input is null.
+     * @throws IndexOutOfBoundsException if the range is not within the input.
+     */
+    static void checkRange(int[] input, int offset, int length) {
+        Objects.requireNonNull(input, "The input may not be null");
+        if (offset < 0 || length < 0 || length > input.length - offset) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + input.length);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < end;
+    }
+
+    @Override
+    public int nextInt() {
+        if (index >= end) {
+            throw new NoSuchElementException("Trying nextInt() when hasNext() is false.");
+        }
+        return input[index++];
+    }
+}
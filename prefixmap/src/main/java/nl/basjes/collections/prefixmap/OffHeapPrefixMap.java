@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>A read only PrefixMap where the trie (the same layout as the {@link FrozenPrefixMap}) is stored
+ * outside the Java heap in a direct ByteBuffer.</p>
+ * <p>Only the (deduplicated) values remain on the heap, so even a map with a very large number of
+ * prefixes adds almost nothing to the heap the garbage collector has to trace.</p>
+ * <p>It is built from any Map (so also any existing PrefixMap) or via {@link StringPrefixMap#freezeOffHeap()}.
+ * All methods that try to modify this map throw an UnsupportedOperationException.</p>
+ * <p>The off heap memory is released when this map has been garbage collected.</p>
+ * <p>The map can also be written to a file (see {@link #write(Path, FrontCodedPrefixFormat.ValueWriter)}) which can later
+ * be memory mapped (see {@link #open(Path, FrontCodedPrefixFormat.ValueReader)}). Opening such a file does not read nor
+ * rebuild the trie: the lookups are done directly on the mapped pages so the startup time does not depend on the number
+ * of prefixes and all JVMs on the same host that open the same file share a single copy in the page cache.</p>
+ * <p>The file format (all numbers are little endian):</p>
+ * <ul>
+ *     <li>A header of 32 bytes:
+ *     <ul>
+ *         <li>int: the magic number (the bytes "PFXM").</li>
+ *         <li>int: the format version (currently 2).</li>
+ *         <li>int: the flags (bit 0: case sensitive, bit 1: only ASCII).</li>
+ *         <li>int: the number of prefixes.</li>
+ *         <li>int: the number of nodes (N).</li>
+ *         <li>int: the number of bytes of the values section.</li>
+ *         <li>long: reserved (0).</li>
+ *     </ul></li>
+ *     <li>The node table: N+1 records of 3 ints (first child, label, value index). These are the same records
+ *     as the node table of an OffHeapPrefixMap in memory but that uses the native byte order of the platform.
+ *     The last record only holds the first child.</li>
+ *     <li>The values section: the number of (deduplicated) values as a big endian int (as written by a DataOutput)
+ *     followed by each value as written by the {@link FrontCodedPrefixFormat.ValueWriter} that was provided.</li>
+ * </ul>
+ * <p>The values are NOT written with Java serialization so opening a file never deserializes arbitrary classes:
+ * the provided {@link FrontCodedPrefixFormat.ValueReader} is the only code that reads them.</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+@DefaultSerializer(OffHeapPrefixMap.KryoSerializer.class)
+public final class OffHeapPrefixMap<V extends Serializable> extends FrozenPrefixMap<V> {
+
+    /**
+     * Build an OffHeapPrefixMap.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param prefixesAndValues The prefixes and their values.
+     */
+    public OffHeapPrefixMap(boolean caseSensitive, Map<String, ? extends V> prefixesAndValues) {
+        this(compile(caseSensitive, prefixesAndValues));
+    }
+
+    OffHeapPrefixMap(OffHeapPrefixTrie<V> prefixTrie) {
+        super(prefixTrie, prefixTrie.size());
+    }
+
+    @Override
+    Object[] distinctValues() {
+        return ((OffHeapPrefixTrie<V>) prefixTrie()).values();
+    }
+
+    public static class KryoSerializer extends Serializer<OffHeapPrefixMap<Serializable>> {
+
+        public void write(Kryo kryo, Output output, OffHeapPrefixMap<Serializable> instance) {
+            kryo.writeObject(output, instance.prefixTrie());
+        }
+
+        @SuppressWarnings("unchecked")
+        public OffHeapPrefixMap<Serializable> read(Kryo kryo, Input input, Class<? extends OffHeapPrefixMap<Serializable>> type) {
+            return new OffHeapPrefixMap<>((OffHeapPrefixTrie<Serializable>) kryo.readObject(input, OffHeapPrefixTrie.class));
+        }
+    }
+
+    /**
+     * Write this map to a file which can be memory mapped using {@link #open(Path, FrontCodedPrefixFormat.ValueReader)}.
+     * An existing file is overwritten.
+     * @param file        The file to write to.
+     * @param valueWriter Writes a single value (for example {@link FrontCodedPrefixFormat#stringWriter()}).
+     * @throws IOException If writing the file failed.
+     */
+    public void write(Path file, FrontCodedPrefixFormat.ValueWriter<? super V> valueWriter) throws IOException {
+        Objects.requireNonNull(valueWriter, "The valueWriter may not be null");
+        try (FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ((OffHeapPrefixTrie<V>) prefixTrie()).write(channel, valueWriter);
+        }
+    }
+
+    /**
+     * Memory map a file that was written by {@link #write(Path, FrontCodedPrefixFormat.ValueWriter)}.
+     * @param file        The file to open.
+     * @param valueReader Reads a single value that was written by the matching ValueWriter
+     *                    (for example {@link FrontCodedPrefixFormat#stringReader()}).
+     * @param <V> The type of the value that is stored.
+     * @return The map which does all lookups directly on the mapped file.
+     * @throws IOException If the file could not be read or is not a valid prefix map file.
+     */
+    public static <V extends Serializable> OffHeapPrefixMap<V> open(Path file, FrontCodedPrefixFormat.ValueReader<? extends V> valueReader)
+        throws IOException {
+        Objects.requireNonNull(valueReader, "The valueReader may not be null");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new OffHeapPrefixMap<>(OffHeapPrefixTrie.map(channel, valueReader));
+        }
+    }
+
+    private static <V extends Serializable> OffHeapPrefixTrie<V> compile(boolean caseSensitive,
+                                                                         Map<String, ? extends V> prefixesAndValues) {
+        RadixPrefixTrie<V> source = new RadixPrefixTrie<>(caseSensitive);
+        for (Map.Entry<String, ? extends V> entry : prefixesAndValues.entrySet()) {
+            source.add(entry.getKey(), entry.getValue());
+        }
+        return new OffHeapPrefixTrie<>(FrozenPrefixTrie.compile(source, false), false);
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.collections.MatchResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>A read only trie with the same layout as the {@link FrozenPrefixTrie} where the node table is stored
+ * in a direct (i.e. off heap) or memory mapped ByteBuffer instead of in int arrays on the Java heap.</p>
+ * <p>Each node is a record of 3 ints: the first child, the label (the code point on the edge that leads
+ * into the node) and the index of the value (-1 if none). The nodes are in breadth first order so the
+ * children of node <code>n</code> are the nodes <code>firstChild(n)</code> up to (excluding)
+ * <code>firstChild(n+1)</code>; there is one extra record at the end that only holds the first child.</p>
+ * <p>Only the (deduplicated) values remain on the heap so the garbage collector has only a single
+ * (off heap) buffer and the values to deal with, regardless of the number of prefixes.</p>
+ */
+@DefaultSerializer(OffHeapPrefixTrie.KryoSerializer.class)
+final class OffHeapPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    private static final int FIRST_CHILD = 0;
+    private static final int LABEL       = 4;
+    private static final int VALUE       = 8;
+    private static final int RECORD_SIZE = 12;
+
+    // The file format, see OffHeapPrefixMap for the description.
+    private static final int FILE_MAGIC   = 0x4D584650; // "PFXM" when read as little endian bytes
+    private static final int FILE_VERSION = 2;
+    private static final int HEADER_SIZE  = 32;
+    private static final int WRITE_CHUNK  = 65536;
+
+    private final boolean        caseSensitive;
+    private final boolean        asciiOnly;
+    private final int            size;
+    private final int            nodeCount;
+    private transient ByteBuffer nodes;
+    private final Object[]       values;
+
+    OffHeapPrefixTrie(FrozenPrefixTrie<V> source, boolean asciiOnly) {
+        this.caseSensitive = source.caseSensitive();
+        this.asciiOnly = asciiOnly;
+        this.size = source.size();
+        this.nodeCount = source.nodes();
+        this.nodes = allocate(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            int offset = node * RECORD_SIZE;
+            nodes.putInt(offset + FIRST_CHILD, source.firstChild(node));
+            nodes.putInt(offset + LABEL,       source.label(node));
+            nodes.putInt(offset + VALUE,       source.valueIndex(node));
+        }
+        nodes.putInt(nodeCount * RECORD_SIZE + FIRST_CHILD, source.firstChild(nodeCount));
+        this.values = source.values();
+    }
+
+    private OffHeapPrefixTrie(boolean caseSensitive, boolean asciiOnly, int size, int nodeCount, ByteBuffer nodes, Object[] values) {
+        this.caseSensitive = caseSensitive;
+        this.asciiOnly = asciiOnly;
+        this.size = size;
+        this.nodeCount = nodeCount;
+        this.nodes = nodes;
+        this.values = values;
+    }
+
+    private static ByteBuffer allocate(int nodeCount) {
+        if (nodeCount >= (Integer.MAX_VALUE / RECORD_SIZE) - 1) {
+            throw new IllegalArgumentException("Too many nodes (" + nodeCount + ") for an off heap trie.");
+        }
+        return ByteBuffer.allocateDirect((nodeCount + 1) * RECORD_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    // The buffer is not Serializable so the node table is written as plain ints.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int offset = 0; offset < (nodeCount + 1) * RECORD_SIZE; offset += 4) {
+            out.writeInt(nodes.getInt(offset));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        nodes = allocate(nodeCount);
+        for (int offset = 0; offset < (nodeCount + 1) * RECORD_SIZE; offset += 4) {
+            nodes.putInt(offset, in.readInt());
+        }
+    }
+
+    /**
+     * Write this trie in the (little endian) file format to the provided channel.
+     * @param channel     The channel to write to, it is written from the current position.
+     * @param valueWriter Writes a single value.
+     * @throws IOException If writing fails.
+     */
+    @SuppressWarnings("unchecked")
+    void write(FileChannel channel, FrontCodedPrefixFormat.ValueWriter<? super V> valueWriter) throws IOException {
+        ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(valueBytes)) {
+            out.writeInt(values.length);
+            for (Object value : values) {
+                valueWriter.write(out, (V) value);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(FILE_MAGIC);
+        buffer.putInt(FILE_VERSION);
+        buffer.putInt((caseSensitive ? 1 : 0) | (asciiOnly ? 2 : 0));
+        buffer.putInt(size);
+        buffer.putInt(nodeCount);
+        buffer.putInt(valueBytes.size());
+        buffer.putLong(0); // Reserved
+        for (int offset = 0; offset < (nodeCount + 1) * RECORD_SIZE; offset += 4) {
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                writeFully(channel, buffer);
+                buffer.clear();
+            }
+            buffer.putInt(nodes.getInt(offset));
+        }
+        buffer.flip();
+        writeFully(channel, buffer);
+        writeFully(channel, ByteBuffer.wrap(valueBytes.toByteArray()));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Map a file that was written by {@link #write(FileChannel, FrontCodedPrefixFormat.ValueWriter)}. The node table is
+     * NOT read: all lookups are done directly on the mapped pages. Only the (deduplicated) values are read (by the valueReader).
+     * @param channel     The channel of the entire file, it may be closed after this call.
+     * @param valueReader Reads a single value.
+     * @return The trie that uses the mapped file.
+     * @throws IOException If the file could not be read or is not a valid prefix map file.
+     */
+    static <V extends Serializable> OffHeapPrefixTrie<V> map(FileChannel channel, FrontCodedPrefixFormat.ValueReader<? extends V> valueReader)
+        throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            throw new IOException("Not a prefix map file: only " + fileSize + " bytes.");
+        }
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != FILE_MAGIC) {
+            throw new IOException("Not a prefix map file: bad magic.");
+        }
+        int version = header.getInt(4);
+        if (version != FILE_VERSION) {
+            throw new IOException("Unsupported prefix map file version " + version + " (expected " + FILE_VERSION + ").");
+        }
+        int flags       = header.getInt(8);
+        int size        = header.getInt(12);
+        int nodeCount   = header.getInt(16);
+        int valuesBytes = header.getInt(20);
+        if (size < 0 || nodeCount < 1 || nodeCount >= (Integer.MAX_VALUE / RECORD_SIZE) - 1 || valuesBytes < 0 ||
+            fileSize != HEADER_SIZE + (long) (nodeCount + 1) * RECORD_SIZE + valuesBytes) {
+            throw new IOException("Corrupt prefix map file: the header does not match the file size of " + fileSize + " bytes.");
+        }
+
+        int nodesBytes = (nodeCount + 1) * RECORD_SIZE;
+        ByteBuffer nodes = channel
+            .map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, nodesBytes)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+        Object[] values;
+        ByteBuffer valueBytes = readFully(channel, HEADER_SIZE + (long) nodesBytes, valuesBytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(valueBytes.array()))) {
+            int valueCount = in.readInt();
+            if (valueCount < 0 || valueCount > valuesBytes) {
+                throw new IOException("Corrupt prefix map file: invalid number of values " + valueCount + ".");
+            }
+            values = new Object[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                values[i] = Objects.requireNonNull(valueReader.read(in), "The valueReader returned null");
+            }
+            if (in.available() != 0) {
+                throw new IOException("Corrupt prefix map file: " + in.available() + " bytes after the values.");
+            }
+        } catch (EOFException e) {
+            throw new IOException("Corrupt prefix map file: unexpected end of the values.", e);
+        }
+        return new OffHeapPrefixTrie<>((flags & 1) != 0, (flags & 2) != 0, size, nodeCount, nodes, values);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Corrupt prefix map file: unexpected end of file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public static class KryoSerializer extends Serializer<OffHeapPrefixTrie<Serializable>> {
+
+        public void write(Kryo kryo, Output output, OffHeapPrefixTrie<Serializable> instance) {
+            output.writeBoolean(instance.caseSensitive);
+            output.writeBoolean(instance.asciiOnly);
+            output.writeInt(instance.size);
+            output.writeInt(instance.nodeCount);
+            for (int offset = 0; offset < (instance.nodeCount + 1) * RECORD_SIZE; offset += 4) {
+                output.writeInt(instance.nodes.getInt(offset));
+            }
+            kryo.writeClassAndObject(output, instance.values);
+        }
+
+        public OffHeapPrefixTrie<Serializable> read(Kryo kryo, Input input, Class<? extends OffHeapPrefixTrie<Serializable>> type) {
+            boolean caseSensitive = input.readBoolean();
+            boolean asciiOnly = input.readBoolean();
+            int size = input.readInt();
+            int nodeCount = input.readInt();
+            ByteBuffer nodes = allocate(nodeCount);
+            for (int offset = 0; offset < (nodeCount + 1) * RECORD_SIZE; offset += 4) {
+                nodes.putInt(offset, input.readInt());
+            }
+            Object[] values = (Object[]) kryo.readClassAndObject(input);
+            return new OffHeapPrefixTrie<>(caseSensitive, asciiOnly, size, nodeCount, nodes, values);
+        }
+    }
+
+    /**
+     * @return The number of stored prefixes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return All different values that are stored in this trie.
+     */
+    Object[] values() {
+        return values;
+    }
+
+    /**
+     * @return The number of bytes of the (off heap) node table.
+     */
+    int offHeapBytes() {
+        return nodes.capacity();
+    }
+
+    private int firstChild(int node) {
+        return nodes.getInt(node * RECORD_SIZE + FIRST_CHILD);
+    }
+
+    private int label(int node) {
+        return nodes.getInt(node * RECORD_SIZE + LABEL);
+    }
+
+    private int valueIndex(int node) {
+        return nodes.getInt(node * RECORD_SIZE + VALUE);
+    }
+
+    /**
+     * @return The character as it is stored in the labels, -1 if it can never be part of a label.
+     */
+    private int normalize(int myChar) {
+        if (caseSensitive) {
+            return myChar;
+        }
+        if (myChar < 128) {
+            return (myChar >= 'A' && myChar <= 'Z') ? myChar + ('a' - 'A') : myChar;
+        }
+        return asciiOnly ? -1 : Character.toLowerCase(myChar);
+    }
+
+    /**
+     * @return The node that is the child of the provided node via the provided character, -1 if not found.
+     */
+    private int getChild(int node, int myChar) {
+        int from = firstChild(node);
+        int to   = firstChild(node + 1);
+        if (to - from <= 8) {
+            for (int child = from; child < to; child++) {
+                if (label(child) == myChar) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleLabel = label(middle);
+            if (middleLabel < myChar) {
+                low = middle + 1;
+            } else if (middleLabel > myChar) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private V valueOf(int node) {
+        return valueOfIndex(valueIndex(node));
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueOfIndex(int index) {
+        return index < 0 ? null : (V) values[index];
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A frozen PrefixMap cannot be modified");
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        int node = 0;
+        while (prefix.hasNext()) {
+            node = getChild(node, normalize(prefix.nextInt()));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        int node = 0;
+        while (valueIndex(node) < 0 && input.hasNext()) {
+            node = getChild(node, normalize(input.nextInt()));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        int node = 0;
+        int result = valueIndex(0);
+        while (input.hasNext()) {
+            node = getChild(node, normalize(input.nextInt()));
+            if (node < 0) {
+                break;
+            }
+            if (valueIndex(node) >= 0) {
+                result = valueIndex(node);
+            }
+        }
+        return valueOfIndex(result);
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        int node = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        int node = 0;
+        int index = start;
+        while (valueIndex(node) < 0 && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                return null;
+            }
+        }
+        return valueOf(node);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        int node = 0;
+        int result = valueIndex(0);
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                break;
+            }
+            if (valueIndex(node) >= 0) {
+                result = valueIndex(node);
+            }
+        }
+        return valueOfIndex(result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int node = 0;
+        int index = start;
+        while (valueIndex(node) < 0 && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                return setMatch(result, null, 0);
+            }
+        }
+        return setMatch(result, valueOf(node), index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int node = 0;
+        int found = valueIndex(0);
+        int length = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = getChild(node, normalize(myChar));
+            if (node < 0) {
+                break;
+            }
+            if (valueIndex(node) >= 0) {
+                found = valueIndex(node);
+                length = index - start;
+            }
+        }
+        return setMatch(result, valueOfIndex(found), length);
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class OffHeapTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final OffHeapPrefixTrie<V> trie;
+        private int node;
+
+        OffHeapTrieIterator(PrimitiveIterator.OfInt input, OffHeapPrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.node = 0;
+            this.next = trie.valueOf(0);
+            if (next == null) {
+                next = getNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (node >= 0 && input.hasNext()) {
+                int myChar = input.nextInt();
+                length += Character.charCount(myChar);
+                node = trie.getChild(node, trie.normalize(myChar));
+                if (node < 0) {
+                    return null;
+                }
+                V value = trie.valueOf(node);
+                if (value != null) {
+                    nextLength = length;
+                    return value;
+                }
+            }
+            node = -1;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new OffHeapTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new OffHeapTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixEntryIterator<V> prefixIterator() {
+        return new PrefixEntryIterator<V>() {
+            @Override
+            V valueOf(int node) {
+                return OffHeapPrefixTrie.this.valueOf(node);
+            }
+
+            @Override
+            int nextChild(int node, int previous) {
+                int child = previous < 0 ? firstChild(node) : previous + 1;
+                return child < firstChild(node + 1) ? child : -1;
+            }
+
+            @Override
+            int label(int node, int child) {
+                return OffHeapPrefixTrie.this.label(child);
+            }
+        };
+    }
+
+    // ==============================================================
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+}
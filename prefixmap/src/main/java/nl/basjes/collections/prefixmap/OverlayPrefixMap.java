@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.collections.MatchResult;
+import nl.basjes.collections.PrefixMap;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.checkRegion;
+import static nl.basjes.collections.prefixmap.IntArrayIterator.checkRange;
+
+/**
+ * <p>The OverlayPrefixMap is a PrefixMap that combines a large read only base with a small overlay of changes.</p>
+ * <p>Putting or removing a prefix only changes the overlay (a removed prefix of the base gets a tombstone in the
+ * overlay), so a few changes on a big set of prefixes do not require rebuilding the entire trie.
+ * A lookup walks the base and the overlay at the same time and at each length the overlay wins over the base,
+ * so the result is exactly the same as if all changes had been applied to the base.</p>
+ * <p>With {@link #compact()} (or {@link #compact(Executor)} in the background) all changes are merged into a new
+ * base. The changes that are done while the new base is being built are retained in the overlay.</p>
+ * <p>Every change creates a new immutable version of the combined trie which is published via a single volatile
+ * reference, so lookups never lock and always see a consistent version. Changes are serialized on this map.</p>
+ * <p>The base is a {@link FrozenPrefixMap} and matching uses the same rules as the {@link StringPrefixMap}.</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+@DefaultSerializer(OverlayPrefixMap.KryoSerializer.class)
+public class OverlayPrefixMap<V extends Serializable> implements PrefixMap<V>, Serializable {
+    private volatile OverlayPrefixTrie<V> trie;
+
+    /**
+     * Creates an empty map.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     */
+    public OverlayPrefixMap(boolean caseSensitive) {
+        this.trie = OverlayPrefixTrie.empty(caseSensitive);
+    }
+
+    /**
+     * Creates a map with the provided map as the base.
+     * @param base The prefixes and values that form the base (this FrozenPrefixMap is not changed).
+     */
+    public OverlayPrefixMap(FrozenPrefixMap<V> base) {
+        Objects.requireNonNull(base, "The base may not be null");
+        this.trie = new OverlayPrefixTrie<>(OverlayPrefixTrie.asBase(base.prefixTrie()));
+    }
+
+    /**
+     * @return The current version of the trie that holds all the prefixes.
+     */
+    PrefixTrie<V> prefixTrie() {
+        return trie;
+    }
+
+    /**
+     * @return Are the lookups case sensitive or not.
+     */
+    public boolean caseSensitive() {
+        return trie.caseSensitive();
+    }
+
+    @Override
+    public int size() {
+        return trie.size();
+    }
+
+    /**
+     * @return The number of changes (including the tombstones of removed prefixes) in the overlay.
+     */
+    public int overlaySize() {
+        return trie.overlaySize();
+    }
+
+    @Override
+    public synchronized V put(String prefix, V value) {
+        Objects.requireNonNull(prefix, "The prefix may not be null");
+        Objects.requireNonNull(value, "The value may not be null");
+        OverlayPrefixTrie<V> current = trie;
+        V previousValue = current.get((CharSequence) prefix);
+        trie = current.with(prefix.codePoints().toArray(), value);
+        return previousValue;
+    }
+
+    @Override
+    public synchronized V remove(String prefix) {
+        Objects.requireNonNull(prefix, "The prefix may not be null");
+        OverlayPrefixTrie<V> current = trie;
+        V previousValue = current.get((CharSequence) prefix);
+        trie = current.with(prefix.codePoints().toArray(), null);
+        return previousValue;
+    }
+
+    @Override
+    public V remove(Object prefix) {
+        return remove((String) prefix);
+    }
+
+    @Override
+    public synchronized void clear() {
+        trie = OverlayPrefixTrie.empty(trie.caseSensitive());
+    }
+
+    /**
+     * Merge all changes into a new base.
+     */
+    public void compact() {
+        compact(Runnable::run).join();
+    }
+
+    /**
+     * Merge all changes into a new base which is built on the provided executor.
+     * Until the new base is ready the lookups and changes continue to use the current base and overlay.
+     * The changes that are done while the new base is being built remain in the overlay.
+     * @param executor The executor on which the new base is built.
+     * @return A future that completes when the new base is in use.
+     */
+    public CompletableFuture<Void> compact(Executor executor) {
+        OverlayPrefixTrie<V> snapshot = trie;
+        return CompletableFuture.runAsync(() -> {
+            FrozenPrefixTrie<V> newBase = snapshot.compileBase();
+            synchronized (this) {
+                trie = trie.rebase(newBase, snapshot);
+            }
+        }, executor);
+    }
+
+    @Override
+    public V get(String prefix) {
+        return trie.get((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(String prefix) {
+        return trie.containsPrefix((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix) {
+        return trie.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix, int start, int end) {
+        checkRegion(prefix, start, end);
+        return trie.containsPrefix(prefix, start, end);
+    }
+
+    @Override
+    public V getShortestMatch(String input) {
+        return trie.getShortestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input) {
+        return trie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return trie.getShortestMatch(input, start, end);
+    }
+
+    @Override
+    public V getLongestMatch(String input) {
+        return trie.getLongestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input) {
+        return trie.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return trie.getLongestMatch(input, start, end);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(String input) {
+        return trie.getAllMatches((CharSequence) input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input) {
+        return trie.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return trie.getAllMatches(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix) {
+        return trie.containsPrefix(prefix, 0, prefix.length);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix, int offset, int length) {
+        checkRange(prefix, offset, length);
+        return trie.containsPrefix(prefix, offset, length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input) {
+        return trie.getShortestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return trie.getShortestMatch(input, offset, length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input) {
+        return trie.getLongestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return trie.getLongestMatch(input, offset, length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input) {
+        return trie.getAllMatches(input, 0, input.length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return trie.getAllMatches(input, offset, length);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, MatchResult<V> result) {
+        return trie.getShortestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return trie.getShortestMatch(input, start, end, result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, MatchResult<V> result) {
+        return trie.getLongestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return trie.getLongestMatch(input, start, end, result);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input) {
+        return trie.getAllMatchResults(input, 0, input.length());
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return trie.getAllMatchResults(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(PrimitiveIterator.OfInt prefix) {
+        return trie.containsPrefix(prefix);
+    }
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        return trie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        return trie.getLongestMatch(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return trie.getAllMatches(input);
+    }
+
+    /**
+     * @return All prefixes (in lower case if case INsensitive) with their values.
+     */
+    private List<Map.Entry<String, V>> entries() {
+        List<Map.Entry<String, V>> entries = new ArrayList<>();
+        trie.forEachPrefix((prefix, length, value) ->
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(new String(prefix, 0, length), value)));
+        return entries;
+    }
+
+    /**
+     * The entries are NOT retained in this map, they are reconstructed from the trie on every call.
+     * @return All prefixes (in lower case if case INsensitive) with their values in a sorted read only map.
+     */
+    private Map<String, V> toMap() {
+        TreeMap<String, V> allPrefixes = new TreeMap<>();
+        for (Map.Entry<String, V> entry : entries()) {
+            allPrefixes.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(allPrefixes);
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return toMap().entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return toMap().keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return toMap().values();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return trie.containsPrefix((CharSequence) key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        boolean[] found = {false};
+        trie.forEachPrefix((prefix, length, storedValue) -> found[0] |= storedValue.equals(value));
+        return found[0];
+    }
+
+    // ------------------------------------------
+    // KRYO SERIALIZATION
+
+    /**
+     * Only the setting and the prefixes with their values are written, when reading all prefixes go into the base.
+     */
+    public static class KryoSerializer extends Serializer<OverlayPrefixMap<Serializable>> {
+
+        public void write(Kryo kryo, Output output, OverlayPrefixMap<Serializable> instance) {
+            List<Map.Entry<String, Serializable>> entries = instance.entries();
+            output.writeBoolean(instance.caseSensitive());
+            output.writeVarInt(entries.size(), true);
+            for (Map.Entry<String, Serializable> entry : entries) {
+                output.writeString(entry.getKey());
+                kryo.writeClassAndObject(output, entry.getValue());
+            }
+        }
+
+        public OverlayPrefixMap<Serializable> read(Kryo kryo, Input input, Class<? extends OverlayPrefixMap<Serializable>> type) {
+            StringPrefixMap.Builder<Serializable> builder = StringPrefixMap.builder(input.readBoolean());
+            int size = input.readVarInt(true);
+            for (int i = 0; i < size; i++) {
+                String prefix = input.readString();
+                builder.put(prefix, (Serializable) kryo.readClassAndObject(input));
+            }
+            return new OverlayPrefixMap<>(builder.buildFrozen());
+        }
+    }
+
+    // ------------------------------------------
+    // JAVA SERIALIZATION
+
+    /**
+     * The (Java) serialized form is this proxy which only has the setting and the prefixes with their values.
+     * @return The serialization proxy of this map.
+     */
+    Object writeReplace() {
+        return new SerializationProxy<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("An OverlayPrefixMap can only be deserialized via its serialization proxy.");
+    }
+
+    private static final class SerializationProxy<V extends Serializable> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean caseSensitive;
+        // The map that is written, or the map that is rebuilt when reading.
+        private transient OverlayPrefixMap<V> map;
+
+        SerializationProxy(OverlayPrefixMap<V> map) {
+            this.caseSensitive = map.caseSensitive();
+            this.map = map;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            List<Map.Entry<String, V>> entries = map.entries();
+            out.writeInt(entries.size());
+            for (Map.Entry<String, V> entry : entries) {
+                out.writeObject(entry.getKey());
+                out.writeObject(entry.getValue());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int size = in.readInt();
+            if (size < 0) {
+                throw new InvalidObjectException("Invalid number of prefixes: " + size);
+            }
+            StringPrefixMap.Builder<V> builder = StringPrefixMap.builder(caseSensitive);
+            for (int i = 0; i < size; i++) {
+                builder.put((String) in.readObject(), (V) in.readObject());
+            }
+            map = new OverlayPrefixMap<>(builder.buildFrozen());
+        }
+
+        private Object readResolve() {
+            return map;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+import nl.basjes.collections.prefixmap.PersistentPrefixTrie.Node;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>An immutable trie that combines a large read only base with a small overlay of changes.</p>
+ * <p>The overlay is a {@link PersistentPrefixTrie} that holds the prefixes that were added or changed after the
+ * base was built and a tombstone for each prefix of the base that was removed. A lookup walks both tries at the
+ * same time (one step per code point) where at each length the overlay wins over the base.</p>
+ * <p>A change creates a new version (which only copies the path in the overlay) so every version is a consistent
+ * snapshot that can be read by any number of threads without locking.</p>
+ * <p>If case INsensitive only the lower case variants are stored and the input is lower cased while matching.</p>
+ */
+final class OverlayPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    // Marks a prefix of the base that has been removed.
+    private enum Tombstone { INSTANCE }
+
+    private static final Serializable TOMBSTONE = Tombstone.INSTANCE;
+
+    private final boolean                            caseSensitive;
+    private final FrozenPrefixTrie<V>                base;
+    private final PersistentPrefixTrie<Serializable> overlay;
+    private final int                                size;        // The number of prefixes in the combined trie
+    private final int                                overlaySize; // The number of changes (including tombstones) in the overlay
+
+    OverlayPrefixTrie(FrozenPrefixTrie<V> base) {
+        this(base, new PersistentPrefixTrie<>(base.caseSensitive()), base.size(), 0);
+    }
+
+    private OverlayPrefixTrie(FrozenPrefixTrie<V> base, PersistentPrefixTrie<Serializable> overlay, int size, int overlaySize) {
+        this.caseSensitive = base.caseSensitive();
+        this.base = base;
+        this.overlay = overlay;
+        this.size = size;
+        this.overlaySize = overlaySize;
+    }
+
+    /**
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @return A trie with an empty base and an empty overlay.
+     */
+    static <V extends Serializable> OverlayPrefixTrie<V> empty(boolean caseSensitive) {
+        return new OverlayPrefixTrie<>(new FrozenPrefixTrie.Compiler<V>().build(caseSensitive, false));
+    }
+
+    /**
+     * @param trie The trie that is to be used as the base.
+     * @return The trie in a form that can be used as the base (which has the same matching rules as the overlay).
+     */
+    static <V extends Serializable> FrozenPrefixTrie<V> asBase(PrefixTrie<V> trie) {
+        if (trie instanceof FrozenPrefixTrie && !((FrozenPrefixTrie<V>) trie).asciiOnly()) {
+            return (FrozenPrefixTrie<V>) trie;
+        }
+        return FrozenPrefixTrie.compile(trie, false);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int overlaySize() {
+        return overlaySize;
+    }
+
+    FrozenPrefixTrie<V> base() {
+        return base;
+    }
+
+    private int normalize(int myChar) {
+        return caseSensitive ? myChar : Character.toLowerCase(myChar);
+    }
+
+    /**
+     * @return The value at the pair of nodes where the overlay wins over the base, null if there is no value.
+     */
+    @SuppressWarnings("unchecked") // All values in the overlay (except the tombstone) are of type V
+    private V valueAt(int baseNode, Node<Serializable> overlayNode) {
+        if (overlayNode != null) {
+            Serializable value = overlayNode.value();
+            if (value != null) {
+                return value == TOMBSTONE ? null : (V) value;
+            }
+        }
+        return baseNode < 0 ? null : base.valueOf(baseNode);
+    }
+
+    // ==============================================================
+    // NEW VERSIONS
+
+    /**
+     * @param prefix The prefix (as code points) that is to be changed.
+     * @param value  The new value, null to remove the prefix.
+     * @return The new version of this trie, this trie if nothing changed.
+     */
+    OverlayPrefixTrie<V> with(int[] prefix, V value) {
+        V oldValue = get(prefix, 0, prefix.length);
+        Serializable change = value;
+        if (value == null) {
+            if (oldValue == null) {
+                return this; // Nothing to remove
+            }
+            // Only a prefix of the base needs a tombstone, one that is only in the overlay is simply removed.
+            change = base.get(prefix, 0, prefix.length) == null ? null : TOMBSTONE;
+        }
+        boolean wasInOverlay = overlay.get(prefix, 0, prefix.length) != null;
+        return new OverlayPrefixTrie<>(
+            base,
+            overlay.with(new IntArrayIterator(prefix, 0, prefix.length), change),
+            size        + (oldValue == null ? 1 : 0) - (value == null ? 1 : 0),
+            overlaySize + (change == null ? 0 : 1) - (wasInOverlay ? 1 : 0));
+    }
+
+    /**
+     * @return A new base that contains all the prefixes of this trie (so without an overlay).
+     */
+    FrozenPrefixTrie<V> compileBase() {
+        return FrozenPrefixTrie.compile(this, false);
+    }
+
+    /**
+     * Put a new base (built from an older version of this trie) under the changes of this version.
+     * The changes that were already present in the older version are in the new base and are dropped from the overlay.
+     * @param newBase The base that was built from the older version.
+     * @param from    The older version of this trie from which the new base was built.
+     * @return The new version of this trie, this trie if the older version does not have the same base as this one.
+     */
+    OverlayPrefixTrie<V> rebase(FrozenPrefixTrie<V> newBase, OverlayPrefixTrie<V> from) {
+        if (from.base != base) {
+            return this; // The base has been replaced (i.e. cleared or compacted) in the meantime.
+        }
+        List<int[]>        prefixes = new ArrayList<>();
+        List<Serializable> values   = new ArrayList<>();
+        from.overlay.forEachPrefix((prefix, length, value) -> {
+            prefixes.add(Arrays.copyOf(prefix, length));
+            values.add(value);
+        });
+
+        PersistentPrefixTrie<Serializable> newOverlay = overlay;
+        int newOverlaySize = overlaySize;
+        for (int i = 0; i < prefixes.size(); i++) {
+            int[] prefix = prefixes.get(i);
+            Serializable current = newOverlay.get(prefix, 0, prefix.length);
+            if (current == values.get(i)) {
+                // Unchanged since the new base was built so it is part of the new base.
+                newOverlay = newOverlay.with(new IntArrayIterator(prefix, 0, prefix.length), null);
+                newOverlaySize--;
+            } else if (current == null) {
+                // Removed since the new base was built (where it still is present).
+                newOverlay = newOverlay.with(new IntArrayIterator(prefix, 0, prefix.length), TOMBSTONE);
+                newOverlaySize++;
+            }
+        }
+        return new OverlayPrefixTrie<>(newBase, newOverlay, size, newOverlaySize);
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        throw new UnsupportedOperationException("An overlay trie cannot be modified, create a new version instead");
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        throw new UnsupportedOperationException("An overlay trie cannot be modified, create a new version instead");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("An overlay trie cannot be modified, create a new version instead");
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        while (prefix.hasNext()) {
+            int myChar = normalize(prefix.nextInt());
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                return null;
+            }
+        }
+        return valueAt(baseNode, overlayNode);
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        V value = valueAt(baseNode, overlayNode);
+        while (value == null && input.hasNext()) {
+            int myChar = normalize(input.nextInt());
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                return null;
+            }
+            value = valueAt(baseNode, overlayNode);
+        }
+        return value;
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        V result = valueAt(baseNode, overlayNode);
+        while (input.hasNext()) {
+            int myChar = normalize(input.nextInt());
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                break;
+            }
+            V value = valueAt(baseNode, overlayNode);
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            myChar = normalize(myChar);
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                return null;
+            }
+        }
+        return valueAt(baseNode, overlayNode);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        V value = valueAt(baseNode, overlayNode);
+        int index = start;
+        while (value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            myChar = normalize(myChar);
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                return null;
+            }
+            value = valueAt(baseNode, overlayNode);
+        }
+        return value;
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        V result = valueAt(baseNode, overlayNode);
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            myChar = normalize(myChar);
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                break;
+            }
+            V value = valueAt(baseNode, overlayNode);
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        V value = valueAt(baseNode, overlayNode);
+        int index = start;
+        while (value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            myChar = normalize(myChar);
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                return setMatch(result, null, 0);
+            }
+            value = valueAt(baseNode, overlayNode);
+        }
+        return setMatch(result, value, index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int                baseNode    = 0;
+        Node<Serializable> overlayNode = overlay.root();
+        V found = valueAt(baseNode, overlayNode);
+        int length = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            myChar = normalize(myChar);
+            baseNode    = baseNode < 0       ? -1   : base.getChild(baseNode, myChar);
+            overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+            if (baseNode < 0 && overlayNode == null) {
+                break;
+            }
+            V value = valueAt(baseNode, overlayNode);
+            if (value != null) {
+                found = value;
+                length = index - start;
+            }
+        }
+        return setMatch(result, found, length);
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class OverlayTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final OverlayPrefixTrie<V>    trie;
+        private int                           baseNode;
+        private Node<Serializable>            overlayNode;
+        private boolean                       done = false;
+
+        OverlayTrieIterator(PrimitiveIterator.OfInt input, OverlayPrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.baseNode = 0;
+            this.overlayNode = trie.overlay.root();
+            this.next = trie.valueAt(baseNode, overlayNode);
+            if (next == null) {
+                next = getNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (!done && input.hasNext()) {
+                int inputChar = input.nextInt();
+                length += Character.charCount(inputChar);
+                int myChar = trie.normalize(inputChar);
+                baseNode    = baseNode < 0       ? -1   : trie.base.getChild(baseNode, myChar);
+                overlayNode = overlayNode == null ? null : overlayNode.getChild(myChar);
+                if (baseNode < 0 && overlayNode == null) {
+                    break;
+                }
+                V value = trie.valueAt(baseNode, overlayNode);
+                if (value != null) {
+                    nextLength = length;
+                    return value;
+                }
+            }
+            done = true;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new OverlayTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new OverlayTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixWalker<V> prefixIterator() {
+        return new OverlayTrieWalker();
+    }
+
+    /**
+     * Walks the base and the overlay at the same time by merging the (sorted) children of both, with an explicit
+     * stack of the pairs of nodes on the path to the current node (a node is -1 or null if it is only in the other one).
+     */
+    private final class OverlayTrieWalker extends PrefixWalker<V> {
+        private int[]                baseNodes     = new int[16];
+        private Node<Serializable>[] overlayNodes  = newNodeArray(16);
+        private int[]                baseChild     = new int[16]; // The next child of the base node to visit.
+        private int[]                overlayChild  = new int[16]; // The next child of the overlay node to visit.
+        private int                  depth         = 0;
+        private boolean              started       = false;
+
+        OverlayTrieWalker() {
+            baseNodes[0] = 0;
+            overlayNodes[0] = overlay.root();
+            baseChild[0] = base.firstChild(0);
+        }
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        private Node<Serializable>[] newNodeArray(int length) {
+            return (Node<Serializable>[]) Array.newInstance(Node.class, length);
+        }
+
+        @Override
+        V findNext() {
+            if (!started) {
+                started = true;
+                V value = valueAt(baseNodes[0], overlayNodes[0]);
+                if (value != null) {
+                    return value;
+                }
+            }
+            while (depth >= 0) {
+                int                baseNode    = baseNodes[depth];
+                Node<Serializable> overlayNode = overlayNodes[depth];
+                int baseEnd    = baseNode < 0 ? 0 : base.firstChild(baseNode + 1);
+                int overlayEnd = overlayNode == null ? 0 : overlayNode.childCount();
+                if (baseChild[depth] >= baseEnd && overlayChild[depth] >= overlayEnd) {
+                    overlayNodes[depth] = null;
+                    depth--;
+                    continue;
+                }
+                int baseLabel    = baseChild[depth]    < baseEnd    ? base.label(baseChild[depth])           : Integer.MAX_VALUE;
+                int overlayLabel = overlayChild[depth] < overlayEnd ? overlayNode.label(overlayChild[depth]) : Integer.MAX_VALUE;
+                int myChar = Math.min(baseLabel, overlayLabel);
+                int                nextBaseNode    = baseLabel    == myChar ? baseChild[depth]++                          : -1;
+                Node<Serializable> nextOverlayNode = overlayLabel == myChar ? overlayNode.child(overlayChild[depth]++) : null;
+                setLabel(depth, myChar);
+                depth++;
+                if (depth == baseNodes.length) {
+                    baseNodes    = Arrays.copyOf(baseNodes,    depth * 2);
+                    overlayNodes = Arrays.copyOf(overlayNodes, depth * 2);
+                    baseChild    = Arrays.copyOf(baseChild,    depth * 2);
+                    overlayChild = Arrays.copyOf(overlayChild, depth * 2);
+                }
+                baseNodes[depth]    = nextBaseNode;
+                overlayNodes[depth] = nextOverlayNode;
+                baseChild[depth]    = nextBaseNode < 0 ? 0 : base.firstChild(nextBaseNode);
+                overlayChild[depth] = 0;
+                V value = valueAt(nextBaseNode, nextOverlayNode);
+                if (value != null) {
+                    length = depth;
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    // ==============================================================
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.collections.MatchResult;
+import nl.basjes.collections.PrefixMap;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.checkRegion;
+import static nl.basjes.collections.prefixmap.IntArrayIterator.checkRange;
+
+/**
+ * <p>The PersistentPrefixMap is an immutable PrefixMap where every change creates a new version of the map.</p>
+ * <p>Only the trie nodes along the path of the changed prefix are copied, everything else is shared with the
+ * previous version. So a change costs O(length of the prefix) instead of copying the entire map and every version
+ * is a consistent snapshot that can be used by any number of threads without locking.</p>
+ * <p>The changes are done with {@link #with(String, Serializable)}, {@link #without(String)} and {@link #withAll(Map)},
+ * all methods of the Map interface that try to modify this map throw an UnsupportedOperationException.</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+@DefaultSerializer(PersistentPrefixMap.KryoSerializer.class)
+public class PersistentPrefixMap<V extends Serializable> implements PrefixMap<V>, Serializable {
+    private final PersistentPrefixTrie<V> prefixTrie;
+    private final int                     size;
+
+    /**
+     * Creates an empty map.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     */
+    public PersistentPrefixMap(boolean caseSensitive) {
+        this(new PersistentPrefixTrie<>(caseSensitive), 0);
+    }
+
+    PersistentPrefixMap(PersistentPrefixTrie<V> prefixTrie, int size) {
+        this.prefixTrie = prefixTrie;
+        this.size = size;
+    }
+
+    /**
+     * @return The trie that holds all the prefixes.
+     */
+    PersistentPrefixTrie<V> prefixTrie() {
+        return prefixTrie;
+    }
+
+    /**
+     * @return Are the lookups case sensitive or not.
+     */
+    public boolean caseSensitive() {
+        return prefixTrie.caseSensitive();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param prefix The prefix that is to be stored.
+     * @param value  The value for the prefix.
+     * @return A new version of this map where the prefix has the value, this map itself is not changed.
+     */
+    public PersistentPrefixMap<V> with(String prefix, V value) {
+        Objects.requireNonNull(prefix, "The prefix may not be null");
+        Objects.requireNonNull(value, "The value may not be null");
+        boolean isNew = prefixTrie.get((CharSequence) prefix) == null;
+        return new PersistentPrefixMap<>(prefixTrie.with(prefix.codePoints().iterator(), value), isNew ? size + 1 : size);
+    }
+
+    /**
+     * @param prefix The prefix that is to be removed.
+     * @return A new version of this map without the prefix (or this map if the prefix was not present),
+     * this map itself is not changed.
+     */
+    public PersistentPrefixMap<V> without(String prefix) {
+        Objects.requireNonNull(prefix, "The prefix may not be null");
+        if (prefixTrie.get((CharSequence) prefix) == null) {
+            return this;
+        }
+        return new PersistentPrefixMap<>(prefixTrie.with(prefix.codePoints().iterator(), null), size - 1);
+    }
+
+    /**
+     * @param prefixesAndValues The prefixes and values that are to be stored.
+     * @return A new version of this map with all the provided prefixes, this map itself is not changed.
+     */
+    public PersistentPrefixMap<V> withAll(Map<String, ? extends V> prefixesAndValues) {
+        PersistentPrefixMap<V> result = this;
+        for (Map.Entry<String, ? extends V> entry : prefixesAndValues.entrySet()) {
+            result = result.with(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public V put(String prefix, V value) {
+        throw new UnsupportedOperationException("A PersistentPrefixMap cannot be modified, use with(prefix, value) instead");
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends V> prefixesAndValues) {
+        throw new UnsupportedOperationException("A PersistentPrefixMap cannot be modified, use withAll(prefixesAndValues) instead");
+    }
+
+    @Override
+    public V remove(String prefix) {
+        throw new UnsupportedOperationException("A PersistentPrefixMap cannot be modified, use without(prefix) instead");
+    }
+
+    @Override
+    public V remove(Object prefix) {
+        throw new UnsupportedOperationException("A PersistentPrefixMap cannot be modified, use without(prefix) instead");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A PersistentPrefixMap cannot be modified");
+    }
+
+    @Override
+    public V get(String prefix) {
+        return prefixTrie.get((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(String prefix) {
+        return prefixTrie.containsPrefix((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix) {
+        return prefixTrie.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix, int start, int end) {
+        checkRegion(prefix, start, end);
+        return prefixTrie.containsPrefix(prefix, start, end);
+    }
+
+    @Override
+    public V getShortestMatch(String input) {
+        return prefixTrie.getShortestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input) {
+        return prefixTrie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end);
+    }
+
+    @Override
+    public V getLongestMatch(String input) {
+        return prefixTrie.getLongestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input) {
+        return prefixTrie.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(String input) {
+        return prefixTrie.getAllMatches((CharSequence) input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input) {
+        return prefixTrie.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatches(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix) {
+        return prefixTrie.containsPrefix(prefix, 0, prefix.length);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix, int offset, int length) {
+        checkRange(prefix, offset, length);
+        return prefixTrie.containsPrefix(prefix, offset, length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input) {
+        return prefixTrie.getShortestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getShortestMatch(input, offset, length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input) {
+        return prefixTrie.getLongestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getLongestMatch(input, offset, length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input) {
+        return prefixTrie.getAllMatches(input, 0, input.length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getAllMatches(input, offset, length);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getShortestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end, result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getLongestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end, result);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input) {
+        return prefixTrie.getAllMatchResults(input, 0, input.length());
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatchResults(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(PrimitiveIterator.OfInt prefix) {
+        return prefixTrie.containsPrefix(prefix);
+    }
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getLongestMatch(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return prefixTrie.getAllMatches(input);
+    }
+
+    /**
+     * @return All prefixes (in lower case if case INsensitive) with their values.
+     */
+    private List<Map.Entry<String, V>> entries() {
+        List<Map.Entry<String, V>> entries = new ArrayList<>();
+        prefixTrie.forEachPrefix((prefix, length, value) ->
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(new String(prefix, 0, length), value)));
+        return entries;
+    }
+
+    /**
+     * The entries are NOT retained in this map, they are reconstructed from the trie on every call.
+     * @return All prefixes (in lower case if case INsensitive) with their values in a sorted read only map.
+     */
+    private Map<String, V> toMap() {
+        TreeMap<String, V> allPrefixes = new TreeMap<>();
+        for (Map.Entry<String, V> entry : entries()) {
+            allPrefixes.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(allPrefixes);
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return toMap().entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return toMap().keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return toMap().values();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return prefixTrie.containsPrefix((CharSequence) key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        boolean[] found = {false};
+        prefixTrie.forEachPrefix((prefix, length, storedValue) -> found[0] |= storedValue.equals(value));
+        return found[0];
+    }
+
+    // ------------------------------------------
+    // KRYO SERIALIZATION
+
+    /**
+     * Only the setting and the prefixes with their values are written, the map is rebuilt when reading.
+     */
+    public static class KryoSerializer extends Serializer<PersistentPrefixMap<Serializable>> {
+
+        public void write(Kryo kryo, Output output, PersistentPrefixMap<Serializable> instance) {
+            List<Map.Entry<String, Serializable>> entries = instance.entries();
+            output.writeBoolean(instance.caseSensitive());
+            output.writeVarInt(entries.size(), true);
+            for (Map.Entry<String, Serializable> entry : entries) {
+                output.writeString(entry.getKey());
+                kryo.writeClassAndObject(output, entry.getValue());
+            }
+        }
+
+        public PersistentPrefixMap<Serializable> read(Kryo kryo, Input input, Class<? extends PersistentPrefixMap<Serializable>> type) {
+            PersistentPrefixMap<Serializable> instance = new PersistentPrefixMap<>(input.readBoolean());
+            int size = input.readVarInt(true);
+            for (int i = 0; i < size; i++) {
+                String prefix = input.readString();
+                instance = instance.with(prefix, (Serializable) kryo.readClassAndObject(input));
+            }
+            return instance;
+        }
+    }
+
+    // ------------------------------------------
+    // JAVA SERIALIZATION
+
+    /**
+     * The (Java) serialized form is this proxy which only has the setting and the prefixes with their values.
+     * @return The serialization proxy of this map.
+     */
+    Object writeReplace() {
+        return new SerializationProxy<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A PersistentPrefixMap can only be deserialized via its serialization proxy.");
+    }
+
+    private static final class SerializationProxy<V extends Serializable> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean caseSensitive;
+        // The map that is written, or the map that is rebuilt when reading.
+        private transient PersistentPrefixMap<V> map;
+
+        SerializationProxy(PersistentPrefixMap<V> map) {
+            this.caseSensitive = map.caseSensitive();
+            this.map = map;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            List<Map.Entry<String, V>> entries = map.entries();
+            out.writeInt(entries.size());
+            for (Map.Entry<String, V> entry : entries) {
+                out.writeObject(entry.getKey());
+                out.writeObject(entry.getValue());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int size = in.readInt();
+            if (size < 0) {
+                throw new InvalidObjectException("Invalid number of prefixes: " + size);
+            }
+            map = new PersistentPrefixMap<>(caseSensitive);
+            for (int i = 0; i < size; i++) {
+                map = map.with((String) in.readObject(), (V) in.readObject());
+            }
+        }
+
+        private Object readResolve() {
+            return map;
+        }
+    }
+}
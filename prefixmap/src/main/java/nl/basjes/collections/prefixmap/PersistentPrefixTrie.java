@@ -0,0 +1,624 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.function.BinaryOperator;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>An immutable trie where a change creates a new version of the trie.</p>
+ * <p>Only the nodes along the path of the changed prefix are copied, all other nodes are shared with
+ * the previous version (path copying). So a change costs O(length of the prefix) and every version
+ * remains a consistent snapshot that can be read by any number of threads without locking.</p>
+ * <p>Nodes that no longer have a value or children are removed from the new version.</p>
+ * <p>If case INsensitive only the lower case variants are stored and the input is lower cased while matching.</p>
+ */
+final class PersistentPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    private final boolean caseSensitive;
+    private final Node<V> root;
+
+    PersistentPrefixTrie(boolean caseSensitive) {
+        this(caseSensitive, Node.empty());
+    }
+
+    PersistentPrefixTrie(boolean caseSensitive, Node<V> root) {
+        this.caseSensitive = caseSensitive;
+        this.root = root;
+    }
+
+    static final class Node<V> implements Serializable {
+        private static final int[]        NO_LABELS   = new int[0];
+        @SuppressWarnings("rawtypes")
+        private static final Node[]       NO_CHILDREN = new Node[0];
+        private static final Node<Object> EMPTY       = newEmpty();
+
+        private final int[]     labels;   // Sorted
+        private final Node<V>[] children; // The child for each label
+        private final V         value;
+        private final int       size;     // The number of values in this node and all nodes below it
+
+        private Node(int[] labels, Node<V>[] children, V value) {
+            this.labels = labels;
+            this.children = children;
+            this.value = value;
+            int total = value == null ? 0 : 1;
+            for (Node<V> child : children) {
+                total += child.size;
+            }
+            this.size = total;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Node<Object> newEmpty() {
+            return new Node<>(NO_LABELS, NO_CHILDREN, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V> empty() {
+            return (Node<V>) EMPTY;
+        }
+
+        V value() {
+            return value;
+        }
+
+        boolean isEmpty() {
+            return value == null && labels.length == 0;
+        }
+
+        /**
+         * @return The number of values in this node and all nodes below it.
+         */
+        int size() {
+            return size;
+        }
+
+        int childCount() {
+            return labels.length;
+        }
+
+        /**
+         * @return The label of the n-th child (the labels are sorted).
+         */
+        int label(int index) {
+            return labels[index];
+        }
+
+        /**
+         * @return The n-th child.
+         */
+        Node<V> child(int index) {
+            return children[index];
+        }
+
+        /**
+         * @return The child via the provided label, null if not present.
+         */
+        Node<V> getChild(int myChar) {
+            int index = Arrays.binarySearch(labels, myChar);
+            return index < 0 ? null : children[index];
+        }
+
+        /**
+         * @return A copy of this node with a different value.
+         */
+        Node<V> withValue(V newValue) {
+            return new Node<>(labels, children, newValue);
+        }
+
+        /**
+         * @return A copy of this node where the child via the label has been replaced (or added).
+         * If the provided child is null the child is removed.
+         */
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        Node<V> withChild(int myChar, Node<V> child) {
+            int index = Arrays.binarySearch(labels, myChar);
+            if (index >= 0) {
+                if (child == null) {
+                    if (labels.length == 1) {
+                        return new Node<>(NO_LABELS, NO_CHILDREN, value);
+                    }
+                    int[] newLabels = new int[labels.length - 1];
+                    Node<V>[] newChildren = (Node<V>[]) Array.newInstance(Node.class, labels.length - 1);
+                    System.arraycopy(labels, 0, newLabels, 0, index);
+                    System.arraycopy(labels, index + 1, newLabels, index, labels.length - index - 1);
+                    System.arraycopy(children, 0, newChildren, 0, index);
+                    System.arraycopy(children, index + 1, newChildren, index, labels.length - index - 1);
+                    return new Node<>(newLabels, newChildren, value);
+                }
+                Node<V>[] newChildren = children.clone();
+                newChildren[index] = child;
+                return new Node<>(labels, newChildren, value);
+            }
+            if (child == null) {
+                return this;
+            }
+            int insertAt = -(index + 1);
+            int[] newLabels = new int[labels.length + 1];
+            Node<V>[] newChildren = (Node<V>[]) Array.newInstance(Node.class, labels.length + 1);
+            System.arraycopy(labels, 0, newLabels, 0, insertAt);
+            System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, labels.length - insertAt);
+            newLabels[insertAt] = myChar;
+            newChildren[insertAt] = child;
+            return new Node<>(newLabels, newChildren, value);
+        }
+    }
+
+    Node<V> root() {
+        return root;
+    }
+
+    private int normalize(int myChar) {
+        return caseSensitive ? myChar : Character.toLowerCase(myChar);
+    }
+
+    // ==============================================================
+    // NEW VERSIONS
+
+    /**
+     * @param prefix The prefix (as code points) that is to be changed.
+     * @param value  The new value, null to remove the prefix.
+     * @return The new version of this trie, this trie if nothing changed.
+     */
+    PersistentPrefixTrie<V> with(PrimitiveIterator.OfInt prefix, V value) {
+        int[] path = new int[16];
+        int length = 0;
+        while (prefix.hasNext()) {
+            if (length == path.length) {
+                path = Arrays.copyOf(path, length * 2);
+            }
+            path[length++] = normalize(prefix.nextInt());
+        }
+
+        // The existing nodes along the path (null where the path leaves the trie).
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        Node<V>[] nodes = (Node<V>[]) Array.newInstance(Node.class, length + 1);
+        nodes[0] = root;
+        for (int i = 0; i < length && nodes[i] != null; i++) {
+            nodes[i + 1] = nodes[i].getChild(path[i]);
+        }
+        Node<V> target = nodes[length];
+        if (value == null && (target == null || target.value() == null)) {
+            return this; // Nothing to remove
+        }
+
+        // Copy the path bottom up
+        Node<V> node = (target == null ? Node.<V>empty() : target).withValue(value);
+        for (int i = length - 1; i >= 0; i--) {
+            Node<V> parent = nodes[i] == null ? Node.empty() : nodes[i];
+            node = parent.withChild(path[i], node.isEmpty() ? null : node);
+        }
+        return new PersistentPrefixTrie<>(caseSensitive, node);
+    }
+
+    /**
+     * The union of the two tries where the nodes that exist in only one of them (or are shared by both)
+     * are reused as is, only the nodes that exist in both are created again.
+     * @param other    The other trie (with the same case sensitivity).
+     * @param resolver Determines the value of a prefix that is present in both tries (called with this value and the other value).
+     *                 It is not called for the prefixes in subtrees that are shared by both tries.
+     * @return The new trie.
+     */
+    PersistentPrefixTrie<V> union(PersistentPrefixTrie<V> other, BinaryOperator<V> resolver) {
+        return new PersistentPrefixTrie<>(caseSensitive, union(root, other.root, resolver));
+    }
+
+    @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+    private static <V> Node<V> union(Node<V> left, Node<V> right, BinaryOperator<V> resolver) {
+        if (left == right || right.isEmpty()) {
+            return left;
+        }
+        if (left.isEmpty()) {
+            return right;
+        }
+        V value = left.value;
+        if (value == null) {
+            value = right.value;
+        } else if (right.value != null) {
+            value = Objects.requireNonNull(resolver.apply(left.value, right.value), "The resolver may not return null");
+        }
+
+        int[]     labels   = new int[left.labels.length + right.labels.length];
+        Node<V>[] children = (Node<V>[]) Array.newInstance(Node.class, labels.length);
+        int count = 0;
+        int l = 0;
+        int r = 0;
+        while (l < left.labels.length || r < right.labels.length) {
+            int leftLabel  = l < left.labels.length  ? left.labels[l]  : Integer.MAX_VALUE;
+            int rightLabel = r < right.labels.length ? right.labels[r] : Integer.MAX_VALUE;
+            if (leftLabel == rightLabel) {
+                children[count] = union(left.children[l++], right.children[r++], resolver);
+            } else if (leftLabel < rightLabel) {
+                children[count] = left.children[l++];
+            } else {
+                children[count] = right.children[r++];
+            }
+            labels[count++] = Math.min(leftLabel, rightLabel);
+        }
+        if (count < labels.length) {
+            labels   = Arrays.copyOf(labels, count);
+            children = Arrays.copyOf(children, count);
+        }
+        return new Node<>(labels, children, value);
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        throw new UnsupportedOperationException("A persistent PrefixMap cannot be modified, create a new version instead");
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        throw new UnsupportedOperationException("A persistent PrefixMap cannot be modified, create a new version instead");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A persistent PrefixMap cannot be modified, create a new version instead");
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            node = node.getChild(normalize(prefix.nextInt()));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value();
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        V value = node.value();
+        while (value == null && input.hasNext()) {
+            node = node.getChild(normalize(input.nextInt()));
+            if (node == null) {
+                return null;
+            }
+            value = node.value();
+        }
+        return value;
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        V result = node.value();
+        while (input.hasNext()) {
+            node = node.getChild(normalize(input.nextInt()));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value();
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        V value = node.value();
+        int index = start;
+        while (value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return null;
+            }
+            value = node.value();
+        }
+        return value;
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        V result = node.value();
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        V value = node.value();
+        int index = start;
+        while (value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return setMatch(result, null, 0);
+            }
+            value = node.value();
+        }
+        return setMatch(result, value, index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        V found = node.value();
+        int length = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                found = value;
+                length = index - start;
+            }
+        }
+        return setMatch(result, found, length);
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CODE POINTS
+
+    @Override
+    public V get(int[] input, int offset, int length) {
+        Node<V> node = root;
+        for (int index = offset; index < offset + length; index++) {
+            node = node.getChild(normalize(input[index]));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value();
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        Node<V> node = root;
+        V value = node.value();
+        for (int index = offset; value == null && index < offset + length; index++) {
+            node = node.getChild(normalize(input[index]));
+            if (node == null) {
+                return null;
+            }
+            value = node.value();
+        }
+        return value;
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        Node<V> node = root;
+        V result = node.value();
+        for (int index = offset; index < offset + length; index++) {
+            node = node.getChild(normalize(input[index]));
+            if (node == null) {
+                break;
+            }
+            V value = node.value();
+            if (value != null) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class PersistentTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final PersistentPrefixTrie<V> trie;
+        private Node<V> node;
+
+        PersistentTrieIterator(PrimitiveIterator.OfInt input, PersistentPrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.node = trie.root;
+            this.next = node.value();
+            if (next == null) {
+                next = getNext();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (node != null && input.hasNext()) {
+                int myChar = input.nextInt();
+                length += Character.charCount(myChar);
+                node = node.getChild(trie.normalize(myChar));
+                if (node == null) {
+                    return null;
+                }
+                V value = node.value();
+                if (value != null) {
+                    nextLength = length;
+                    return value;
+                }
+            }
+            node = null;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new PersistentTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new PersistentTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixWalker<V> prefixIterator() {
+        return new PersistentTrieWalker<>(root);
+    }
+
+    /**
+     * Walks depth first over the trie with an explicit stack of the nodes on the path to the current node.
+     */
+    private static final class PersistentTrieWalker<V> extends PrefixWalker<V> {
+        private Node<V>[] nodes   = newNodeArray(16);
+        private int[]     next    = new int[16]; // The index of the next child to visit.
+        private int       depth   = 0;
+        private boolean   started = false;
+
+        PersistentTrieWalker(Node<V> root) {
+            nodes[0] = root;
+        }
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        private static <V> Node<V>[] newNodeArray(int length) {
+            return (Node<V>[]) Array.newInstance(Node.class, length);
+        }
+
+        @Override
+        V findNext() {
+            if (!started) {
+                started = true;
+                V value = nodes[0].value();
+                if (value != null) {
+                    return value;
+                }
+            }
+            while (depth >= 0) {
+                Node<V> node = nodes[depth];
+                if (next[depth] == node.labels.length) {
+                    nodes[depth] = null;
+                    depth--;
+                    continue;
+                }
+                int index = next[depth]++;
+                setLabel(depth, node.labels[index]);
+                Node<V> child = node.children[index];
+                depth++;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next  = Arrays.copyOf(next,  depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 0;
+                V value = child.value();
+                if (value != null) {
+                    length = depth;
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    // ==============================================================
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+}
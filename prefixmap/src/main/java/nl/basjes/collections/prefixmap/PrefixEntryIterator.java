@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import java.util.Arrays;
+
+/**
+ * <p>Walks step by step over all prefixes of a trie where the nodes are numbered (the root is node 0).</p>
+ * <p>The prefixes are returned in the same order as {@link PrefixTrie#forEachPrefix(PrefixTrie.PrefixVisitor)}
+ * visits them but only the path to the current node is kept (instead of all prefixes) so a large trie can be
+ * iterated without first copying it.</p>
+ * @param <V> The type of the value that is stored.
+ */
+abstract class PrefixEntryIterator<V> extends PrefixWalker<V> {
+    // The path from the root to the current node.
+    private int[]   nodes     = new int[16];
+    private int[]   lastChild = new int[16];
+    private int     depth     = 0;
+
+    private boolean started   = false;
+
+    PrefixEntryIterator() {
+        lastChild[0] = -1; // The path starts at the root (node 0) of which no child has been visited yet.
+    }
+
+    /**
+     * @return The value of the node, null if the node has no value.
+     */
+    abstract V valueOf(int node);
+
+    /**
+     * @param node     The node.
+     * @param previous The previous child of the node that was returned, -1 for the first child.
+     * @return The next child of the node (in ascending label order), -1 if there are no more.
+     */
+    abstract int nextChild(int node, int previous);
+
+    /**
+     * @return The code point on the edge from the node to the child.
+     */
+    abstract int label(int node, int child);
+
+    @Override
+    V findNext() {
+        if (!started) {
+            started = true;
+            V value = valueOf(0);
+            if (value != null) {
+                return value;
+            }
+        }
+        while (depth >= 0) {
+            int node = nodes[depth];
+            int child = nextChild(node, lastChild[depth]);
+            if (child < 0) {
+                depth--;
+                continue;
+            }
+            lastChild[depth] = child;
+            if (depth + 1 == nodes.length) {
+                nodes     = Arrays.copyOf(nodes,     nodes.length * 2);
+                lastChild = Arrays.copyOf(lastChild, lastChild.length * 2);
+            }
+            setLabel(depth, label(node, child));
+            depth++;
+            nodes[depth] = child;
+            lastChild[depth] = -1;
+            V value = valueOf(child);
+            if (value != null) {
+                length = depth;
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>The differences between two PrefixMaps as created by {@link PrefixMaps#diff}.</p>
+ * <p>The prefixes are in lower case if the maps are case INsensitive.</p>
+ *
+ * @param <V> The type of the value that is stored.
+ */
+public final class PrefixMapDiff<V extends Serializable> {
+    private final TreeMap<String, V> added   = new TreeMap<>();
+    private final TreeMap<String, V> removed = new TreeMap<>();
+    private final TreeMap<String, V> changed = new TreeMap<>();
+
+    PrefixMapDiff() {
+    }
+
+    void added(int[] prefix, int length, V value) {
+        added.put(new String(prefix, 0, length), value);
+    }
+
+    void removed(int[] prefix, int length, V value) {
+        removed.put(new String(prefix, 0, length), value);
+    }
+
+    /**
+     * Record the difference (if any) of a prefix that is present in one or both maps.
+     */
+    void compare(int[] prefix, int length, V fromValue, V toValue) {
+        if (fromValue == null) {
+            if (toValue != null) {
+                added(prefix, length, toValue);
+            }
+        } else if (toValue == null) {
+            removed(prefix, length, fromValue);
+        } else if (!Objects.equals(fromValue, toValue)) {
+            changed.put(new String(prefix, 0, length), toValue);
+        }
+    }
+
+    /**
+     * @return The prefixes (with their value) that are only present in the new map.
+     */
+    public SortedMap<String, V> added() {
+        return Collections.unmodifiableSortedMap(added);
+    }
+
+    /**
+     * @return The prefixes (with their old value) that are only present in the old map.
+     */
+    public SortedMap<String, V> removed() {
+        return Collections.unmodifiableSortedMap(removed);
+    }
+
+    /**
+     * @return The prefixes (with their new value) that are present in both maps with a different value.
+     */
+    public SortedMap<String, V> changed() {
+        return Collections.unmodifiableSortedMap(changed);
+    }
+
+    /**
+     * @return True if both maps have exactly the same prefixes and values.
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PrefixMapDiff{added=" + added + ", removed=" + removed + ", changed=" + changed + '}';
+    }
+}
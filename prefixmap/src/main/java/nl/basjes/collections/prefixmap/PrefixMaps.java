@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import nl.basjes.collections.prefixmap.PersistentPrefixTrie.Node;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+
+/**
+ * <p>Operations that combine two PrefixMaps by walking their tries at the same time (one step per code point)
+ * instead of comparing or re-inserting all prefixes one by one.</p>
+ * <p>The PrefixMaps in this package are supported, the tries of the maps that are not a {@link FrozenPrefixMap} or a
+ * {@link PersistentPrefixMap} are first compiled into the layout of a FrozenPrefixMap.
+ * Two PersistentPrefixMaps are compared directly and the subtrees they share (i.e. because one
+ * is a newer version of the other) are skipped entirely. Two versions of a PersistentPrefixMap can be combined
+ * the same way via {@link #mergeVersions(PersistentPrefixMap, PersistentPrefixMap, BinaryOperator)}.</p>
+ * <p>Both maps must have the same case sensitivity.</p>
+ */
+public final class PrefixMaps {
+
+    private PrefixMaps() {
+    }
+
+    /**
+     * Determine which prefixes were added, removed or changed between the two maps.
+     * Only the prefixes that differ are converted into Strings.
+     * @param from The old map.
+     * @param to   The new map.
+     * @param <V>  The type of the value that is stored.
+     * @return The differences.
+     */
+    public static <V extends Serializable> PrefixMapDiff<V> diff(PrefixMap<V> from, PrefixMap<V> to) {
+        PrefixTrie<V> fromTrie = trieOf(from);
+        PrefixTrie<V> toTrie   = trieOf(to);
+        checkSameCaseSensitivity(fromTrie, toTrie);
+        PrefixMapDiff<V> diff = new PrefixMapDiff<>();
+        if (fromTrie instanceof PersistentPrefixTrie && toTrie instanceof PersistentPrefixTrie) {
+            diff(((PersistentPrefixTrie<V>) fromTrie).root(), ((PersistentPrefixTrie<V>) toTrie).root(), diff);
+            return diff;
+        }
+        FrozenPrefixTrie<V> fromFrozen = frozenOf(fromTrie);
+        FrozenPrefixTrie<V> toFrozen   = frozenOf(toTrie);
+        if (fromFrozen != toFrozen) {
+            walk(fromFrozen, toFrozen, diff::compare);
+        }
+        return diff;
+    }
+
+    /**
+     * Combine the two maps into a new read only map with all the prefixes of both.
+     * The new trie is built in a single pass over both tries (in sorted order).
+     * @param left     The first map.
+     * @param right    The second map.
+     * @param resolver Determines the value of a prefix that is present in both maps (called with the left and the right value),
+     *                 for example <code>(oldValue, newValue) -&gt; newValue</code>.
+     * @param <V>      The type of the value that is stored.
+     * @return The combined map.
+     */
+    public static <V extends Serializable> FrozenPrefixMap<V> merge(PrefixMap<V> left, PrefixMap<V> right, BinaryOperator<V> resolver) {
+        Objects.requireNonNull(resolver, "The resolver may not be null");
+        PrefixTrie<V> leftTrie  = trieOf(left);
+        PrefixTrie<V> rightTrie = trieOf(right);
+        checkSameCaseSensitivity(leftTrie, rightTrie);
+        FrozenPrefixTrie.Compiler<V> compiler = new FrozenPrefixTrie.Compiler<>();
+        walk(frozenOf(leftTrie), frozenOf(rightTrie), (prefix, length, leftValue, rightValue) -> {
+            V value = leftValue;
+            if (value == null) {
+                value = rightValue;
+            } else if (rightValue != null) {
+                value = Objects.requireNonNull(resolver.apply(leftValue, rightValue), "The resolver may not return null");
+            }
+            if (value != null) {
+                compiler.visit(prefix, length, value);
+            }
+        });
+        return new FrozenPrefixMap<>(compiler.build(leftTrie.caseSensitive(), false));
+    }
+
+    /**
+     * <p>Combine two versions of a PersistentPrefixMap into a new PersistentPrefixMap with all the prefixes of both.
+     * All the parts of the tries that are present in only one of the maps (or are shared by both) are reused as is.</p>
+     * <p>Unlike {@link #merge(PrefixMap, PrefixMap, BinaryOperator)} the resolver is NOT called for the prefixes in
+     * the parts of the tries that are shared by both maps: there the (identical) value is kept as is.
+     * So the result is only the same as that of merge if the resolver returns one of its arguments when
+     * both are the same, like <code>(oldValue, newValue) -&gt; newValue</code>.</p>
+     * @param left     The first map.
+     * @param right    The second map.
+     * @param resolver Determines the value of a prefix that is present in both maps (called with the left and the right value)
+     *                 in the parts of the tries that are not shared.
+     * @param <V>      The type of the value that is stored.
+     * @return The combined map.
+     */
+    public static <V extends Serializable> PersistentPrefixMap<V> mergeVersions(PersistentPrefixMap<V> left,
+                                                                               PersistentPrefixMap<V> right,
+                                                                               BinaryOperator<V> resolver) {
+        Objects.requireNonNull(resolver, "The resolver may not be null");
+        checkSameCaseSensitivity(left.prefixTrie(), right.prefixTrie());
+        PersistentPrefixTrie<V> union = left.prefixTrie().union(right.prefixTrie(), resolver);
+        return new PersistentPrefixMap<>(union, union.root().size());
+    }
+
+    // ==============================================================
+
+    static <V extends Serializable> PrefixTrie<V> trieOf(PrefixMap<V> map) {
+        Objects.requireNonNull(map, "The map may not be null");
+        if (map instanceof ReloadablePrefixMap) {
+            return trieOf(((ReloadablePrefixMap<V>) map).current());
+        }
+        if (map instanceof StringPrefixMap) {
+            return ((StringPrefixMap<V>) map).prefixTrie();
+        }
+        if (map instanceof FrozenPrefixMap) {
+            return ((FrozenPrefixMap<V>) map).prefixTrie();
+        }
+        if (map instanceof PersistentPrefixMap) {
+            return ((PersistentPrefixMap<V>) map).prefixTrie();
+        }
+        if (map instanceof ConcurrentPrefixMap) {
+            return ((ConcurrentPrefixMap<V>) map).prefixTrie();
+        }
+        if (map instanceof OverlayPrefixMap) {
+            return ((OverlayPrefixMap<V>) map).prefixTrie();
+        }
+        throw new IllegalArgumentException("Unsupported PrefixMap implementation: " + map.getClass().getCanonicalName());
+    }
+
+    private static <V extends Serializable> FrozenPrefixTrie<V> frozenOf(PrefixTrie<V> trie) {
+        if (trie instanceof FrozenPrefixTrie) {
+            return (FrozenPrefixTrie<V>) trie;
+        }
+        return FrozenPrefixTrie.compile(trie, false);
+    }
+
+    private static void checkSameCaseSensitivity(PrefixTrie<?> left, PrefixTrie<?> right) {
+        if (left.caseSensitive() != right.caseSensitive()) {
+            throw new IllegalArgumentException("Both PrefixMaps must have the same case sensitivity");
+        }
+    }
+
+    private static int[] append(int[] prefix, int length, int myChar) {
+        int[] buffer = prefix;
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, length * 2);
+        }
+        buffer[length] = myChar;
+        return buffer;
+    }
+
+    // ==============================================================
+    // WALK TWO TRIES
+
+    /**
+     * Is called for every prefix that is present in at least one of the two tries.
+     */
+    @FunctionalInterface
+    private interface PairVisitor<V> {
+        /**
+         * @param prefix     The code points of the prefix (only the first length are valid).
+         * @param length     The length of the prefix.
+         * @param leftValue  The value in the first trie, null if there is none.
+         * @param rightValue The value in the second trie, null if there is none.
+         */
+        void visit(int[] prefix, int length, V leftValue, V rightValue);
+    }
+
+    /**
+     * Walks two frozen tries at the same time (depth first, merging the sorted children of both) with an explicit
+     * stack of the pairs of nodes on the path to the current node (a node is -1 if it is only in the other trie).
+     */
+    private static <V extends Serializable> void walk(FrozenPrefixTrie<V> left, FrozenPrefixTrie<V> right, PairVisitor<V> visitor) {
+        int[] prefix     = new int[16];
+        int[] leftNodes  = new int[16];
+        int[] rightNodes = new int[16];
+        int[] leftChild  = new int[16]; // The next child of the left node to visit.
+        int[] rightChild = new int[16]; // The next child of the right node to visit.
+        leftChild[0]  = left.firstChild(0);
+        rightChild[0] = right.firstChild(0);
+        visitor.visit(prefix, 0, left.valueOf(0), right.valueOf(0));
+        int depth = 0;
+        while (depth >= 0) {
+            int leftNode  = leftNodes[depth];
+            int rightNode = rightNodes[depth];
+            int leftEnd   = leftNode  < 0 ? 0 : left.firstChild(leftNode + 1);
+            int rightEnd  = rightNode < 0 ? 0 : right.firstChild(rightNode + 1);
+            if (leftChild[depth] >= leftEnd && rightChild[depth] >= rightEnd) {
+                depth--;
+                continue;
+            }
+            int leftLabel  = leftChild[depth]  < leftEnd  ? left.label(leftChild[depth])   : Integer.MAX_VALUE;
+            int rightLabel = rightChild[depth] < rightEnd ? right.label(rightChild[depth]) : Integer.MAX_VALUE;
+            int myChar = Math.min(leftLabel, rightLabel);
+            int nextLeft  = leftLabel  == myChar ? leftChild[depth]++  : -1;
+            int nextRight = rightLabel == myChar ? rightChild[depth]++ : -1;
+            prefix = append(prefix, depth, myChar);
+            depth++;
+            if (depth == leftNodes.length) {
+                leftNodes  = Arrays.copyOf(leftNodes,  depth * 2);
+                rightNodes = Arrays.copyOf(rightNodes, depth * 2);
+                leftChild  = Arrays.copyOf(leftChild,  depth * 2);
+                rightChild = Arrays.copyOf(rightChild, depth * 2);
+            }
+            leftNodes[depth]  = nextLeft;
+            rightNodes[depth] = nextRight;
+            leftChild[depth]  = nextLeft  < 0 ? 0 : left.firstChild(nextLeft);
+            rightChild[depth] = nextRight < 0 ? 0 : right.firstChild(nextRight);
+            visitor.visit(prefix, depth,
+                nextLeft  < 0 ? null : left.valueOf(nextLeft),
+                nextRight < 0 ? null : right.valueOf(nextRight));
+        }
+    }
+
+    // ==============================================================
+    // DIFF
+
+    /**
+     * Walks two versions of a persistent trie at the same time like {@link #walk(FrozenPrefixTrie, FrozenPrefixTrie, PairVisitor)}
+     * where the subtrees that are shared by both versions are skipped entirely.
+     */
+    @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+    private static <V extends Serializable> void diff(Node<V> fromRoot, Node<V> toRoot, PrefixMapDiff<V> diff) {
+        if (fromRoot == toRoot) {
+            return; // Shared by both versions so nothing is different
+        }
+        int[]     prefix    = new int[16];
+        Node<V>[] fromNodes = (Node<V>[]) Array.newInstance(Node.class, 16);
+        Node<V>[] toNodes   = (Node<V>[]) Array.newInstance(Node.class, 16);
+        int[]     fromChild = new int[16]; // The next child of the old node to visit.
+        int[]     toChild   = new int[16]; // The next child of the new node to visit.
+        fromNodes[0] = fromRoot;
+        toNodes[0]   = toRoot;
+        diff.compare(prefix, 0, fromRoot.value(), toRoot.value());
+        int depth = 0;
+        while (depth >= 0) {
+            Node<V> from = fromNodes[depth];
+            Node<V> to   = toNodes[depth];
+            int fromEnd = from == null ? 0 : from.childCount();
+            int toEnd   = to   == null ? 0 : to.childCount();
+            if (fromChild[depth] >= fromEnd && toChild[depth] >= toEnd) {
+                fromNodes[depth] = null;
+                toNodes[depth]   = null;
+                depth--;
+                continue;
+            }
+            int fromLabel = fromChild[depth] < fromEnd ? from.label(fromChild[depth]) : Integer.MAX_VALUE;
+            int toLabel   = toChild[depth]   < toEnd   ? to.label(toChild[depth])     : Integer.MAX_VALUE;
+            int myChar = Math.min(fromLabel, toLabel);
+            Node<V> nextFrom = fromLabel == myChar ? from.child(fromChild[depth]++) : null;
+            Node<V> nextTo   = toLabel   == myChar ? to.child(toChild[depth]++)     : null;
+            if (nextFrom == nextTo) {
+                continue; // Shared by both versions so nothing is different
+            }
+            prefix = append(prefix, depth, myChar);
+            depth++;
+            if (depth == fromNodes.length) {
+                fromNodes = Arrays.copyOf(fromNodes, depth * 2);
+                toNodes   = Arrays.copyOf(toNodes,   depth * 2);
+                fromChild = Arrays.copyOf(fromChild, depth * 2);
+                toChild   = Arrays.copyOf(toChild,   depth * 2);
+            }
+            fromNodes[depth] = nextFrom;
+            toNodes[depth]   = nextTo;
+            fromChild[depth] = 0;
+            toChild[depth]   = 0;
+            diff.compare(prefix, depth, nextFrom == null ? null : nextFrom.value(), nextTo == null ? null : nextTo.value());
+        }
+    }
+}
@@ -16,11 +16,20 @@
 
 package nl.basjes.collections.prefixmap;
 
+import nl.basjes.collections.MatchResult;
+
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.PrimitiveIterator;
 
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+
 interface PrefixTrie<V extends Serializable> extends Serializable {
     /**
      * <p>Add a new prefix and related value to the PrefixTrie.</p>
@@ -43,6 +52,67 @@ interface PrefixTrie<V extends Serializable> extends Serializable {
      */
     V add(PrimitiveIterator.OfInt prefix, V value);
 
+    /**
+     * Adds prefixes that are provided in sorted order (like when reading a serialized map).
+     * @param <V> The type of the value that is stored.
+     */
+    interface SortedLoader<V> {
+        /**
+         * @param prefix The prefix for which we want to store the provided value
+         * @param shared The number of chars at the start of this prefix that are the same as those of the previous
+         *               prefix that was added via this loader (0 for the first one).
+         * @param value  The value that we want to store. Null only adds the path of the prefix
+         *               (only for the tries that visit such prefixes in {@link #forEachAddedPrefix(PrefixVisitor)}).
+         * @return The previously stored value, null if no previous value was present.
+         */
+        V add(String prefix, int shared, V value);
+    }
+
+    /**
+     * A trie can use the shared part to continue from the node of the previous prefix instead
+     * of walking down from the root for every prefix. By default every prefix is simply added.
+     * @return A loader that adds prefixes to this trie.
+     */
+    default SortedLoader<V> sortedLoader() {
+        return (prefix, shared, value) -> add(prefix, value);
+    }
+
+    /**
+     * <p>Support for building a trie in parallel: all prefixes that start with the same character are loaded
+     * (via its {@link #sortedLoader()}, with the full prefixes) into a separate sub trie which is then
+     * attached to the root of this trie.</p>
+     * @param firstChar The first character (as it is stored in this trie) of all prefixes of the sub trie.
+     * @return A new empty sub trie, null if this trie does not support sub tries.
+     */
+    default PrefixTrie<V> newSubTrie(int firstChar) {
+        return null;
+    }
+
+    /**
+     * If case INsensitive the sub trie is linked via the first character exactly like adding a prefix that starts with
+     * it does, so it is attached once for every first character (as it is in the prefixes) of the sub trie.
+     * @param firstChar A first character (as it is in the prefixes) of the prefixes of the sub trie.
+     * @param subTrie   The filled sub trie (created by {@link #newSubTrie(int)}) that must become the child via the first character.
+     */
+    default void attachSubTrie(int firstChar, PrefixTrie<V> subTrie) {
+        throw new UnsupportedOperationException("The 'attachSubTrie' method has not been implemented in " +
+            this.getClass().getCanonicalName());
+    }
+
+    /**
+     * @return The position where a sorted loader has to continue: 0 if the shared part is
+     *         not valid for the previous prefix or it ends in the middle of a surrogate pair.
+     */
+    static int sharedPart(String prefix, int shared, int previousLength) {
+        if (shared <= 0 || shared > previousLength || shared > prefix.length()) {
+            return 0;
+        }
+        if (shared < prefix.length() && Character.isLowSurrogate(prefix.charAt(shared))) {
+            return 0;
+        }
+        return shared;
+    }
+
     // ====================================================
 
     /**
@@ -78,6 +148,28 @@ interface PrefixTrie<V extends Serializable> extends Serializable {
         return get(prefix) != null;
     }
 
+    /**
+     * <p>Determine if we have a value for the <code>exact</code> prefix. </p>
+     * @param prefix The character sequence for which we need to know if it is present
+     * @return True if the exact prefix value is present, False otherwise
+     */
+    default boolean containsPrefix(CharSequence prefix) {
+        return get(prefix) != null;
+    }
+
+    /**
+     * <p>Determine if we have a value for the <code>exact</code> prefix. </p>
+     * <p>Only the region [start, end) of the input is used, the characters are NOT copied.</p>
+     * @param prefix The character sequence for which we need to know if it is present
+     * @param start  The index of the first character of the region.
+     * @param end    The index of the character after the last character of the region.
+     * @return True if the exact prefix value is present, False otherwise
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default boolean containsPrefix(CharSequence prefix, int start, int end) {
+        return get(prefix, start, end) != null;
+    }
+
     /**
      * <p>Determine if we have a value for the <code>exact</code> prefix. </p>
      * @param prefix The string (iterator of Unicode CodePoints) for which we need to know if it is present.
@@ -100,8 +192,36 @@ interface PrefixTrie<V extends Serializable> extends Serializable {
      * @return The value, null if not found.
      */
     default V get(String input) {
+        return get((CharSequence) input);
+    }
+
+    /**
+     * <p>Return the value of the <code>exact</code> matching prefix. </p>
+     * <p>The value returned is the stored prefix for which is true:
+     * <code>input.equals(prefix)</code>.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @return The value, null if not found.
+     */
+    default V get(CharSequence input) {
         Objects.requireNonNull(input, "The input may not be null");
-        return get(input.codePoints().iterator());
+        return get(input, 0, input.length());
+    }
+
+    /**
+     * <p>Same as {@link #get(CharSequence)} but only the region [start, end) of the input is used.</p>
+     * <p>The characters are NOT copied (as would happen with a substring).</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @param start The index of the first character of the region.
+     * @param end   The index of the character after the last character of the region.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default V get(CharSequence input, int start, int end) {
+        return get(new CodePointIterator(input, start, end));
     }
 
     /**
@@ -129,8 +249,36 @@ interface PrefixTrie<V extends Serializable> extends Serializable {
      * @return The value, null if not found.
      */
     default V getShortestMatch(String input) {
+        return getShortestMatch((CharSequence) input);
+    }
+
+    /**
+     * <p>Return the value of the <code>shortest</code> matching prefix. </p>
+     * <p>The value returned is the shortest stored prefix for which is true:
+     * <code>input.startsWith(prefix)</code>.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @return The value, null if not found.
+     */
+    default V getShortestMatch(CharSequence input) {
         Objects.requireNonNull(input, "The input may not be null");
-        return getShortestMatch(input.codePoints().iterator());
+        return getShortestMatch(input, 0, input.length());
+    }
+
+    /**
+     * <p>Same as {@link #getShortestMatch(CharSequence)} but only the region [start, end) of the input is used.</p>
+     * <p>The characters are NOT copied (as would happen with a substring).</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @param start The index of the first character of the region.
+     * @param end   The index of the character after the last character of the region.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default V getShortestMatch(CharSequence input, int start, int end) {
+        return getShortestMatch(new CodePointIterator(input, start, end));
     }
 
     /**
@@ -158,8 +306,36 @@ interface PrefixTrie<V extends Serializable> extends Serializable {
      * @return The value, null if not found.
      */
     default V getLongestMatch(String input) {
+        return getLongestMatch((CharSequence) input);
+    }
+
+    /**
+     * <p>Return the value of the longest matching prefix.</p>
+     * <p>The value returned is the longest stored prefix for which is true:
+     * <code>input.startsWith(prefix)</code>.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @return The value, null if not found.
+     */
+    default V getLongestMatch(CharSequence input) {
         Objects.requireNonNull(input, "The input may not be null");
-        return getLongestMatch(input.codePoints().iterator());
+        return getLongestMatch(input, 0, input.length());
+    }
+
+    /**
+     * <p>Same as {@link #getLongestMatch(CharSequence)} but only the region [start, end) of the input is used.</p>
+     * <p>The characters are NOT copied (as would happen with a substring).</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @param start The index of the first character of the region.
+     * @param end   The index of the character after the last character of the region.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default V getLongestMatch(CharSequence input, int start, int end) {
+        return getLongestMatch(new CodePointIterator(input, start, end));
     }
 
     /**
@@ -187,8 +363,36 @@ interface PrefixTrie<V extends Serializable> extends Serializable {
      * @return The list of values, an empty List if nothing is found.
      */
     default Iterator<V> getAllMatches(String input) {
+        return getAllMatches((CharSequence) input);
+    }
+
+    /**
+     * <p>Returns List of all matches that have a value.</p>
+     * <p>The list contains all non-null values for the prefix values where this is true:
+     * <code>input.startsWith(prefix)</code>.</p>
+     * <p>Note that implementations may be constructed to match either
+     * case sensitive or case insensitive.</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @return The list of values, an empty List if nothing is found.
+     */
+    default Iterator<V> getAllMatches(CharSequence input) {
         Objects.requireNonNull(input, "The input may not be null");
-        return getAllMatches(input.codePoints().iterator());
+        return getAllMatches(input, 0, input.length());
+    }
+
+    /**
+     * <p>Same as {@link #getAllMatches(CharSequence)} but only the region [start, end) of the input is used.</p>
+     * <p>The characters are NOT copied (as would happen with a substring).</p>
+     *
+     * @param input The character sequence for which we need value of the stored prefix
+     * @param start The index of the first character of the region.
+     * @param end   The index of the character after the last character of the region.
+     * @return The list of values, an empty List if nothing is found.
+     * @throws IndexOutOfBoundsException if the region is not within the input.
+     */
+    default Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        return getAllMatches(new CodePointIterator(input, start, end));
     }
 
     /**
@@ -203,6 +407,228 @@ interface PrefixTrie<V extends Serializable> extends Serializable {
      */
     Iterator<V> getAllMatches(PrimitiveIterator.OfInt input);
 
+    // ====================================================
+    // Lookups on the range [offset, offset + length) of an array of Unicode CodePoints.
+    // The defaults iterate over the array, the tries can walk the array directly.
+
+    /**
+     * <p>Determine if we have a value for the <code>exact</code> prefix. </p>
+     * @param prefix The Unicode CodePoints for which we need to know if it is present
+     * @param offset The index of the first code point that is to be used.
+     * @param length The number of code points that are to be used.
+     * @return True if the exact prefix value is present, False otherwise
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default boolean containsPrefix(int[] prefix, int offset, int length) {
+        return get(prefix, offset, length) != null;
+    }
+
+    /**
+     * <p>Return the value of the <code>exact</code> matching prefix. </p>
+     * @param input  The Unicode CodePoints for which we need value of the stored prefix
+     * @param offset The index of the first code point that is to be used.
+     * @param length The number of code points that are to be used.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default V get(int[] input, int offset, int length) {
+        return get(new IntArrayIterator(input, offset, length));
+    }
+
+    /**
+     * <p>Return the value of the <code>shortest</code> matching prefix. </p>
+     * @param input  The Unicode CodePoints for which we need value of the stored prefix
+     * @param offset The index of the first code point that is to be used.
+     * @param length The number of code points that are to be used.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default V getShortestMatch(int[] input, int offset, int length) {
+        return getShortestMatch(new IntArrayIterator(input, offset, length));
+    }
+
+    /**
+     * <p>Return the value of the longest matching prefix.</p>
+     * @param input  The Unicode CodePoints for which we need value of the stored prefix
+     * @param offset The index of the first code point that is to be used.
+     * @param length The number of code points that are to be used.
+     * @return The value, null if not found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default V getLongestMatch(int[] input, int offset, int length) {
+        return getLongestMatch(new IntArrayIterator(input, offset, length));
+    }
+
+    /**
+     * <p>Returns List of all matches that have a value.</p>
+     * @param input  The Unicode CodePoints for which we need value of the stored prefix
+     * @param offset The index of the first code point that is to be used.
+     * @param length The number of code points that are to be used.
+     * @return The list of values, an empty List if nothing is found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    default Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        return getAllMatches(new IntArrayIterator(input, offset, length));
+    }
+
+    // ====================================================
+    // Matches that also report how many characters of the input were matched.
+    // The defaults try the region prefix at every code point boundary, the tries implement these natively.
+
+    /**
+     * <p>Find the <code>shortest</code> matching prefix in the region [start, end) of the input.</p>
+     * @param input  The character sequence for which we need the match
+     * @param start  The index of the first character of the region.
+     * @param end    The index of the character after the last character of the region.
+     * @param result Receives the value and the matched length (in chars, relative to start). It is reset if nothing matches.
+     * @return True if a prefix matched.
+     */
+    default boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        int index = start;
+        while (true) {
+            V value = get(input, start, index);
+            if (value != null || index >= end) {
+                return setMatch(result, value, index - start);
+            }
+            index += Character.charCount(codePointAt(input, index, end));
+        }
+    }
+
+    /**
+     * <p>Find the <code>longest</code> matching prefix in the region [start, end) of the input.</p>
+     * @param input  The character sequence for which we need the match
+     * @param start  The index of the first character of the region.
+     * @param end    The index of the character after the last character of the region.
+     * @param result Receives the value and the matched length (in chars, relative to start). It is reset if nothing matches.
+     * @return True if a prefix matched.
+     */
+    default boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        V longestValue = null;
+        int longestLength = 0;
+        int index = start;
+        while (true) {
+            V value = get(input, start, index);
+            if (value != null) {
+                longestValue = value;
+                longestLength = index - start;
+            }
+            if (index >= end) {
+                return setMatch(result, longestValue, longestLength);
+            }
+            index += Character.charCount(codePointAt(input, index, end));
+        }
+    }
+
+    /**
+     * <p>All matches (shortest first) in the region [start, end) of the input with the matched lengths.</p>
+     * @param input The character sequence for which we need the matches
+     * @param start The index of the first character of the region.
+     * @param end   The index of the character after the last character of the region.
+     * @return The matches, empty if nothing is found.
+     */
+    default Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        throw new UnsupportedOperationException("The 'getAllMatchResults(CharSequence input, int start, int end)' method " +
+            "has not been implemented in " + this.getClass().getCanonicalName());
+    }
+
+    /**
+     * The iterator over all matches (shortest first) that also knows the length of each match.
+     * @param <V> The type of the value that is stored.
+     */
+    interface MatchIterator<V> extends Iterator<V> {
+        /**
+         * @return The length (in chars of the input) of the match of the value that was returned last by next().
+         */
+        int matchedLength();
+    }
+
+    /**
+     * Turns the values of all matches into the MatchResults (with the matched lengths) in the same single walk.
+     * @param matches The iterator over the values of the matches.
+     * @return The matches with their lengths.
+     */
+    static <V> Iterator<MatchResult<V>> matchResults(MatchIterator<V> matches) {
+        return new Iterator<MatchResult<V>>() {
+            @Override
+            public boolean hasNext() {
+                return matches.hasNext();
+            }
+
+            @Override
+            public MatchResult<V> next() {
+                V value = matches.next();
+                return new MatchResult<>(value, matches.matchedLength());
+            }
+        };
+    }
+
+    /**
+     * Put the match (if any) in the result.
+     * @param result The result that is to be set.
+     * @param value  The value of the match, null if there is no match.
+     * @param length The matched length.
+     * @return True if there was a match.
+     */
+    static <V> boolean setMatch(MatchResult<V> result, V value, int length) {
+        if (value == null) {
+            result.reset();
+            return false;
+        }
+        result.set(value, length);
+        return true;
+    }
+
+    // ====================================================
+
+    /**
+     * Receives the stored prefixes (as Unicode CodePoints) and their values.
+     * @param <V> The type of the value that is stored.
+     */
+    interface PrefixVisitor<V> {
+        /**
+         * @param prefix The code points of the prefix. This array is reused so only the first <code>length</code> are valid.
+         * @param length The length of the prefix.
+         * @param value  The value stored for this prefix.
+         */
+        void visit(int[] prefix, int length, V value);
+    }
+
+    /**
+     * <p>Walk over all stored prefixes in ascending code point order.
+     * A prefix is always visited before any of the longer prefixes that start with it.</p>
+     * <p>For a case INsensitive trie only the lower case variant of each prefix is visited.</p>
+     *
+     * @param visitor Is called for each stored prefix.
+     */
+    default void forEachPrefix(PrefixVisitor<V> visitor) {
+        throw new UnsupportedOperationException("The 'forEachPrefix(PrefixVisitor<V> visitor)' method has not been implemented in " +
+            this.getClass().getCanonicalName());
+    }
+
+    /**
+     * <p>Walk over the prefixes that rebuild exactly this trie when they are added (in the visited order)
+     * to an empty trie of the same kind via its {@link #sortedLoader()}.</p>
+     * <p>By default these are the stored prefixes as visited by {@link #forEachPrefix(PrefixVisitor)}. A case INsensitive
+     * trie that only links the case variants of the characters that were actually added also visits the prefixes with the
+     * characters as they must be added and the paths (with a null value) that are only needed to add a link.</p>
+     *
+     * @param visitor Is called for each prefix that must be added, the value is null if only the path must be added.
+     */
+    default void forEachAddedPrefix(PrefixVisitor<V> visitor) {
+        forEachPrefix(visitor);
+    }
+
+    /**
+     * <p>Iterate over all stored prefixes in the same order as {@link #forEachPrefix(PrefixVisitor)}.</p>
+     * <p>By default all prefixes are first collected, tries override this to walk the trie step by step.</p>
+     * @return An iterator over the prefixes (as Strings) and their values.
+     */
+    default Iterator<Map.Entry<String, V>> prefixIterator() {
+        List<Map.Entry<String, V>> entries = new ArrayList<>();
+        forEachPrefix((prefix, length, value) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(new String(prefix, 0, length), value)));
+        return Collections.unmodifiableList(entries).iterator();
+    }
+
     // ====================================================
 
     /**
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Walks step by step over all prefixes of a trie in the same order as
+ * {@link PrefixTrie#forEachPrefix(PrefixTrie.PrefixVisitor)} visits them.</p>
+ * <p>An implementation keeps the path to the current node on an explicit stack (instead of recursing once per
+ * character) so a trie with very long prefixes can be walked and a large trie can be iterated without first
+ * copying all of its prefixes.</p>
+ * @param <V> The type of the value that is stored.
+ */
+abstract class PrefixWalker<V> implements Iterator<Map.Entry<String, V>> {
+    // The code points of the prefix of the node that was found last.
+    int[]     prefix = new int[16];
+    int       length = 0;
+
+    private V next   = null;
+
+    /**
+     * Move to the next node that has a value and put its prefix in prefix and length.
+     * @return The value of the next node, null if there are no more.
+     */
+    abstract V findNext();
+
+    /**
+     * Put a code point in the prefix (the prefix grows as needed).
+     */
+    final void setLabel(int index, int label) {
+        if (index >= prefix.length) {
+            prefix = Arrays.copyOf(prefix, Math.max(prefix.length * 2, index + 1));
+        }
+        prefix[index] = label;
+    }
+
+    /**
+     * Put several code points in the prefix (the prefix grows as needed).
+     */
+    final void setLabels(int index, int[] labels) {
+        if (index + labels.length > prefix.length) {
+            prefix = Arrays.copyOf(prefix, Math.max(prefix.length * 2, index + labels.length));
+        }
+        System.arraycopy(labels, 0, prefix, index, labels.length);
+    }
+
+    /**
+     * Visit all remaining prefixes without creating a String for each of them.
+     * @param visitor Is called for each remaining prefix.
+     */
+    final void visitRemaining(PrefixTrie.PrefixVisitor<V> visitor) {
+        V value = next;
+        next = null;
+        if (value == null) {
+            value = findNext();
+        }
+        while (value != null) {
+            visitor.visit(prefix, length, value);
+            value = findNext();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = findNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, V> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("Trying next() when hasNext() is false.");
+        }
+        V value = next;
+        next = null;
+        return new AbstractMap.SimpleImmutableEntry<>(new String(prefix, 0, length), value);
+    }
+}
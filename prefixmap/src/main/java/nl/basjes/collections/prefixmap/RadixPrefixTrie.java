@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static nl.basjes.collections.prefixmap.ASCIIPrefixTrie.isInvalidASCIIChar;
+import static nl.basjes.collections.prefixmap.ASCIIPrefixTrie.throwOnInvalidASCIIChar;
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * A path compressed (radix/Patricia) trie.
+ * Every chain of nodes that have only a single child and no value is collapsed into a single
+ * edge that carries the entire run of code points as its label.
+ * Lookups find the child on the first code point and then compare the rest of the label in one go.
+ * <p>
+ * If case INsensitive all labels are stored in lower case and the input is lower cased while matching
+ * (instead of linking both the upper and lower case variant to the same child).
+ * For ASCII and all characters with a simple upper/lower case pair this matches exactly like the
+ * {@link StringPrefixTrie}. For the few characters without such a pair it matches every character with the
+ * same {@link Character#toLowerCase(int)} instead of only the lower and upper case of the character that was put:
+ * after adding "ς" (final sigma) or "ſ" (long s) the input "Σ" or "S" does not match, after adding "ǅ" (title case)
+ * the input "ǅ" does match. This is the same as the {@link FrozenPrefixTrie}.
+ * </p>
+ */
+final class RadixPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    private static final int[] EMPTY_LABEL = new int[0];
+
+    private final boolean caseSensitive;
+    private final boolean asciiOnly;
+    private Node<V>       root;
+
+    static final class Node<V extends Serializable> implements Serializable {
+        private int[]     label;      // The code points on the edge leading into this node.
+        private V         value;
+        private int[]     firstChars; // The (sorted) first code point of the label of each child.
+        private Node<V>[] children;
+        private int       childCount;
+
+        Node(int[] label) {
+            this.label = label;
+        }
+
+        Node<V> getChild(int myChar) {
+            int index = indexOf(myChar);
+            return index < 0 ? null : children[index];
+        }
+
+        private int indexOf(int myChar) {
+            if (childCount <= 8) {
+                for (int i = 0; i < childCount; i++) {
+                    if (firstChars[i] == myChar) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            return Arrays.binarySearch(firstChars, 0, childCount, myChar);
+        }
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        void putChild(Node<V> child) {
+            int myChar = child.label[0];
+            int index = Arrays.binarySearch(firstChars == null ? EMPTY_LABEL : firstChars, 0, childCount, myChar);
+            if (index >= 0) {
+                children[index] = child;
+                return;
+            }
+            if (children == null) {
+                firstChars = new int[2];
+                children = (Node<V>[]) Array.newInstance(Node.class, 2);
+            } else if (childCount == children.length) {
+                firstChars = Arrays.copyOf(firstChars, childCount * 2);
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            int insertAt = -(index + 1);
+            System.arraycopy(firstChars, insertAt, firstChars, insertAt + 1, childCount - insertAt);
+            System.arraycopy(children,   insertAt, children,   insertAt + 1, childCount - insertAt);
+            firstChars[insertAt] = myChar;
+            children[insertAt] = child;
+            childCount++;
+        }
+
+        void removeChild(int myChar) {
+            int index = indexOf(myChar);
+            if (index < 0) {
+                return;
+            }
+            childCount--;
+            System.arraycopy(firstChars, index + 1, firstChars, index, childCount - index);
+            System.arraycopy(children,   index + 1, children,   index, childCount - index);
+            children[childCount] = null;
+            if (childCount == 0) {
+                firstChars = null;
+                children = null;
+            }
+        }
+    }
+
+    RadixPrefixTrie(boolean caseSensitive) {
+        this(caseSensitive, false);
+    }
+
+    RadixPrefixTrie(boolean caseSensitive, boolean asciiOnly) {
+        this.caseSensitive = caseSensitive;
+        this.asciiOnly = asciiOnly;
+        this.root = new Node<>(EMPTY_LABEL);
+    }
+
+    /**
+     * @return The character as it is stored in the labels, -1 if it can never be part of a label.
+     */
+    private int normalize(int myChar) {
+        if (asciiOnly && isInvalidASCIIChar(myChar)) {
+            return -1;
+        }
+        return caseSensitive ? myChar : Character.toLowerCase(myChar);
+    }
+
+    /**
+     * Reads the entire prefix as (validated and normalized) code points.
+     */
+    private int[] readPrefix(PrimitiveIterator.OfInt prefix) {
+        int[] result = new int[16];
+        int length = 0;
+        while (prefix.hasNext()) {
+            int myChar = prefix.nextInt();
+            if (asciiOnly) {
+                throwOnInvalidASCIIChar(myChar);
+            }
+            if (length == result.length) {
+                result = Arrays.copyOf(result, length * 2);
+            }
+            result[length++] = caseSensitive ? myChar : Character.toLowerCase(myChar);
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        int[] chars = readPrefix(prefix);
+        Node<V> node = root;
+        int offset = 0;
+        while (offset < chars.length) {
+            Node<V> child = node.getChild(chars[offset]);
+            if (child == null) {
+                Node<V> leaf = new Node<>(Arrays.copyOfRange(chars, offset, chars.length));
+                leaf.value = value;
+                node.putChild(leaf);
+                return null;
+            }
+
+            int[] label = child.label;
+            int matched = 1;
+            while (matched < label.length &&
+                   offset + matched < chars.length &&
+                   label[matched] == chars[offset + matched]) {
+                matched++;
+            }
+
+            if (matched < label.length) {
+                // Only part of the label matches so the edge must be split.
+                Node<V> split = new Node<>(Arrays.copyOf(label, matched));
+                child.label = Arrays.copyOfRange(label, matched, label.length);
+                split.putChild(child);
+                node.putChild(split);
+                child = split;
+            }
+            node = child;
+            offset += matched;
+        }
+
+        V previousValue = node.value;
+        node.value = value;
+        return previousValue;
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        int[] chars = readPrefix(prefix);
+        Node<V> grandParent = null;
+        Node<V> parent = null;
+        Node<V> node = root;
+        int offset = 0;
+        while (offset < chars.length) {
+            Node<V> child = node.getChild(chars[offset]);
+            if (child == null || !labelMatches(child.label, chars, offset)) {
+                return null;
+            }
+            grandParent = parent;
+            parent = node;
+            node = child;
+            offset += child.label.length;
+        }
+
+        V previousValue = node.value;
+        if (previousValue == null) {
+            return null;
+        }
+        node.value = null;
+
+        if (parent == null) {
+            return previousValue; // This was the root
+        }
+
+        // Prune the tree so it remains fully path compressed.
+        if (node.childCount == 0) {
+            parent.removeChild(node.label[0]);
+            if (grandParent != null && parent.value == null && parent.childCount == 1) {
+                mergeWithOnlyChild(grandParent, parent);
+            }
+        } else if (node.childCount == 1) {
+            mergeWithOnlyChild(parent, node);
+        }
+        return previousValue;
+    }
+
+    private static boolean labelMatches(int[] label, int[] chars, int offset) {
+        if (offset + label.length > chars.length) {
+            return false;
+        }
+        for (int i = 0; i < label.length; i++) {
+            if (label[i] != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mergeWithOnlyChild(Node<V> parent, Node<V> node) {
+        Node<V> onlyChild = node.children[0];
+        int[] label = Arrays.copyOf(node.label, node.label.length + onlyChild.label.length);
+        System.arraycopy(onlyChild.label, 0, label, node.label.length, onlyChild.label.length);
+        onlyChild.label = label;
+        parent.putChild(onlyChild);
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            node = node.getChild(normalize(prefix.nextInt()));
+            if (node == null) {
+                return null;
+            }
+            int[] label = node.label;
+            for (int i = 1; i < label.length; i++) {
+                if (!prefix.hasNext() || normalize(prefix.nextInt()) != label[i]) {
+                    return null;
+                }
+            }
+        }
+        return node.value;
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        while (node.value == null && input.hasNext()) {
+            node = node.getChild(normalize(input.nextInt()));
+            if (node == null) {
+                return null;
+            }
+            int[] label = node.label;
+            for (int i = 1; i < label.length; i++) {
+                if (!input.hasNext() || normalize(input.nextInt()) != label[i]) {
+                    return null;
+                }
+            }
+        }
+        return node.value;
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        V result = node.value;
+        while (input.hasNext()) {
+            node = node.getChild(normalize(input.nextInt()));
+            if (node == null) {
+                return result;
+            }
+            int[] label = node.label;
+            for (int i = 1; i < label.length; i++) {
+                if (!input.hasNext() || normalize(input.nextInt()) != label[i]) {
+                    return result;
+                }
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return null;
+            }
+            index = matchLabel(node.label, input, index, end);
+            if (index < 0) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        int index = start;
+        while (node.value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return null;
+            }
+            index = matchLabel(node.label, input, index, end);
+            if (index < 0) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        V result = node.value;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return result;
+            }
+            index = matchLabel(node.label, input, index, end);
+            if (index < 0) {
+                return result;
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        int index = start;
+        while (node.value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                return setMatch(result, null, 0);
+            }
+            index = matchLabel(node.label, input, index, end);
+            if (index < 0) {
+                return setMatch(result, null, 0);
+            }
+        }
+        return setMatch(result, node.value, index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        V value = node.value;
+        int length = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(normalize(myChar));
+            if (node == null) {
+                break;
+            }
+            index = matchLabel(node.label, input, index, end);
+            if (index < 0) {
+                break;
+            }
+            if (node.value != null) {
+                value = node.value;
+                length = index - start;
+            }
+        }
+        return setMatch(result, value, length);
+    }
+
+    /**
+     * Match the rest of the label (the first code point has already been matched) against the input.
+     * @return The index in the input after the label, -1 if the label does not match.
+     */
+    private int matchLabel(int[] label, CharSequence input, int start, int end) {
+        int index = start;
+        for (int i = 1; i < label.length; i++) {
+            if (index >= end) {
+                return -1;
+            }
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            if (normalize(myChar) != label[i]) {
+                return -1;
+            }
+        }
+        return index;
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class RadixTrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private final RadixPrefixTrie<V> trie;
+        private Node<V> node;
+
+        RadixTrieIterator(PrimitiveIterator.OfInt input, RadixPrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.trie = trie;
+            this.node = trie.root;
+            this.next = node.value == null ? getNext() : node.value;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (node != null && input.hasNext()) {
+                node = node.getChild(trie.normalize(read()));
+                if (node == null) {
+                    return null;
+                }
+                int[] label = node.label;
+                for (int i = 1; i < label.length; i++) {
+                    if (!input.hasNext() || trie.normalize(read()) != label[i]) {
+                        node = null;
+                        return null;
+                    }
+                }
+                if (node.value != null) {
+                    nextLength = length;
+                    return node.value;
+                }
+            }
+            node = null;
+            return null;
+        }
+
+        private int read() {
+            int myChar = input.nextInt();
+            length += Character.charCount(myChar);
+            return myChar;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new RadixTrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new RadixTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixWalker<V> prefixIterator() {
+        return new RadixTrieWalker<>(root);
+    }
+
+    /**
+     * Walks depth first over the trie with an explicit stack of the nodes on the path to the current node.
+     */
+    private static final class RadixTrieWalker<V extends Serializable> extends PrefixWalker<V> {
+        private Node<V>[] nodes   = newNodeArray(16);
+        private int[]     next    = new int[16]; // The index of the next child to visit.
+        private int[]     lengths = new int[16]; // The length of the prefix up to and including the label of the node.
+        private int       depth   = 0;
+        private boolean   started = false;
+
+        RadixTrieWalker(Node<V> root) {
+            nodes[0] = root;
+        }
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        private static <V extends Serializable> Node<V>[] newNodeArray(int length) {
+            return (Node<V>[]) Array.newInstance(Node.class, length);
+        }
+
+        @Override
+        V findNext() {
+            if (!started) {
+                started = true;
+                if (nodes[0].value != null) {
+                    return nodes[0].value;
+                }
+            }
+            while (depth >= 0) {
+                Node<V> node = nodes[depth];
+                if (next[depth] == node.childCount) {
+                    nodes[depth] = null;
+                    depth--;
+                    continue;
+                }
+                Node<V> child = node.children[next[depth]++];
+                setLabels(lengths[depth], child.label);
+                int childLength = lengths[depth] + child.label.length;
+                depth++;
+                if (depth == nodes.length) {
+                    nodes   = Arrays.copyOf(nodes,   depth * 2);
+                    next    = Arrays.copyOf(next,    depth * 2);
+                    lengths = Arrays.copyOf(lengths, depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 0;
+                lengths[depth] = childLength;
+                if (child.value != null) {
+                    length = childLength;
+                    return child.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    // ==============================================================
+
+    @Override
+    public void clear() {
+        root = new Node<>(EMPTY_LABEL);
+    }
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+import nl.basjes.collections.PrefixMap;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>The ReloadablePrefixMap is a read only PrefixMap of which the content can be replaced while it is being used.</p>
+ * <p>A {@link #reload(Supplier)} obtains the new prefixes and builds the new PrefixMap on the provided Executor.
+ * Until that is done all lookups are done on the previous version, the new version is published in a single step
+ * so a lookup never sees a half built map. A lookup costs a single volatile read on top of the lookup in the current
+ * version.</p>
+ * <p>If reloads overlap the version of the latest reload wins, even if an older reload finishes later.
+ * If a reload fails the previous version remains in use.</p>
+ * <p>All methods of the Map interface that try to modify this map throw an UnsupportedOperationException.
+ * Serializing this map writes the current version.</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+public class ReloadablePrefixMap<V extends Serializable> implements PrefixMap<V> {
+    private final transient Function<Map<String, ? extends V>, PrefixMap<V>> factory;
+    private final transient Executor                                         executor;
+    private final transient AtomicLong                                       requestedGeneration = new AtomicLong();
+
+    private volatile PrefixMap<V> current;
+
+    // Only changed while holding the lock on this instance.
+    private long          publishedGeneration = 0;
+    private volatile long version             = 0;
+    private volatile long lastBuildNanos      = 0;
+
+    /**
+     * Creates an empty map where each reload builds a {@link FrozenPrefixMap}.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param executor The executor on which the reloads are done.
+     */
+    public ReloadablePrefixMap(boolean caseSensitive, Executor executor) {
+        this(prefixesAndValues -> StringPrefixMap.<V>builder(caseSensitive).putAll(prefixesAndValues).buildFrozen(), executor);
+    }
+
+    /**
+     * Creates a map where each reload builds a new PrefixMap with the provided factory.
+     * The initial (empty) version is built directly with the same factory.
+     * @param factory Builds a filled PrefixMap from the provided prefixes and values.
+     * @param executor The executor on which the reloads are done.
+     */
+    public ReloadablePrefixMap(Function<Map<String, ? extends V>, PrefixMap<V>> factory, Executor executor) {
+        this.factory = Objects.requireNonNull(factory, "The factory may not be null");
+        this.executor = Objects.requireNonNull(executor, "The executor may not be null");
+        this.current = Objects.requireNonNull(factory.apply(Collections.emptyMap()), "The factory returned null");
+    }
+
+    /**
+     * Replace the content of this map with the provided prefixes and values.
+     * The new PrefixMap is built on the executor, until it is ready the current version remains in use.
+     * @param prefixesAndValues The new prefixes and values (must not be changed until the reload has completed).
+     * @return A future that completes with the version that is in use after this reload.
+     */
+    public CompletableFuture<PrefixMap<V>> reload(Map<String, ? extends V> prefixesAndValues) {
+        Objects.requireNonNull(prefixesAndValues, "The prefixesAndValues may not be null");
+        return reload(() -> prefixesAndValues);
+    }
+
+    /**
+     * Replace the content of this map with the prefixes and values retrieved from the source.
+     * Both retrieving (i.e. reading the rule files) and building the new PrefixMap are done on the executor,
+     * until that is ready the current version remains in use.
+     * @param source Provides the new prefixes and values.
+     * @return A future that completes with the version that is in use after this reload.
+     *         If the source or the factory fails the future completes exceptionally and the current version remains in use.
+     */
+    public CompletableFuture<PrefixMap<V>> reload(Supplier<? extends Map<String, ? extends V>> source) {
+        Objects.requireNonNull(source, "The source may not be null");
+        long generation = requestedGeneration.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            PrefixMap<V> newVersion = Objects.requireNonNull(factory.apply(source.get()), "The factory returned null");
+            return publish(generation, newVersion, System.nanoTime() - start);
+        }, executor);
+    }
+
+    private synchronized PrefixMap<V> publish(long generation, PrefixMap<V> newVersion, long buildNanos) {
+        if (generation > publishedGeneration) {
+            publishedGeneration = generation;
+            lastBuildNanos = buildNanos;
+            version++;
+            current = newVersion;
+        }
+        return current;
+    }
+
+    /**
+     * @return The version that is currently used for all lookups.
+     */
+    public PrefixMap<V> current() {
+        return current;
+    }
+
+    /**
+     * @return The number of reloads that have been published (0 if still the initial version).
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return The time (in nanoseconds) it took to retrieve and build the currently published version (0 if still the initial version).
+     */
+    public long lastBuildNanos() {
+        return lastBuildNanos;
+    }
+
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return current.isEmpty();
+    }
+
+    @Override
+    public V put(String prefix, V value) {
+        throw new UnsupportedOperationException("A ReloadablePrefixMap can only be changed via reload");
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends V> prefixesAndValues) {
+        throw new UnsupportedOperationException("A ReloadablePrefixMap can only be changed via reload");
+    }
+
+    @Override
+    public V remove(String prefix) {
+        throw new UnsupportedOperationException("A ReloadablePrefixMap can only be changed via reload");
+    }
+
+    @Override
+    public V remove(Object prefix) {
+        throw new UnsupportedOperationException("A ReloadablePrefixMap can only be changed via reload");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A ReloadablePrefixMap can only be changed via reload");
+    }
+
+    @Override
+    public V get(String prefix) {
+        return current.get(prefix);
+    }
+
+    @Override
+    public V get(Object prefix) {
+        return current.get(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(String prefix) {
+        return current.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix) {
+        return current.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix, int start, int end) {
+        return current.containsPrefix(prefix, start, end);
+    }
+
+    @Override
+    public V getShortestMatch(String input) {
+        return current.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input) {
+        return current.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        return current.getShortestMatch(input, start, end);
+    }
+
+    @Override
+    public V getLongestMatch(String input) {
+        return current.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input) {
+        return current.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        return current.getLongestMatch(input, start, end);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(String input) {
+        return current.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input) {
+        return current.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        return current.getAllMatches(input, start, end);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, MatchResult<V> result) {
+        return current.getShortestMatch(input, result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        return current.getShortestMatch(input, start, end, result);
+    }
+
+    @Override
+    public int getShortestMatchLength(CharSequence input) {
+        return current.getShortestMatchLength(input);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, MatchResult<V> result) {
+        return current.getLongestMatch(input, result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        return current.getLongestMatch(input, start, end, result);
+    }
+
+    @Override
+    public int getLongestMatchLength(CharSequence input) {
+        return current.getLongestMatchLength(input);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input) {
+        return current.getAllMatchResults(input);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return current.getAllMatchResults(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix) {
+        return current.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix, int offset, int length) {
+        return current.containsPrefix(prefix, offset, length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input) {
+        return current.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        return current.getShortestMatch(input, offset, length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input) {
+        return current.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        return current.getLongestMatch(input, offset, length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input) {
+        return current.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        return current.getAllMatches(input, offset, length);
+    }
+
+    @Override
+    public boolean containsPrefix(PrimitiveIterator.OfInt prefix) {
+        return current.containsPrefix(prefix);
+    }
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        return current.getShortestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        return current.getLongestMatch(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return current.getAllMatches(input);
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return current.entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return current.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return current.values();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return current.containsValue(value);
+    }
+
+    // ==================================================================================
+
+    /**
+     * Only the current version is serialized (so it is deserialized as that type of PrefixMap).
+     * @return The current version.
+     */
+    Object writeReplace() {
+        return current;
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A ReloadablePrefixMap is serialized as its current version.");
+    }
+}
@@ -18,20 +18,43 @@ package nl.basjes.collections.prefixmap;
 import com.esotericsoftware.kryo.DefaultSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.collections.MatchResult;
 import nl.basjes.collections.PrefixMap;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.checkRegion;
+import static nl.basjes.collections.prefixmap.IntArrayIterator.checkRange;
 
 /**
  * The StringPrefixMap is an implementation of PrefixMap where the assumption is that the
@@ -42,17 +65,50 @@ import java.util.TreeMap;
 @DefaultSerializer(StringPrefixMap.KryoSerializer.class)
 public class StringPrefixMap<V extends Serializable> implements PrefixMap<V>, Serializable {
     private final Boolean             caseSensitive;
+    private final boolean             pathCompressed;
+    private final boolean             compactKeys;
     private final PrefixTrie<V>       prefixTrie;
-    private final TreeMap<String, V>  allPrefixes;
+    private final TreeMap<String, V>  allPrefixes; // Null if the keys are only in the trie.
+    private int                       size;
 
-    PrefixTrie<V> createTrie(boolean newCaseSensitive) {
+    PrefixTrie<V> createTrie(boolean newCaseSensitive, boolean newPathCompressed) {
+        if (newPathCompressed) {
+            return new RadixPrefixTrie<>(newCaseSensitive);
+        }
         return new StringPrefixTrie<>(newCaseSensitive);
     }
 
     public StringPrefixMap(boolean caseSensitive) {
+        this(caseSensitive, false);
+    }
+
+    /**
+     * @param caseSensitive  Are the lookups case sensitive or not.
+     * @param pathCompressed If true a path compressed (radix) trie is used in which chains of single child
+     *                       nodes are collapsed into a single edge. This uses a lot less memory for large
+     *                       sets of long prefixes. If case INsensitive the few characters without a simple
+     *                       upper/lower case pair (like "ς" and "ſ") match like a {@link FrozenPrefixMap} does.
+     */
+    public StringPrefixMap(boolean caseSensitive, boolean pathCompressed) {
+        this(caseSensitive, pathCompressed, false);
+    }
+
+    /**
+     * @param caseSensitive  Are the lookups case sensitive or not.
+     * @param pathCompressed If true a path compressed (radix) trie is used in which chains of single child
+     *                       nodes are collapsed into a single edge. This uses a lot less memory for large
+     *                       sets of long prefixes. If case INsensitive the few characters without a simple
+     *                       upper/lower case pair (like "ς" and "ſ") match like a {@link FrozenPrefixMap} does.
+     * @param compactKeys    If true the prefixes are only stored in the trie (and not also as a sorted set of Strings).
+     *                       This uses a lot less memory but the keySet, entrySet and values then walk the trie
+     *                       step by step every time they are iterated (in code point order).
+     */
+    public StringPrefixMap(boolean caseSensitive, boolean pathCompressed, boolean compactKeys) {
         this.caseSensitive = caseSensitive; // Only needed for serialization.
-        prefixTrie = createTrie(caseSensitive);
-        allPrefixes = new TreeMap<>();
+        this.pathCompressed = pathCompressed; // Only needed for serialization.
+        this.compactKeys = compactKeys;
+        prefixTrie = createTrie(caseSensitive, pathCompressed);
+        allPrefixes = compactKeys ? null : new TreeMap<>();
     }
 
     /**
@@ -66,32 +122,676 @@ public class StringPrefixMap<V extends Serializable> implements PrefixMap<V>, Se
         Kryo kryo = (Kryo) kryoInstance;
         kryo.register(StringPrefixMap.class);
         kryo.register(StringPrefixTrie.class);
+        kryo.register(Array.newInstance(StringPrefixTrie.class, 0).getClass());
+        kryo.register(RadixPrefixTrie.class);
+        kryo.register(RadixPrefixTrie.Node.class);
+        kryo.register(Array.newInstance(RadixPrefixTrie.Node.class, 0).getClass());
         kryo.register(java.util.TreeMap.class);
+        kryo.register(FrozenPrefixMap.class);
+        kryo.register(FrozenPrefixTrie.class);
+        kryo.register(DoubleArrayPrefixMap.class);
+        kryo.register(DoubleArrayPrefixTrie.class);
+        kryo.register(OffHeapPrefixMap.class);
+        kryo.register(OffHeapPrefixTrie.class);
+        kryo.register(ConcurrentPrefixMap.class);
+        kryo.register(PersistentPrefixMap.class);
+        kryo.register(OverlayPrefixMap.class);
+        kryo.register(Object[].class);
     }
 
+    /**
+     * The prefixes that rebuild exactly the same trie (see {@link #addedPrefixes()}) are written in that order where of
+     * each prefix only the part after the prefix that is shared with the previous prefix is written (the length of the
+     * shared part as a varint and the rest as a string).
+     * If all values are of the same class that class is written only once and the values are written with the
+     * serializer registered for that class, else each value is written with its class.
+     * Only if there are prefixes of which only the path is added (a null value) the values are written as nullable.
+     * When reading the trie continues from the node of the shared part of the previous prefix
+     * instead of walking down from the root for every prefix.
+     */
     public static class KryoSerializer extends Serializer<StringPrefixMap<Serializable>> {
 
         public void write(Kryo kryo, Output output, StringPrefixMap<Serializable> instance) {
             output.writeBoolean(instance.caseSensitive);
-            kryo.writeClassAndObject(output, instance.allPrefixes);
+            output.writeBoolean(instance.pathCompressed);
+            output.writeBoolean(instance.compactKeys);
+            List<Entry<String, Serializable>> prefixes = instance.addedPrefixes();
+            output.writeVarInt(prefixes.size(), true);
+
+            List<Serializable> values = new ArrayList<>(prefixes.size());
+            for (Entry<String, Serializable> entry : prefixes) {
+                if (entry.getValue() != null) {
+                    values.add(entry.getValue());
+                }
+            }
+            boolean pathOnly = values.size() < prefixes.size();
+            output.writeBoolean(pathOnly);
+
+            Class<?> valueClass = commonClass(values);
+            output.writeBoolean(valueClass != null);
+            Serializer<?> valueSerializer = null;
+            if (valueClass != null) {
+                valueSerializer = kryo.writeClass(output, valueClass).getSerializer();
+            }
+
+            String previous = "";
+            for (Entry<String, Serializable> entry : prefixes) {
+                String prefix = entry.getKey();
+                int shared = sharedLength(previous, prefix);
+                output.writeVarInt(shared, true);
+                output.writeString(prefix.substring(shared));
+                if (valueSerializer == null) {
+                    kryo.writeClassAndObject(output, entry.getValue());
+                } else if (pathOnly) {
+                    kryo.writeObjectOrNull(output, entry.getValue(), valueSerializer);
+                } else {
+                    kryo.writeObject(output, entry.getValue(), valueSerializer);
+                }
+                previous = prefix;
+            }
         }
 
         @SuppressWarnings("unchecked")
         public StringPrefixMap<Serializable> read(Kryo kryo, Input input, Class<? extends StringPrefixMap<Serializable>> type) {
             try {
                 boolean caseSensitive = input.readBoolean();
-                StringPrefixMap<Serializable> instance = type.getDeclaredConstructor(boolean.class).newInstance(caseSensitive);
-                Map<String, Serializable> allPrefixes = (TreeMap<String, Serializable>) kryo.readClassAndObject(input);
+                boolean pathCompressed = input.readBoolean();
+                boolean compactKeys = input.readBoolean();
+                StringPrefixMap<Serializable> instance = type
+                    .getDeclaredConstructor(boolean.class, boolean.class, boolean.class)
+                    .newInstance(caseSensitive, pathCompressed, compactKeys);
+                int size = input.readVarInt(true);
+                boolean pathOnly = input.readBoolean();
+
+                Registration valueRegistration = null;
+                if (input.readBoolean()) {
+                    valueRegistration = kryo.readClass(input);
+                }
 
-                for (Entry<String, Serializable> entry : allPrefixes.entrySet()) {
-                    Serializable value = entry.getValue();
-                    instance.put(entry.getKey(), value);
+                List<Map.Entry<String, Serializable>> entries = new ArrayList<>(Math.min(size, 1 << 20));
+                String previous = "";
+                for (int i = 0; i < size; i++) {
+                    int shared = input.readVarInt(true);
+                    if (shared > previous.length()) {
+                        throw new KryoException("Deserialization of StringPrefixMap failed: invalid shared prefix length " + shared);
+                    }
+                    String prefix = previous.substring(0, shared) + input.readString();
+                    Serializable value;
+                    if (valueRegistration == null) {
+                        value = (Serializable) kryo.readClassAndObject(input);
+                    } else if (pathOnly) {
+                        value = (Serializable) kryo.readObjectOrNull(input, valueRegistration.getType(), valueRegistration.getSerializer());
+                    } else {
+                        value = (Serializable) kryo.readObject(input, valueRegistration.getType(), valueRegistration.getSerializer());
+                    }
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(prefix, value));
+                    previous = prefix;
                 }
+                instance.loadExact(entries, size >= PARALLEL_LOAD_THRESHOLD);
                 return instance;
             } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
                 throw new KryoException("Deserialization of StringPrefixMap failed", e);
             }
         }
+
+        private static Class<?> commonClass(Collection<? extends Serializable> values) {
+            Class<?> common = null;
+            for (Serializable value : values) {
+                if (common == null) {
+                    common = value.getClass();
+                } else if (common != value.getClass()) {
+                    return null;
+                }
+            }
+            return common;
+        }
+    }
+
+    /**
+     * @return The length of the part at the start of both Strings that is the same, never ending halfway a surrogate pair.
+     */
+    static int sharedLength(String previous, String prefix) {
+        int shared = 0;
+        int maxShared = Math.min(previous.length(), prefix.length());
+        while (shared < maxShared && previous.charAt(shared) == prefix.charAt(shared)) {
+            shared++;
+        }
+        if (shared > 0 && Character.isHighSurrogate(prefix.charAt(shared - 1))) {
+            shared--; // Never split a surrogate pair
+        }
+        return shared;
+    }
+
+    /**
+     * @return A loader that adds prefixes (that are provided in sorted order) to this map.
+     */
+    PrefixTrie.SortedLoader<V> sortedLoader() {
+        PrefixTrie.SortedLoader<V> trieLoader = prefixTrie.sortedLoader();
+        return (prefix, shared, value) -> {
+            Objects.requireNonNull(prefix, "The prefix may not be null");
+            Objects.requireNonNull(value, "The value may not be null");
+            V previousValue = trieLoader.add(prefix, shared, value);
+            if (previousValue == null) {
+                size++;
+            }
+            if (allPrefixes != null) {
+                allPrefixes.put(storedKey(prefix), value);
+            }
+            return previousValue;
+        };
+    }
+
+    // ------------------------------------------
+    // JAVA SERIALIZATION
+
+    /**
+     * The (Java) serialized form of a StringPrefixMap (and all subclasses) is this proxy which only has
+     * the settings and a compact stream of the prefixes that rebuild exactly the same trie (see {@link #addedPrefixes()})
+     * and their values; the trie itself is never written.
+     * This is much smaller and faster than the default form and does not recurse into the trie (so no stack overflow
+     * on very long prefixes). The map and the trie are rebuilt from this stream in a single pass.
+     * @return The serialization proxy of this map.
+     */
+    Object writeReplace() {
+        return new SerializationProxy<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A StringPrefixMap can only be deserialized via its serialization proxy.");
+    }
+
+    private static final class SerializationProxy<V extends Serializable> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Class<?> type;
+        private final boolean  caseSensitive;
+        private final boolean  pathCompressed;
+        private final boolean  compactKeys;
+        // The map that is written, or the map that is rebuilt when reading.
+        private transient StringPrefixMap<V> map;
+
+        SerializationProxy(StringPrefixMap<V> map) {
+            this.type = map.getClass();
+            this.caseSensitive = map.caseSensitive;
+            this.pathCompressed = map.pathCompressed;
+            this.compactKeys = map.compactKeys;
+            this.map = map;
+        }
+
+        /*
+         * Per prefix (in trie order) only the part after the prefix that is shared with the previous prefix is written:
+         * the length of the shared part (in chars), the length of the UTF-8 bytes of the rest, the UTF-8 bytes of the rest
+         * and the value (null if only the path is added). Equal values (i.e. the same instance) are written only once
+         * by the ObjectOutputStream.
+         */
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            List<Map.Entry<String, V>> prefixes = map.addedPrefixes();
+            out.writeInt(prefixes.size());
+            String previous = "";
+            for (Map.Entry<String, V> entry : prefixes) {
+                String prefix = entry.getKey();
+                int shared = sharedLength(previous, prefix);
+                byte[] rest = prefix.substring(shared).getBytes(UTF_8);
+                out.writeInt(shared);
+                out.writeInt(rest.length);
+                out.write(rest);
+                out.writeObject(entry.getValue());
+                previous = prefix;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (!StringPrefixMap.class.isAssignableFrom(type)) {
+                throw new InvalidObjectException("Not a StringPrefixMap: " + type.getName());
+            }
+            try {
+                map = (StringPrefixMap<V>) type
+                    .getDeclaredConstructor(boolean.class, boolean.class, boolean.class)
+                    .newInstance(caseSensitive, pathCompressed, compactKeys);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+                InvalidObjectException exception = new InvalidObjectException("Deserialization of " + type.getName() + " failed");
+                exception.initCause(e);
+                throw exception;
+            }
+
+            int size = in.readInt();
+            if (size < 0) {
+                throw new InvalidObjectException("Invalid number of prefixes: " + size);
+            }
+            List<Map.Entry<String, V>> entries = new ArrayList<>(Math.min(size, 1 << 20));
+            String previous = "";
+            for (int i = 0; i < size; i++) {
+                int shared = in.readInt();
+                int restLength = in.readInt();
+                if (shared < 0 || shared > previous.length() || restLength < 0) {
+                    throw new InvalidObjectException("Invalid serialized prefix");
+                }
+                byte[] rest = new byte[restLength];
+                in.readFully(rest);
+                String prefix = previous.substring(0, shared) + new String(rest, UTF_8);
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(prefix, (V) in.readObject()));
+                previous = prefix;
+            }
+            map.loadExact(entries, size >= PARALLEL_LOAD_THRESHOLD);
+        }
+
+        private Object readResolve() {
+            return map;
+        }
+    }
+
+    // ------------------------------------------
+    // BUILDER
+
+    /**
+     * Create a builder that collects all prefixes and builds the map in a single pass over the sorted prefixes.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param <V> The type of the value that is to be stored.
+     * @return The builder.
+     */
+    public static <V extends Serializable> Builder<V> builder(boolean caseSensitive) {
+        return new Builder<>(() -> new StringPrefixMap<>(caseSensitive));
+    }
+
+    /**
+     * <p>Collects prefixes and values and then builds the map (or a frozen map) in a single pass.</p>
+     * <p>The prefixes are sorted once, after which every prefix continues from the trie node of the part it shares
+     * with the previous prefix instead of walking down from the root like put does. Building the trie is dominated by
+     * creating the nodes so this takes about as long as calling put for every prefix; {@link #buildFrozen()} however
+     * never creates the intermediate trie and is faster than calling put for every prefix and then freeze.</p>
+     * <p>If the same prefix is put multiple times the last value wins.</p>
+     * @param <V> The type of the value that is to be stored.
+     */
+    public static final class Builder<V extends Serializable> {
+        private final Supplier<? extends StringPrefixMap<V>> factory;
+        private final StringPrefixMap<V>                     template;
+        private final List<Map.Entry<String, V>>             entries = new ArrayList<>();
+
+        Builder(Supplier<? extends StringPrefixMap<V>> factory) {
+            this.factory = factory;
+            this.template = factory.get();
+        }
+
+        /**
+         * @param prefix The prefix for which we want to store the provided value
+         * @param value  The value that we want to store. The value may NOT be null.
+         * @return This builder.
+         */
+        public Builder<V> put(String prefix, V value) {
+            Objects.requireNonNull(prefix, "The prefix may not be null");
+            Objects.requireNonNull(value, "The value may not be null");
+            if (template.asciiOnly()) {
+                for (int i = 0; i < prefix.length(); i++) {
+                    ASCIIPrefixTrie.throwOnInvalidASCIIChar(prefix.charAt(i));
+                }
+            }
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(prefix, value));
+            return this;
+        }
+
+        /**
+         * @param prefixesAndValues The prefixes and values that we want to store.
+         * @return This builder.
+         */
+        public Builder<V> putAll(Map<String, ? extends V> prefixesAndValues) {
+            for (Map.Entry<String, ? extends V> entry : prefixesAndValues.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * @return A new map with all the collected prefixes and values.
+         */
+        public StringPrefixMap<V> build() {
+            StringPrefixMap<V> map = factory.get();
+            map.load(entries, false);
+            return map;
+        }
+
+        /**
+         * Same as {@link #build()} but the prefixes are partitioned by their first character and the trie for each
+         * partition is built concurrently (using the common fork-join pool). The result is the same as that of {@link #build()}.
+         * Tries that do not support this (like the path compressed variants) are built sequentially.
+         * The partitioning costs extra time so with only one or two cpus this is slower than {@link #build()}.
+         * @return A new map with all the collected prefixes and values.
+         */
+        public StringPrefixMap<V> buildParallel() {
+            StringPrefixMap<V> map = factory.get();
+            map.load(entries, true);
+            return map;
+        }
+
+        /**
+         * Builds the read only {@link FrozenPrefixMap} directly from the sorted prefixes (i.e. without
+         * building the intermediate trie that would be needed to {@link StringPrefixMap#freeze()}).
+         * @return A new read only map with all the collected prefixes and values.
+         */
+        public FrozenPrefixMap<V> buildFrozen() {
+            boolean caseSensitive = template.prefixTrie.caseSensitive();
+            List<Map.Entry<String, V>> sorted = sortedUnique(entries, caseSensitive);
+
+            // The compiler needs the prefixes in code point order of the stored labels which
+            // is (almost always) the same as the order of the Strings.
+            boolean inOrder = true;
+            for (int i = 1; i < sorted.size() && inOrder; i++) {
+                inOrder = StringPrefixMap.compareLabels(sorted.get(i - 1).getKey(), sorted.get(i).getKey(), caseSensitive) <= 0;
+            }
+
+            FrozenPrefixTrie.Compiler<V> compiler = new FrozenPrefixTrie.Compiler<>();
+            if (inOrder) {
+                int[] labels = new int[64];
+                for (Map.Entry<String, V> entry : sorted) {
+                    String prefix = entry.getKey();
+                    if (labels.length < prefix.length()) {
+                        labels = new int[Math.max(2 * labels.length, prefix.length())];
+                    }
+                    compiler.visit(labels, toLabels(prefix, caseSensitive, labels), entry.getValue());
+                }
+            } else {
+                List<Map.Entry<int[], V>> labelled = new ArrayList<>(sorted.size());
+                for (Map.Entry<String, V> entry : sorted) {
+                    String prefix = entry.getKey();
+                    int[] labels = new int[prefix.length()];
+                    labelled.add(new AbstractMap.SimpleImmutableEntry<>(
+                        Arrays.copyOf(labels, toLabels(prefix, caseSensitive, labels)), entry.getValue()));
+                }
+                labelled.sort((left, right) -> compareLabels(left.getKey(), right.getKey()));
+                for (Map.Entry<int[], V> entry : labelled) {
+                    compiler.visit(entry.getKey(), entry.getKey().length, entry.getValue());
+                }
+            }
+            return new FrozenPrefixMap<>(compiler.build(caseSensitive, template.asciiOnly()));
+        }
+
+        /**
+         * @return The number of labels (the code points as they are stored in the trie) of the prefix.
+         */
+        private static int toLabels(String prefix, boolean caseSensitive, int[] labels) {
+            int length = 0;
+            int i = 0;
+            while (i < prefix.length()) {
+                int codePoint = prefix.codePointAt(i);
+                labels[length++] = caseSensitive ? codePoint : Character.toLowerCase(codePoint);
+                i += Character.charCount(codePoint);
+            }
+            return length;
+        }
+
+        private static int compareLabels(int[] left, int[] right) {
+            for (int i = 0; i < Math.min(left.length, right.length); i++) {
+                if (left[i] != right[i]) {
+                    return Integer.compare(left[i], right[i]);
+                }
+            }
+            return Integer.compare(left.length, right.length);
+        }
+    }
+
+    // Above this number of prefixes the deserialization builds the trie in parallel.
+    static final int PARALLEL_LOAD_THRESHOLD = 50_000;
+
+    /**
+     * @return The entries sorted on the prefix where of each prefix only the last value remains.
+     *         If case INsensitive the prefixes are compared on their lower case code points (like the trie links them)
+     *         and of the prefixes that only differ in case only the last one remains (as it is in its original case).
+     */
+    private static <V> List<Map.Entry<String, V>> sortedUnique(List<Map.Entry<String, V>> entries, boolean caseSensitive) {
+        Comparator<String> order = caseSensitive ? Comparator.naturalOrder() : (left, right) -> compareLabels(left, right, false);
+        List<Map.Entry<String, V>> sorted = new ArrayList<>(entries);
+        sorted.sort(Map.Entry.comparingByKey(order)); // Stable so the last value put for a prefix is the last one
+        List<Map.Entry<String, V>> result = new ArrayList<>(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i + 1 == sorted.size() || order.compare(sorted.get(i).getKey(), sorted.get(i + 1).getKey()) != 0) {
+                result.add(sorted.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compare the prefixes on the code points as they are stored in the trie (lower cased per code point if case INsensitive).
+     */
+    private static int compareLabels(String left, String right, boolean caseSensitive) {
+        int l = 0;
+        int r = 0;
+        while (l < left.length() && r < right.length()) {
+            int leftCodePoint = left.codePointAt(l);
+            int rightCodePoint = right.codePointAt(r);
+            l += Character.charCount(leftCodePoint);
+            r += Character.charCount(rightCodePoint);
+            if (!caseSensitive) {
+                leftCodePoint = Character.toLowerCase(leftCodePoint);
+                rightCodePoint = Character.toLowerCase(rightCodePoint);
+            }
+            if (leftCodePoint != rightCodePoint) {
+                return Integer.compare(leftCodePoint, rightCodePoint);
+            }
+        }
+        return Boolean.compare(l < left.length(), r < right.length());
+    }
+
+    /**
+     * <p>Load the entries into this empty map in a single pass over the sorted prefixes.</p>
+     * <p>The prefixes are added to the trie as they are (so if case INsensitive the trie links each character exactly like
+     * {@link #put(String, Object)} does) and only the keys of the map views are the lower case variants.</p>
+     * @param entries The prefixes and values.
+     * @param parallel Build the trie in parallel (if the trie supports it).
+     */
+    void load(List<Map.Entry<String, V>> entries, boolean parallel) {
+        loadExact(sortedUnique(entries, prefixTrie.caseSensitive()), parallel);
+    }
+
+    /**
+     * Load the prefixes into this empty map in the provided order (like they come from {@link #addedPrefixes()}).
+     * @param prefixes The prefixes and values, a null value only adds the path of the prefix.
+     * @param parallel Build the trie in parallel (if the trie supports it).
+     */
+    void loadExact(List<Map.Entry<String, V>> prefixes, boolean parallel) {
+        if (!(parallel && loadParallel(prefixes))) {
+            loadTrie(prefixes);
+        }
+        List<Map.Entry<String, V>> stored = new ArrayList<>(allPrefixes == null ? 0 : prefixes.size());
+        for (Map.Entry<String, V> entry : prefixes) {
+            if (entry.getValue() != null) {
+                size++;
+                if (allPrefixes != null) {
+                    stored.add(new AbstractMap.SimpleImmutableEntry<>(storedKey(entry.getKey()), entry.getValue()));
+                }
+            }
+        }
+        if (allPrefixes != null) {
+            // A TreeMap is filled in linear time (without any comparing) from a SortedMap.
+            allPrefixes.putAll(new SortedEntries<>(sortedUnique(stored, true)));
+        }
+    }
+
+    private void loadTrie(List<Map.Entry<String, V>> entries) {
+        PrefixTrie.SortedLoader<V> loader = prefixTrie.sortedLoader();
+        String previous = "";
+        for (Map.Entry<String, V> entry : entries) {
+            String prefix = entry.getKey();
+            loader.add(prefix, sharedLength(previous, prefix), entry.getValue());
+            previous = prefix;
+        }
+    }
+
+    /**
+     * Partitions the prefixes by their first character, loads each partition concurrently (fork-join) into
+     * its own sub trie and then attaches these sub tries to the root.
+     * If case INsensitive a partition has all the prefixes with the same lower case first character and its
+     * sub trie is attached via every first character (as it is in the prefixes) in the order in which they
+     * occur for the last time, so the root links each character exactly like loading them one by one does.
+     * @return False if the trie does not support sub tries, nothing has been loaded in that case.
+     */
+    private boolean loadParallel(List<Map.Entry<String, V>> prefixes) {
+        boolean trieCaseSensitive = prefixTrie.caseSensitive();
+        TreeMap<Integer, List<Map.Entry<String, V>>> partitions = new TreeMap<>();
+        Map<Integer, Integer> attachChars = new LinkedHashMap<>(); // First character -> partition
+        V emptyPrefixValue = null;
+        for (Map.Entry<String, V> entry : prefixes) {
+            String prefix = entry.getKey();
+            if (prefix.isEmpty()) {
+                if (entry.getValue() != null) {
+                    emptyPrefixValue = entry.getValue();
+                }
+                continue;
+            }
+            int firstChar = prefix.codePointAt(0);
+            int partition = trieCaseSensitive ? firstChar : Character.toLowerCase(firstChar);
+            partitions.computeIfAbsent(partition, c -> new ArrayList<>()).add(entry);
+            attachChars.remove(firstChar); // Keep the order of the last occurrence
+            attachChars.put(firstChar, partition);
+        }
+        if (partitions.size() < 2 || prefixTrie.newSubTrie(partitions.firstKey()) == null) {
+            return false;
+        }
+
+        List<Integer> firstChars = new ArrayList<>(partitions.keySet());
+        List<PrefixTrie<V>> subTries = firstChars
+            .parallelStream()
+            .map(firstChar -> {
+                PrefixTrie<V> subTrie = prefixTrie.newSubTrie(firstChar);
+                PrefixTrie.SortedLoader<V> loader = subTrie.sortedLoader();
+                String previous = "";
+                for (Map.Entry<String, V> entry : partitions.get(firstChar)) {
+                    String prefix = entry.getKey();
+                    loader.add(prefix, sharedLength(previous, prefix), entry.getValue());
+                    previous = prefix;
+                }
+                return subTrie;
+            })
+            .collect(Collectors.toList());
+
+        if (emptyPrefixValue != null) {
+            prefixTrie.add("", emptyPrefixValue);
+        }
+        for (Map.Entry<Integer, Integer> attach : attachChars.entrySet()) {
+            prefixTrie.attachSubTrie(attach.getKey(), subTries.get(firstChars.indexOf(attach.getValue())));
+        }
+        return true;
+    }
+
+    /**
+     * A read only view of already sorted (unique) entries that only supports what the TreeMap needs
+     * to copy all of them in linear time.
+     */
+    private static final class SortedEntries<V> extends AbstractMap<String, V> implements SortedMap<String, V> {
+        private final List<Map.Entry<String, V>> sorted;
+
+        SortedEntries(List<Map.Entry<String, V>> sorted) {
+            this.sorted = sorted;
+        }
+
+        @Override
+        public Set<Map.Entry<String, V>> entrySet() {
+            return new AbstractSet<Map.Entry<String, V>>() {
+                @Override
+                public Iterator<Map.Entry<String, V>> iterator() {
+                    return sorted.iterator();
+                }
+
+                @Override
+                public int size() {
+                    return sorted.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null; // The natural order
+        }
+
+        @Override
+        public SortedMap<String, V> subMap(String fromKey, String toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<String, V> headMap(String toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<String, V> tailMap(String fromKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String firstKey() {
+            return sorted.get(0).getKey();
+        }
+
+        @Override
+        public String lastKey() {
+            return sorted.get(sorted.size() - 1).getKey();
+        }
+    }
+
+    /**
+     * @return The prefixes (with their values, null if only the path is added) that rebuild exactly the same trie
+     *         when they are loaded in this order (see {@link PrefixTrie#forEachAddedPrefix(PrefixTrie.PrefixVisitor)}).
+     */
+    List<Map.Entry<String, V>> addedPrefixes() {
+        List<Map.Entry<String, V>> prefixes = new ArrayList<>(size);
+        prefixTrie.forEachAddedPrefix((prefix, length, value) ->
+            prefixes.add(new AbstractMap.SimpleImmutableEntry<>(new String(prefix, 0, length), value)));
+        return prefixes;
+    }
+
+    /**
+     * @return The trie that holds all the prefixes.
+     */
+    PrefixTrie<V> prefixTrie() {
+        return prefixTrie;
+    }
+
+    /**
+     * @return True if only readable ASCII is allowed in the prefixes.
+     */
+    boolean asciiOnly() {
+        return false;
+    }
+
+    /**
+     * Compiles the current content of this map into a read only {@link FrozenPrefixMap} which is faster
+     * and far lighter on the garbage collector.
+     * Changes made to this map after this call are not reflected in the returned map.
+     * If case INsensitive a few characters that have no simple upper/lower case pair (like "ς" and "ſ")
+     * match differently, see {@link FrozenPrefixMap}.
+     *
+     * @return A read only copy of this PrefixMap.
+     */
+    public FrozenPrefixMap<V> freeze() {
+        return new FrozenPrefixMap<>(FrozenPrefixTrie.compile(prefixTrie, asciiOnly()));
+    }
+
+    /**
+     * Compiles the current content of this map into a read only {@link OffHeapPrefixMap} which stores
+     * the trie outside the Java heap.
+     * Changes made to this map after this call are not reflected in the returned map.
+     *
+     * @return A read only copy of this PrefixMap.
+     */
+    public OffHeapPrefixMap<V> freezeOffHeap() {
+        return new OffHeapPrefixMap<>(new OffHeapPrefixTrie<>(FrozenPrefixTrie.compile(prefixTrie, asciiOnly()), asciiOnly()));
+    }
+
+    /**
+     * <p>Rebuilds the trie from the prefixes it currently holds so only the nodes (and child arrays)
+     * that are really needed remain.</p>
+     * <p>A remove already prunes the nodes that are no longer needed but the nodes that remain
+     * can still have child arrays that are larger than needed after many changes.</p>
+     * <p>If case INsensitive every case variant still matches exactly like before (see {@link #addedPrefixes()}).</p>
+     */
+    public void compact() {
+        List<Map.Entry<String, V>> prefixes = addedPrefixes();
+        prefixTrie.clear();
+        loadTrie(prefixes);
     }
 
     @Override
@@ -99,12 +799,23 @@ public class StringPrefixMap<V extends Serializable> implements PrefixMap<V>, Se
         return prefixTrie.containsPrefix(prefix);
     }
 
+    /**
+     * @return The key as it is in the map views: if case INsensitive lower cased per code point like the trie links them
+     *         (which is not always the same as {@link String#toLowerCase()}, like the "ς" at the end of a word).
+     */
     private String storedKey(String key) {
         if (prefixTrie.caseSensitive()) {
             return key;
-        } else {
-            return key.toLowerCase();
         }
+        int i = 0;
+        while (i < key.length() && key.charAt(i) < 128 && !Character.isUpperCase(key.charAt(i))) {
+            i++;
+        }
+        if (i == key.length()) {
+            return key;
+        }
+        int[] labels = key.codePoints().map(Character::toLowerCase).toArray();
+        return new String(labels, 0, labels.length);
     }
 
     @Override
@@ -114,6 +825,9 @@ public class StringPrefixMap<V extends Serializable> implements PrefixMap<V>, Se
 
         V previousValue = prefixTrie.add(prefix, value);
         if (previousValue == null) {
+            size++;
+        }
+        if (allPrefixes != null) {
             allPrefixes.put(storedKey(prefix), value);
         }
         return previousValue;
@@ -121,13 +835,16 @@ public class StringPrefixMap<V extends Serializable> implements PrefixMap<V>, Se
 
     @Override
     public int size() {
-        return allPrefixes.size();
+        return size;
     }
 
     @Override
     public void clear() {
         prefixTrie.clear();
-        allPrefixes.clear();
+        size = 0;
+        if (allPrefixes != null) {
+            allPrefixes.clear();
+        }
     }
 
     @Override
@@ -137,14 +854,161 @@ public class StringPrefixMap<V extends Serializable> implements PrefixMap<V>, Se
         }
         V oldValue = prefixTrie.remove(prefix);
         if (oldValue != null) {
-            allPrefixes.remove(storedKey(prefix));
+            size--;
+            if (allPrefixes != null) {
+                allPrefixes.remove(storedKey(prefix));
+            }
         }
         return oldValue;
     }
 
     @Override
     public V get(String prefix) {
-        return prefixTrie.get(prefix);
+        return prefixTrie.get((CharSequence) prefix);
+    }
+
+    // The String, CharSequence and region lookups go straight to the trie (instead of via the code point iterator
+    // variants of this class) so the trie reads the characters directly without creating a code point iterator.
+
+    @Override
+    public boolean containsPrefix(String prefix) {
+        return prefixTrie.containsPrefix((CharSequence) prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix) {
+        return prefixTrie.containsPrefix(prefix);
+    }
+
+    @Override
+    public boolean containsPrefix(CharSequence prefix, int start, int end) {
+        checkRegion(prefix, start, end);
+        return prefixTrie.containsPrefix(prefix, start, end);
+    }
+
+    @Override
+    public V getShortestMatch(String input) {
+        return prefixTrie.getShortestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input) {
+        return prefixTrie.getShortestMatch(input);
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end);
+    }
+
+    @Override
+    public V getLongestMatch(String input) {
+        return prefixTrie.getLongestMatch((CharSequence) input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input) {
+        return prefixTrie.getLongestMatch(input);
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(String input) {
+        return prefixTrie.getAllMatches((CharSequence) input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input) {
+        return prefixTrie.getAllMatches(input);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatches(input, start, end);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix) {
+        return prefixTrie.containsPrefix(prefix, 0, prefix.length);
+    }
+
+    @Override
+    public boolean containsPrefix(int[] prefix, int offset, int length) {
+        checkRange(prefix, offset, length);
+        return prefixTrie.containsPrefix(prefix, offset, length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input) {
+        return prefixTrie.getShortestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getShortestMatch(input, offset, length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input) {
+        return prefixTrie.getLongestMatch(input, 0, input.length);
+    }
+
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getLongestMatch(input, offset, length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input) {
+        return prefixTrie.getAllMatches(input, 0, input.length);
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(int[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return prefixTrie.getAllMatches(input, offset, length);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getShortestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getShortestMatch(input, start, end, result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, MatchResult<V> result) {
+        return prefixTrie.getLongestMatch(input, 0, input.length(), result);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        checkRegion(input, start, end);
+        return prefixTrie.getLongestMatch(input, start, end, result);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input) {
+        return prefixTrie.getAllMatchResults(input, 0, input.length());
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        checkRegion(input, start, end);
+        return prefixTrie.getAllMatchResults(input, start, end);
     }
 
     @Override
@@ -164,26 +1028,115 @@ public class StringPrefixMap<V extends Serializable> implements PrefixMap<V>, Se
 
     @Override
     public Set<Map.Entry<String, V>> entrySet() {
-        return allPrefixes.entrySet();
+        if (allPrefixes != null) {
+            return allPrefixes.entrySet();
+        }
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                return prefixTrie.prefixIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                return entry.getKey() instanceof String && entry.getValue() != null && entry.getValue().equals(get((String) entry.getKey()));
+            }
+        };
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return allPrefixes.containsKey(storedKey((String) key));
+        if (allPrefixes != null) {
+            return allPrefixes.containsKey(storedKey((String) key));
+        }
+        return prefixTrie.get((CharSequence) key) != null;
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return allPrefixes.containsValue(value);
+        if (allPrefixes != null) {
+            return allPrefixes.containsValue(value);
+        }
+        if (value == null) {
+            return false;
+        }
+        for (V storedValue : values()) {
+            if (storedValue.equals(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public Set<String> keySet() {
-        return allPrefixes.keySet();
+        if (allPrefixes != null) {
+            return allPrefixes.keySet();
+        }
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Map.Entry<String, V>> entries = entrySet().iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return entries.next().getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && containsKey(o);
+            }
+        };
     }
 
     @Override
     public Collection<V> values() {
-        return allPrefixes.values();
+        if (allPrefixes != null) {
+            return allPrefixes.values();
+        }
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                Iterator<Map.Entry<String, V>> entries = entrySet().iterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return entries.next().getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 }
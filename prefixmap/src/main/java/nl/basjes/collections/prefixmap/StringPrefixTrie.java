@@ -16,17 +16,37 @@
 
 package nl.basjes.collections.prefixmap;
 
+import nl.basjes.collections.MatchResult;
+
 import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.PrimitiveIterator;
-import java.util.TreeMap;
 
-class StringPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
-    private final boolean                     caseSensitive;
-    private final int                         charIndex;
-    private TreeMap<Integer, StringPrefixTrie<V>> childNodes;
-    private V                                 theValue;
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * A trie that supports the full unicode range.
+ * The children of a node are stored in primitive arrays (no boxing of the code points).
+ * Up to {@link #MAX_SORTED_CHILDREN} children are stored as a sorted array of code points
+ * that is searched; above that the code points are stored in an open addressed hash table.
+ */
+final class StringPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    // A node with at most this many children uses a sorted array, else a hash table.
+    static final int MAX_SORTED_CHILDREN = 16;
+    // The marker for an empty slot in the hash table (code points are never negative).
+    private static final int EMPTY = -1;
+
+    private final boolean         caseSensitive;
+    private final int             charIndex;
+    private int[]                 childChars; // Sorted code points or an open addressed hash table.
+    private StringPrefixTrie<V>[] childNodes;
+    private int                   childCount;
+    private V                     theValue;
 
     StringPrefixTrie(boolean caseSensitive) {
         this(caseSensitive, 0);
@@ -37,61 +57,288 @@ class StringPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
         this.charIndex = charIndex;
     }
 
+    // ==============================================================
+    // CHILD STORAGE
+
+    private boolean isHashed() {
+        return childChars.length > MAX_SORTED_CHILDREN;
+    }
+
+    private static int hashSlot(int myChar, int[] table) {
+        // Fibonacci hashing: the top bits of the product are well mixed.
+        return (myChar * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(table.length) + 1);
+    }
+
+    /**
+     * @return The child via the provided character, null if not present.
+     */
+    StringPrefixTrie<V> getChild(int myChar) {
+        int[] chars = childChars;
+        if (chars == null) {
+            return null;
+        }
+        if (chars.length > MAX_SORTED_CHILDREN) {
+            int mask = chars.length - 1;
+            int slot = hashSlot(myChar, chars);
+            while (true) {
+                int slotChar = chars[slot];
+                if (slotChar == myChar) {
+                    return childNodes[slot];
+                }
+                if (slotChar == EMPTY) {
+                    return null;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        int count = childCount;
+        if (count <= 8) {
+            for (int i = 0; i < count; i++) {
+                if (chars[i] == myChar) {
+                    return childNodes[i];
+                }
+            }
+            return null;
+        }
+        int index = Arrays.binarySearch(chars, 0, count, myChar);
+        return index < 0 ? null : childNodes[index];
+    }
+
+    @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+    private static <V extends Serializable> StringPrefixTrie<V>[] newChildArray(int length) {
+        return (StringPrefixTrie<V>[]) Array.newInstance(StringPrefixTrie.class, length);
+    }
+
+    /**
+     * Store (or replace) the child for the provided character.
+     */
+    private void putChild(int myChar, StringPrefixTrie<V> child) {
+        if (childChars == null) {
+            childChars = new int[2];
+            childNodes = newChildArray(2);
+        }
+        if (isHashed()) {
+            putHashed(myChar, child);
+            return;
+        }
+        int index = Arrays.binarySearch(childChars, 0, childCount, myChar);
+        if (index >= 0) {
+            childNodes[index] = child;
+            return;
+        }
+        if (childCount == MAX_SORTED_CHILDREN) {
+            // Switch to a hash table with a load factor of at most 50%
+            int[] oldChars = childChars;
+            StringPrefixTrie<V>[] oldNodes = childNodes;
+            childChars = new int[4 * MAX_SORTED_CHILDREN];
+            Arrays.fill(childChars, EMPTY);
+            childNodes = newChildArray(4 * MAX_SORTED_CHILDREN);
+            childCount = 0;
+            for (int i = 0; i < MAX_SORTED_CHILDREN; i++) {
+                putHashed(oldChars[i], oldNodes[i]);
+            }
+            putHashed(myChar, child);
+            return;
+        }
+        if (childCount == childChars.length) {
+            childChars = Arrays.copyOf(childChars, childCount * 2);
+            childNodes = Arrays.copyOf(childNodes, childCount * 2);
+        }
+        int insertAt = -(index + 1);
+        System.arraycopy(childChars, insertAt, childChars, insertAt + 1, childCount - insertAt);
+        System.arraycopy(childNodes, insertAt, childNodes, insertAt + 1, childCount - insertAt);
+        childChars[insertAt] = myChar;
+        childNodes[insertAt] = child;
+        childCount++;
+    }
+
+    private void putHashed(int myChar, StringPrefixTrie<V> child) {
+        if (2 * (childCount + 1) > childChars.length) {
+            int[] oldChars = childChars;
+            StringPrefixTrie<V>[] oldNodes = childNodes;
+            childChars = new int[oldChars.length * 2];
+            Arrays.fill(childChars, EMPTY);
+            childNodes = newChildArray(oldChars.length * 2);
+            childCount = 0;
+            for (int i = 0; i < oldChars.length; i++) {
+                if (oldChars[i] != EMPTY) {
+                    putHashed(oldChars[i], oldNodes[i]);
+                }
+            }
+        }
+        int mask = childChars.length - 1;
+        int slot = hashSlot(myChar, childChars);
+        while (childChars[slot] != EMPTY) {
+            if (childChars[slot] == myChar) {
+                childNodes[slot] = child;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        childChars[slot] = myChar;
+        childNodes[slot] = child;
+        childCount++;
+    }
+
+    /**
+     * @return True if this node has a child that is not the provided child.
+     */
+    private boolean hasOtherChild(StringPrefixTrie<V> child) {
+        for (StringPrefixTrie<V> childNode : childNodes) {
+            if (childNode != null && childNode != child) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove all links (both the lower and upper case if case INsensitive) to the provided child.
+     * The remaining children are stored again so a hash table that has become small enough
+     * goes back to a sorted array and if no children remain the child arrays are released.
+     */
+    private void removeChild(StringPrefixTrie<V> child) {
+        int[] indexes = sortedChildIndexes();
+        int[] oldChars = childChars;
+        StringPrefixTrie<V>[] oldNodes = childNodes;
+        childChars = null;
+        childNodes = null;
+        childCount = 0;
+        for (int index : indexes) {
+            if (oldNodes[index] != child) {
+                putChild(oldChars[index], oldNodes[index]);
+            }
+        }
+    }
+
     @Override
     public V add(PrimitiveIterator.OfInt prefix, V value) {
-        V previousValue = theValue;
-        if (!prefix.hasNext()) {
-            theValue = value;
-            return previousValue;
+        StringPrefixTrie<V> node = this;
+        while (prefix.hasNext()) {
+            node = node.addChild(prefix.nextInt());
         }
+        V previousValue = node.theValue;
+        node.theValue = value;
+        return previousValue;
+    }
 
-        int myChar = prefix.nextInt();
+    /**
+     * @return The child via the provided character, it is created if it does not exist yet.
+     */
+    private StringPrefixTrie<V> addChild(int myChar) {
+        if (caseSensitive) {
+            StringPrefixTrie<V> child = getChild(myChar);
+            if (child == null) {
+                child = new StringPrefixTrie<>(true, charIndex + 1);
+                putChild(myChar, child);
+            }
+            return child;
+        }
+        // If case INsensitive we build the tree
+        // and we link the same child to both the
+        // lower and uppercase entries in the child array.
+        int lower = Character.toLowerCase(myChar);
+        int upper = Character.toUpperCase(myChar);
 
-        if (childNodes == null) {
-            childNodes = new TreeMap<>();
+        StringPrefixTrie<V> child = getChild(lower);
+        if (child == null) {
+            child = new StringPrefixTrie<>(false, charIndex + 1);
+            putChild(lower, child);
         }
+        putChild(upper, child);
+        return child;
+    }
+
+    @Override
+    public SortedLoader<V> sortedLoader() {
+        return new PathLoader();
+    }
 
+    @Override
+    public PrefixTrie<V> newSubTrie(int firstChar) {
+        return new StringPrefixTrie<>(caseSensitive, 1);
+    }
+
+    @Override
+    public void attachSubTrie(int firstChar, PrefixTrie<V> subTrie) {
+        StringPrefixTrie<V> child = (StringPrefixTrie<V>) subTrie;
         if (caseSensitive) {
-            PrefixTrie<V> child = childNodes.computeIfAbsent(myChar, c -> new StringPrefixTrie<>(true, charIndex + 1));
-            previousValue = child.add(prefix, value);
-        } else {
-            // If case INsensitive we build the tree
-            // and we link the same child to both the
-            // lower and uppercase entries in the child array.
-            int lower = Character.toLowerCase(myChar);
-            int upper = Character.toUpperCase(myChar);
-
-            StringPrefixTrie<V> child = childNodes.computeIfAbsent(lower, c -> new StringPrefixTrie<>(false, charIndex + 1));
-            previousValue = child.add(prefix, value);
-            childNodes.put(upper, child);
+            putChild(firstChar, child);
+            return;
         }
-        return previousValue;
+        // Linked exactly like addChild does.
+        putChild(Character.toLowerCase(firstChar), child);
+        putChild(Character.toUpperCase(firstChar), child);
     }
 
-    @Override
-    public V remove(PrimitiveIterator.OfInt prefix) {
-        if (!prefix.hasNext()) {
-            V previousValue = theValue;
-            theValue = null;
+    /**
+     * Remembers the nodes along the previous prefix so the next prefix only has to add the part that is not shared.
+     */
+    private final class PathLoader implements SortedLoader<V> {
+        // The node after each char of the previous prefix (only valid at the code point boundaries).
+        private StringPrefixTrie<V>[] path = newChildArray(16);
+        private int previousLength = 0;
+
+        @Override
+        public V add(String prefix, int shared, V value) {
+            if (path.length <= prefix.length()) {
+                path = Arrays.copyOf(path, Math.max(2 * path.length, prefix.length() + 1));
+            }
+            // A sub trie (see newSubTrie) gets the full prefixes: skip the first character.
+            int start = (charIndex == 0 || prefix.isEmpty()) ? 0 : Character.charCount(prefix.codePointAt(0));
+            int offset = Math.max(PrefixTrie.sharedPart(prefix, shared, previousLength), start);
+            StringPrefixTrie<V> node = offset == start ? StringPrefixTrie.this : path[offset];
+            while (offset < prefix.length()) {
+                int myChar = prefix.codePointAt(offset);
+                node = node.addChild(myChar);
+                offset += Character.charCount(myChar);
+                path[offset] = node;
+            }
+            previousLength = prefix.length();
+            if (value == null) {
+                return null; // Only the path had to be added (see forEachAddedPrefix).
+            }
+            V previousValue = node.theValue;
+            node.theValue = value;
             return previousValue;
         }
+    }
 
-        if (childNodes == null) {
-            return null;
-        }
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        StringPrefixTrie<V> node = this;
+        // The deepest node on the path that must remain (it has a value or other children) and its child on the path.
+        StringPrefixTrie<V> keepNode = this;
+        StringPrefixTrie<V> keepChild = null;
+        while (prefix.hasNext()) {
+            if (node.childNodes == null) {
+                return null;
+            }
 
-        int myChar = prefix.nextInt(); // This will give us the ASCII value of the char
+            int myChar = prefix.nextInt();
 
-        if (!caseSensitive) {
-            // If case INsensitive we only follow the lower case one.
-            myChar = Character.toLowerCase(myChar);
-        }
+            if (!caseSensitive) {
+                // If case INsensitive we only follow the lower case one.
+                myChar = Character.toLowerCase(myChar);
+            }
 
-        PrefixTrie<V> child = childNodes.get(myChar);
-        if (child == null) {
-            return null;
+            StringPrefixTrie<V> child = node.getChild(myChar);
+            if (child == null) {
+                return null;
+            }
+            if (node == this || node.theValue != null || node.hasOtherChild(child)) {
+                keepNode = node;
+                keepChild = child;
+            }
+            node = child;
+        }
+        V previousValue = node.theValue;
+        node.theValue = null;
+        if (previousValue != null && node.childNodes == null && keepChild != null) {
+            // Nothing is left below the kept node: prune the entire branch.
+            keepNode.removeChild(keepChild);
         }
-        return child.remove(prefix);
+        return previousValue;
     }
 
     // ==============================================================
@@ -99,70 +346,207 @@ class StringPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
 
     @Override
     public V get(PrimitiveIterator.OfInt prefix) {
-        if (!prefix.hasNext()) {
-            return theValue;
+        StringPrefixTrie<V> node = this;
+        while (prefix.hasNext()) {
+            if (node.childNodes == null) {
+                return null;
+            }
+            node = node.getChild(prefix.nextInt());
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        if (childNodes == null) {
-            return null;
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        StringPrefixTrie<V> node = this;
+        while (node.theValue == null &&
+               node.childNodes != null &&
+               input.hasNext()) {
+            node = node.getChild(input.nextInt());
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        int myChar = prefix.nextInt();
+    // ==============================================================
+    // GET LONGEST
 
-        PrefixTrie<V> child = childNodes.get(myChar);
-        if (child == null) {
-            return null;
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        StringPrefixTrie<V> node = this;
+        V result = theValue;
+        while (input.hasNext() && node.childNodes != null) {
+            node = node.getChild(input.nextInt());
+            if (node == null) {
+                return result;
+            }
+            if (node.theValue != null) {
+                result = node.theValue;
+            }
         }
-
-        return child.get(prefix);
+        return result;
     }
 
     // ==============================================================
-    // GET SHORTEST
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
 
     @Override
-    public V getShortestMatch(PrimitiveIterator.OfInt input) {
-        if (theValue != null ||
-            !input.hasNext() ||
-            childNodes == null) {
-            return theValue;
+    public V get(CharSequence input, int start, int end) {
+        StringPrefixTrie<V> node = this;
+        int index = start;
+        while (index < end) {
+            if (node.childNodes == null) {
+                return null;
+            }
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(myChar);
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        int myChar = input.nextInt();
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        StringPrefixTrie<V> node = this;
+        int index = start;
+        while (node.theValue == null &&
+               node.childNodes != null &&
+               index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.theValue;
+    }
 
-        PrefixTrie<V> child = childNodes.get(myChar);
-        if (child == null) {
-            return null;
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        StringPrefixTrie<V> node = this;
+        V result = theValue;
+        int index = start;
+        while (index < end && node.childNodes != null) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(myChar);
+            if (node == null) {
+                return result;
+            }
+            if (node.theValue != null) {
+                result = node.theValue;
+            }
         }
+        return result;
+    }
 
-        return child.getShortestMatch(input);
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        StringPrefixTrie<V> node = this;
+        int index = start;
+        while (node.theValue == null &&
+               node.childNodes != null &&
+               index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(myChar);
+            if (node == null) {
+                return setMatch(result, null, 0);
+            }
+        }
+        return setMatch(result, node.theValue, index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        StringPrefixTrie<V> node = this;
+        V value = theValue;
+        int length = 0;
+        int index = start;
+        while (index < end && node.childNodes != null) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = node.getChild(myChar);
+            if (node == null) {
+                break;
+            }
+            if (node.theValue != null) {
+                value = node.theValue;
+                length = index - start;
+            }
+        }
+        return setMatch(result, value, length);
     }
 
     // ==============================================================
-    // GET LONGEST
+    // LOOKUPS DIRECTLY ON AN ARRAY OF CODE POINTS
 
     @Override
-    public V getLongestMatch(PrimitiveIterator.OfInt input) {
-        if (!input.hasNext() || childNodes == null) {
-            return theValue;
+    public V get(int[] input, int offset, int length) {
+        StringPrefixTrie<V> node = this;
+        int end = offset + length;
+        for (int index = offset; index < end; index++) {
+            if (node.childNodes == null) {
+                return null;
+            }
+            node = node.getChild(input[index]);
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        int myChar = input.nextInt();
-
-        PrefixTrie<V> child = childNodes.get(myChar);
-        if (child == null) {
-            return theValue;
+    @Override
+    public V getShortestMatch(int[] input, int offset, int length) {
+        StringPrefixTrie<V> node = this;
+        int end = offset + length;
+        for (int index = offset; index < end && node.theValue == null && node.childNodes != null; index++) {
+            node = node.getChild(input[index]);
+            if (node == null) {
+                return null;
+            }
         }
+        return node.theValue;
+    }
 
-        V returnValue = child.getLongestMatch(input);
-        return (returnValue == null) ? theValue : returnValue;
+    @Override
+    public V getLongestMatch(int[] input, int offset, int length) {
+        StringPrefixTrie<V> node = this;
+        V result = theValue;
+        int end = offset + length;
+        for (int index = offset; index < end && node.childNodes != null; index++) {
+            node = node.getChild(input[index]);
+            if (node == null) {
+                return result;
+            }
+            if (node.theValue != null) {
+                result = node.theValue;
+            }
+        }
+        return result;
     }
 
     // ==============================================================
     // GET ALL VIA ITERATOR
 
-    public static class StringTrieIterator<V extends Serializable> implements Iterator<V> {
+    public static class StringTrieIterator<V extends Serializable> implements MatchIterator<V> {
         private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
         private final PrimitiveIterator.OfInt input;
         private StringPrefixTrie<V> node;
 
@@ -183,51 +567,205 @@ class StringPrefixTrie<V extends Serializable> implements PrefixTrie<V> {
                 throw new NoSuchElementException("Trying next() when hasNext() is false.");
             }
             V result = next;
+            matchedLength = nextLength;
             next = getNext();
             return result;
         }
 
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
         private V getNext() {
-            if (node == null) {
-                return null;
+            // Walk down until a node with a value is found (the node is then left at its child).
+            while (node != null) {
+                V theValue = node.theValue;
+                nextLength = length;
+
+                // Are we at the last possible one for the given input?
+                if (!input.hasNext() ||
+                    node.childNodes == null) {
+                    node = null;
+                    return theValue;
+                }
+
+                // Find the next (if there is no child this is where it ends)
+                int myChar = input.nextInt();
+                length += Character.charCount(myChar);
+                node = node.getChild(myChar);
+                if (theValue != null) {
+                    return theValue;
+                }
             }
+            return null;
+        }
+    }
 
-            V theValue = node.theValue;
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new StringTrieIterator<>(input, this);
+    }
 
-            // Are we at the last possible one for the given input?
-            if (!input.hasNext() ||
-                node.childNodes == null) {
-                node = null;
-                return theValue;
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new StringTrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // NODE COUNT
+
+    /**
+     * @return The number of nodes in this trie (including this node).
+     */
+    int nodeCount() {
+        int count = 1;
+        if (childNodes != null) {
+            for (int index = 0; index < childChars.length; index++) {
+                int myChar = childChars[index];
+                if (childNodes[index] != null && (caseSensitive || Character.toLowerCase(myChar) == myChar)) {
+                    count += childNodes[index].nodeCount();
+                }
             }
+        }
+        return count;
+    }
 
-            // Find the next
-            int myChar = input.nextInt(); // This will give us the ASCII value of the char
+    // ==============================================================
+    // WALK ALL PREFIXES
 
-            StringPrefixTrie<V> child = node.childNodes.get(myChar);
-            if (child == null) {
-                node = null; // No more children, so this is where it ends.
-                return theValue;
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixWalker<V> prefixIterator() {
+        return new StringTrieWalker<>(this);
+    }
+
+    /**
+     * If case INsensitive only the case variants of the characters that were added are linked
+     * so the lower case prefixes are not enough to rebuild this trie (see {@link CaseLinkWalker}).
+     */
+    @Override
+    public void forEachAddedPrefix(PrefixVisitor<V> visitor) {
+        if (caseSensitive) {
+            forEachPrefix(visitor);
+            return;
+        }
+        // A link replaces the existing link of the same character (see addChild).
+        new CaseLinkWalker<StringPrefixTrie<V>, V>(true) {
+            @Override
+            V valueOf(StringPrefixTrie<V> node) {
+                return node.theValue;
             }
 
-            node = child;
-            if (theValue == null) {
-                return getNext();
+            @Override
+            void links(StringPrefixTrie<V> node, Links<StringPrefixTrie<V>> links) {
+                if (node.childNodes == null) {
+                    return;
+                }
+                for (int index : node.sortedChildIndexes()) {
+                    links.add(node.childChars[index], node.childNodes[index]);
+                }
+            }
+        }.walk(this, visitor);
+    }
+
+    /**
+     * Walks depth first over the trie with an explicit stack of the nodes on the path to the current node.
+     */
+    private static final class StringTrieWalker<V extends Serializable> extends PrefixWalker<V> {
+        private StringPrefixTrie<V>[] nodes    = newChildArray(16);
+        private int[][]               children = new int[16][]; // The child indexes of each node ordered by code point.
+        private int[]                 next     = new int[16];   // The position in children of the next child to visit.
+        private int                   depth    = 0;
+        private boolean               started  = false;
+
+        StringTrieWalker(StringPrefixTrie<V> root) {
+            push(root);
+        }
+
+        private void push(StringPrefixTrie<V> node) {
+            if (depth == nodes.length) {
+                nodes    = Arrays.copyOf(nodes,    depth * 2);
+                children = Arrays.copyOf(children, depth * 2);
+                next     = Arrays.copyOf(next,     depth * 2);
+            }
+            nodes[depth] = node;
+            children[depth] = node.childNodes == null ? null : node.sortedChildIndexes();
+            next[depth] = 0;
+        }
+
+        @Override
+        V findNext() {
+            if (!started) {
+                started = true;
+                if (nodes[0].theValue != null) {
+                    return nodes[0].theValue;
+                }
+            }
+            while (depth >= 0) {
+                StringPrefixTrie<V> node = nodes[depth];
+                int[] indexes = children[depth];
+                if (indexes == null || next[depth] == indexes.length) {
+                    nodes[depth] = null;
+                    children[depth] = null;
+                    depth--;
+                    continue;
+                }
+                int index = indexes[next[depth]++];
+                int myChar = node.childChars[index];
+                if (!node.caseSensitive && Character.toLowerCase(myChar) != myChar) {
+                    continue; // This is the upper case link to a child that is also present as lower case.
+                }
+                StringPrefixTrie<V> child = node.childNodes[index];
+                setLabel(depth, myChar);
+                depth++;
+                push(child);
+                if (child.theValue != null) {
+                    length = depth;
+                    return child.theValue;
+                }
             }
-            return theValue;
+            return null;
         }
     }
 
-    @Override
-    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
-        return new StringTrieIterator<>(input, this);
+    /**
+     * @return The indexes in the child arrays ordered by the code point.
+     */
+    private int[] sortedChildIndexes() {
+        int[] indexes = new int[childCount];
+        if (!isHashed()) {
+            for (int i = 0; i < childCount; i++) {
+                indexes[i] = i;
+            }
+            return indexes;
+        }
+        // Sort on (code point << 32 | slot) to get the slots in code point order.
+        long[] sortable = new long[childCount];
+        int count = 0;
+        for (int slot = 0; slot < childChars.length; slot++) {
+            if (childChars[slot] != EMPTY) {
+                sortable[count++] = ((long) childChars[slot] << 32) | slot;
+            }
+        }
+        Arrays.sort(sortable);
+        for (int i = 0; i < childCount; i++) {
+            indexes[i] = (int) sortable[i];
+        }
+        return indexes;
     }
 
     // ==============================================================
 
     @Override
     public void clear() {
+        childChars = null;
         childNodes = null;
+        childCount = 0;
         theValue = null;
     }
 
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * <p>The Utf8PrefixMap is an implementation of PrefixMap where the trie is built on the bytes
+ * of the UTF-8 encoding of the prefixes.</p>
+ * <p>Besides all the normal (String) lookups this makes it possible to do the lookups directly on
+ * UTF-8 encoded input (like the raw bytes of an HTTP header or a line from a log file) in a byte[] or a
+ * (heap or direct) ByteBuffer without decoding it into a String first.</p>
+ * <p>The case INsensitive lookups on the bytes work for all characters that have a simple lower/upper case
+ * mapping (just like the StringPrefixMap does) so also for the input bytes no conversion is needed.</p>
+ *
+ * @param <V> The type of the value that is to be stored.
+ */
+@DefaultSerializer(Utf8PrefixMap.KryoSerializer.class)
+public class Utf8PrefixMap<V extends Serializable> extends StringPrefixMap<V> {
+
+    /**
+     * @param caseSensitive  Are the lookups case sensitive or not.
+     */
+    public Utf8PrefixMap(boolean caseSensitive) {
+        super(caseSensitive);
+    }
+
+    // Used by the Kryo deserialization, there is no path compressed variant.
+    Utf8PrefixMap(boolean caseSensitive, boolean pathCompressed) {
+        super(caseSensitive, pathCompressed);
+    }
+
+    // Used by the deserialization, there is no path compressed variant.
+    Utf8PrefixMap(boolean caseSensitive, boolean pathCompressed, boolean compactKeys) {
+        super(caseSensitive, pathCompressed, compactKeys);
+    }
+
+    @Override
+    PrefixTrie<V> createTrie(boolean caseSensitive, boolean pathCompressed) {
+        return new Utf8PrefixTrie<>(caseSensitive);
+    }
+
+    private Utf8PrefixTrie<V> utf8Trie() {
+        return (Utf8PrefixTrie<V>) prefixTrie();
+    }
+
+    private static void checkRange(byte[] input, int offset, int length) {
+        Objects.requireNonNull(input, "The input may not be null");
+        if (offset < 0 || length < 0 || length > input.length - offset) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + input.length);
+        }
+    }
+
+    /**
+     * Create a builder that collects all prefixes and builds the map in a single pass over the sorted prefixes.
+     * @param caseSensitive Are the lookups case sensitive or not.
+     * @param <V> The type of the value that is to be stored.
+     * @return The builder, the maps it builds are Utf8PrefixMaps.
+     */
+    public static <V extends Serializable> Builder<V> builder(boolean caseSensitive) {
+        return new Builder<>(() -> new Utf8PrefixMap<>(caseSensitive));
+    }
+
+    /**
+     * This is used to configure the provided Kryo instance if Kryo serialization is desired.
+     * The expected type here is Object because otherwise the Kryo library becomes
+     * a mandatory dependency on any project that uses Yauaa.
+     *
+     * @param kryoInstance The instance of com.esotericsoftware.kryo.Kryo that needs to be configured.
+     */
+    public static void configureKryo(Object kryoInstance) {
+        Kryo kryo = (Kryo) kryoInstance;
+        kryo.register(Utf8PrefixMap.class);
+        kryo.register(Utf8PrefixTrie.class);
+        kryo.register(Utf8PrefixTrie.Node.class);
+        kryo.register(Array.newInstance(Utf8PrefixTrie.Node.class, 0).getClass());
+        StringPrefixMap.configureKryo(kryo);
+    }
+
+    // ==============================================================
+    // LOOKUPS ON THE UTF-8 BYTES
+
+    /**
+     * @param prefix The UTF-8 bytes of the prefix
+     * @return True if the exact prefix value is present, False otherwise
+     */
+    public boolean containsPrefix(byte[] prefix) {
+        return containsPrefix(prefix, 0, prefix.length);
+    }
+
+    /**
+     * @param prefix The UTF-8 bytes that contain the prefix
+     * @param offset The index of the first byte of the prefix.
+     * @param length The number of bytes of the prefix.
+     * @return True if the exact prefix value is present, False otherwise
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    public boolean containsPrefix(byte[] prefix, int offset, int length) {
+        checkRange(prefix, offset, length);
+        return utf8Trie().get(prefix, offset, length) != null;
+    }
+
+    /**
+     * @param prefix The UTF-8 bytes of the prefix (from the position to the limit, the position is not changed).
+     * @return True if the exact prefix value is present, False otherwise
+     */
+    public boolean containsPrefix(ByteBuffer prefix) {
+        Objects.requireNonNull(prefix, "The input may not be null");
+        return utf8Trie().get(prefix) != null;
+    }
+
+    /**
+     * @param input The UTF-8 bytes for which we need value of the stored prefix
+     * @return The value of the shortest matching prefix, null if not found.
+     */
+    public V getShortestMatch(byte[] input) {
+        return getShortestMatch(input, 0, input.length);
+    }
+
+    /**
+     * @param input  The UTF-8 bytes for which we need value of the stored prefix
+     * @param offset The index of the first byte that is to be used.
+     * @param length The number of bytes that are to be used.
+     * @return The value of the shortest matching prefix, null if not found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    public V getShortestMatch(byte[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return utf8Trie().getShortestMatch(input, offset, length);
+    }
+
+    /**
+     * @param input The UTF-8 bytes (from the position to the limit, the position is not changed).
+     * @return The value of the shortest matching prefix, null if not found.
+     */
+    public V getShortestMatch(ByteBuffer input) {
+        Objects.requireNonNull(input, "The input may not be null");
+        return utf8Trie().getShortestMatch(input);
+    }
+
+    /**
+     * @param input The UTF-8 bytes for which we need value of the stored prefix
+     * @return The value of the longest matching prefix, null if not found.
+     */
+    public V getLongestMatch(byte[] input) {
+        return getLongestMatch(input, 0, input.length);
+    }
+
+    /**
+     * @param input  The UTF-8 bytes for which we need value of the stored prefix
+     * @param offset The index of the first byte that is to be used.
+     * @param length The number of bytes that are to be used.
+     * @return The value of the longest matching prefix, null if not found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    public V getLongestMatch(byte[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return utf8Trie().getLongestMatch(input, offset, length);
+    }
+
+    /**
+     * @param input The UTF-8 bytes (from the position to the limit, the position is not changed).
+     * @return The value of the longest matching prefix, null if not found.
+     */
+    public V getLongestMatch(ByteBuffer input) {
+        Objects.requireNonNull(input, "The input may not be null");
+        return utf8Trie().getLongestMatch(input);
+    }
+
+    /**
+     * @param input The UTF-8 bytes for which we need value of the stored prefix
+     * @return The values of all matching prefixes (shortest first), empty if nothing is found.
+     */
+    public Iterator<V> getAllMatches(byte[] input) {
+        return getAllMatches(input, 0, input.length);
+    }
+
+    /**
+     * @param input  The UTF-8 bytes for which we need value of the stored prefix
+     * @param offset The index of the first byte that is to be used.
+     * @param length The number of bytes that are to be used.
+     * @return The values of all matching prefixes (shortest first), empty if nothing is found.
+     * @throws IndexOutOfBoundsException if the range is not within the array.
+     */
+    public Iterator<V> getAllMatches(byte[] input, int offset, int length) {
+        checkRange(input, offset, length);
+        return utf8Trie().getAllMatches(input, offset, length);
+    }
+
+    /**
+     * @param input The UTF-8 bytes (from the position to the limit, the position is not changed).
+     * @return The values of all matching prefixes (shortest first), empty if nothing is found.
+     */
+    public Iterator<V> getAllMatches(ByteBuffer input) {
+        Objects.requireNonNull(input, "The input may not be null");
+        return utf8Trie().getAllMatches(input);
+    }
+}
@@ -0,0 +1,795 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.MatchResult;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static nl.basjes.collections.prefixmap.CodePointIterator.codePointAt;
+import static nl.basjes.collections.prefixmap.PrefixTrie.matchResults;
+import static nl.basjes.collections.prefixmap.PrefixTrie.setMatch;
+
+/**
+ * <p>A trie where the edges are the bytes of the UTF-8 encoding of the prefixes.
+ * This makes it possible to do the lookups directly on UTF-8 encoded input (a byte[] or a ByteBuffer)
+ * without decoding it into a String first.</p>
+ * <p>A node has a small sorted array of the bytes of the children which is replaced by an
+ * array of 256 children (indexed directly by the byte) when the node has many children.</p>
+ * <p>If case INsensitive both the lower and the upper case variant of every character are stored and
+ * the two byte sequences lead to the same node (just like in the StringPrefixTrie).
+ * So the lookups on the bytes are case insensitive without decoding or converting the input.</p>
+ * <p>An unpaired surrogate is stored (and looked up) as the 3 byte sequence of its value.
+ * This never occurs in valid UTF-8 so it can only be matched via the String/CharSequence lookups.</p>
+ */
+final class Utf8PrefixTrie<V extends Serializable> implements PrefixTrie<V> {
+    private static final int SMALL_SIZE  = 4;
+    private static final int SORTED_SIZE = 16;
+    private static final int DIRECT_SIZE = 256;
+
+    private final boolean caseSensitive;
+    private Node<V>       root;
+
+    static final class Node<V extends Serializable> implements Serializable {
+        private byte[]    keys;     // Up to 16 children: The sorted (unsigned) bytes of the children.
+        private Node<V>[] children; // Same order as the keys or (more than 16 children) indexed directly by the byte.
+        private int       childCount;
+        private V         value;
+
+        Node<V> getChild(int myByte) {
+            byte[] myKeys = keys;
+            if (myKeys != null) {
+                for (int i = 0; i < childCount; i++) {
+                    int key = myKeys[i] & 0xFF;
+                    if (key == myByte) {
+                        return children[i];
+                    }
+                    if (key > myByte) {
+                        return null; // The keys are sorted
+                    }
+                }
+                return null;
+            }
+            if (children != null) {
+                return children[myByte];
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked") // Creating the array of generics is tricky
+        private static <V extends Serializable> Node<V>[] newChildArray(int length) {
+            return (Node<V>[]) Array.newInstance(Node.class, length);
+        }
+
+        /**
+         * Adds a new child (the byte must not yet have a child).
+         */
+        void addChild(int myByte, Node<V> child) {
+            if (children == null) {
+                keys = new byte[SMALL_SIZE];
+                children = newChildArray(SMALL_SIZE);
+            }
+
+            if (keys != null) {
+                if (childCount == keys.length) {
+                    if (childCount == SORTED_SIZE) {
+                        growToDirect();
+                        addChild(myByte, child);
+                        return;
+                    }
+                    keys = Arrays.copyOf(keys, childCount * 2);
+                    children = Arrays.copyOf(children, childCount * 2);
+                }
+                int insertAt = 0;
+                while (insertAt < childCount && (keys[insertAt] & 0xFF) < myByte) {
+                    insertAt++;
+                }
+                System.arraycopy(keys,     insertAt, keys,     insertAt + 1, childCount - insertAt);
+                System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+                keys[insertAt] = (byte) myByte;
+                children[insertAt] = child;
+                childCount++;
+                return;
+            }
+
+            children[myByte] = child;
+            childCount++;
+        }
+
+        private void growToDirect() {
+            Node<V>[] newChildren = newChildArray(DIRECT_SIZE);
+            for (int i = 0; i < childCount; i++) {
+                newChildren[keys[i] & 0xFF] = children[i];
+            }
+            keys = null;
+            children = newChildren;
+        }
+
+        /**
+         * @return The maximum number of children for the current layout of this node (0 means no children).
+         */
+        int capacity() {
+            if (keys != null) {
+                return keys.length;
+            }
+            return children == null ? 0 : DIRECT_SIZE;
+        }
+    }
+
+    Utf8PrefixTrie(boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        this.root = new Node<>();
+    }
+
+    // ==============================================================
+    // UTF-8 ENCODING
+
+    /**
+     * @return The number of bytes in the UTF-8 encoding of the code point, -1 if it is not a valid code point.
+     */
+    static int utf8Length(int codePoint) {
+        if (codePoint < 0) {
+            return -1;
+        }
+        if (codePoint < 0x80) {
+            return 1;
+        }
+        if (codePoint < 0x800) {
+            return 2;
+        }
+        if (codePoint < 0x10000) {
+            return 3;
+        }
+        if (codePoint <= Character.MAX_CODE_POINT) {
+            return 4;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The byte (as an unsigned value) at the position in the UTF-8 encoding of the code point.
+     */
+    static int utf8Byte(int codePoint, int length, int position) {
+        if (position == 0) {
+            if (length == 1) {
+                return codePoint;
+            }
+            // The lead byte: 110xxxxx, 1110xxxx or 11110xxx
+            return ((0xF00 >> length) & 0xFF) | (codePoint >> (6 * (length - 1)));
+        }
+        // A continuation byte: 10xxxxxx
+        return 0x80 | ((codePoint >> (6 * (length - 1 - position))) & 0x3F);
+    }
+
+    /**
+     * Follow the UTF-8 bytes of a code point.
+     * @return The node after the last byte, null if there is no such node.
+     */
+    private static <V extends Serializable> Node<V> step(Node<V> node, int codePoint) {
+        if (codePoint < 0x80) {
+            return codePoint < 0 ? null : node.getChild(codePoint);
+        }
+        int length = utf8Length(codePoint);
+        if (length < 0) {
+            return null;
+        }
+        Node<V> current = node.getChild(utf8Byte(codePoint, length, 0));
+        for (int position = 1; position < length && current != null; position++) {
+            current = current.getChild(utf8Byte(codePoint, length, position));
+        }
+        return current;
+    }
+
+    /**
+     * Follow (and create where needed) the UTF-8 bytes of a code point.
+     * @param target If not null the last byte is linked to this node (if it does not have a child yet).
+     * @return The node after the last byte.
+     */
+    private static <V extends Serializable> Node<V> addPath(Node<V> node, int codePoint, Node<V> target) {
+        int length = utf8Length(codePoint);
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid Unicode code point: " + codePoint);
+        }
+        Node<V> current = node;
+        for (int position = 0; position < length; position++) {
+            int myByte = utf8Byte(codePoint, length, position);
+            Node<V> child = current.getChild(myByte);
+            if (child == null) {
+                child = (target != null && position == length - 1) ? target : new Node<>();
+                current.addChild(myByte, child);
+            }
+            current = child;
+        }
+        return current;
+    }
+
+    @Override
+    public V add(PrimitiveIterator.OfInt prefix, V value) {
+        Node<V> node = addPrefix(prefix);
+        V previousValue = node.value;
+        node.value = value;
+        return previousValue;
+    }
+
+    @Override
+    public SortedLoader<V> sortedLoader() {
+        return (prefix, shared, value) -> {
+            if (value == null) {
+                addPrefix(prefix.codePoints().iterator()); // Only the path has to be added (see forEachAddedPrefix).
+                return null;
+            }
+            return add(prefix, value);
+        };
+    }
+
+    /**
+     * Follow (and create where needed) the path of the prefix.
+     * @return The node at the end of the prefix.
+     */
+    private Node<V> addPrefix(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            int myChar = prefix.nextInt();
+            if (caseSensitive) {
+                node = addPath(node, myChar, null);
+            } else {
+                // If case INsensitive the bytes of both the lower
+                // and the upper case variant lead to the same child.
+                Node<V> child = addPath(node, Character.toLowerCase(myChar), null);
+                addPath(node, Character.toUpperCase(myChar), child);
+                node = child;
+            }
+        }
+        return node;
+    }
+
+    @Override
+    public V remove(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            int myChar = prefix.nextInt();
+            if (!caseSensitive) {
+                // If case INsensitive we only follow the lower case one.
+                myChar = Character.toLowerCase(myChar);
+            }
+            node = step(node, myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        V previousValue = node.value;
+        node.value = null;
+        return previousValue;
+    }
+
+    // ==============================================================
+    // GET
+
+    @Override
+    public V get(PrimitiveIterator.OfInt prefix) {
+        Node<V> node = root;
+        while (prefix.hasNext()) {
+            node = step(node, prefix.nextInt());
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    // ==============================================================
+    // GET SHORTEST
+
+    @Override
+    public V getShortestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        while (node.value == null && input.hasNext()) {
+            node = step(node, input.nextInt());
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    // ==============================================================
+    // GET LONGEST
+
+    @Override
+    public V getLongestMatch(PrimitiveIterator.OfInt input) {
+        Node<V> node = root;
+        V result = node.value;
+        while (input.hasNext()) {
+            node = step(node, input.nextInt());
+            if (node == null) {
+                return result;
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE CHARACTERS
+
+    @Override
+    public V get(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = step(node, myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public V getShortestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        int index = start;
+        while (node.value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = step(node, myChar);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public V getLongestMatch(CharSequence input, int start, int end) {
+        Node<V> node = root;
+        V result = node.value;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = step(node, myChar);
+            if (node == null) {
+                return result;
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getShortestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        int index = start;
+        while (node.value == null && index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = step(node, myChar);
+            if (node == null) {
+                return setMatch(result, null, 0);
+            }
+        }
+        return setMatch(result, node.value, index - start);
+    }
+
+    @Override
+    public boolean getLongestMatch(CharSequence input, int start, int end, MatchResult<V> result) {
+        Node<V> node = root;
+        V value = node.value;
+        int length = 0;
+        int index = start;
+        while (index < end) {
+            int myChar = codePointAt(input, index, end);
+            index += Character.charCount(myChar);
+            node = step(node, myChar);
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                value = node.value;
+                length = index - start;
+            }
+        }
+        return setMatch(result, value, length);
+    }
+
+    // ==============================================================
+    // LOOKUPS DIRECTLY ON THE UTF-8 BYTES
+
+    V get(byte[] input, int offset, int length) {
+        Node<V> node = root;
+        int end = offset + length;
+        for (int index = offset; index < end; index++) {
+            node = node.getChild(input[index] & 0xFF);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    V getShortestMatch(byte[] input, int offset, int length) {
+        Node<V> node = root;
+        int end = offset + length;
+        for (int index = offset; index < end && node.value == null; index++) {
+            node = node.getChild(input[index] & 0xFF);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    V getLongestMatch(byte[] input, int offset, int length) {
+        Node<V> node = root;
+        V result = node.value;
+        int end = offset + length;
+        for (int index = offset; index < end; index++) {
+            node = node.getChild(input[index] & 0xFF);
+            if (node == null) {
+                return result;
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    Iterator<V> getAllMatches(byte[] input, int offset, int length) {
+        List<V> result = new ArrayList<>();
+        Node<V> node = root;
+        if (node.value != null) {
+            result.add(node.value);
+        }
+        int end = offset + length;
+        for (int index = offset; index < end; index++) {
+            node = node.getChild(input[index] & 0xFF);
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                result.add(node.value);
+            }
+        }
+        return result.iterator();
+    }
+
+    // The ByteBuffer lookups use the bytes between the position and the limit
+    // and use absolute reads so the position of the buffer is not changed.
+
+    V get(ByteBuffer input) {
+        Node<V> node = root;
+        int end = input.limit();
+        for (int index = input.position(); index < end; index++) {
+            node = node.getChild(input.get(index) & 0xFF);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    V getShortestMatch(ByteBuffer input) {
+        Node<V> node = root;
+        int end = input.limit();
+        for (int index = input.position(); index < end && node.value == null; index++) {
+            node = node.getChild(input.get(index) & 0xFF);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    V getLongestMatch(ByteBuffer input) {
+        Node<V> node = root;
+        V result = node.value;
+        int end = input.limit();
+        for (int index = input.position(); index < end; index++) {
+            node = node.getChild(input.get(index) & 0xFF);
+            if (node == null) {
+                return result;
+            }
+            if (node.value != null) {
+                result = node.value;
+            }
+        }
+        return result;
+    }
+
+    Iterator<V> getAllMatches(ByteBuffer input) {
+        List<V> result = new ArrayList<>();
+        Node<V> node = root;
+        if (node.value != null) {
+            result.add(node.value);
+        }
+        int end = input.limit();
+        for (int index = input.position(); index < end; index++) {
+            node = node.getChild(input.get(index) & 0xFF);
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                result.add(node.value);
+            }
+        }
+        return result.iterator();
+    }
+
+    // ==============================================================
+    // GET ALL VIA ITERATOR
+
+    public static class Utf8TrieIterator<V extends Serializable> implements MatchIterator<V> {
+        private V next;
+        private int length;        // The number of chars that have been read from the input.
+        private int nextLength;    // The length of the match of next.
+        private int matchedLength; // The length of the match of the value that was returned last.
+        private final PrimitiveIterator.OfInt input;
+        private Node<V> node;
+
+        Utf8TrieIterator(PrimitiveIterator.OfInt input, Utf8PrefixTrie<V> trie) {
+            this.input = Objects.requireNonNull(input, "The input may not be null");
+            this.node = trie.root;
+            this.next = node.value == null ? getNext() : node.value;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("Trying next() when hasNext() is false.");
+            }
+            V result = next;
+            matchedLength = nextLength;
+            next = getNext();
+            return result;
+        }
+
+        @Override
+        public int matchedLength() {
+            return matchedLength;
+        }
+
+        private V getNext() {
+            while (node != null && input.hasNext()) {
+                int myChar = input.nextInt();
+                length += Character.charCount(myChar);
+                node = step(node, myChar);
+                if (node == null) {
+                    return null;
+                }
+                if (node.value != null) {
+                    nextLength = length;
+                    return node.value;
+                }
+            }
+            node = null;
+            return null;
+        }
+    }
+
+    @Override
+    public Iterator<V> getAllMatches(PrimitiveIterator.OfInt input) {
+        return new Utf8TrieIterator<>(input, this);
+    }
+
+    @Override
+    public Iterator<MatchResult<V>> getAllMatchResults(CharSequence input, int start, int end) {
+        return matchResults(new Utf8TrieIterator<>(new CodePointIterator(input, start, end), this));
+    }
+
+    // ==============================================================
+    // WALK ALL PREFIXES
+
+    @Override
+    public void forEachPrefix(PrefixVisitor<V> visitor) {
+        prefixIterator().visitRemaining(visitor);
+    }
+
+    @Override
+    public PrefixWalker<V> prefixIterator() {
+        return new Utf8TrieWalker<>(root, caseSensitive);
+    }
+
+    /**
+     * If case INsensitive only the case variants of the characters that were added are linked
+     * so the lower case prefixes are not enough to rebuild this trie (see {@link CaseLinkWalker}).
+     */
+    @Override
+    public void forEachAddedPrefix(PrefixVisitor<V> visitor) {
+        if (caseSensitive) {
+            forEachPrefix(visitor);
+            return;
+        }
+        // The bytes of the upper case variant are only linked if they do not lead to a child yet (see addPath).
+        new CaseLinkWalker<Node<V>, V>(false) {
+            @Override
+            V valueOf(Node<V> node) {
+                return node.value;
+            }
+
+            @Override
+            void links(Node<V> node, Links<Node<V>> links) {
+                codePointLinks(node, links);
+            }
+        }.walk(root, visitor);
+    }
+
+    /**
+     * Put the code points (in ascending order) that lead from the node to a child and that child in the links.
+     * A code point has at most 4 bytes so the stack of the nodes of the bytes is small.
+     */
+    private static <V extends Serializable> void codePointLinks(Node<V> node, CaseLinkWalker.Links<Node<V>> links) {
+        Node<V>[] nodes     = Node.newChildArray(4);
+        int[]     next      = new int[4];
+        int[]     partial   = new int[4];
+        int[]     remaining = new int[4];
+        nodes[0] = node;
+        int depth = 0;
+        while (depth >= 0) {
+            Node<V> current = nodes[depth];
+            int myByte = next[depth]++;
+            if (current.childCount == 0 || myByte >= DIRECT_SIZE) {
+                depth--;
+                continue;
+            }
+            Node<V> child = current.getChild(myByte);
+            if (child == null) {
+                continue;
+            }
+            int codePoint;
+            int stillNeeded;
+            if (depth == 0) {
+                stillNeeded = myByte < 0x80 ? 0 : myByte < 0xE0 ? 1 : myByte < 0xF0 ? 2 : 3;
+                codePoint = myByte & (0x7F >> stillNeeded);
+            } else {
+                stillNeeded = remaining[depth] - 1;
+                codePoint = (partial[depth] << 6) | (myByte & 0x3F);
+            }
+            if (stillNeeded == 0) {
+                links.add(codePoint, child);
+                continue;
+            }
+            depth++;
+            nodes[depth]     = child;
+            next[depth]      = 0;
+            partial[depth]   = codePoint;
+            remaining[depth] = stillNeeded;
+        }
+    }
+
+    /**
+     * Walks depth first over the trie with an explicit stack of the nodes on the path to the current node.
+     * The stack has an entry for every byte, the prefix only gets a code point when all of its bytes have been read.
+     */
+    private static final class Utf8TrieWalker<V extends Serializable> extends PrefixWalker<V> {
+        private final boolean caseSensitive;
+        private Node<V>[]     nodes     = Node.newChildArray(16);
+        private int[]         next      = new int[16]; // The byte of the next child to visit.
+        private int[]         partial   = new int[16]; // The bits of the code point that is being decoded.
+        private int[]         remaining = new int[16]; // The number of continuation bytes still needed (0 = at a code point boundary).
+        private int[]         lengths   = new int[16]; // The number of complete code points in the prefix of the node.
+        private int           depth     = 0;
+        private boolean       started   = false;
+
+        Utf8TrieWalker(Node<V> root, boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
+            nodes[0] = root;
+        }
+
+        @Override
+        V findNext() {
+            if (!started) {
+                started = true;
+                if (nodes[0].value != null) {
+                    return nodes[0].value;
+                }
+            }
+            while (depth >= 0) {
+                Node<V> node = nodes[depth];
+                int myByte = next[depth]++;
+                if (node.childCount == 0 || myByte >= DIRECT_SIZE) {
+                    nodes[depth] = null;
+                    depth--;
+                    continue;
+                }
+                // Walking the bytes in order gives the code points in order.
+                Node<V> child = node.getChild(myByte);
+                if (child == null) {
+                    continue;
+                }
+                int codePoint;
+                int stillNeeded;
+                if (remaining[depth] == 0) {
+                    stillNeeded = myByte < 0x80 ? 0 : myByte < 0xE0 ? 1 : myByte < 0xF0 ? 2 : 3;
+                    codePoint = myByte & (0x7F >> stillNeeded);
+                } else {
+                    stillNeeded = remaining[depth] - 1;
+                    codePoint = (partial[depth] << 6) | (myByte & 0x3F);
+                }
+                int childLength = lengths[depth];
+                if (stillNeeded == 0) {
+                    if (!caseSensitive && Character.toLowerCase(codePoint) != codePoint) {
+                        continue; // This is the upper case link to a child that is also present as lower case.
+                    }
+                    setLabel(childLength, codePoint);
+                    childLength++;
+                }
+                depth++;
+                if (depth == nodes.length) {
+                    nodes     = Arrays.copyOf(nodes,     depth * 2);
+                    next      = Arrays.copyOf(next,      depth * 2);
+                    partial   = Arrays.copyOf(partial,   depth * 2);
+                    remaining = Arrays.copyOf(remaining, depth * 2);
+                    lengths   = Arrays.copyOf(lengths,   depth * 2);
+                }
+                nodes[depth]     = child;
+                next[depth]      = 0;
+                partial[depth]   = codePoint;
+                remaining[depth] = stillNeeded;
+                lengths[depth]   = childLength;
+                if (stillNeeded == 0 && child.value != null) {
+                    length = childLength;
+                    return child.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    // ==============================================================
+
+    @Override
+    public void clear() {
+        root = new Node<>();
+    }
+
+    @Override
+    public boolean caseSensitive() {
+        return caseSensitive;
+    }
+
+    /**
+     * @return The node capacity (see {@link Node#capacity()}) of the node reached via the provided bytes.
+     */
+    int nodeCapacity(byte[] prefix) {
+        Node<V> node = root;
+        for (int i = 0; i < prefix.length && node != null; i++) {
+            node = node.getChild(prefix[i] & 0xFF);
+        }
+        return node == null ? -1 : node.capacity();
+    }
+}
@@ -16,9 +16,11 @@
 
 package nl.basjes.collections.prefixmap;
 
+import nl.basjes.collections.MatchResult;
 import nl.basjes.collections.PrefixMap;
 import org.junit.jupiter.api.Test;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -29,6 +31,7 @@ import java.util.PrimitiveIterator;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -41,6 +44,17 @@ abstract class AbstractPrefixMapTests {
             "Wrong 'ShortestMatch' result for '" + prefix + "'");
         assertEquals(expected, prefixLookup.getShortestMatch(prefix.codePoints().toArray()),
             "Wrong 'ShortestMatch' result for '" + prefix + "' as int[]");
+        assertEquals(expected, prefixLookup.getShortestMatch(new StringBuilder(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as StringBuilder");
+        assertEquals(expected, prefixLookup.getShortestMatch(CharBuffer.wrap(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as CharBuffer");
+        assertEquals(expected, prefixLookup.getShortestMatch(inRegion(prefix), REGION_START, REGION_START + prefix.length()),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as region");
+        assertEquals(expected, prefixLookup.getShortestMatch(inRegionArray(prefix), REGION_START, prefix.codePointCount(0, prefix.length())),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as int[] range");
+        MatchResult<String> result = new MatchResult<>();
+        assertEquals(expected != null, prefixLookup.getShortestMatch(prefix, result));
+        assertEquals(expected, result.getValue(), "Wrong 'ShortestMatch' result for '" + prefix + "' as MatchResult");
     }
 
     protected void checkLongest(PrefixMap<String> prefixLookup, String prefix, String expected) {
@@ -48,6 +62,17 @@ abstract class AbstractPrefixMapTests {
             "Wrong 'ShortestMatch' result for '" + prefix + "'");
         assertEquals(expected, prefixLookup.getLongestMatch(prefix.codePoints().toArray()),
             "Wrong 'ShortestMatch' result for '" + prefix + "' as int[]");
+        assertEquals(expected, prefixLookup.getLongestMatch(new StringBuilder(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as StringBuilder");
+        assertEquals(expected, prefixLookup.getLongestMatch(CharBuffer.wrap(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as CharBuffer");
+        assertEquals(expected, prefixLookup.getLongestMatch(inRegion(prefix), REGION_START, REGION_START + prefix.length()),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as region");
+        assertEquals(expected, prefixLookup.getLongestMatch(inRegionArray(prefix), REGION_START, prefix.codePointCount(0, prefix.length())),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as int[] range");
+        MatchResult<String> result = new MatchResult<>();
+        assertEquals(expected != null, prefixLookup.getLongestMatch(prefix, result));
+        assertEquals(expected, result.getValue(), "Wrong 'ShortestMatch' result for '" + prefix + "' as MatchResult");
     }
 
     protected void checkContains(PrefixMap<String> prefixLookup, String prefix, boolean expected) {
@@ -55,6 +80,14 @@ abstract class AbstractPrefixMapTests {
             "Wrong 'ContainsPrefix' result for '" + prefix + "'");
         assertEquals(expected, prefixLookup.containsPrefix(prefix.codePoints().toArray()),
             "Wrong 'ContainsPrefix' result for '" + prefix + "' as int[]");
+        assertEquals(expected, prefixLookup.containsPrefix(new StringBuilder(prefix)),
+            "Wrong 'ContainsPrefix' result for '" + prefix + "' as StringBuilder");
+        assertEquals(expected, prefixLookup.containsPrefix(CharBuffer.wrap(prefix)),
+            "Wrong 'ContainsPrefix' result for '" + prefix + "' as CharBuffer");
+        assertEquals(expected, prefixLookup.containsPrefix(inRegion(prefix), REGION_START, REGION_START + prefix.length()),
+            "Wrong 'ContainsPrefix' result for '" + prefix + "' as region");
+        assertEquals(expected, prefixLookup.containsPrefix(inRegionArray(prefix), REGION_START, prefix.codePointCount(0, prefix.length())),
+            "Wrong 'ContainsPrefix' result for '" + prefix + "' as int[] range");
     }
 
     protected void checkGetAllIterator(PrefixMap<String> prefixLookup, String prefix, String... expected) {
@@ -65,6 +98,93 @@ abstract class AbstractPrefixMapTests {
         result.clear();
         prefixLookup.getAllMatches(prefix.codePoints().toArray()).forEachRemaining(result::add);
         assertArrayEquals(expected, result.toArray(), "Wrong 'getAllMatches' result for '" + prefix + "' as int[]");
+
+        result.clear();
+        prefixLookup.getAllMatches(new StringBuilder(prefix)).forEachRemaining(result::add);
+        assertArrayEquals(expected, result.toArray(), "Wrong 'getAllMatches' result for '" + prefix + "' as StringBuilder");
+
+        result.clear();
+        prefixLookup.getAllMatches(inRegion(prefix), REGION_START, REGION_START + prefix.length()).forEachRemaining(result::add);
+        assertArrayEquals(expected, result.toArray(), "Wrong 'getAllMatches' result for '" + prefix + "' as region");
+
+        result.clear();
+        prefixLookup.getAllMatches(inRegionArray(prefix), REGION_START, prefix.codePointCount(0, prefix.length())).forEachRemaining(result::add);
+        assertArrayEquals(expected, result.toArray(), "Wrong 'getAllMatches' result for '" + prefix + "' as int[] range");
+    }
+
+    private static final int REGION_START = 3;
+
+    // The prefix with extra characters around it that must be ignored by the region lookups.
+    private static CharSequence inRegion(String prefix) {
+        return new StringBuilder("Foo").append(prefix).append("Bar");
+    }
+
+    private static int[] inRegionArray(String prefix) {
+        return inRegion(prefix).codePoints().toArray();
+    }
+
+    @Test
+    void testMatchLength() {
+        PrefixMap<String> prefixLookup = createPrefixMap(false);
+        prefixLookup.put("GT-", "Samsung");
+        prefixLookup.put("GT-I", "Samsung I");
+        prefixLookup.put("GT-I8190", "Samsung Galaxy S III Mini");
+
+        assertEquals(3, prefixLookup.getShortestMatchLength("gt-i9300"));
+        assertEquals(4, prefixLookup.getLongestMatchLength("gt-i9300"));
+        assertEquals(8, prefixLookup.getLongestMatchLength("GT-I8190 Build"));
+        assertEquals(-1, prefixLookup.getShortestMatchLength("Nokia"));
+        assertEquals(-1, prefixLookup.getLongestMatchLength("GT"));
+
+        // The same holder is reused for all lookups.
+        MatchResult<String> result = new MatchResult<>();
+        assertTrue(prefixLookup.getLongestMatch("GT-I9300", result));
+        assertEquals(new MatchResult<>("Samsung I", 4), result);
+        assertEquals("9300", "GT-I9300".substring(result.getLength()));
+        assertTrue(prefixLookup.getShortestMatch(new StringBuilder("GT-I9300"), result));
+        assertEquals(new MatchResult<>("Samsung", 3), result);
+        assertFalse(prefixLookup.getLongestMatch("Nokia", result));
+        assertFalse(result.isMatch());
+        assertNull(result.getValue());
+        assertEquals(-1, result.getLength());
+
+        // The length is relative to the start of the region.
+        assertTrue(prefixLookup.getLongestMatch("Model: GT-I8190", 7, 15, result));
+        assertEquals(new MatchResult<>("Samsung Galaxy S III Mini", 8), result);
+        assertFalse(prefixLookup.getLongestMatch("Model: GT-I8190", 7, 9, result));
+
+        List<MatchResult<String>> all = new ArrayList<>();
+        prefixLookup.getAllMatchResults("GT-I8190").forEachRemaining(all::add);
+        assertEquals(3, all.size());
+        assertEquals(new MatchResult<>("Samsung", 3), all.get(0));
+        assertEquals(new MatchResult<>("Samsung I", 4), all.get(1));
+        assertEquals(new MatchResult<>("Samsung Galaxy S III Mini", 8), all.get(2));
+
+        all.clear();
+        prefixLookup.getAllMatchResults("xGT-I8190", 1, 6).forEachRemaining(all::add);
+        assertEquals(2, all.size());
+        assertEquals(new MatchResult<>("Samsung I", 4), all.get(1));
+    }
+
+    @Test
+    void testRegionOutOfBounds() {
+        PrefixMap<String> prefixLookup = createPrefixMap(true);
+        prefixLookup.put("Bar", "Bar");
+        String input = "FooBar";
+        assertEquals("Bar", prefixLookup.getLongestMatch(input, 3, 6));
+        assertNull(prefixLookup.getLongestMatch(input, 3, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.getLongestMatch(input, -1, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.getShortestMatch(input, 4, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.containsPrefix(input, 3, 7));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.getAllMatches(input, 7, 8));
+
+        int[] codePoints = input.codePoints().toArray();
+        assertEquals("Bar", prefixLookup.getLongestMatch(codePoints, 3, 3));
+        assertNull(prefixLookup.getLongestMatch(codePoints, 3, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.getLongestMatch(codePoints, -1, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.getShortestMatch(codePoints, 4, -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.containsPrefix(codePoints, 3, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixLookup.getAllMatches(codePoints, 7, 1));
     }
 
     @Test
@@ -127,6 +247,11 @@ abstract class AbstractPrefixMapTests {
         assertEquals(3,         prefixLookup.size());
         assertEquals("Three",   prefixLookup.put("Three",   "333"));
         assertEquals(3,         prefixLookup.size());
+
+        // The map views must show the replaced values
+        assertEquals("111",     prefixLookup.entrySet().stream().filter(e -> e.getKey().equals("One")).findFirst().get().getValue());
+        assertTrue(prefixLookup.containsValue("222"));
+        assertFalse(prefixLookup.containsValue("Two"));
     }
 
     @Test
@@ -16,9 +16,12 @@
 
 package nl.basjes.collections.prefixmap;
 
+import nl.basjes.collections.MatchResult;
 import org.junit.jupiter.api.Test;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -27,6 +30,7 @@ import java.util.PrimitiveIterator;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -39,6 +43,10 @@ abstract class AbstractPrefixTrieTests {
             "Wrong 'ShortestMatch' result for '" + prefix + "'");
         assertEquals(expected, prefixLookup.getShortestMatch(prefix.codePoints().iterator()),
             "Wrong 'ShortestMatch' result for '" + prefix + "' as int[]");
+        assertEquals(expected, prefixLookup.getShortestMatch(new StringBuilder(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as StringBuilder");
+        assertEquals(expected, prefixLookup.getShortestMatch(CharBuffer.wrap(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as CharBuffer");
     }
 
     protected void checkLongest(PrefixTrie<String> prefixLookup, String prefix, String expected) {
@@ -46,6 +54,10 @@ abstract class AbstractPrefixTrieTests {
             "Wrong 'ShortestMatch' result for '" + prefix + "'");
         assertEquals(expected, prefixLookup.getLongestMatch(prefix.codePoints().iterator()),
             "Wrong 'ShortestMatch' result for '" + prefix + "' as int[]");
+        assertEquals(expected, prefixLookup.getLongestMatch(new StringBuilder(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as StringBuilder");
+        assertEquals(expected, prefixLookup.getLongestMatch(CharBuffer.wrap(prefix)),
+            "Wrong 'ShortestMatch' result for '" + prefix + "' as CharBuffer");
     }
 
     protected void checkContains(PrefixTrie<String> prefixLookup, String prefix, boolean expected) {
@@ -53,6 +65,10 @@ abstract class AbstractPrefixTrieTests {
             "Wrong 'ContainsPrefix' result for '" + prefix + "'");
         assertEquals(expected, prefixLookup.containsPrefix(prefix.codePoints().iterator()),
             "Wrong 'ContainsPrefix' result for '" + prefix + "' as int[]");
+        assertEquals(expected, prefixLookup.containsPrefix(new StringBuilder(prefix)),
+            "Wrong 'ContainsPrefix' result for '" + prefix + "' as StringBuilder");
+        assertEquals(expected, prefixLookup.containsPrefix(CharBuffer.wrap(prefix)),
+            "Wrong 'ContainsPrefix' result for '" + prefix + "' as CharBuffer");
     }
 
     protected void checkGetAllIterator(PrefixTrie<String> prefixLookup, String prefix, String... expected) {
@@ -63,6 +79,10 @@ abstract class AbstractPrefixTrieTests {
         result.clear();
         prefixLookup.getAllMatches(prefix.codePoints().iterator()).forEachRemaining(result::add);
         assertArrayEquals(expected, result.toArray(), "Wrong 'getAllMatches' result for '" + prefix + "' as int[]");
+
+        result.clear();
+        prefixLookup.getAllMatches(new StringBuilder(prefix)).forEachRemaining(result::add);
+        assertArrayEquals(expected, result.toArray(), "Wrong 'getAllMatches' result for '" + prefix + "' as StringBuilder");
     }
 
     @Test
@@ -427,4 +447,226 @@ abstract class AbstractPrefixTrieTests {
         assertThrows(NoSuchElementException.class, matches::next);
     }
 
+    @Test
+    void testSortedLoader() {
+        List<String> prefixes = Arrays.asList("", "A", "AB", "ABC", "ABD", "ABDE", "AC", "B", "BCD", "BCDEF", "C", "CA");
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            PrefixTrie<String> expected = createPrefixTrie(caseSensitive);
+            PrefixTrie<String> loaded = createPrefixTrie(caseSensitive);
+            PrefixTrie.SortedLoader<String> loader = loaded.sortedLoader();
+            String previous = "";
+            for (String prefix : prefixes) {
+                int shared = 0;
+                while (shared < Math.min(previous.length(), prefix.length()) && previous.charAt(shared) == prefix.charAt(shared)) {
+                    shared++;
+                }
+                expected.add(prefix, "Result " + prefix);
+                assertNull(loader.add(prefix, shared, "Result " + prefix));
+                previous = prefix;
+            }
+            // An invalid shared length is ignored.
+            assertEquals("Result ABD", loader.add("ABD", 42, "Result ABD"));
+
+            for (String input : Arrays.asList("", "a", "ab", "ABCX", "abdEF", "acx", "bc", "bcdefg", "c", "cab", "d")) {
+                assertEquals(expected.get(input), loaded.get(input), "get(\"" + input + "\")");
+                assertEquals(getAll(expected, input), getAll(loaded, input), "getAllMatches(\"" + input + "\")");
+            }
+        }
+    }
+
+    private List<String> getAll(PrefixTrie<String> prefixTrie, String input) {
+        List<String> result = new ArrayList<>();
+        prefixTrie.getAllMatches((CharSequence) input).forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    void testVeryDeepPrefix() {
+        // A recursive implementation would need a stack frame per character.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        String deepPrefix = sb.toString();
+        String halfPrefix = deepPrefix.substring(0, 25_000);
+
+        PrefixTrie<String> prefixLookup = createPrefixTrie(false);
+        prefixLookup.add(deepPrefix, "Deep");
+        prefixLookup.add(halfPrefix, "Half");
+        assertEquals("Deep", prefixLookup.get(deepPrefix));
+        checkContains(prefixLookup, deepPrefix,                      true);
+        checkLongest(prefixLookup,  deepPrefix + "Something",        "Deep");
+        checkLongest(prefixLookup,  deepPrefix.substring(0, 40_000), "Half");
+        checkShortest(prefixLookup, deepPrefix,                      "Half");
+        checkGetAllIterator(prefixLookup, deepPrefix + "Something", "Half", "Deep");
+
+        assertEquals("Half", prefixLookup.remove(halfPrefix));
+        checkShortest(prefixLookup, deepPrefix, "Deep");
+        assertEquals("Deep", prefixLookup.remove(deepPrefix));
+        checkLongest(prefixLookup,  deepPrefix, null);
+    }
+
+    @Test
+    void testVeryDeepPrefixWalk() {
+        // Walking all prefixes (which is also how a trie is frozen) must not need a stack frame per character.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        String deepPrefix = sb.toString();
+        String halfPrefix = deepPrefix.substring(0, 25_000);
+
+        PrefixTrie<String> prefixLookup = createPrefixTrie(false);
+        prefixLookup.add(deepPrefix, "Deep");
+        prefixLookup.add(halfPrefix, "Half");
+        prefixLookup.add("b", "B");
+
+        List<String> visited = new ArrayList<>();
+        prefixLookup.forEachPrefix((prefix, length, value) -> visited.add(new String(prefix, 0, length) + "=" + value));
+        assertEquals(Arrays.asList(halfPrefix + "=Half", deepPrefix + "=Deep", "b=B"), visited);
+
+        List<String> iterated = new ArrayList<>();
+        prefixLookup.prefixIterator().forEachRemaining(entry -> iterated.add(entry.getKey() + "=" + entry.getValue()));
+        assertEquals(visited, iterated);
+
+        FrozenPrefixTrie<String> frozen = FrozenPrefixTrie.compile(prefixLookup, false);
+        checkLongest(frozen, deepPrefix + "Something",        "Deep");
+        checkLongest(frozen, deepPrefix.substring(0, 40_000), "Half");
+
+        List<String> frozenVisited = new ArrayList<>();
+        frozen.forEachPrefix((prefix, length, value) -> frozenVisited.add(new String(prefix, 0, length) + "=" + value));
+        assertEquals(visited, frozenVisited);
+
+        OffHeapPrefixTrie<String> offHeap = new OffHeapPrefixTrie<>(frozen, false);
+        checkLongest(offHeap, deepPrefix + "Something", "Deep");
+        List<String> offHeapVisited = new ArrayList<>();
+        offHeap.forEachPrefix((prefix, length, value) -> offHeapVisited.add(new String(prefix, 0, length) + "=" + value));
+        assertEquals(visited, offHeapVisited);
+    }
+
+    @Test
+    void testCharSequenceSameAsCodePoints() {
+        // Includes (unpaired) surrogates which must be handled exactly like String.codePoints() does.
+        String[] prefixes = {"", "A", "AB", "ABC", "A🖖", "A🖖B", "A\uD83D", "A\uD83DX", "\uDD96", "你好", "Gt-"};
+        String[] inputs   = {"", "a", "AB", "abcd", "A🖖", "a🖖b", "A\uD83D", "A\uD83DX", "A\uD83D\uDD96", "\uDD96",
+                             "\uD83D", "你好吗", "GT-I8190", "\t", "€"};
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            PrefixTrie<String> prefixLookup = createPrefixTrie(caseSensitive);
+            for (String prefix : prefixes) {
+                try {
+                    prefixLookup.add(prefix, "Result " + prefix);
+                } catch (IllegalArgumentException e) {
+                    // Not all tries accept all characters.
+                }
+            }
+            for (String input : inputs) {
+                checkShortest(prefixLookup, input, prefixLookup.getShortestMatch(input.codePoints().iterator()));
+                checkLongest(prefixLookup,  input, prefixLookup.getLongestMatch(input.codePoints().iterator()));
+                checkContains(prefixLookup, input, prefixLookup.containsPrefix(input.codePoints().iterator()));
+                assertEquals(prefixLookup.get(input.codePoints().iterator()), prefixLookup.get(new StringBuilder(input)));
+                List<String> expected = new ArrayList<>();
+                prefixLookup.getAllMatches(input.codePoints().iterator()).forEachRemaining(expected::add);
+                checkGetAllIterator(prefixLookup, input, expected.toArray(new String[0]));
+            }
+        }
+    }
+
+    @Test
+    void testRegionSameAsSubSequence() {
+        // Every region of every input, including the regions that split a surrogate pair.
+        String[] prefixes = {"", "A", "AB", "ABC", "A🖖", "A🖖B", "A\uD83D", "\uDD96", "🖖", "B", "BC"};
+        String[] inputs   = {"xABCx", "A🖖B", "🖖🖖", "abc"};
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            PrefixTrie<String> prefixLookup = createPrefixTrie(caseSensitive);
+            for (String prefix : prefixes) {
+                try {
+                    prefixLookup.add(prefix, "Result " + prefix);
+                } catch (IllegalArgumentException e) {
+                    // Not all tries accept all characters.
+                }
+            }
+            for (String input : inputs) {
+                CharSequence sequence = new StringBuilder(input);
+                for (int start = 0; start <= input.length(); start++) {
+                    for (int end = start; end <= input.length(); end++) {
+                        String region = input.substring(start, end);
+                        String message = "Region [" + start + ", " + end + ") of '" + input + "'";
+                        assertEquals(prefixLookup.get(region.codePoints().iterator()),
+                            prefixLookup.get(sequence, start, end), message);
+                        assertEquals(prefixLookup.containsPrefix(region.codePoints().iterator()),
+                            prefixLookup.containsPrefix(sequence, start, end), message);
+                        assertEquals(prefixLookup.getShortestMatch(region.codePoints().iterator()),
+                            prefixLookup.getShortestMatch(sequence, start, end), message);
+                        assertEquals(prefixLookup.getLongestMatch(region.codePoints().iterator()),
+                            prefixLookup.getLongestMatch(sequence, start, end), message);
+                        List<String> expected = new ArrayList<>();
+                        prefixLookup.getAllMatches(region.codePoints().iterator()).forEachRemaining(expected::add);
+                        List<String> actual = new ArrayList<>();
+                        prefixLookup.getAllMatches(sequence, start, end).forEachRemaining(actual::add);
+                        assertEquals(expected, actual, message);
+
+                        // The same but with the matched lengths.
+                        List<MatchResult<String>> expectedResults = new ArrayList<>();
+                        for (int length = 0; length <= region.length(); length++) {
+                            boolean splitsPair = length > 0 && length < region.length() &&
+                                Character.isSurrogatePair(region.charAt(length - 1), region.charAt(length));
+                            String value = prefixLookup.get(region.substring(0, length).codePoints().iterator());
+                            if (value != null && !splitsPair) {
+                                expectedResults.add(new MatchResult<>(value, length));
+                            }
+                        }
+                        List<MatchResult<String>> actualResults = new ArrayList<>();
+                        prefixLookup.getAllMatchResults(sequence, start, end).forEachRemaining(actualResults::add);
+                        assertEquals(expectedResults, actualResults, message);
+
+                        MatchResult<String> result = new MatchResult<>("Dirty", 42);
+                        assertEquals(!expectedResults.isEmpty(), prefixLookup.getShortestMatch(sequence, start, end, result), message);
+                        assertEquals(expectedResults.isEmpty() ? new MatchResult<>() : expectedResults.get(0), result, message);
+                        result.set("Dirty", 42);
+                        assertEquals(!expectedResults.isEmpty(), prefixLookup.getLongestMatch(sequence, start, end, result), message);
+                        assertEquals(expectedResults.isEmpty() ? new MatchResult<>() : expectedResults.get(expectedResults.size() - 1),
+                            result, message);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testIntArrayRangeSameAsIterator() {
+        String[] prefixes = {"", "A", "AB", "ABC", "A🖖", "A🖖B", "🖖", "B", "BC"};
+        String[] inputs   = {"xABCx", "A🖖B", "🖖🖖", "abc"};
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            PrefixTrie<String> prefixLookup = createPrefixTrie(caseSensitive);
+            for (String prefix : prefixes) {
+                try {
+                    prefixLookup.add(prefix, "Result " + prefix);
+                } catch (IllegalArgumentException e) {
+                    // Not all tries accept all characters.
+                }
+            }
+            for (String input : inputs) {
+                int[] codePoints = input.codePoints().toArray();
+                for (int offset = 0; offset <= codePoints.length; offset++) {
+                    for (int length = 0; offset + length <= codePoints.length; length++) {
+                        String message = "Range [" + offset + ", " + (offset + length) + ") of '" + input + "'";
+                        int end = offset + length;
+                        assertEquals(prefixLookup.get(Arrays.stream(codePoints, offset, end).iterator()),
+                            prefixLookup.get(codePoints, offset, length), message);
+                        assertEquals(prefixLookup.containsPrefix(Arrays.stream(codePoints, offset, end).iterator()),
+                            prefixLookup.containsPrefix(codePoints, offset, length), message);
+                        assertEquals(prefixLookup.getShortestMatch(Arrays.stream(codePoints, offset, end).iterator()),
+                            prefixLookup.getShortestMatch(codePoints, offset, length), message);
+                        assertEquals(prefixLookup.getLongestMatch(Arrays.stream(codePoints, offset, end).iterator()),
+                            prefixLookup.getLongestMatch(codePoints, offset, length), message);
+                        List<String> expected = new ArrayList<>();
+                        prefixLookup.getAllMatches(Arrays.stream(codePoints, offset, end).iterator()).forEachRemaining(expected::add);
+                        List<String> actual = new ArrayList<>();
+                        prefixLookup.getAllMatches(codePoints, offset, length).forEachRemaining(actual::add);
+                        assertEquals(expected, actual, message);
+                    }
+                }
+            }
+        }
+    }
 }
@@ -23,6 +23,7 @@ import java.util.NoSuchElementException;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -464,4 +465,30 @@ class TestASCIIPrefixTrie extends AbstractPrefixTrieTests {
 
         checkGetAllIterator(prefixLookup, "aBcDeF", "Result A", "Result ABC", "Result ABCDE");
     }
+
+    @Test
+    void testRemovePrunesEmptyNodes() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            ASCIIPrefixTrie<String> prefixLookup = new ASCIIPrefixTrie<>(caseSensitive);
+            prefixLookup.add("ABCDEF", "Result ABCDEF");
+            prefixLookup.add("AB",     "Result AB");
+            prefixLookup.add("AX",     "Result AX");
+            assertEquals(8, prefixLookup.nodeCount());
+
+            assertEquals("Result ABCDEF", prefixLookup.remove("ABCDEF"));
+            assertEquals(4, prefixLookup.nodeCount());
+            assertEquals("Result AB", prefixLookup.getLongestMatch("ABCDEF"));
+
+            assertEquals("Result AX", prefixLookup.remove("AX"));
+            assertEquals(3, prefixLookup.nodeCount());
+
+            assertEquals("Result AB", prefixLookup.remove("AB"));
+            assertEquals(1, prefixLookup.nodeCount());
+            assertNull(prefixLookup.getShortestMatch("ABCDEF"));
+
+            prefixLookup.add("abcdef", "Result abcdef");
+            assertEquals(caseSensitive ? null : "Result abcdef", prefixLookup.getLongestMatch("ABCDEFG"));
+            assertEquals("Result abcdef", prefixLookup.getLongestMatch("abcdefg"));
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestAdaptivePrefixMap extends AbstractPrefixMapTests {
+
+    @Override
+    PrefixMap<String> createPrefixMap(boolean caseSensitive) {
+        return new AdaptivePrefixMap<>(caseSensitive);
+    }
+
+    @Test
+    void testPutNonASCIIPrefix() {
+        PrefixMap<String> prefixLookup = createPrefixMap(false);
+        prefixLookup.put("Something",    "To ensure not empty");
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+            () -> prefixLookup.put("Some你好", "Hello in Chinese")
+        );
+        assertEquals("Only readable ASCII is allowed as prefix !!!", exception.getMessage());
+        assertEquals(1, prefixLookup.size());
+        checkLongest(prefixLookup, "Some你好", null);
+    }
+
+    @Test
+    void testRemoveNonASCIIPrefix() {
+        PrefixMap<String> prefixLookup = createPrefixMap(false);
+        prefixLookup.put("Something",    "To ensure not empty");
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+            () -> prefixLookup.remove("\t")
+        );
+        assertEquals("Only readable ASCII is allowed as prefix !!!", exception.getMessage());
+        assertEquals(1, prefixLookup.size());
+    }
+
+    @Test
+    void testCaseNonASCIIIterator() {
+        PrefixMap<String> prefixLookup = createPrefixMap(false);
+        prefixLookup.put("",         "Empty");
+        prefixLookup.put("A",        "Result A");
+        prefixLookup.put("ABC",      "Result ABC");
+        prefixLookup.put("ABCDE",    "Result ABCDE");
+        prefixLookup.put("ABCDEFG",  "Result ABCDEFG");
+
+        checkGetAllIterator(prefixLookup, "",           "Empty");
+        checkGetAllIterator(prefixLookup, "aB",         "Empty", "Result A");
+        checkGetAllIterator(prefixLookup, "aBc🖖eF",     "Empty", "Result A", "Result ABC");
+        checkGetAllIterator(prefixLookup, "\t",           "Empty");
+        checkGetAllIterator(prefixLookup, "你好DeF",       "Empty");
+
+        // The 'İ' lowercases to an 'i' which must not be matched in the ASCII variant.
+        prefixLookup.put("ABi",      "Result ABi");
+        checkLongest(prefixLookup, "ABi",  "Result ABi");
+        checkLongest(prefixLookup, "ABİ",  "Result A");
+    }
+
+}
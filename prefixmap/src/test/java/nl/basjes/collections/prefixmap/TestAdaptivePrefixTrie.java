@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestAdaptivePrefixTrie extends AbstractPrefixTrieTests {
+
+    @Override
+    PrefixTrie<String> createPrefixTrie(boolean caseSensitive) {
+        return new AdaptivePrefixTrie<>(caseSensitive);
+    }
+
+    @Test
+    void testPutNonASCIIPrefix() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+            () -> new AdaptivePrefixTrie<>(false).add("你好", "Hello in Chinese")
+        );
+        assertEquals("Only readable ASCII is allowed as prefix !!!", exception.getMessage());
+
+        exception = assertThrows(IllegalArgumentException.class,
+            () -> new AdaptivePrefixTrie<>(false).remove("\t")
+        );
+        assertEquals("Only readable ASCII is allowed as prefix !!!", exception.getMessage());
+    }
+
+    @Test
+    void testNodeGrowth() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            AdaptivePrefixTrie<String> prefixLookup = new AdaptivePrefixTrie<>(caseSensitive);
+            // Add the children in a 'random' order so the sorted insert is also tested.
+            int childCount = 0;
+            for (int i = 0; i < 95; i++) {
+                char myChar = (char) (32 + ((i * 37) % 95));
+                if (!caseSensitive && myChar >= 'A' && myChar <= 'Z') {
+                    continue; // The same as the lower case letter
+                }
+                prefixLookup.add("x" + myChar, "Result " + myChar);
+                childCount++;
+
+                int expectedCapacity = childCount <= 4 ? 4 : childCount <= 16 ? 16 : childCount <= 48 ? 48 : 128;
+                assertEquals(expectedCapacity, prefixLookup.nodeCapacity("x"), "After " + childCount + " children");
+                assertEquals(0,                prefixLookup.nodeCapacity("x" + myChar));
+
+                // All previously added children must still be there
+                for (int j = 0; j <= i; j++) {
+                    char checkChar = (char) (32 + ((j * 37) % 95));
+                    if (!caseSensitive && checkChar >= 'A' && checkChar <= 'Z') {
+                        continue;
+                    }
+                    checkLongest(prefixLookup, "x" + checkChar + "Something", "Result " + checkChar);
+                }
+            }
+            checkLongest(prefixLookup, "x\t", null);
+            checkLongest(prefixLookup, "x你", null);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestConcurrentPrefixMap extends AbstractPrefixMapTests {
+
+    @Override
+    PrefixMap<String> createPrefixMap(boolean caseSensitive) {
+        return new ConcurrentPrefixMap<>(caseSensitive);
+    }
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABX", "Bx", "GT-", "GT-I", "RM-10",
+        "你", "你好", "你好DE", "🖖", "🖖B", "ABC🖖", "ABC你EF");
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "ab", "ABCD", "abcdef", "abxyz", "bxy", "C", "gt-i8190N", "rm-1092",
+        "你好de", "你🖖", "🖖bcde", "aBc🖖eFgH", "abc你efg");
+
+    @Test
+    void testSameAsStringPrefixMap() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String>     expected   = new StringPrefixMap<>(caseSensitive);
+            ConcurrentPrefixMap<String> concurrent = new ConcurrentPrefixMap<>(caseSensitive);
+            for (String prefix : PREFIXES) {
+                expected.put(prefix, "Result " + prefix);
+                concurrent.put(prefix, "Result " + prefix);
+            }
+            assertEquals(expected.size(),     concurrent.size());
+            assertEquals(expected.entrySet(), concurrent.entrySet());
+            for (String input : INPUTS) {
+                int[] codePoints = input.codePoints().toArray();
+                assertEquals(expected.get(input),                   concurrent.get(input));
+                assertEquals(expected.getShortestMatch(input),      concurrent.getShortestMatch(input));
+                assertEquals(expected.getLongestMatch(input),       concurrent.getLongestMatch(input));
+                assertEquals(expected.getShortestMatch(codePoints), concurrent.getShortestMatch(codePoints));
+                assertEquals(expected.getLongestMatch(codePoints),  concurrent.getLongestMatch(codePoints));
+                assertEquals(expected.getLongestMatchLength(input), concurrent.getLongestMatchLength(input));
+                List<String> expectedAll = new ArrayList<>();
+                expected.getAllMatches(input).forEachRemaining(expectedAll::add);
+                List<String> concurrentAll = new ArrayList<>();
+                concurrent.getAllMatches(input).forEachRemaining(concurrentAll::add);
+                assertEquals(expectedAll, concurrentAll);
+            }
+        }
+    }
+
+    @Test
+    void testWeaklyConsistentIterator() {
+        ConcurrentPrefixMap<String> prefixMap = new ConcurrentPrefixMap<>(true);
+        prefixMap.put("A",   "Result A");
+        prefixMap.put("ABC", "Result ABC");
+        Iterator<String> iterator = prefixMap.getAllMatches("ABCDE");
+        assertEquals("Result A", iterator.next());
+        // Changes deeper in the trie are seen by the iterator that is still walking down,
+        // the next value was already found before it was removed.
+        prefixMap.put("ABCD", "Result ABCD");
+        prefixMap.remove("ABC");
+        assertEquals("Result ABC", iterator.next());
+        assertEquals("Result ABCD", iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    void testWeaklyConsistentViews() {
+        ConcurrentPrefixMap<String> prefixMap = new ConcurrentPrefixMap<>(true);
+        prefixMap.put("A",   "Result A");
+        prefixMap.put("ABC", "Result ABC");
+        prefixMap.put("B",   "Result B");
+
+        Set<String> keys = prefixMap.keySet();
+        Collection<String> values = prefixMap.values();
+        // The views are not a snapshot: they follow the changes of the map.
+        prefixMap.put("C", "Result C");
+        assertEquals(4, keys.size());
+        assertEquals(Arrays.asList("A", "ABC", "B", "C"), new ArrayList<>(keys));
+        assertEquals(Arrays.asList("Result A", "Result ABC", "Result B", "Result C"), new ArrayList<>(values));
+
+        // Changes while iterating never fail, the nodes that have not been reached yet are read when reached.
+        Iterator<Map.Entry<String, String>> iterator = prefixMap.entrySet().iterator();
+        assertEquals("A", iterator.next().getKey());
+        prefixMap.put("AB",  "Result AB");
+        prefixMap.put("BA",  "Result BA");
+        prefixMap.remove("C");
+        List<String> rest = new ArrayList<>();
+        iterator.forEachRemaining(entry -> rest.add(entry.getKey()));
+        assertEquals(Arrays.asList("AB", "ABC", "B", "BA"), rest);
+    }
+
+    @Test
+    void testConcurrentWriters() throws InterruptedException {
+        ConcurrentPrefixMap<String> prefixMap = new ConcurrentPrefixMap<>(false);
+        int threads = 4;
+        int perThread = 5000;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    // All threads add children to the same nodes at the same time.
+                    for (int i = 0; i < perThread; i++) {
+                        prefixMap.put("P" + Integer.toString(i, 36) + "-" + thread, "Value " + i + "-" + thread);
+                    }
+                    for (int i = 0; i < perThread; i += 2) {
+                        assertEquals("Value " + i + "-" + thread, prefixMap.remove("P" + Integer.toString(i, 36) + "-" + thread));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(failure.get());
+
+        assertEquals(threads * perThread / 2, prefixMap.size());
+        assertEquals(threads * perThread / 2, prefixMap.entrySet().size());
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                String prefix = "p" + Integer.toString(i, 36) + "-" + t;
+                assertEquals(i % 2 == 0 ? null : "Value " + i + "-" + t, prefixMap.getLongestMatch(prefix));
+            }
+        }
+
+        prefixMap.clear();
+        assertTrue(prefixMap.isEmpty());
+        assertNull(prefixMap.getLongestMatch("P1-1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testJavaSerialization() throws IOException, ClassNotFoundException {
+        ConcurrentPrefixMap<String> prefixMap = new ConcurrentPrefixMap<>(false);
+        for (String prefix : PREFIXES) {
+            prefixMap.put(prefix, "Result " + prefix);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(prefixMap);
+        }
+        ConcurrentPrefixMap<String> result;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result = (ConcurrentPrefixMap<String>) in.readObject();
+        }
+        assertFalse(result.caseSensitive());
+        assertEquals(prefixMap.entrySet(), result.entrySet());
+        assertEquals("Result 你好DE", result.getLongestMatch("你好dex"));
+    }
+}
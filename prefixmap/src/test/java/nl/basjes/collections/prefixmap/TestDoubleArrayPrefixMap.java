@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestDoubleArrayPrefixMap {
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABCDEFG", "ABX", "B", "Bx", "GT-", "GT-I", "RM-", "RM-10", "~", " ", "a b", "Zz");
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "A", "ab", "aB", "ABc", "ABCD", "abcdef", "ABCDEFGH", "ABX", "abxyz", "b", "BX", "bxy", "C",
+        "gt-i8190N", "GT-", "Gt-x", "rm-1092", "RM-", "rm", "\t", "abc€", "ABCD€", "你", "A🖖", "~~", " x", "A B", "zZ", "zz");
+
+    private void verify(boolean caseSensitive, List<String> prefixes, List<String> inputs) {
+        ASCIIPrefixMap<String> prefixMap = new ASCIIPrefixMap<>(caseSensitive);
+        for (String prefix : prefixes) {
+            prefixMap.put(prefix, "Result " + prefix);
+        }
+        DoubleArrayPrefixMap<String> doubleArray = new DoubleArrayPrefixMap<>(caseSensitive, prefixMap);
+
+        assertEquals(caseSensitive, doubleArray.caseSensitive());
+        assertEquals(prefixMap.size(), doubleArray.size());
+        assertEquals(prefixMap.keySet(), doubleArray.keySet());
+        assertEquals(prefixMap.entrySet(), doubleArray.entrySet());
+
+        for (String input : inputs) {
+            assertEquals(prefixMap.get(input),              doubleArray.get(input),              "get(\"" + input + "\")");
+            assertEquals(prefixMap.containsPrefix(input),   doubleArray.containsPrefix(input),   "containsPrefix(\"" + input + "\")");
+            assertEquals(prefixMap.getShortestMatch(input), doubleArray.getShortestMatch(input), "getShortestMatch(\"" + input + "\")");
+            assertEquals(prefixMap.getLongestMatch(input),  doubleArray.getLongestMatch(input),  "getLongestMatch(\"" + input + "\")");
+            assertEquals(allMatches(prefixMap, input),      allMatches(doubleArray, input),      "getAllMatches(\"" + input + "\")");
+            StringBuilder sb = new StringBuilder(input);
+            assertEquals(doubleArray.getLongestMatch(input),   doubleArray.getLongestMatch(sb),   "getLongestMatch(SB \"" + input + "\")");
+            assertEquals(doubleArray.getShortestMatch(input),  doubleArray.getShortestMatch(sb),  "getShortestMatch(SB \"" + input + "\")");
+            assertEquals(doubleArray.containsPrefix(input),    doubleArray.containsPrefix(sb),    "containsPrefix(SB \"" + input + "\")");
+            assertEquals(doubleArray.getLongestMatch(input.codePoints().iterator()), doubleArray.getLongestMatch(input),
+                "getLongestMatch(OfInt \"" + input + "\")");
+        }
+    }
+
+    private List<String> allMatches(PrefixMap<String> prefixMap, String input) {
+        List<String> result = new ArrayList<>();
+        prefixMap.getAllMatches(input).forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    void testCaseSensitive() {
+        verify(true, PREFIXES, INPUTS);
+    }
+
+    @Test
+    void testCaseInSensitive() {
+        verify(false, PREFIXES, INPUTS);
+    }
+
+    @Test
+    void testManyRandomPrefixes() {
+        // Many prefixes with a large fan out force a lot of base collisions while building.
+        Random random = new Random(42);
+        List<String> prefixes = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            prefixes.add(randomASCII(random, 1 + random.nextInt(8)));
+        }
+        List<String> inputs = new ArrayList<>(prefixes);
+        for (int i = 0; i < 5000; i++) {
+            inputs.add(randomASCII(random, random.nextInt(12)));
+        }
+        verify(true,  prefixes, inputs);
+        verify(false, prefixes, inputs);
+    }
+
+    private String randomASCII(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (32 + random.nextInt(95)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testFromPlainMap() {
+        TreeMap<String, String> map = new TreeMap<>();
+        map.put("GT-",   "Samsung");
+        map.put("RM-",   "Nokia");
+        map.put("RM-10", "Nokia 10");
+        DoubleArrayPrefixMap<String> doubleArray = new DoubleArrayPrefixMap<>(false, map);
+        assertEquals(3,          doubleArray.size());
+        assertEquals("Samsung",  doubleArray.getLongestMatch("Gt-I8190n"));
+        assertEquals("Nokia 10", doubleArray.getLongestMatch("rm-1092"));
+        assertEquals("Nokia",    doubleArray.getShortestMatch("rm-1092"));
+        assertTrue(doubleArray.containsKey("rm-10"));
+        assertTrue(doubleArray.containsValue("Nokia"));
+        assertFalse(doubleArray.containsValue("Apple"));
+    }
+
+    @Test
+    void testEmpty() {
+        DoubleArrayPrefixMap<String> doubleArray = new DoubleArrayPrefixMap<>(true, Collections.emptyMap());
+        assertTrue(doubleArray.isEmpty());
+        assertEquals(null, doubleArray.getLongestMatch("Something"));
+        assertFalse(doubleArray.getAllMatches("Something").hasNext());
+    }
+
+    @Test
+    void testOnlyASCII() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new DoubleArrayPrefixMap<>(true, Collections.singletonMap("你好", "Hello")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new DoubleArrayPrefixMap<>(false, Collections.singletonMap("Tab\t", "Tab")));
+    }
+
+    @Test
+    void testImmutable() {
+        DoubleArrayPrefixMap<String> doubleArray = new DoubleArrayPrefixMap<>(false, Collections.singletonMap("GT-", "Samsung"));
+        assertThrows(UnsupportedOperationException.class, () -> doubleArray.put("RM-", "Nokia"));
+        assertThrows(UnsupportedOperationException.class, () -> doubleArray.remove("GT-"));
+        assertThrows(UnsupportedOperationException.class, doubleArray::clear);
+        assertEquals("Samsung", doubleArray.getLongestMatch("GT-I8190N"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testJavaSerialization() throws IOException, ClassNotFoundException {
+        TreeMap<String, String> map = new TreeMap<>();
+        map.put("GT-", "Samsung");
+        map.put("RM-", "Nokia");
+        DoubleArrayPrefixMap<String> doubleArray = new DoubleArrayPrefixMap<>(false, map);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(doubleArray);
+        }
+        DoubleArrayPrefixMap<String> result;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result = (DoubleArrayPrefixMap<String>) in.readObject();
+        }
+        assertEquals("Samsung", result.getLongestMatch("gT-i8190N"));
+        assertEquals("Nokia",   result.getLongestMatch("rM-1092"));
+        assertEquals(2, result.size());
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestFrontCodedPrefixFormat {
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABCDEFG", "ABX", "B", "Bx", "GT-", "GT-I", "RM-", "RM-10",
+        "你", "你好", "你好DE", "🖖", "🖗", "🖗🖖", "A🖖B", "A🖗", "ÀÉÏ", "ÀÉÏx");
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "ab", "ABcd", "abcdefgh", "abxyz", "bxy", "gt-i8190N", "rm-1092", "你好de", "🖗🖖x", "a🖖bc", "àéïxy", "C");
+
+    private StringPrefixMap<String> createSample(boolean caseSensitive) {
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(caseSensitive);
+        for (String prefix : PREFIXES) {
+            prefixMap.put(prefix, "Result " + prefix.length()); // Many duplicate values
+        }
+        return prefixMap;
+    }
+
+    private byte[] export(PrefixMap<String> prefixMap, int blockSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrontCodedPrefixFormat.write(prefixMap, bytes, FrontCodedPrefixFormat.stringWriter(), blockSize);
+        return bytes.toByteArray();
+    }
+
+    private <M extends PrefixMap<String>> M importInto(byte[] bytes, M target) throws IOException {
+        return FrontCodedPrefixFormat.read(new ByteArrayInputStream(bytes), FrontCodedPrefixFormat.stringReader(), target);
+    }
+
+    private void verify(PrefixMap<String> expected, PrefixMap<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.entrySet(), actual.entrySet());
+        for (String input : INPUTS) {
+            assertEquals(expected.getShortestMatch(input), actual.getShortestMatch(input), "getShortestMatch(\"" + input + "\")");
+            assertEquals(expected.getLongestMatch(input),  actual.getLongestMatch(input),  "getLongestMatch(\"" + input + "\")");
+        }
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> prefixMap = createSample(caseSensitive);
+            for (int blockSize : new int[]{1, 3, FrontCodedPrefixFormat.DEFAULT_BLOCK_SIZE}) {
+                byte[] bytes = export(prefixMap, blockSize);
+                verify(prefixMap, importInto(bytes, new StringPrefixMap<>(caseSensitive)));
+                verify(prefixMap, importInto(bytes, new StringPrefixMap<>(caseSensitive, true)));
+                verify(prefixMap, importInto(bytes, new Utf8PrefixMap<>(caseSensitive)));
+            }
+        }
+    }
+
+    @Test
+    void testCompactKeys() throws IOException {
+        // The views of the trie are exported as they are: in code point order ("！" is U+FF01, after the surrogates).
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(true, false, true);
+        for (String prefix : PREFIXES) {
+            prefixMap.put(prefix, "Result " + prefix.length());
+        }
+        prefixMap.put("！", "Fullwidth");
+        prefixMap.put("！🖖", "Fullwidth and more");
+        for (int blockSize : new int[]{1, 3, FrontCodedPrefixFormat.DEFAULT_BLOCK_SIZE}) {
+            byte[] bytes = export(prefixMap, blockSize);
+            verify(prefixMap, importInto(bytes, new StringPrefixMap<>(true)));
+            verify(prefixMap, importInto(bytes, new StringPrefixMap<>(true, false, true)));
+        }
+    }
+
+    @Test
+    void testASCIIPrefixMap() throws IOException {
+        ASCIIPrefixMap<String> prefixMap = new ASCIIPrefixMap<>(false);
+        prefixMap.put("GT-", "Samsung");
+        prefixMap.put("GT-I", "Samsung");
+        prefixMap.put("RM-", "Nokia");
+        verify(prefixMap, importInto(export(prefixMap, 2), new ASCIIPrefixMap<>(false)));
+    }
+
+    @Test
+    void testAnyMapAndChannels() throws IOException {
+        TreeMap<String, Integer> sorted = new TreeMap<>();
+        sorted.put("One", 1);
+        sorted.put("Onetwothree", 123);
+        sorted.put("Two", 2);
+        FrontCodedPrefixFormat.ValueWriter<Integer> intWriter = DataOutput::writeInt;
+        FrontCodedPrefixFormat.ValueReader<Integer> intReader = DataInput::readInt;
+
+        for (Map<String, Integer> source : Arrays.asList(sorted, new HashMap<>(sorted))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            FrontCodedPrefixFormat.write(source, Channels.newChannel(bytes), intWriter);
+            StringPrefixMap<Integer> result = FrontCodedPrefixFormat.read(
+                Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), intReader, new StringPrefixMap<>(true));
+            assertEquals(sorted, new TreeMap<>(result));
+            assertEquals(Integer.valueOf(123), result.getLongestMatch("OnetwothreeFour"));
+        }
+    }
+
+    @Test
+    void testDataAfterTheExport() throws IOException {
+        StringPrefixMap<String> prefixMap = createSample(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF("BEFORE");
+        FrontCodedPrefixFormat.write(prefixMap, out, FrontCodedPrefixFormat.stringWriter());
+        out.writeUTF("NEXT-RECORD");
+        FrontCodedPrefixFormat.write(prefixMap, out, FrontCodedPrefixFormat.stringWriter(), 3);
+        out.writeUTF("LAST-RECORD");
+        out.flush();
+
+        // A stream
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("BEFORE", in.readUTF());
+        verify(prefixMap, FrontCodedPrefixFormat.read(in, FrontCodedPrefixFormat.stringReader(), new StringPrefixMap<>(true)));
+        assertEquals("NEXT-RECORD", in.readUTF());
+        verify(prefixMap, FrontCodedPrefixFormat.read(in, FrontCodedPrefixFormat.stringReader(), new StringPrefixMap<>(true)));
+        assertEquals("LAST-RECORD", in.readUTF());
+        assertEquals(-1, in.read());
+
+        // A file channel (read in blocks and then positioned after the export)
+        Path file = Files.createTempFile("TestFrontCodedPrefixFormat", ".pfxf");
+        try {
+            Files.write(file, bytes.toByteArray());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                DataInputStream channelIn = new DataInputStream(Channels.newInputStream(channel));
+                assertEquals("BEFORE", channelIn.readUTF());
+                verify(prefixMap, FrontCodedPrefixFormat.read(channel, FrontCodedPrefixFormat.stringReader(), new StringPrefixMap<>(true)));
+                assertEquals("NEXT-RECORD", channelIn.readUTF());
+                verify(prefixMap, FrontCodedPrefixFormat.read(channel, FrontCodedPrefixFormat.stringReader(), new StringPrefixMap<>(true)));
+                assertEquals("LAST-RECORD", channelIn.readUTF());
+                assertEquals(channel.size(), channel.position());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testEmpty() throws IOException {
+        byte[] bytes = export(new StringPrefixMap<>(true), 10);
+        assertTrue(importInto(bytes, new StringPrefixMap<>(true)).isEmpty());
+        assertTrue(importInto(export(new ASCIIPrefixMap<>(true), 10), new StringPrefixMap<>(true)).isEmpty());
+        assertEquals(0, FrontCodedPrefixFormat.read(new ByteArrayInputStream(bytes), FrontCodedPrefixFormat.stringReader(),
+            new StringPrefixMap<>(true)).size());
+        assertThrows(IllegalArgumentException.class,
+            () -> FrontCodedPrefixFormat.write(Collections.<String, String>emptyMap(), new ByteArrayOutputStream(),
+                FrontCodedPrefixFormat.stringWriter(), 0));
+    }
+
+    @Test
+    void testMuchSmallerThanJavaSerialization() throws IOException {
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(true);
+        String[] values = {"Apple", "Samsung", "Nokia", "Google"};
+        for (int i = 0; i < 50_000; i++) {
+            prefixMap.put("SomeDevice-" + Integer.toString(i * 7919, 36), values[i % values.length]);
+        }
+        byte[] exported = export(prefixMap, FrontCodedPrefixFormat.DEFAULT_BLOCK_SIZE);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(prefixMap);
+        }
+        assertTrue(exported.length * 2 < serialized.size(),
+            "Exported " + exported.length + " bytes, Java serialized " + serialized.size() + " bytes");
+
+        verify(prefixMap, importInto(exported, new StringPrefixMap<>(true)));
+    }
+
+    @Test
+    void testInvalidInput() throws IOException {
+        byte[] valid = export(createSample(true), 4);
+
+        assertThrows(IOException.class, () -> importInto(Arrays.copyOf(valid, 3), new StringPrefixMap<>(true)));
+        assertThrows(IOException.class, () -> importInto(Arrays.copyOf(valid, valid.length - 1), new StringPrefixMap<>(true)));
+
+        byte[] badMagic = valid.clone();
+        badMagic[0] = 'X';
+        assertThrows(IOException.class, () -> importInto(badMagic, new StringPrefixMap<>(true)));
+
+        byte[] badVersion = valid.clone();
+        badVersion[4] = 42;
+        assertThrows(IOException.class, () -> importInto(badVersion, new StringPrefixMap<>(true)));
+
+        byte[] badTrailer = valid.clone();
+        badTrailer[valid.length - 1]++;
+        assertThrows(IOException.class, () -> importInto(badTrailer, new StringPrefixMap<>(true)));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestFrozenPrefixMap {
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABCDEFG", "ABX", "B", "Bx", "GT-", "GT-I", "RM-", "RM-10",
+        "你", "你好", "你好DE", "🖖", "🖖B", "ABC🖖", "ABC🖖EF", "ABC你", "ABC你EF");
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "A", "ab", "aB", "ABc", "ABCD", "abcdef", "ABCDEFGH", "ABX", "abxyz", "b", "BX", "bxy", "C",
+        "gt-i8190N", "GT-", "Gt-x", "rm-1092", "RM-", "rm", "\\t", "abc€", "ABCD€",
+        "你", "你好", "你好de", "你🖖", "🖖", "🖖bcde", "aBc🖖eFgH", "abc🖖e", "ABC你", "abc你efg");
+
+    private <T extends StringPrefixMap<String>> void verifyFrozen(T prefixMap, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            prefixMap.put(prefix, "Result " + prefix);
+        }
+        FrozenPrefixMap<String> frozen = prefixMap.freeze();
+
+        assertEquals(prefixMap.size(), frozen.size());
+        assertEquals(prefixMap.keySet(), frozen.keySet());
+        assertEquals(prefixMap.entrySet(), frozen.entrySet());
+
+        for (String input : INPUTS) {
+            assertEquals(prefixMap.get(input),              frozen.get(input),              "get(\"" + input + "\")");
+            assertEquals(prefixMap.containsPrefix(input),   frozen.containsPrefix(input),   "containsPrefix(\"" + input + "\")");
+            assertEquals(prefixMap.getShortestMatch(input), frozen.getShortestMatch(input), "getShortestMatch(\"" + input + "\")");
+            assertEquals(prefixMap.getLongestMatch(input),  frozen.getLongestMatch(input),  "getLongestMatch(\"" + input + "\")");
+            assertEquals(allMatches(prefixMap, input),      allMatches(frozen, input),      "getAllMatches(\"" + input + "\")");
+            StringBuilder sb = new StringBuilder(input);
+            assertEquals(frozen.getLongestMatch(input),   frozen.getLongestMatch(sb),   "getLongestMatch(SB \"" + input + "\")");
+            assertEquals(frozen.getShortestMatch(input),  frozen.getShortestMatch(sb),  "getShortestMatch(SB \"" + input + "\")");
+            assertEquals(frozen.containsPrefix(input),    frozen.containsPrefix(sb),    "containsPrefix(SB \"" + input + "\")");
+            assertEquals(frozen.getLongestMatch(input.codePoints().iterator()), frozen.getLongestMatch(input),
+                "getLongestMatch(OfInt \"" + input + "\")");
+        }
+    }
+
+    private List<String> allMatches(PrefixMap<String> prefixMap, String input) {
+        List<String> result = new ArrayList<>();
+        prefixMap.getAllMatches(input).forEachRemaining(result::add);
+        return result;
+    }
+
+    private List<String> asciiPrefixes() {
+        List<String> result = new ArrayList<>();
+        for (String prefix: PREFIXES) {
+            if (prefix.chars().allMatch(c -> c >= 32 && c <= 126)) {
+                result.add(prefix);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    void testStringPrefixMap() {
+        verifyFrozen(new StringPrefixMap<>(true),        PREFIXES);
+        verifyFrozen(new StringPrefixMap<>(false),       PREFIXES);
+        verifyFrozen(new StringPrefixMap<>(true, true),  PREFIXES);
+        verifyFrozen(new StringPrefixMap<>(false, true), PREFIXES);
+    }
+
+    @Test
+    void testASCIIPrefixMap() {
+        verifyFrozen(new ASCIIPrefixMap<>(true),         asciiPrefixes());
+        verifyFrozen(new ASCIIPrefixMap<>(false),        asciiPrefixes());
+        verifyFrozen(new ASCIIPrefixMap<>(true, true),   asciiPrefixes());
+        verifyFrozen(new ASCIIPrefixMap<>(false, true),  asciiPrefixes());
+    }
+
+    @Test
+    void testCaseInsensitiveUnicode() {
+        // Characters with a simple upper/lower case pair match the same as before freezing.
+        verifyFrozen(new StringPrefixMap<>(false), Arrays.asList("Σσ", "Straße", "Ωmega", "ü"));
+
+        // Characters without a simple pair match via their lower case once frozen (see FrozenPrefixMap).
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(false);
+        prefixMap.put("ς",   "Final sigma");
+        prefixMap.put("ſ",   "Long s");
+        prefixMap.put("ǅa",  "Title case");
+        FrozenPrefixMap<String> frozen = prefixMap.freeze();
+        OffHeapPrefixMap<String> offHeap = prefixMap.freezeOffHeap();
+        for (PrefixMap<String> map : Arrays.<PrefixMap<String>>asList(frozen, offHeap)) {
+            assertEquals(prefixMap.entrySet(), map.entrySet());
+            assertEquals("Final sigma", map.get("ς"));
+            assertEquals("Long s",      map.get("ſ"));
+            assertEquals("Title case",  map.get("ǆa"));
+            assertEquals("Title case",  map.get("Ǆa"));
+            assertEquals(null,          map.get("Σ"));
+            assertEquals(null,          map.get("S"));
+            assertEquals("Title case",  map.get("ǅa"));
+        }
+        assertEquals("Final sigma", prefixMap.get("Σ"));
+        assertEquals("Long s",      prefixMap.get("S"));
+        assertEquals(null,          prefixMap.get("ǅa"));
+
+        // The keys are lower cased per code point (String.toLowerCase makes the last one a final sigma).
+        StringPrefixMap<String> sigmaMap = new StringPrefixMap<>(false);
+        sigmaMap.put("ΣΑΣ", "Sigma");
+        FrozenPrefixMap<String> frozenSigma = sigmaMap.freeze();
+        assertEquals(Collections.singleton("σασ"), sigmaMap.keySet());
+        assertEquals(Collections.singleton("σασ"), frozenSigma.keySet());
+        assertEquals("Sigma", frozenSigma.get("σασ"));
+        assertEquals(null,    frozenSigma.get("σας"));
+    }
+
+    @Test
+    void testLazyViews() {
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(true);
+        for (String prefix : PREFIXES) {
+            prefixMap.put(prefix, "Result " + prefix);
+        }
+        FrozenPrefixMap<String> frozen = prefixMap.freeze();
+        assertEquals(PREFIXES.size(), frozen.entrySet().size());
+        assertEquals(PREFIXES.size(), frozen.keySet().size());
+        assertEquals(PREFIXES.size(), frozen.values().size());
+
+        // In ascending code point order with a prefix before the longer prefixes that start with it.
+        List<String> keys = new ArrayList<>(frozen.keySet());
+        List<String> sorted = new ArrayList<>(PREFIXES);
+        sorted.sort((left, right) -> Arrays.compare(left.codePoints().toArray(), right.codePoints().toArray()));
+        assertEquals(sorted, keys);
+
+        Iterator<String> iterator = frozen.keySet().iterator();
+        for (int i = 0; i < PREFIXES.size(); i++) {
+            assertTrue(iterator.hasNext());
+            iterator.next();
+        }
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+        assertThrows(UnsupportedOperationException.class, () -> frozen.keySet().remove("GT-"));
+    }
+
+    @Test
+    void testVeryDeepPrefix() {
+        // Freezing and compacting walk all prefixes which must not need a stack frame per character.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        String deepPrefix = sb.toString();
+        String halfPrefix = deepPrefix.substring(0, 25_000);
+
+        List<StringPrefixMap<String>> prefixMaps = Arrays.asList(
+            new StringPrefixMap<>(false),
+            new StringPrefixMap<>(false, false, true),
+            new ASCIIPrefixMap<>(false),
+            new ASCIIPrefixMap<>(false, false, true));
+        for (StringPrefixMap<String> prefixMap : prefixMaps) {
+            prefixMap.put(deepPrefix, "Deep");
+            prefixMap.put(halfPrefix, "Half");
+
+            FrozenPrefixMap<String> frozen = prefixMap.freeze();
+            OffHeapPrefixMap<String> offHeap = prefixMap.freezeOffHeap();
+            for (PrefixMap<String> map : Arrays.<PrefixMap<String>>asList(frozen, offHeap)) {
+                assertEquals(prefixMap.entrySet(), map.entrySet());
+                assertEquals("Deep", map.getLongestMatch(deepPrefix + "Something"));
+                assertEquals("Half", map.getLongestMatch(deepPrefix.substring(0, 40_000)));
+            }
+
+            prefixMap.compact();
+            assertEquals(2, prefixMap.size());
+            assertEquals("Deep", prefixMap.getLongestMatch(deepPrefix + "Something"));
+            assertEquals("Half", prefixMap.getShortestMatch(deepPrefix));
+        }
+    }
+
+    @Test
+    void testEmpty() {
+        FrozenPrefixMap<String> frozen = new ASCIIPrefixMap<String>(false).freeze();
+        assertTrue(frozen.isEmpty());
+        assertEquals(null, frozen.getLongestMatch("Something"));
+        assertFalse(frozen.getAllMatches("Something").hasNext());
+    }
+
+    @Test
+    void testFrozenIsACopy() {
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(false);
+        prefixMap.put("GT-", "Samsung");
+        FrozenPrefixMap<String> frozen = prefixMap.freeze();
+        prefixMap.put("RM-", "Nokia");
+
+        assertEquals(1, frozen.size());
+        assertEquals("Samsung", frozen.getLongestMatch("Gt-I8190n"));
+        assertEquals(null,      frozen.getLongestMatch("Rm-1092"));
+        assertTrue(frozen.containsKey("GT-"));
+        assertTrue(frozen.containsValue("Samsung"));
+        assertFalse(frozen.containsValue("Nokia"));
+    }
+
+    @Test
+    void testContainsValue() {
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(false);
+        prefixMap.put("GT-",  "Samsung");
+        prefixMap.put("SM-",  "Samsung");
+        prefixMap.put("RM-",  "Nokia");
+        prefixMap.put("",     "Unknown");
+        FrozenPrefixMap<String> frozen = prefixMap.freeze();
+        OffHeapPrefixMap<String> offHeap = prefixMap.freezeOffHeap();
+        for (PrefixMap<String> map : Arrays.<PrefixMap<String>>asList(frozen, offHeap)) {
+            assertTrue(map.containsValue("Samsung"));
+            assertTrue(map.containsValue("Nokia"));
+            assertTrue(map.containsValue("Unknown"));
+            assertFalse(map.containsValue("Apple"));
+            assertFalse(map.containsValue(null));
+        }
+        assertEquals(3, frozen.distinctValues().length);
+    }
+
+    @Test
+    void testImmutable() {
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(false);
+        prefixMap.put("GT-", "Samsung");
+        FrozenPrefixMap<String> frozen = prefixMap.freeze();
+
+        assertThrows(UnsupportedOperationException.class, () -> frozen.put("RM-", "Nokia"));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.putAll(prefixMap));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.remove("GT-"));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.remove((Object) "GT-"));
+        assertThrows(UnsupportedOperationException.class, frozen::clear);
+        assertThrows(UnsupportedOperationException.class, () -> frozen.entrySet().clear());
+        assertEquals("Samsung", frozen.getLongestMatch("GT-I8190N"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testJavaSerialization() throws IOException, ClassNotFoundException {
+        StringPrefixMap<String> prefixMap = new ASCIIPrefixMap<>(false);
+        prefixMap.put("GT-", "Samsung");
+        prefixMap.put("RM-", "Nokia");
+        FrozenPrefixMap<String> frozen = prefixMap.freeze();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(frozen);
+        }
+        FrozenPrefixMap<String> result;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result = (FrozenPrefixMap<String>) in.readObject();
+        }
+        assertEquals("Samsung", result.getLongestMatch("gT-i8190N"));
+        assertEquals("Nokia",   result.getLongestMatch("rM-1092"));
+        assertEquals(2, result.size());
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.collections.MatchResult;
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestOffHeapPrefixMap {
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABCDEFG", "ABX", "B", "Bx", "GT-", "GT-I", "RM-", "RM-10",
+        "你", "你好", "你好DE", "🖖", "🖖B", "ABC🖖", "ABC🖖EF", "ABC你", "ABC你EF",
+        "G0", "G1", "G2", "G3", "G4", "G5", "G6", "G7", "G8", "G9", "Ga", "Gb"); // More than 8 children of 'G'
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "A", "ab", "aB", "ABc", "ABCD", "abcdef", "ABCDEFGH", "ABX", "abxyz", "b", "BX", "bxy", "C",
+        "gt-i8190N", "GT-", "Gt-x", "rm-1092", "RM-", "rm", "\\t", "abc€", "ABCD€", "g5x", "GB", "Gc", "G",
+        "你", "你好", "你好de", "你🖖", "🖖", "🖖bcde", "aBc🖖eFgH", "abc🖖e", "ABC你", "abc你efg");
+
+    private void verify(StringPrefixMap<String> prefixMap, OffHeapPrefixMap<String> offHeap) {
+        assertEquals(prefixMap.size(), offHeap.size());
+        assertEquals(prefixMap.keySet(), offHeap.keySet());
+        assertEquals(prefixMap.entrySet(), offHeap.entrySet());
+
+        MatchResult<String> expected = new MatchResult<>();
+        MatchResult<String> actual = new MatchResult<>();
+        for (String input : INPUTS) {
+            assertEquals(prefixMap.get(input),              offHeap.get(input),              "get(\"" + input + "\")");
+            assertEquals(prefixMap.containsPrefix(input),   offHeap.containsPrefix(input),   "containsPrefix(\"" + input + "\")");
+            assertEquals(prefixMap.getShortestMatch(input), offHeap.getShortestMatch(input), "getShortestMatch(\"" + input + "\")");
+            assertEquals(prefixMap.getLongestMatch(input),  offHeap.getLongestMatch(input),  "getLongestMatch(\"" + input + "\")");
+            assertEquals(allMatches(prefixMap, input),      allMatches(offHeap, input),      "getAllMatches(\"" + input + "\")");
+            assertEquals(prefixMap.getLongestMatch(input.codePoints().iterator()), offHeap.getLongestMatch(input.codePoints().iterator()),
+                "getLongestMatch(OfInt \"" + input + "\")");
+            prefixMap.getLongestMatch(input, expected);
+            offHeap.getLongestMatch(input, actual);
+            assertEquals(expected, actual, "getLongestMatch(MatchResult \"" + input + "\")");
+        }
+    }
+
+    private List<String> allMatches(PrefixMap<String> prefixMap, String input) {
+        List<String> result = new ArrayList<>();
+        prefixMap.getAllMatches(input).forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    void testFreezeOffHeap() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> prefixMap = new StringPrefixMap<>(caseSensitive);
+            for (String prefix : PREFIXES) {
+                prefixMap.put(prefix, "Result " + prefix);
+            }
+            verify(prefixMap, prefixMap.freezeOffHeap());
+        }
+    }
+
+    @Test
+    void testFromMap() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> prefixMap = new StringPrefixMap<>(caseSensitive);
+            TreeMap<String, String> map = new TreeMap<>();
+            for (String prefix : PREFIXES) {
+                prefixMap.put(prefix, "Result " + prefix);
+                map.put(prefix, "Result " + prefix);
+            }
+            verify(prefixMap, new OffHeapPrefixMap<>(caseSensitive, map));
+        }
+    }
+
+    @Test
+    void testASCIIPrefixMap() {
+        ASCIIPrefixMap<String> prefixMap = new ASCIIPrefixMap<>(false);
+        prefixMap.put("GT-", "Samsung");
+        prefixMap.put("RM-", "Nokia");
+        OffHeapPrefixMap<String> offHeap = prefixMap.freezeOffHeap();
+        assertEquals("Samsung", offHeap.getLongestMatch("gt-I8190"));
+        assertEquals(null,      offHeap.getLongestMatch("RM€"));
+        assertEquals(null,      offHeap.getLongestMatch("İ")); // Lower cases to an 'i' which is not in the ASCII variant
+    }
+
+    @Test
+    void testEmpty() {
+        OffHeapPrefixMap<String> offHeap = new OffHeapPrefixMap<>(true, Collections.emptyMap());
+        assertTrue(offHeap.isEmpty());
+        assertEquals(null, offHeap.getLongestMatch("Something"));
+        assertFalse(offHeap.getAllMatches("Something").hasNext());
+    }
+
+    @Test
+    void testImmutable() {
+        OffHeapPrefixMap<String> offHeap = new OffHeapPrefixMap<>(false, Collections.singletonMap("GT-", "Samsung"));
+        assertThrows(UnsupportedOperationException.class, () -> offHeap.put("RM-", "Nokia"));
+        assertThrows(UnsupportedOperationException.class, () -> offHeap.remove("GT-"));
+        assertThrows(UnsupportedOperationException.class, offHeap::clear);
+        assertEquals("Samsung", offHeap.getLongestMatch("GT-I8190N"));
+    }
+
+    private OffHeapPrefixMap<String> createSample() {
+        TreeMap<String, String> map = new TreeMap<>();
+        map.put("GT-", "Samsung");
+        map.put("RM-", "Nokia");
+        map.put("你好", "Hello");
+        return new OffHeapPrefixMap<>(false, map);
+    }
+
+    private void verifySample(PrefixMap<String> result) {
+        assertEquals("Samsung", result.getLongestMatch("gT-i8190N"));
+        assertEquals("Nokia",   result.getLongestMatch("rM-1092"));
+        assertEquals("Hello",   result.getLongestMatch("你好吗"));
+        assertEquals(3, result.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testJavaSerialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(createSample());
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            verifySample((OffHeapPrefixMap<String>) in.readObject());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testKryoSerialization() {
+        Kryo kryo = new Kryo();
+        StringPrefixMap.configureKryo(kryo);
+        kryo.register(String[].class);
+
+        Output output = new Output(1024, -1);
+        kryo.writeClassAndObject(output, createSample());
+        Object result = kryo.readClassAndObject(new Input(output.toBytes()));
+        verifySample((OffHeapPrefixMap<String>) result);
+    }
+
+    private Path tempFile() throws IOException {
+        Path file = Files.createTempFile("TestOffHeapPrefixMap", ".pfxm");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    @Test
+    void testMemoryMappedFile() throws IOException {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> prefixMap = new StringPrefixMap<>(caseSensitive);
+            for (String prefix : PREFIXES) {
+                prefixMap.put(prefix, "Result " + prefix);
+            }
+            Path file = tempFile();
+            prefixMap.freezeOffHeap().write(file, FrontCodedPrefixFormat.stringWriter());
+            OffHeapPrefixMap<String> mapped = OffHeapPrefixMap.open(file, FrontCodedPrefixFormat.stringReader());
+            verify(prefixMap, mapped);
+
+            // Writing a mapped map must give the same file again.
+            Path copy = tempFile();
+            mapped.write(copy, FrontCodedPrefixFormat.stringWriter());
+            assertTrue(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(copy)));
+        }
+
+        Path file = tempFile();
+        createSample().write(file, FrontCodedPrefixFormat.stringWriter());
+        verifySample(OffHeapPrefixMap.open(file, FrontCodedPrefixFormat.stringReader()));
+    }
+
+    @Test
+    void testMemoryMappedFileValueCodec() throws IOException {
+        StringPrefixMap<Integer> prefixMap = new StringPrefixMap<>(false);
+        prefixMap.put("GT-",   1);
+        prefixMap.put("GT-I",  2);
+        prefixMap.put("RM-",   1);
+        Path file = tempFile();
+        prefixMap.freezeOffHeap().write(file, DataOutput::writeInt);
+
+        // The values are written by the ValueWriter only: no Java serialization in the file.
+        byte[] bytes = Files.readAllBytes(file);
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        assertFalse(content.contains("java.lang"));
+        byte[] values = Arrays.copyOfRange(bytes, bytes.length - 12, bytes.length);
+        assertTrue(Arrays.equals(new byte[]{0, 0, 0, 2, 0, 0, 0, 1, 0, 0, 0, 2}, values));
+
+        OffHeapPrefixMap<Integer> mapped = OffHeapPrefixMap.open(file, DataInput::readInt);
+        assertEquals(Integer.valueOf(2), mapped.getLongestMatch("gt-i8190"));
+        assertEquals(Integer.valueOf(1), mapped.getLongestMatch("Rm-1092"));
+
+        // A reader that reads too much or too little
+        assertThrows(IOException.class, () -> OffHeapPrefixMap.open(file, DataInput::readLong));
+        assertThrows(IOException.class, () -> OffHeapPrefixMap.open(file, in -> (int) in.readShort()));
+    }
+
+    @Test
+    void testInvalidMemoryMappedFile() throws IOException {
+        Path file = tempFile();
+        createSample().write(file, FrontCodedPrefixFormat.stringWriter());
+        byte[] valid = Files.readAllBytes(file);
+
+        Path bad = tempFile();
+        Files.write(bad, Arrays.copyOf(valid, 10));
+        assertThrows(IOException.class, () -> OffHeapPrefixMap.open(bad, FrontCodedPrefixFormat.stringReader()));
+
+        Files.write(bad, Arrays.copyOf(valid, valid.length - 1));
+        assertThrows(IOException.class, () -> OffHeapPrefixMap.open(bad, FrontCodedPrefixFormat.stringReader()));
+
+        byte[] badMagic = valid.clone();
+        badMagic[0] = 'X';
+        Files.write(bad, badMagic);
+        assertThrows(IOException.class, () -> OffHeapPrefixMap.open(bad, FrontCodedPrefixFormat.stringReader()));
+
+        byte[] badVersion = valid.clone();
+        badVersion[4] = 42;
+        Files.write(bad, badVersion);
+        assertThrows(IOException.class, () -> OffHeapPrefixMap.open(bad, FrontCodedPrefixFormat.stringReader()));
+    }
+}
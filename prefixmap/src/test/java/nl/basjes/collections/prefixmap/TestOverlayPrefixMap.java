@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TestOverlayPrefixMap extends AbstractPrefixMapTests {
+
+    @Override
+    PrefixMap<String> createPrefixMap(boolean caseSensitive) {
+        return new OverlayPrefixMap<>(caseSensitive);
+    }
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABX", "Bx", "GT-", "GT-I", "RM-10",
+        "你", "你好", "你好DE", "🖖", "🖖B", "ABC🖖", "ABC你EF");
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "ab", "ABCD", "abcdef", "abxyz", "bxy", "C", "gt-i8190N", "rm-1092",
+        "你好de", "你🖖", "🖖bcde", "aBc🖖eFgH", "abc你efg");
+
+    private OverlayPrefixMap<String> createWithBase(boolean caseSensitive, List<String> prefixes) {
+        StringPrefixMap.Builder<String> builder = StringPrefixMap.builder(caseSensitive);
+        for (String prefix : prefixes) {
+            builder.put(prefix, "Base " + prefix);
+        }
+        return new OverlayPrefixMap<>(builder.buildFrozen());
+    }
+
+    private StringPrefixMap<String> createExpected(boolean caseSensitive, List<String> prefixes) {
+        StringPrefixMap<String> expected = new StringPrefixMap<>(caseSensitive);
+        for (String prefix : prefixes) {
+            expected.put(prefix, "Base " + prefix);
+        }
+        return expected;
+    }
+
+    private void verify(StringPrefixMap<String> expected, OverlayPrefixMap<String> actual) {
+        assertEquals(expected.size(),     actual.size());
+        assertEquals(expected.entrySet(), actual.entrySet());
+        for (String input : INPUTS) {
+            int[] codePoints = input.codePoints().toArray();
+            assertEquals(expected.get(input),                     actual.get(input));
+            assertEquals(expected.containsKey(input),             actual.containsKey(input));
+            assertEquals(expected.getShortestMatch(input),        actual.getShortestMatch(input));
+            assertEquals(expected.getLongestMatch(input),         actual.getLongestMatch(input));
+            assertEquals(expected.getShortestMatch(codePoints),   actual.getShortestMatch(codePoints));
+            assertEquals(expected.getLongestMatch(codePoints),    actual.getLongestMatch(codePoints));
+            assertEquals(expected.getShortestMatchLength(input),  actual.getShortestMatchLength(input));
+            assertEquals(expected.getLongestMatchLength(input),   actual.getLongestMatchLength(input));
+            List<String> expectedAll = new ArrayList<>();
+            expected.getAllMatches(input).forEachRemaining(expectedAll::add);
+            List<String> actualAll = new ArrayList<>();
+            actual.getAllMatches(input).forEachRemaining(actualAll::add);
+            assertEquals(expectedAll, actualAll);
+        }
+    }
+
+    @Test
+    void testOverlayOnBase() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String>  expected = createExpected(caseSensitive, PREFIXES);
+            OverlayPrefixMap<String> overlay  = createWithBase(caseSensitive, PREFIXES);
+            verify(expected, overlay);
+            assertEquals(0, overlay.overlaySize());
+
+            // Change, remove and add prefixes
+            for (String prefix : Arrays.asList("AB", "你好", "🖖B", "GT-I")) {
+                assertEquals(expected.put(prefix, "Changed " + prefix), overlay.put(prefix, "Changed " + prefix));
+            }
+            for (String prefix : Arrays.asList("ABC", "", "你", "RM-10", "DoesNotExist")) {
+                assertEquals(expected.remove(prefix), overlay.remove(prefix));
+            }
+            for (String prefix : Arrays.asList("ABCD", "abxy", "C", "你🖖")) {
+                assertEquals(expected.put(prefix, "New " + prefix), overlay.put(prefix, "New " + prefix));
+            }
+            verify(expected, overlay);
+            assertEquals(4 + 4 + 4, overlay.overlaySize());
+
+            // A new prefix that is removed again leaves nothing in the overlay
+            overlay.put("Temporary", "Temporary");
+            overlay.remove("Temporary");
+            assertEquals(12, overlay.overlaySize());
+
+            overlay.compact();
+            assertEquals(0, overlay.overlaySize());
+            verify(expected, overlay);
+
+            // Removed prefixes can be added again
+            expected.put("ABC", "Again");
+            overlay.put("ABC", "Again");
+            verify(expected, overlay);
+        }
+    }
+
+    @Test
+    void testVeryDeepPrefix() {
+        // Walking all prefixes (the views and compact) merges the base and the overlay without a stack frame per character.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        String deepPrefix = sb.toString();
+        String halfPrefix = deepPrefix.substring(0, 25_000);
+
+        OverlayPrefixMap<String> overlay = createWithBase(false, Arrays.asList(deepPrefix, "A"));
+        overlay.put(halfPrefix, "Half");
+        overlay.put(deepPrefix + "z", "Deeper");
+        StringPrefixMap<String> expected = createExpected(false, Arrays.asList(deepPrefix, "A"));
+        expected.put(halfPrefix, "Half");
+        expected.put(deepPrefix + "z", "Deeper");
+        assertEquals(expected.entrySet(), overlay.entrySet());
+
+        overlay.compact();
+        assertEquals(0, overlay.overlaySize());
+        assertEquals(expected.entrySet(), overlay.entrySet());
+        assertEquals("Deeper", overlay.getLongestMatch(deepPrefix + "zz"));
+        assertEquals("Half",   overlay.getLongestMatch(deepPrefix.substring(0, 40_000)));
+    }
+
+    @Test
+    void testRemovedLongestFallsBackToShorter() {
+        OverlayPrefixMap<String> overlay = createWithBase(true, Arrays.asList("A", "AB", "ABC"));
+        assertEquals("Base ABC", overlay.getLongestMatch("ABCD"));
+        overlay.remove("ABC");
+        assertEquals("Base AB", overlay.getLongestMatch("ABCD"));
+        overlay.remove("AB");
+        assertEquals("Base A", overlay.getLongestMatch("ABCD"));
+        overlay.put("ABCD", "Overlay ABCD");
+        assertEquals("Overlay ABCD", overlay.getLongestMatch("ABCDE"));
+        assertEquals("Base A", overlay.getShortestMatch("ABCDE"));
+        overlay.remove("A");
+        assertEquals("Overlay ABCD", overlay.getShortestMatch("ABCDE"));
+        assertNull(overlay.getLongestMatch("ABC"));
+        assertEquals(1, overlay.size());
+    }
+
+    @Test
+    void testChangesDuringCompactAreRetained() {
+        OverlayPrefixMap<String> overlay  = createWithBase(false, PREFIXES);
+        StringPrefixMap<String>  expected = createExpected(false, PREFIXES);
+        for (String prefix : Arrays.asList("Only", "Changed", "Kept")) {
+            overlay.put(prefix, "Before " + prefix);
+            expected.put(prefix, "Before " + prefix);
+        }
+        overlay.remove("AB");
+        expected.remove("AB");
+
+        // The compaction runs only when we say so.
+        List<Runnable> tasks = new ArrayList<>();
+        overlay.compact(tasks::add);
+        assertEquals(1, tasks.size());
+
+        // Changes while the new base is being built
+        overlay.remove("Only");              // Was only in the overlay of the snapshot
+        expected.remove("Only");
+        overlay.put("Changed", "After");     // Changed again
+        expected.put("Changed", "After");
+        overlay.put("AB", "After");          // The tombstone is replaced
+        expected.put("AB", "After");
+        overlay.remove("ABX");               // A prefix of the old base
+        expected.remove("ABX");
+        overlay.put("New", "After");         // A new prefix
+        expected.put("New", "After");
+        verify(expected, overlay);
+
+        tasks.get(0).run();
+        verify(expected, overlay);
+        // Only, Changed, AB, ABX and New
+        assertEquals(5, overlay.overlaySize());
+
+        overlay.compact();
+        assertEquals(0, overlay.overlaySize());
+        verify(expected, overlay);
+    }
+
+    @Test
+    void testClearDuringCompact() {
+        OverlayPrefixMap<String> overlay = createWithBase(false, PREFIXES);
+        overlay.put("New", "New");
+        List<Runnable> tasks = new ArrayList<>();
+        overlay.compact(tasks::add);
+        overlay.clear();
+        tasks.get(0).run();
+        assertEquals(0, overlay.size());
+        assertFalse(overlay.containsPrefix("New"));
+        assertNull(overlay.getLongestMatch("ABCDEF"));
+    }
+
+    @Test
+    void testRandomChangesAndCompactions() {
+        Random random = new Random(42);
+        String[] alphabet = {"a", "B", "c", "你", "🖖"};
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            OverlayPrefixMap<String> overlay  = createWithBase(caseSensitive, PREFIXES);
+            StringPrefixMap<String>  expected = createExpected(caseSensitive, PREFIXES);
+            List<Runnable> tasks = new ArrayList<>();
+            for (int step = 0; step < 2000; step++) {
+                StringBuilder prefix = new StringBuilder();
+                int length = random.nextInt(4);
+                for (int i = 0; i < length; i++) {
+                    prefix.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+                int action = random.nextInt(20);
+                if (action < 10) {
+                    String value = "V" + step;
+                    assertEquals(expected.put(prefix.toString(), value), overlay.put(prefix.toString(), value));
+                } else if (action < 18) {
+                    assertEquals(expected.remove(prefix.toString()), overlay.remove(prefix.toString()));
+                } else if (action == 18) {
+                    overlay.compact(tasks::add);
+                } else if (!tasks.isEmpty()) {
+                    tasks.remove(random.nextInt(tasks.size())).run();
+                }
+                assertEquals(expected.size(), overlay.size());
+                for (String input : Arrays.asList("aBc", "你🖖a", "🖖🖖", "cc")) {
+                    assertEquals(expected.getLongestMatch(input),  overlay.getLongestMatch(input));
+                    assertEquals(expected.getShortestMatch(input), overlay.getShortestMatch(input));
+                }
+            }
+            tasks.forEach(Runnable::run);
+            verify(expected, overlay);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSerialization() throws IOException, ClassNotFoundException {
+        OverlayPrefixMap<String> overlay  = createWithBase(false, PREFIXES);
+        StringPrefixMap<String>  expected = createExpected(false, PREFIXES);
+        overlay.remove("ABC");
+        expected.remove("ABC");
+        overlay.put("New", "New");
+        expected.put("New", "New");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(overlay);
+        }
+        OverlayPrefixMap<String> result;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result = (OverlayPrefixMap<String>) in.readObject();
+        }
+        assertFalse(result.caseSensitive());
+        assertEquals(0, result.overlaySize());
+        verify(expected, result);
+
+        Kryo kryo = new Kryo();
+        StringPrefixMap.configureKryo(kryo);
+        Output output = new Output(1024, -1);
+        kryo.writeClassAndObject(output, overlay);
+        result = (OverlayPrefixMap<String>) kryo.readClassAndObject(new Input(output.toBytes()));
+        assertFalse(result.caseSensitive());
+        verify(expected, result);
+    }
+}
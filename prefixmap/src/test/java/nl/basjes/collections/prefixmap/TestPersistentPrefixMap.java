@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestPersistentPrefixMap {
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABX", "Bx", "GT-", "GT-I", "RM-10",
+        "你", "你好", "你好DE", "🖖", "🖖B", "ABC🖖", "ABC你EF");
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "ab", "ABCD", "abcdef", "abxyz", "bxy", "C", "gt-i8190N", "rm-1092",
+        "你好de", "你🖖", "🖖bcde", "aBc🖖eFgH", "abc你efg");
+
+    private PersistentPrefixMap<String> create(boolean caseSensitive, List<String> prefixes) {
+        PersistentPrefixMap<String> prefixMap = new PersistentPrefixMap<>(caseSensitive);
+        for (String prefix : prefixes) {
+            prefixMap = prefixMap.with(prefix, "Result " + prefix);
+        }
+        return prefixMap;
+    }
+
+    private void verify(StringPrefixMap<String> expected, PersistentPrefixMap<String> actual) {
+        assertEquals(expected.size(),     actual.size());
+        assertEquals(expected.entrySet(), actual.entrySet());
+        for (String input : INPUTS) {
+            int[] codePoints = input.codePoints().toArray();
+            assertEquals(expected.get(input),                   actual.get(input));
+            assertEquals(expected.containsKey(input),           actual.containsKey(input));
+            assertEquals(expected.getShortestMatch(input),      actual.getShortestMatch(input));
+            assertEquals(expected.getLongestMatch(input),       actual.getLongestMatch(input));
+            assertEquals(expected.getShortestMatch(codePoints), actual.getShortestMatch(codePoints));
+            assertEquals(expected.getLongestMatch(codePoints),  actual.getLongestMatch(codePoints));
+            assertEquals(expected.getLongestMatchLength(input), actual.getLongestMatchLength(input));
+            List<String> expectedAll = new ArrayList<>();
+            expected.getAllMatches(input).forEachRemaining(expectedAll::add);
+            List<String> actualAll = new ArrayList<>();
+            actual.getAllMatches(input).forEachRemaining(actualAll::add);
+            assertEquals(expectedAll, actualAll);
+        }
+    }
+
+    @Test
+    void testSameAsStringPrefixMap() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> expected = new StringPrefixMap<>(caseSensitive);
+            for (String prefix : PREFIXES) {
+                expected.put(prefix, "Result " + prefix);
+            }
+            verify(expected, create(caseSensitive, PREFIXES));
+
+            // Same result in a different order
+            List<String> reversed = new ArrayList<>(PREFIXES);
+            Collections.reverse(reversed);
+            verify(expected, create(caseSensitive, reversed));
+        }
+    }
+
+    @Test
+    void testVersionsAreIndependent() {
+        PersistentPrefixMap<String> version1 = create(false, PREFIXES);
+        PersistentPrefixMap<String> version2 = version1.with("ABCD", "Result ABCD").with("abc", "Replaced");
+        PersistentPrefixMap<String> version3 = version2.without("ABCD").without("GT-I").without("");
+
+        assertEquals(PREFIXES.size(),     version1.size());
+        assertEquals(PREFIXES.size() + 1, version2.size());
+        assertEquals(PREFIXES.size() - 2, version3.size());
+
+        assertEquals("Result ABC",  version1.getLongestMatch("abcdx"));
+        assertEquals("Result ABCD", version2.getLongestMatch("abcdx"));
+        assertEquals("Replaced",    version3.getLongestMatch("abcdx"));
+
+        assertEquals("Result GT-I", version1.getLongestMatch("GT-I9100"));
+        assertEquals("Result GT-I", version2.getLongestMatch("GT-I9100"));
+        assertEquals("Result GT-",  version3.getLongestMatch("GT-I9100"));
+
+        assertEquals("Result ",     version2.getShortestMatch("Nothing"));
+        assertNull(version3.getShortestMatch("Nothing"));
+
+        // Removing something that is not present gives the same version
+        assertSame(version3, version3.without("Does not exist"));
+        assertSame(version3, version3.without("ABCD"));
+    }
+
+    @Test
+    void testRemoveAll() {
+        PersistentPrefixMap<String> prefixMap = create(true, PREFIXES);
+        for (String prefix : PREFIXES) {
+            prefixMap = prefixMap.without(prefix);
+        }
+        assertTrue(prefixMap.isEmpty());
+        assertTrue(prefixMap.entrySet().isEmpty());
+        assertNull(prefixMap.getLongestMatch("ABCDEFG"));
+        assertEquals("Again", prefixMap.with("ABC", "Again").getLongestMatch("ABCDEFG"));
+    }
+
+    @Test
+    void testCannotModify() {
+        PersistentPrefixMap<String> prefixMap = create(true, PREFIXES);
+        assertThrows(UnsupportedOperationException.class, () -> prefixMap.put("X", "X"));
+        assertThrows(UnsupportedOperationException.class, () -> prefixMap.putAll(Collections.singletonMap("X", "X")));
+        assertThrows(UnsupportedOperationException.class, () -> prefixMap.remove("A"));
+        assertThrows(UnsupportedOperationException.class, prefixMap::clear);
+        assertThrows(NullPointerException.class, () -> prefixMap.with(null, "X"));
+        assertThrows(NullPointerException.class, () -> prefixMap.with("X", null));
+        assertEquals(PREFIXES.size() + 1, prefixMap.withAll(Collections.singletonMap("X", "Result X")).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSerialization() throws IOException, ClassNotFoundException {
+        PersistentPrefixMap<String> prefixMap = create(false, PREFIXES);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(prefixMap);
+        }
+        PersistentPrefixMap<String> result;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result = (PersistentPrefixMap<String>) in.readObject();
+        }
+        assertFalse(result.caseSensitive());
+        assertEquals(prefixMap.entrySet(), result.entrySet());
+        assertEquals("Result 你好DE", result.getLongestMatch("你好dex"));
+
+        Kryo kryo = new Kryo();
+        StringPrefixMap.configureKryo(kryo);
+        Output output = new Output(1024, -1);
+        kryo.writeClassAndObject(output, prefixMap);
+        result = (PersistentPrefixMap<String>) kryo.readClassAndObject(new Input(output.toBytes()));
+        assertEquals(prefixMap.entrySet(), result.entrySet());
+        assertEquals("Result 你好DE", result.getLongestMatch("你好dex"));
+    }
+}
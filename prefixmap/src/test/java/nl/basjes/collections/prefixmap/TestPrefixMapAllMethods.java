@@ -16,14 +16,19 @@
 
 package nl.basjes.collections.prefixmap;
 
+import nl.basjes.collections.MatchResult;
 import nl.basjes.collections.PrefixMap;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.PrimitiveIterator;
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -98,4 +103,151 @@ class TestPrefixMapAllMethods {
         );
     }
 
+    // Only implements the least possible (by delegating) so all other lookups use the default implementations.
+    private static final class MinimalPrefixMap implements PrefixMap<String> {
+        private final PrefixMap<String> delegate;
+
+        MinimalPrefixMap(PrefixMap<String> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public boolean containsPrefix(PrimitiveIterator.OfInt prefix) {
+            return delegate.containsPrefix(prefix);
+        }
+
+        @Override
+        public String put(String prefix, String value) {
+            return delegate.put(prefix, value);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return delegate.entrySet();
+        }
+
+        @Override
+        public String get(String prefix) {
+            return delegate.get(prefix);
+        }
+
+        @Override
+        public String getShortestMatch(PrimitiveIterator.OfInt input) {
+            return delegate.getShortestMatch(input);
+        }
+
+        @Override
+        public String getLongestMatch(PrimitiveIterator.OfInt input) {
+            return delegate.getLongestMatch(input);
+        }
+
+        @Override
+        public Iterator<String> getAllMatches(PrimitiveIterator.OfInt input) {
+            return delegate.getAllMatches(input);
+        }
+    }
+
+    @Test
+    void testDefaultMatchResults() {
+        PrefixMap<String> prefixMap = new StringPrefixMap<>(true);
+        prefixMap.put("",    "Empty");
+        prefixMap.put("A",   "A");
+        prefixMap.put("A🖖", "A Spock");
+        prefixMap.put("A🖖B", "A Spock B");
+        PrefixMap<String> minimal = new MinimalPrefixMap(prefixMap);
+
+        String[] inputs = {"", "A", "A🖖", "A🖖BC", "xA🖖B", "B"};
+        for (String input : inputs) {
+            for (int start = 0; start <= input.length(); start++) {
+                for (int end = start; end <= input.length(); end++) {
+                    String message = "Region [" + start + ", " + end + ") of '" + input + "'";
+                    assertEquals(prefixMap.getLongestMatch(input, start, end), minimal.getLongestMatch(input, start, end), message);
+                    assertEquals(toList(prefixMap.getAllMatchResults(input, start, end)),
+                        toList(minimal.getAllMatchResults(input, start, end)), message);
+
+                    MatchResult<String> expected = new MatchResult<>();
+                    MatchResult<String> actual = new MatchResult<>();
+                    assertEquals(prefixMap.getShortestMatch(input, start, end, expected),
+                        minimal.getShortestMatch(input, start, end, actual), message);
+                    assertEquals(expected, actual, message);
+                    assertEquals(prefixMap.getLongestMatch(input, start, end, expected),
+                        minimal.getLongestMatch(input, start, end, actual), message);
+                    assertEquals(expected, actual, message);
+                }
+            }
+            assertEquals(prefixMap.getShortestMatchLength(input), minimal.getShortestMatchLength(input));
+            assertEquals(prefixMap.getLongestMatchLength(input), minimal.getLongestMatchLength(input));
+        }
+        assertEquals(4, minimal.getLongestMatchLength("A🖖BC")); // The 🖖 is 2 chars
+    }
+
+    @Test
+    void testMatchResultsOfAllMaps() {
+        List<String> prefixes = Arrays.asList("", "A", "AB", "ABCD", "A🖖", "A🖖B", "🖖", "B", "BC", "你好", "你好DE");
+        String[] inputs = {"", "a", "AbCdE", "xA🖖B", "a🖖bc", "🖖🖖", "BCD", "你好dEF"};
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> prefixMap = new StringPrefixMap<>(caseSensitive);
+            PersistentPrefixMap<String> persistent = new PersistentPrefixMap<>(caseSensitive);
+            OverlayPrefixMap<String> overlay = new OverlayPrefixMap<>(caseSensitive);
+            List<PrefixMap<String>> maps = new ArrayList<>(Arrays.asList(
+                prefixMap, new StringPrefixMap<>(caseSensitive, true), new Utf8PrefixMap<>(caseSensitive),
+                new ConcurrentPrefixMap<>(caseSensitive), overlay));
+            for (String prefix : prefixes) {
+                for (PrefixMap<String> map : maps) {
+                    map.put(prefix, "Result " + prefix);
+                }
+                persistent = persistent.with(prefix, "Result " + prefix);
+            }
+            maps.add(persistent);
+            maps.add(prefixMap.freeze());
+            maps.add(prefixMap.freezeOffHeap());
+            PrefixMap<String> minimal = new MinimalPrefixMap(prefixMap);
+
+            for (PrefixMap<String> map : maps) {
+                for (String input : inputs) {
+                    for (int start = 0; start <= input.length(); start++) {
+                        for (int end = start; end <= input.length(); end++) {
+                            String message = map.getClass().getSimpleName() + " region [" + start + ", " + end + ") of '" + input + "'";
+                            assertEquals(toList(minimal.getAllMatchResults(input, start, end)),
+                                toList(map.getAllMatchResults(input, start, end)), message);
+                        }
+                    }
+                }
+            }
+
+            PrefixMap<String> asciiMap = new ASCIIPrefixMap<>(caseSensitive);
+            List<PrefixMap<String>> asciiMaps = new ArrayList<>(Arrays.asList(
+                asciiMap, new ASCIIPrefixMap<>(caseSensitive, true), new AdaptivePrefixMap<>(caseSensitive)));
+            for (String prefix : Arrays.asList("", "A", "AB", "ABCD", "B", "BC")) {
+                for (PrefixMap<String> map : asciiMaps) {
+                    map.put(prefix, "Result " + prefix);
+                }
+            }
+            asciiMaps.add(new DoubleArrayPrefixMap<>(caseSensitive, asciiMap));
+            PrefixMap<String> asciiMinimal = new MinimalPrefixMap(asciiMap);
+            for (PrefixMap<String> map : asciiMaps) {
+                for (String input : inputs) {
+                    for (int start = 0; start <= input.length(); start++) {
+                        for (int end = start; end <= input.length(); end++) {
+                            String message = map.getClass().getSimpleName() + " region [" + start + ", " + end + ") of '" + input + "'";
+                            assertEquals(toList(asciiMinimal.getAllMatchResults(input, start, end)),
+                                toList(map.getAllMatchResults(input, start, end)), message);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<MatchResult<String>> toList(Iterator<MatchResult<String>> iterator) {
+        List<MatchResult<String>> list = new ArrayList<>();
+        iterator.forEachRemaining(list::add);
+        return list;
+    }
+
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestPrefixMapBuilder {
+
+    private static final List<String> ASCII_PREFIXES = Arrays.asList(
+        "RM-10", "", "A", "ABCDE", "AB", "ABC", "ABCDEFG", "ABX", "B", "Bx", "GT-I", "GT-", "RM-", "gt-");
+
+    // In String (UTF-16) order the 🖖 comes before the ！ but in code point order it is after it.
+    private static final List<String> UNICODE_PREFIXES = Arrays.asList(
+        "你好DE", "你", "你好", "🖖", "！", "！🖖", "🖖B", "A🖖", "A！", "ÀÉÏ", "àéïx");
+
+    private static final List<String> INPUTS = Arrays.asList(
+        "", "a", "ab", "ABcd", "abcdefgh", "abxyz", "bxy", "gt-i8190N", "GT-x", "rm-1092", "C",
+        "你好de", "🖖b", "！🖖！", "a🖖", "a！x", "àéïxy", "ÀÉÏ");
+
+    private void verify(PrefixMap<String> expected, PrefixMap<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.entrySet(), actual.entrySet());
+        for (String input : INPUTS) {
+            assertEquals(expected.getShortestMatch(input), actual.getShortestMatch(input), "getShortestMatch(\"" + input + "\")");
+            assertEquals(expected.getLongestMatch(input),  actual.getLongestMatch(input),  "getLongestMatch(\"" + input + "\")");
+        }
+    }
+
+    private void verifyBuilder(StringPrefixMap<String> expected, StringPrefixMap.Builder<String> builder, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            expected.put(prefix, "Result " + prefix);
+            builder.put(prefix, "Result " + prefix);
+        }
+        StringPrefixMap<String> built = builder.build();
+        assertEquals(expected.getClass(), built.getClass());
+        verify(expected, built);
+        StringPrefixMap<String> builtParallel = builder.buildParallel();
+        assertEquals(expected.getClass(), builtParallel.getClass());
+        verify(expected, builtParallel);
+        verify(expected, builder.buildFrozen());
+        verify(expected.freeze(), builder.buildFrozen());
+        assertNotSame(built, builder.build());
+    }
+
+    @Test
+    void testAllBuilders() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            verifyBuilder(new StringPrefixMap<>(caseSensitive),   StringPrefixMap.builder(caseSensitive),   UNICODE_PREFIXES);
+            verifyBuilder(new StringPrefixMap<>(caseSensitive),   StringPrefixMap.builder(caseSensitive),   ASCII_PREFIXES);
+            verifyBuilder(new Utf8PrefixMap<>(caseSensitive),     Utf8PrefixMap.builder(caseSensitive),     UNICODE_PREFIXES);
+            verifyBuilder(new ASCIIPrefixMap<>(caseSensitive),    ASCIIPrefixMap.builder(caseSensitive),    ASCII_PREFIXES);
+            verifyBuilder(new AdaptivePrefixMap<>(caseSensitive), AdaptivePrefixMap.builder(caseSensitive), ASCII_PREFIXES);
+        }
+    }
+
+    @Test
+    void testParallelIsSameAsSequential() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String>         expected = new StringPrefixMap<>(caseSensitive);
+            StringPrefixMap.Builder<String> builder  = StringPrefixMap.builder(caseSensitive);
+            for (int i = 0; i < 20000; i++) {
+                String prefix = Integer.toString(i * 7919, 36) + (i % 3 == 0 ? "🖖" : "") + (i % 5 == 0 ? "Ä" : "");
+                expected.put(prefix, "Value " + i);
+                builder.put(prefix, "Value " + i);
+            }
+            StringPrefixMap<String> built = builder.buildParallel();
+            assertEquals(expected.entrySet(), built.entrySet());
+            assertEquals(builder.build().entrySet(), built.entrySet());
+            for (String prefix : expected.keySet()) {
+                String input = prefix.toUpperCase() + "xyz";
+                assertEquals(expected.getLongestMatch(input),  built.getLongestMatch(input));
+                assertEquals(expected.getShortestMatch(input), built.getShortestMatch(input));
+            }
+        }
+    }
+
+    // Case INsensitive prefixes where lower casing the whole String is not the same as lower casing every code point
+    // ("ΣΑΣ" becomes "σας", "İ" becomes "i̇") or where the upper case of a character is not that of its lower case.
+    // Each list only has characters that do not share their upper case with a character in another prefix.
+    private static final List<List<String>> CASE_PREFIXES = Arrays.asList(
+        Arrays.asList("ΣΑΣ", "İstanbul", "Straße", "ǅa", "\u212A", "\u2126mega", "x"),
+        Arrays.asList("ς", "ſ", "ΐ", "x"));
+
+    private static final List<String> CASE_INPUTS = Arrays.asList(
+        "ΣΑΣ", "σασ", "σας", "σαςx", "Σ", "σ", "ς", "İstanbul", "istanbul", "ISTANBUL", "İSTANBUL", "i\u0307stanbul",
+        "Straße", "STRASSE", "straße", "ǅa", "ǆa", "Ǆa", "\u212A", "k", "K", "\u2126mega", "ωmega", "Ωmega",
+        "ſ", "S", "s", "ΐ", "Ϊ́", "X");
+
+    @Test
+    void testCaseInsensitiveUnicodeIsSameAsPut() {
+        for (List<String> prefixes : CASE_PREFIXES) {
+            List<StringPrefixMap<String>>         expectedMaps = Arrays.asList(new StringPrefixMap<>(false), new Utf8PrefixMap<>(false));
+            List<StringPrefixMap.Builder<String>> builders     = Arrays.asList(StringPrefixMap.builder(false), Utf8PrefixMap.builder(false));
+            for (int i = 0; i < builders.size(); i++) {
+                StringPrefixMap<String>         expected = expectedMaps.get(i);
+                StringPrefixMap.Builder<String> builder  = builders.get(i);
+                for (String prefix : prefixes) {
+                    expected.put(prefix, "Result " + prefix);
+                    builder.put(prefix, "Result " + prefix);
+                }
+                FrozenPrefixMap<String> expectedFrozen = expected.freeze();
+                for (PrefixMap<String> actual : Arrays.<PrefixMap<String>>asList(builder.build(), builder.buildParallel(), builder.buildFrozen())) {
+                    PrefixMap<String> reference = actual instanceof FrozenPrefixMap ? expectedFrozen : expected;
+                    assertEquals(reference.size(),     actual.size());
+                    assertEquals(reference.entrySet(), actual.entrySet());
+                    for (String input : CASE_INPUTS) {
+                        String name = actual.getClass().getSimpleName() + " \"" + input + "\"";
+                        assertEquals(reference.get(input),              actual.get(input),              "get " + name);
+                        assertEquals(reference.getShortestMatch(input), actual.getShortestMatch(input), "getShortestMatch " + name);
+                        assertEquals(reference.getLongestMatch(input),  actual.getLongestMatch(input),  "getLongestMatch " + name);
+                    }
+                }
+            }
+        }
+
+        StringPrefixMap<String> built = StringPrefixMap.<String>builder(false).put("ΣΑΣ", "Sigma").put("İstanbul", "City").build();
+        assertEquals("Sigma", built.get("σασ"));
+        assertEquals(null,    built.get("σας"));
+        assertEquals("City",  built.get("istanbul"));
+        assertEquals("City",  built.get("İstanbul"));
+
+        StringPrefixMap<String> parallel = StringPrefixMap.<String>builder(false)
+            .put("ΣΑΣ", "Sigma").put("İstanbul", "City").put("ǅa", "Dz").put("x", "X").buildParallel();
+        assertEquals("Sigma", parallel.get("σασ"));
+        assertEquals(null,    parallel.get("σας"));
+        assertEquals("City",  parallel.get("İSTANBUL"));
+        assertEquals("Dz",    parallel.get("ǆa"));
+        assertEquals("Dz",    parallel.get("Ǆa"));
+    }
+
+    @Test
+    void testLastValueWins() {
+        StringPrefixMap.Builder<String> builder = StringPrefixMap.<String>builder(false)
+            .put("GT-", "First")
+            .put("RM-", "Nokia")
+            .put("gt-", "Second");
+        StringPrefixMap<String> map = builder.build();
+        assertEquals(2, map.size());
+        assertEquals("Second", map.getLongestMatch("GT-I8190"));
+        assertEquals("Second", builder.buildParallel().getLongestMatch("GT-I8190"));
+        assertEquals("Second", builder.buildFrozen().getLongestMatch("gt-i8190"));
+    }
+
+    @Test
+    void testEmptyAndInvalid() {
+        assertTrue(StringPrefixMap.<String>builder(true).build().isEmpty());
+        assertTrue(StringPrefixMap.<String>builder(true).buildFrozen().isEmpty());
+
+        StringPrefixMap.Builder<String> builder = ASCIIPrefixMap.builder(true);
+        assertThrows(IllegalArgumentException.class, () -> builder.put("你好", "Hello"));
+        assertThrows(NullPointerException.class,     () -> builder.put(null, "Null"));
+        assertThrows(NullPointerException.class,     () -> builder.put("Null", null));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestPrefixMaps {
+
+    private static final List<String> OLD_PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABCDE", "ABX", "Bx", "GT-", "GT-I", "RM-10",
+        "你", "你好", "你好DE", "🖖", "🖖B", "ABC🖖", "ABC你EF");
+
+    private static final List<String> NEW_PREFIXES = Arrays.asList(
+        "A", "AB", "ABCD", "ABCDE", "ABX", "Bx", "GT-", "GT-I9", "RM-10",
+        "你", "你好DE", "你好DEF", "🖖", "🖖B", "🖖🖖", "ABC你EF");
+
+    private static final List<String> CHANGED_PREFIXES = Arrays.asList("AB", "你", "🖖B");
+
+    private static Map<String, String> oldRules() {
+        Map<String, String> rules = new TreeMap<>();
+        OLD_PREFIXES.forEach(prefix -> rules.put(prefix, "Value " + prefix));
+        return rules;
+    }
+
+    private static Map<String, String> newRules() {
+        Map<String, String> rules = new TreeMap<>();
+        NEW_PREFIXES.forEach(prefix -> rules.put(prefix, "Value " + prefix));
+        CHANGED_PREFIXES.forEach(prefix -> rules.put(prefix, "Changed " + prefix));
+        return rules;
+    }
+
+    private static List<Function<Map<String, String>, PrefixMap<String>>> factories(boolean caseSensitive) {
+        List<Function<Map<String, String>, PrefixMap<String>>> factories = new ArrayList<>();
+        factories.add(rules -> {
+            StringPrefixMap<String> map = new StringPrefixMap<>(caseSensitive);
+            map.putAll(rules);
+            return map;
+        });
+        factories.add(rules -> StringPrefixMap.<String>builder(caseSensitive).putAll(rules).buildFrozen());
+        factories.add(rules -> new PersistentPrefixMap<String>(caseSensitive).withAll(rules));
+        factories.add(rules -> {
+            ConcurrentPrefixMap<String> map = new ConcurrentPrefixMap<>(caseSensitive);
+            map.putAll(rules);
+            return map;
+        });
+        factories.add(rules -> {
+            OverlayPrefixMap<String> map = new OverlayPrefixMap<>(caseSensitive);
+            map.putAll(rules);
+            return map;
+        });
+        return factories;
+    }
+
+    // The naive way: compare the entrySets.
+    private static void verifyDiff(PrefixMap<String> from, PrefixMap<String> to, PrefixMapDiff<String> diff) {
+        Map<String, String> fromMap = new TreeMap<>();
+        from.entrySet().forEach(entry -> fromMap.put(entry.getKey(), entry.getValue()));
+        Map<String, String> toMap = new TreeMap<>();
+        to.entrySet().forEach(entry -> toMap.put(entry.getKey(), entry.getValue()));
+
+        Map<String, String> added   = new TreeMap<>();
+        Map<String, String> removed = new TreeMap<>();
+        Map<String, String> changed = new TreeMap<>();
+        toMap.forEach((prefix, value) -> {
+            String oldValue = fromMap.get(prefix);
+            if (oldValue == null) {
+                added.put(prefix, value);
+            } else if (!oldValue.equals(value)) {
+                changed.put(prefix, value);
+            }
+        });
+        fromMap.forEach((prefix, value) -> {
+            if (!toMap.containsKey(prefix)) {
+                removed.put(prefix, value);
+            }
+        });
+        assertEquals(added,   diff.added());
+        assertEquals(removed, diff.removed());
+        assertEquals(changed, diff.changed());
+    }
+
+    @Test
+    void testDiffAllCombinations() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            for (Function<Map<String, String>, PrefixMap<String>> fromFactory : factories(caseSensitive)) {
+                for (Function<Map<String, String>, PrefixMap<String>> toFactory : factories(caseSensitive)) {
+                    PrefixMap<String> from = fromFactory.apply(oldRules());
+                    PrefixMap<String> to   = toFactory.apply(newRules());
+                    PrefixMapDiff<String> diff = PrefixMaps.diff(from, to);
+                    verifyDiff(from, to, diff);
+                    assertEquals(4, diff.added().size());
+                    assertEquals(5, diff.removed().size());
+                    assertEquals(3, diff.changed().size());
+                    assertTrue(PrefixMaps.diff(from, fromFactory.apply(oldRules())).isEmpty());
+                    assertTrue(PrefixMaps.diff(to, to).isEmpty());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDiffValuesWithSameHashCode() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        PrefixMap<String> from = StringPrefixMap.<String>builder(true).put("X", "Aa").buildFrozen();
+        PrefixMap<String> to   = StringPrefixMap.<String>builder(true).put("X", "BB").buildFrozen();
+        assertEquals("BB", PrefixMaps.diff(from, to).changed().get("X"));
+    }
+
+    @Test
+    void testDiffPersistentVersions() {
+        PersistentPrefixMap<String> base = new PersistentPrefixMap<String>(false).withAll(oldRules());
+        PersistentPrefixMap<String> next = base.with("GT-I9", "New").without("RM-10").with("AB", "Changed");
+        PrefixMapDiff<String> diff = PrefixMaps.diff(base, next);
+        verifyDiff(base, next, diff);
+        assertEquals("New",          diff.added().get("gt-i9"));
+        assertEquals("Value RM-10",  diff.removed().get("rm-10"));
+        assertEquals("Changed",      diff.changed().get("ab"));
+    }
+
+    @Test
+    void testMerge() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            Map<String, String> expected = new TreeMap<>();
+            for (Map.Entry<String, String> entry : oldRules().entrySet()) {
+                expected.put(caseSensitive ? entry.getKey() : entry.getKey().toLowerCase(), entry.getValue());
+            }
+            for (Map.Entry<String, String> entry : newRules().entrySet()) {
+                expected.merge(caseSensitive ? entry.getKey() : entry.getKey().toLowerCase(), entry.getValue(), (l, r) -> l + "|" + r);
+            }
+
+            for (Function<Map<String, String>, PrefixMap<String>> leftFactory : factories(caseSensitive)) {
+                for (Function<Map<String, String>, PrefixMap<String>> rightFactory : factories(caseSensitive)) {
+                    FrozenPrefixMap<String> merged = PrefixMaps.merge(
+                        leftFactory.apply(oldRules()), rightFactory.apply(newRules()), (l, r) -> l + "|" + r);
+                    assertEquals(expected.size(), merged.size());
+                    assertEquals(expected.entrySet(), merged.entrySet());
+                    assertEquals(caseSensitive ? "Value " : "Value ABCDE|Value ABCDE", merged.getLongestMatch("abcdef"));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testMergeVersionsReusesNodes() {
+        PersistentPrefixMap<String> left  = new PersistentPrefixMap<String>(true).withAll(oldRules());
+        PersistentPrefixMap<String> right = new PersistentPrefixMap<String>(true).withAll(newRules());
+        PersistentPrefixMap<String> merged = PrefixMaps.mergeVersions(left, right, (l, r) -> r);
+
+        FrozenPrefixMap<String> expected = PrefixMaps.merge(left, right, (l, r) -> r);
+        assertEquals(expected.size(),     merged.size());
+        assertEquals(expected.entrySet(), merged.entrySet());
+        assertEquals("Changed AB",        merged.getLongestMatch("ABZ"));
+
+        // The subtrees after "🖖🖖" and "你好DE" are only in the right map.
+        PersistentPrefixTrie.Node<String> mergedRoot = merged.prefixTrie().root();
+        int vulcan = "🖖".codePointAt(0);
+        assertSame(right.prefixTrie().root().getChild(vulcan).getChild(vulcan), mergedRoot.getChild(vulcan).getChild(vulcan));
+        assertSame(right.prefixTrie().root().getChild('你').getChild('好').getChild('D').getChild('E').getChild('F'),
+                   mergedRoot.getChild('你').getChild('好').getChild('D').getChild('E').getChild('F'));
+
+        // Merging with an older version of itself reuses all shared parts.
+        PersistentPrefixMap<String> next = left.with("New", "New");
+        PersistentPrefixMap<String> mergedVersions = PrefixMaps.mergeVersions(left, next, (l, r) -> r);
+        assertEquals(next.entrySet(), mergedVersions.entrySet());
+        assertSame(next.prefixTrie().root().getChild('A'), mergedVersions.prefixTrie().root().getChild('A'));
+
+        assertSame(left.prefixTrie().root(), PrefixMaps.mergeVersions(left, new PersistentPrefixMap<>(true), (l, r) -> r).prefixTrie().root());
+    }
+
+    @Test
+    void testMergeCallsResolverForSharedParts() {
+        PersistentPrefixMap<String> left  = new PersistentPrefixMap<String>(true).withAll(oldRules());
+        PersistentPrefixMap<String> right = left.with("New", "New");
+
+        // The result of merge does not depend on the type of the maps: the resolver is called for every common prefix.
+        FrozenPrefixMap<String> merged = PrefixMaps.merge(left, right, (l, r) -> l + r);
+        assertEquals("Value ABCValue ABC", merged.get("ABC"));
+        assertEquals("New",                merged.get("New"));
+        FrozenPrefixMap<String> frozenLeft  = StringPrefixMap.<String>builder(true).putAll(left).buildFrozen();
+        FrozenPrefixMap<String> frozenRight = StringPrefixMap.<String>builder(true).putAll(right).buildFrozen();
+        assertEquals(PrefixMaps.merge(frozenLeft, frozenRight, (l, r) -> l + r).entrySet(), merged.entrySet());
+
+        // mergeVersions keeps the values of the shared parts as they are.
+        assertEquals("Value ABC", PrefixMaps.mergeVersions(left, right, (l, r) -> l + r).get("ABC"));
+    }
+
+    @Test
+    void testRandomDiffAndMerge() {
+        Random random = new Random(42);
+        String[] alphabet = {"a", "B", "c", "你", "🖖"};
+        for (int round = 0; round < 50; round++) {
+            Map<String, String> leftRules  = new TreeMap<>();
+            Map<String, String> rightRules = new TreeMap<>();
+            for (int i = 0; i < 60; i++) {
+                StringBuilder prefix = new StringBuilder();
+                int length = random.nextInt(5);
+                for (int c = 0; c < length; c++) {
+                    prefix.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+                (random.nextBoolean() ? leftRules : rightRules).put(prefix.toString(), "V" + random.nextInt(3));
+            }
+            PrefixMap<String> left  = StringPrefixMap.<String>builder(false).putAll(leftRules).buildFrozen();
+            PrefixMap<String> right = new PersistentPrefixMap<String>(false).withAll(rightRules);
+            verifyDiff(left, right, PrefixMaps.diff(left, right));
+
+            Map<String, String> expected = new TreeMap<>();
+            left.entrySet().forEach(entry -> expected.put(entry.getKey(), entry.getValue()));
+            right.entrySet().forEach(entry -> expected.merge(entry.getKey(), entry.getValue(), (l, r) -> r));
+            assertEquals(expected.entrySet(), PrefixMaps.merge(left, right, (l, r) -> r).entrySet());
+        }
+    }
+
+    @Test
+    void testVeryDeepPrefix() {
+        // Diff and merge walk both tries at the same time which must not need a stack frame per character.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        String deepPrefix = sb.toString();
+        String halfPrefix = deepPrefix.substring(0, 25_000);
+
+        PersistentPrefixMap<String> oldVersion = new PersistentPrefixMap<String>(true).with(deepPrefix, "Deep");
+        PersistentPrefixMap<String> newVersion = oldVersion.with(halfPrefix, "Half").with(deepPrefix + "x", "Deeper");
+        FrozenPrefixMap<String> oldFrozen = StringPrefixMap.<String>builder(true).put(deepPrefix, "Deep").buildFrozen();
+        FrozenPrefixMap<String> newFrozen = StringPrefixMap.<String>builder(true)
+            .put(halfPrefix, "Half").put(deepPrefix + "x", "Deeper").buildFrozen();
+
+        for (PrefixMapDiff<String> diff : Arrays.asList(PrefixMaps.diff(oldVersion, newVersion), PrefixMaps.diff(oldFrozen, newFrozen))) {
+            assertEquals(Arrays.asList(halfPrefix, deepPrefix + "x"), new ArrayList<>(diff.added().keySet()));
+        }
+        assertEquals(Arrays.asList(deepPrefix), new ArrayList<>(PrefixMaps.diff(oldFrozen, newFrozen).removed().keySet()));
+
+        FrozenPrefixMap<String> merged = PrefixMaps.merge(oldFrozen, newFrozen, (oldValue, newValue) -> newValue);
+        assertEquals(3, merged.size());
+        assertEquals("Deep",   merged.getLongestMatch(deepPrefix));
+        assertEquals("Deeper", merged.getLongestMatch(deepPrefix + "xyz"));
+        assertEquals("Half",   merged.getShortestMatch(deepPrefix));
+    }
+
+    @Test
+    void testDifferentCaseSensitivity() {
+        PrefixMap<String> caseSensitive   = new StringPrefixMap<>(true);
+        PrefixMap<String> caseInsensitive = new StringPrefixMap<>(false);
+        assertThrows(IllegalArgumentException.class, () -> PrefixMaps.diff(caseSensitive, caseInsensitive));
+        assertThrows(IllegalArgumentException.class, () -> PrefixMaps.merge(caseSensitive, caseInsensitive, (l, r) -> r));
+    }
+}
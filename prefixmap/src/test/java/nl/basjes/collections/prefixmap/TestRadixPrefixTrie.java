@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestRadixPrefixTrie extends AbstractPrefixTrieTests {
+
+    @Override
+    PrefixTrie<String> createPrefixTrie(boolean caseSensitive) {
+        return new RadixPrefixTrie<>(caseSensitive);
+    }
+
+    @Test
+    void testEdgeSplitAndMerge() {
+        PrefixTrie<String> prefixLookup = createPrefixTrie(true);
+        prefixLookup.add("ABCDEF", "Result ABCDEF");
+        checkLongest(prefixLookup, "ABCDEFG", "Result ABCDEF");
+        checkLongest(prefixLookup, "ABCDE",   null);
+
+        // Split the edge in the middle
+        prefixLookup.add("ABCXYZ", "Result ABCXYZ");
+        checkLongest(prefixLookup, "ABCDEFG", "Result ABCDEF");
+        checkLongest(prefixLookup, "ABCXYZ",  "Result ABCXYZ");
+        checkLongest(prefixLookup, "ABC",     null);
+
+        // Put a value on an existing split point and create a new one inside an edge
+        prefixLookup.add("ABC",    "Result ABC");
+        prefixLookup.add("AB",     "Result AB");
+        checkLongest(prefixLookup, "ABCD",    "Result ABC");
+        checkLongest(prefixLookup, "ABX",     "Result AB");
+        checkShortest(prefixLookup, "ABCDEFG", "Result AB");
+        checkGetAllIterator(prefixLookup, "ABCDEFG", "Result AB", "Result ABC", "Result ABCDEF");
+
+        // Removing must merge the edges again without changing the results
+        assertEquals("Result ABC",    prefixLookup.remove("ABC"));
+        assertEquals("Result AB",     prefixLookup.remove("AB"));
+        assertEquals("Result ABCXYZ", prefixLookup.remove("ABCXYZ"));
+        checkLongest(prefixLookup, "ABCDEFG", "Result ABCDEF");
+        checkLongest(prefixLookup, "ABCXYZ",  null);
+        checkContains(prefixLookup, "ABC",    false);
+        checkContains(prefixLookup, "ABCDEF", true);
+
+        assertEquals("Result ABCDEF", prefixLookup.remove("ABCDEF"));
+        checkLongest(prefixLookup, "ABCDEFG", null);
+    }
+
+    @Test
+    void testVeryLongPrefix() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        String longPrefix = sb.toString();
+
+        PrefixTrie<String> prefixLookup = createPrefixTrie(false);
+        prefixLookup.add(longPrefix, "Long");
+        prefixLookup.add("abc", "Short");
+        checkLongest(prefixLookup, longPrefix + "Something", "Long");
+        checkShortest(prefixLookup, longPrefix, "Short");
+    }
+}
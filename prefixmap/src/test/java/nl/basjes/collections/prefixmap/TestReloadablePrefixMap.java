@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestReloadablePrefixMap {
+
+    private static Map<String, String> rules(String... prefixes) {
+        Map<String, String> rules = new HashMap<>();
+        for (String prefix : prefixes) {
+            rules.put(prefix, "Result " + prefix);
+        }
+        return rules;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void testReload() {
+        ReloadablePrefixMap<String> prefixMap = new ReloadablePrefixMap<>(false, Runnable::run);
+        assertTrue(prefixMap.isEmpty());
+        assertEquals(0, prefixMap.version());
+        assertNull(prefixMap.getLongestMatch("ABCD"));
+
+        PrefixMap<String> first = prefixMap.reload(rules("A", "AB", "ABC")).join();
+        assertSame(first, prefixMap.current());
+        assertTrue(first instanceof FrozenPrefixMap);
+        assertEquals(1, prefixMap.version());
+        assertTrue(prefixMap.lastBuildNanos() > 0);
+        assertEquals(3, prefixMap.size());
+        assertEquals("Result ABC", prefixMap.getLongestMatch("abcd"));
+        assertEquals("Result A",   prefixMap.getShortestMatch("abcd"));
+        assertEquals(3,            prefixMap.getLongestMatchLength("abcd"));
+        assertEquals("Result AB",  prefixMap.getLongestMatch(new int[]{'a', 'b', 'x'}));
+        assertEquals(rules("a", "ab", "abc").keySet(), prefixMap.keySet());
+
+        prefixMap.reload(() -> rules("X", "XY")).join();
+        assertEquals(2, prefixMap.version());
+        assertEquals(2, prefixMap.size());
+        assertNull(prefixMap.getLongestMatch("abcd"));
+        assertEquals("Result XY", prefixMap.getLongestMatch("xyz"));
+    }
+
+    @Test
+    void testCustomFactory() {
+        ReloadablePrefixMap<String> prefixMap = new ReloadablePrefixMap<>(
+            prefixes -> {
+                StringPrefixMap<String> map = new StringPrefixMap<>(true);
+                map.putAll(prefixes);
+                return map;
+            },
+            Runnable::run);
+        assertTrue(prefixMap.current() instanceof StringPrefixMap);
+        prefixMap.reload(rules("A", "AB")).join();
+        assertEquals("Result AB", prefixMap.getLongestMatch("ABC"));
+        assertNull(prefixMap.getLongestMatch("abc"));
+    }
+
+    @Test
+    void testOldVersionServedDuringReload() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ReloadablePrefixMap<String> prefixMap = new ReloadablePrefixMap<>(false, executor);
+            prefixMap.reload(rules("A", "AB")).join();
+            PrefixMap<String> oldVersion = prefixMap.current();
+
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch proceed = new CountDownLatch(1);
+            CompletableFuture<PrefixMap<String>> reload = prefixMap.reload(() -> {
+                started.countDown();
+                await(proceed);
+                return rules("A", "AB", "ABC");
+            });
+
+            await(started);
+            assertFalse(reload.isDone());
+            assertSame(oldVersion, prefixMap.current());
+            assertEquals(1, prefixMap.version());
+            assertEquals("Result AB", prefixMap.getLongestMatch("abcd"));
+
+            proceed.countDown();
+            PrefixMap<String> newVersion = reload.join();
+            assertSame(newVersion, prefixMap.current());
+            assertEquals(2, prefixMap.version());
+            assertEquals("Result ABC", prefixMap.getLongestMatch("abcd"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailedReloadKeepsOldVersion() {
+        ReloadablePrefixMap<String> prefixMap = new ReloadablePrefixMap<>(false, Runnable::run);
+        prefixMap.reload(rules("A", "AB")).join();
+        long buildNanos = prefixMap.lastBuildNanos();
+
+        CompletableFuture<PrefixMap<String>> reload = prefixMap.reload(() -> {
+            throw new IllegalStateException("Broken rule file");
+        });
+        CompletionException exception = assertThrows(CompletionException.class, reload::join);
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+
+        assertEquals(1,          prefixMap.version());
+        assertEquals(buildNanos, prefixMap.lastBuildNanos());
+        assertEquals("Result AB", prefixMap.getLongestMatch("abcd"));
+    }
+
+    @Test
+    void testLatestReloadWins() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ReloadablePrefixMap<String> prefixMap = new ReloadablePrefixMap<>(false, executor);
+
+            CountDownLatch proceed = new CountDownLatch(1);
+            CompletableFuture<PrefixMap<String>> slowOld = prefixMap.reload(() -> {
+                await(proceed);
+                return rules("OLD");
+            });
+            PrefixMap<String> newVersion = prefixMap.reload(rules("NEW")).join();
+            proceed.countDown();
+
+            // The older reload finished last but must not replace the newer version.
+            assertSame(newVersion, slowOld.join());
+            assertSame(newVersion, prefixMap.current());
+            assertEquals(1, prefixMap.version());
+            assertEquals("Result NEW", prefixMap.getLongestMatch("new"));
+            assertNull(prefixMap.getLongestMatch("old"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testReadOnly() {
+        ReloadablePrefixMap<String> prefixMap = new ReloadablePrefixMap<>(false, Runnable::run);
+        assertThrows(UnsupportedOperationException.class, () -> prefixMap.put("A", "A"));
+        assertThrows(UnsupportedOperationException.class, () -> prefixMap.putAll(rules("A")));
+        assertThrows(UnsupportedOperationException.class, () -> prefixMap.remove("A"));
+        assertThrows(UnsupportedOperationException.class, () -> prefixMap.remove((Object) "A"));
+        assertThrows(UnsupportedOperationException.class, prefixMap::clear);
+        assertThrows(NullPointerException.class, () -> prefixMap.reload((Map<String, String>) null));
+        assertEquals(Collections.emptySet(), prefixMap.entrySet());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSerializeCurrentVersion() throws IOException, ClassNotFoundException {
+        ReloadablePrefixMap<String> prefixMap = new ReloadablePrefixMap<>(false, Runnable::run);
+        prefixMap.reload(rules("A", "AB", "ABC")).join();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(prefixMap);
+        }
+        PrefixMap<String> result;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result = (PrefixMap<String>) in.readObject();
+        }
+        assertTrue(result instanceof FrozenPrefixMap);
+        assertEquals(prefixMap.entrySet(), result.entrySet());
+        assertEquals("Result ABC", result.getLongestMatch("abcd"));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestStringCompactKeysPrefixMap extends AbstractPrefixMapTests {
+
+    @Override
+    PrefixMap<String> createPrefixMap(boolean caseSensitive) {
+        return new StringPrefixMap<>(caseSensitive, false, true);
+    }
+
+    private static final List<String> PREFIXES = Arrays.asList(
+        "", "A", "AB", "ABC", "ABX", "Bx", "GT-I", "gt-", "你", "你好DE", "🖖", "！", "！🖖", "A🖖", "ÀÉÏ");
+
+    private void verifySameAsFull(StringPrefixMap<String> full, StringPrefixMap<String> compact) {
+        assertEquals(full.size(),     compact.size());
+        assertEquals(full.entrySet(), compact.entrySet());
+        assertEquals(compact.entrySet(), full.entrySet());
+        assertEquals(full.keySet(),   compact.keySet());
+        assertEquals(new ArrayList<>(full.values()).size(), new ArrayList<>(compact.values()).size());
+        assertEquals(new HashSet<>(full.values()), new HashSet<>(compact.values()));
+        for (Map.Entry<String, String> entry : full.entrySet()) {
+            assertTrue(compact.containsKey(entry.getKey()));
+            assertTrue(compact.containsValue(entry.getValue()));
+            assertTrue(compact.keySet().contains(entry.getKey()));
+            assertTrue(compact.entrySet().contains(entry));
+        }
+    }
+
+    @Test
+    void testViewsSameAsFullMap() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> full    = new StringPrefixMap<>(caseSensitive);
+            StringPrefixMap<String> compact = new StringPrefixMap<>(caseSensitive, false, true);
+            for (String prefix : PREFIXES) {
+                full.put(prefix, "Result " + prefix);
+                compact.put(prefix, "Result " + prefix);
+            }
+            verifySameAsFull(full, compact);
+
+            // Replacing a value does not change the size
+            full.put("abc", "Replaced");
+            compact.put("abc", "Replaced");
+            verifySameAsFull(full, compact);
+
+            full.remove("GT-I");
+            compact.remove("GT-I");
+            compact.remove("Does not exist");
+            verifySameAsFull(full, compact);
+            assertFalse(compact.containsKey("GT-I"));
+            assertFalse(compact.containsValue("Result GT-I"));
+
+            compact.clear();
+            assertTrue(compact.isEmpty());
+            assertTrue(compact.entrySet().isEmpty());
+        }
+    }
+
+    @Test
+    void testViewsWalkTheTrie() {
+        StringPrefixMap<String> compact = new StringPrefixMap<>(true, false, true);
+        for (String prefix : PREFIXES) {
+            compact.put(prefix, "Result " + prefix);
+        }
+        // In code point order ("！" is U+FF01 which is after the surrogate pair of "🖖" in the String order).
+        List<String> expected = new ArrayList<>(PREFIXES);
+        expected.sort((left, right) -> Arrays.compare(left.codePoints().toArray(), right.codePoints().toArray()));
+        assertEquals(expected, new ArrayList<>(compact.keySet()));
+
+        Iterator<Map.Entry<String, String>> entries = compact.entrySet().iterator();
+        assertEquals("", entries.next().getKey());
+        assertThrows(UnsupportedOperationException.class, entries::remove);
+        assertTrue(compact.containsValue("Result "));
+        assertTrue(compact.containsValue("Result ！🖖"));
+        assertFalse(compact.containsValue("Result ！！"));
+    }
+
+    @Test
+    void testAllCompactVariants() {
+        List<StringPrefixMap<String>> compactMaps = Arrays.asList(
+            new StringPrefixMap<>(false, true, true),
+            new ASCIIPrefixMap<>(false, false, true),
+            new ASCIIPrefixMap<>(false, true, true),
+            new Utf8PrefixMap<>(false, false, true),
+            new AdaptivePrefixMap<>(false, false, true));
+        for (StringPrefixMap<String> compact : compactMaps) {
+            StringPrefixMap<String> full = new StringPrefixMap<>(false);
+            for (String prefix : Arrays.asList("", "A", "AB", "ABC", "ABX", "Bx", "GT-I", "gt-", "RM-1")) {
+                full.put(prefix, "Result " + prefix);
+                compact.put(prefix, "Result " + prefix);
+            }
+            verifySameAsFull(full, compact);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testJavaSerialization() throws IOException, ClassNotFoundException {
+        StringPrefixMap<String> compact = new StringPrefixMap<>(false, false, true);
+        for (String prefix : PREFIXES) {
+            compact.put(prefix, "Result " + prefix);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(compact);
+        }
+        StringPrefixMap<String> result;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result = (StringPrefixMap<String>) in.readObject();
+        }
+        assertEquals(compact.entrySet(), result.entrySet());
+        assertEquals("Result 你好DE", result.getLongestMatch("你好dex"));
+    }
+}
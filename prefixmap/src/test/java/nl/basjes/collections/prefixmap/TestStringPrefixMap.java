@@ -20,6 +20,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -432,4 +438,83 @@ class TestStringPrefixMap extends AbstractPrefixMapTests {
         LOG.info("{}", foo.codePoints().count());
     }
 
+
+    @Test
+    void testRemoveAndCompact() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixMap<String> prefixMap = new StringPrefixMap<>(caseSensitive);
+            StringPrefixMap<String> expected  = new StringPrefixMap<>(caseSensitive);
+            for (int i = 0; i < 1000; i++) {
+                prefixMap.put("Prefix" + Integer.toString(i * 7919, 36), "Value " + i);
+                if (i % 10 == 0) {
+                    expected.put("Prefix" + Integer.toString(i * 7919, 36), "Value " + i);
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                if (i % 10 != 0) {
+                    assertEquals("Value " + i, prefixMap.remove("Prefix" + Integer.toString(i * 7919, 36)));
+                }
+            }
+            StringPrefixTrie<String> trie = (StringPrefixTrie<String>) prefixMap.prefixTrie();
+            StringPrefixTrie<String> expectedTrie = (StringPrefixTrie<String>) expected.prefixTrie();
+            // Removing already pruned all nodes that are no longer needed
+            assertEquals(expectedTrie.nodeCount(), trie.nodeCount());
+
+            prefixMap.compact();
+            assertEquals(expectedTrie.nodeCount(), trie.nodeCount());
+            assertEquals(expected.size(), prefixMap.size());
+            assertEquals(expected.entrySet(), prefixMap.entrySet());
+            for (String prefix : expected.keySet()) {
+                assertEquals(expected.getLongestMatch(prefix + "x"), prefixMap.getLongestMatch(prefix + "x"));
+                if (!caseSensitive) {
+                    assertEquals(expected.getLongestMatch(prefix + "x"), prefixMap.getLongestMatch(prefix.toUpperCase() + "x"));
+                }
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCompactKeepsCaseLinks() throws IOException, ClassNotFoundException {
+        // "İ" only links "i" and "İ" (not "I") and "Σ" is the upper case of both "σ" and "ς".
+        String[] inputs = {"İx", "ix", "Ix", "ıx", "σa", "ςb", "Σa", "Σb", "ΣB", "σb", "ςa"};
+        for (StringPrefixMap<String> prefixMap : Arrays.asList(
+            new StringPrefixMap<String>(false), new StringPrefixMap<String>(false, false, true), new Utf8PrefixMap<String>(false))) {
+            prefixMap.put("İx", "Dotted I");
+            prefixMap.put("σa", "Sigma");
+            prefixMap.put("ςb", "Final sigma");
+            Map<String, String> expected = new HashMap<>();
+            for (String input : inputs) {
+                expected.put(input, prefixMap.get(input));
+            }
+            assertEquals("Dotted I", expected.get("İx"));
+
+            prefixMap.compact();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(prefixMap);
+            }
+            StringPrefixMap<String> deserialized;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                deserialized = (StringPrefixMap<String>) in.readObject();
+            }
+            for (String input : inputs) {
+                assertEquals(expected.get(input), prefixMap.get(input),    input);
+                assertEquals(expected.get(input), deserialized.get(input), input);
+            }
+            assertEquals(3, prefixMap.size());
+            assertEquals(3, deserialized.size());
+        }
+    }
+
+    @Test
+    void testCompactRadix() {
+        StringPrefixMap<String> prefixMap = new StringPrefixMap<>(false, true);
+        prefixMap.put("ABCDEF", "Result ABCDEF");
+        prefixMap.put("ABC",    "Result ABC");
+        prefixMap.remove("ABC");
+        prefixMap.compact();
+        assertEquals(1, prefixMap.size());
+        assertEquals("Result ABCDEF", prefixMap.getLongestMatch("abcdefg"));
+    }
 }
@@ -19,7 +19,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 class TestStringPrefixTrie extends AbstractPrefixTrieTests {
 
@@ -420,4 +424,96 @@ class TestStringPrefixTrie extends AbstractPrefixTrieTests {
         LOG.info("{}", prefixLookup);
     }
 
+    @Test
+    void testLargeFanOut() {
+        // Far more children than fit in the sorted array so the hash table is used (and grown).
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            PrefixTrie<String> prefixLookup = new StringPrefixTrie<>(caseSensitive);
+            List<String> prefixes = new ArrayList<>();
+            for (int codePoint = 0x4E00; codePoint < 0x4E00 + 600; codePoint++) { // Chinese has no case
+                prefixes.add(new String(Character.toChars(codePoint)) + "X");
+            }
+            prefixes.add("AX");
+            prefixes.add("ÀX");
+            prefixes.add("🖖");
+            prefixes.add("\uD83D\uDE00"); // 😀
+            for (String prefix : prefixes) {
+                prefixLookup.add(prefix, "Result " + prefix);
+            }
+            for (String prefix : prefixes) {
+                assertEquals("Result " + prefix, prefixLookup.get(prefix));
+                assertEquals("Result " + prefix, prefixLookup.getLongestMatch(prefix + "Something"));
+            }
+            assertNull(prefixLookup.get("\u2000X"));
+            assertNull(prefixLookup.get("\u4E00"));
+            assertNull(prefixLookup.getLongestMatch("ZZ"));
+
+            if (!caseSensitive) {
+                assertEquals("Result AX", prefixLookup.getLongestMatch("ax"));
+                assertEquals("Result ÀX", prefixLookup.getLongestMatch("àX"));
+            }
+
+            // The walk over all prefixes is still in code point order
+            List<Integer> firstChars = new ArrayList<>();
+            prefixLookup.forEachPrefix((prefix, length, value) -> firstChars.add(prefix[0]));
+            for (int i = 1; i < firstChars.size(); i++) {
+                assertEquals(true, firstChars.get(i - 1) < firstChars.get(i), "Out of order at " + i);
+            }
+        }
+    }
+
+    @Test
+    void testRemovePrunesEmptyNodes() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            StringPrefixTrie<String> prefixLookup = new StringPrefixTrie<>(caseSensitive);
+            prefixLookup.add("ABCDEF", "Result ABCDEF");
+            prefixLookup.add("AB",     "Result AB");
+            assertEquals(7, prefixLookup.nodeCount());
+
+            assertEquals("Result ABCDEF", prefixLookup.remove("ABCDEF"));
+            assertEquals(3, prefixLookup.nodeCount());
+            assertEquals("Result AB", prefixLookup.getLongestMatch("ABCDEF"));
+
+            assertNull(prefixLookup.remove("ABC"));
+            assertEquals(3, prefixLookup.nodeCount());
+
+            assertEquals("Result AB", prefixLookup.remove("AB"));
+            assertEquals(1, prefixLookup.nodeCount());
+
+            // Enough children to use a hash table, removing them goes back to a sorted array
+            for (int i = 0; i < 40; i++) {
+                prefixLookup.add(new String(Character.toChars(0x4E00 + i)) + "🖖", "Result " + i);
+            }
+            assertEquals(81, prefixLookup.nodeCount());
+            for (int i = 1; i < 40; i++) {
+                assertEquals("Result " + i, prefixLookup.remove(new String(Character.toChars(0x4E00 + i)) + "🖖"));
+            }
+            assertEquals(3, prefixLookup.nodeCount());
+            assertEquals("Result 0", prefixLookup.getLongestMatch("\u4E00🖖🖖"));
+            assertEquals("Result 0", prefixLookup.remove("\u4E00🖖"));
+            assertEquals(1, prefixLookup.nodeCount());
+
+            // Adding after pruning works as before
+            prefixLookup.add("ABCDEF", "Result ABCDEF again");
+            assertEquals("Result ABCDEF again", prefixLookup.getLongestMatch("ABCDEFG"));
+        }
+    }
+
+    @Test
+    void testRemovePrunesAllCaseLinks() {
+        StringPrefixTrie<String> prefixLookup = new StringPrefixTrie<>(false);
+        // The Kelvin sign has 'k' as lower case but is its own upper case.
+        prefixLookup.add("\u212Ax", "Kelvin");
+        prefixLookup.add("Kx",       "K");
+        prefixLookup.add("Z",        "Z");
+        assertEquals("K", prefixLookup.get("\u212Ax"));
+        assertEquals("K", prefixLookup.remove("kx"));
+        assertEquals(2, prefixLookup.nodeCount());
+        assertNull(prefixLookup.get("\u212Ax"));
+        assertNull(prefixLookup.get("Kx"));
+
+        prefixLookup.add("\u212Ax", "Kelvin");
+        assertEquals("Kelvin", prefixLookup.get("kX"));
+        assertEquals("Kelvin", prefixLookup.get("\u212AX"));
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TestStringRadixPrefixMap extends AbstractPrefixMapTests {
+
+    @Override
+    PrefixMap<String> createPrefixMap(boolean caseSensitive) {
+        return new StringPrefixMap<>(caseSensitive, true);
+    }
+
+    @Test
+    void testCaseNonASCIIIterator() {
+        PrefixMap<String> prefixLookup = createPrefixMap(false);
+        prefixLookup.put("",         "Empty");
+        prefixLookup.put("你",       "One Chinese 'letter'");
+        prefixLookup.put("你好",      "Hello in Chinese");
+        prefixLookup.put("你好DE",    "Chinese DE");
+        prefixLookup.put("🖖",       "Result 🖖");
+        prefixLookup.put("🖖B",       "Result 🖖B");
+        prefixLookup.put("A",        "Result A");
+        prefixLookup.put("ABC",      "Result ABC");
+        prefixLookup.put("ABCDE",    "Result ABCDE");
+        prefixLookup.put("ABCDEFG",  "Result ABCDEFG");
+        prefixLookup.put("ABC🖖",    "Result ABC🖖");
+        prefixLookup.put("ABC🖖EF",  "Result ABC🖖EF");
+        prefixLookup.put("ABC你",     "Result ABC你");
+        prefixLookup.put("ABC你EF",  "Result ABC你EF");
+
+        checkGetAllIterator(prefixLookup, "",           "Empty");
+        checkGetAllIterator(prefixLookup, "aB",         "Empty", "Result A");
+        checkGetAllIterator(prefixLookup, "aBc",        "Empty", "Result A", "Result ABC");
+        checkGetAllIterator(prefixLookup, "aBc🖖",       "Empty", "Result A", "Result ABC", "Result ABC🖖");
+        checkGetAllIterator(prefixLookup, "aBc🖖e",       "Empty", "Result A", "Result ABC", "Result ABC🖖");
+        checkGetAllIterator(prefixLookup, "aBc🖖eF",     "Empty", "Result A", "Result ABC", "Result ABC🖖", "Result ABC🖖EF");
+        checkGetAllIterator(prefixLookup, "aBc🖖eFgH",   "Empty", "Result A", "Result ABC", "Result ABC🖖", "Result ABC🖖EF");
+
+        checkGetAllIterator(prefixLookup, "🖖",          "Empty", "Result 🖖");
+        checkGetAllIterator(prefixLookup, "🖖BcDe",      "Empty", "Result 🖖", "Result 🖖B");
+
+        checkGetAllIterator(prefixLookup, "你好",          "Empty", "One Chinese 'letter'", "Hello in Chinese");
+        checkGetAllIterator(prefixLookup, "你好DeF",       "Empty", "One Chinese 'letter'", "Hello in Chinese", "Chinese DE");
+        checkGetAllIterator(prefixLookup, "你🖖DeFg",      "Empty", "One Chinese 'letter'");
+
+        checkLongest(prefixLookup,  "abc你eFgH", "Result ABC你EF");
+        checkLongest(prefixLookup,  "abc你e",    "Result ABC你");
+        checkShortest(prefixLookup, "abc你e",    "Empty");
+        checkContains(prefixLookup, "abc🖖e",    false);
+        checkContains(prefixLookup, "abc🖖eF",   true);
+    }
+
+    @Test
+    void testCaseInsensitiveUnicode() {
+        // Characters with a simple upper/lower case pair match the same as the non compressed trie.
+        PrefixMap<String> radix = createPrefixMap(false);
+        PrefixMap<String> plain = new StringPrefixMap<>(false, false);
+        for (String prefix : new String[]{"ΣΑΣ", "Straße", "Ωmega", "İstanbul", "ü"}) {
+            radix.put(prefix, "Result " + prefix);
+            plain.put(prefix, "Result " + prefix);
+        }
+        for (String input : new String[]{"σασ", "ΣΑΣ", "σας", "STRAßE", "straße", "ωMEGA", "istanbul", "İSTANBUL", "Ü", "ü"}) {
+            assertEquals(plain.get(input),            radix.get(input),            "get(\"" + input + "\")");
+            assertEquals(plain.getLongestMatch(input), radix.getLongestMatch(input), "getLongestMatch(\"" + input + "\")");
+        }
+
+        // Characters without a simple pair match via their lower case (like a FrozenPrefixMap).
+        radix = createPrefixMap(false);
+        plain = new StringPrefixMap<>(false, false);
+        for (String prefix : new String[]{"ς", "ſ", "ǅa"}) {
+            radix.put(prefix, "Result " + prefix);
+            plain.put(prefix, "Result " + prefix);
+        }
+        assertEquals("Result ς",  radix.get("ς"));
+        assertEquals("Result ſ",  radix.get("ſ"));
+        assertEquals("Result ǅa", radix.get("ǆa"));
+        assertEquals("Result ǅa", radix.get("Ǆa"));
+        assertNull(radix.get("Σ"));
+        assertNull(radix.get("S"));
+        assertEquals("Result ǅa", radix.get("ǅa"));
+
+        assertEquals("Result ς",  plain.get("Σ"));
+        assertEquals("Result ſ",  plain.get("S"));
+        assertNull(plain.get("ǅa"));
+    }
+
+}
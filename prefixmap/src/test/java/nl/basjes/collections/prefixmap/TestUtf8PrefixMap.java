@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import nl.basjes.collections.PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestUtf8PrefixMap extends AbstractPrefixMapTests {
+
+    @Override
+    PrefixMap<String> createPrefixMap(boolean caseSensitive) {
+        return new Utf8PrefixMap<>(caseSensitive);
+    }
+
+    private static final String[] PREFIXES = {
+        "", "A", "AB", "ABC", "GT-", "GT-I", "Nokia", "é", "École", "ÉCOLE X", "你", "你好", "🖖", "A🖖B", "Straße", "ΣΊΣΥΦΟΣ"};
+
+    private static final String[] INPUTS = {
+        "", "a", "ab", "ABCD", "gt-i8190", "GT-N7100", "nokia 3310", "É", "école normale", "ÉCOLE", "école x",
+        "你好吗", "🖖 Spock", "a🖖b", "a🖖", "STRASSE", "straße 1", "Σίσυφος", "σίσυφοσ", "€", "\t"};
+
+    private static void checkBytes(Utf8PrefixMap<String> prefixMap, String input) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+
+        // The input with some extra bytes around it.
+        byte[] padded = new byte[bytes.length + 4];
+        padded[0] = 'X';
+        padded[1] = (byte) 0xC3;
+        System.arraycopy(bytes, 0, padded, 2, bytes.length);
+        padded[padded.length - 2] = (byte) 0xFF;
+        padded[padded.length - 1] = 'Y';
+
+        ByteBuffer heap = ByteBuffer.wrap(padded, 2, bytes.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+        direct.put(padded);
+        direct.position(2).limit(2 + bytes.length);
+
+        String shortest = prefixMap.getShortestMatch(input);
+        String message = "Input \"" + input + "\"";
+        assertEquals(shortest, prefixMap.getShortestMatch(bytes), message);
+        assertEquals(shortest, prefixMap.getShortestMatch(padded, 2, bytes.length), message);
+        assertEquals(shortest, prefixMap.getShortestMatch(heap), message);
+        assertEquals(shortest, prefixMap.getShortestMatch(direct), message);
+
+        String longest = prefixMap.getLongestMatch(input);
+        assertEquals(longest, prefixMap.getLongestMatch(bytes), message);
+        assertEquals(longest, prefixMap.getLongestMatch(padded, 2, bytes.length), message);
+        assertEquals(longest, prefixMap.getLongestMatch(heap), message);
+        assertEquals(longest, prefixMap.getLongestMatch(direct), message);
+
+        boolean contains = prefixMap.containsPrefix(input);
+        assertEquals(contains, prefixMap.containsPrefix(bytes), message);
+        assertEquals(contains, prefixMap.containsPrefix(padded, 2, bytes.length), message);
+        assertEquals(contains, prefixMap.containsPrefix(heap), message);
+        assertEquals(contains, prefixMap.containsPrefix(direct), message);
+
+        List<String> all = toList(prefixMap.getAllMatches(input));
+        assertEquals(all, toList(prefixMap.getAllMatches(bytes)), message);
+        assertEquals(all, toList(prefixMap.getAllMatches(padded, 2, bytes.length)), message);
+        assertEquals(all, toList(prefixMap.getAllMatches(heap)), message);
+        assertEquals(all, toList(prefixMap.getAllMatches(direct)), message);
+
+        // The lookups must not change the buffers
+        assertEquals(2, heap.position());
+        assertEquals(2, direct.position());
+        assertEquals(2 + bytes.length, direct.limit());
+    }
+
+    private static List<String> toList(Iterator<String> iterator) {
+        List<String> result = new ArrayList<>();
+        iterator.forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    void testBytesSameAsString() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            Utf8PrefixMap<String> prefixMap = new Utf8PrefixMap<>(caseSensitive);
+            for (String prefix : PREFIXES) {
+                prefixMap.put(prefix, "Result " + prefix);
+            }
+            for (String input : INPUTS) {
+                checkBytes(prefixMap, input);
+            }
+            for (String prefix : PREFIXES) {
+                checkBytes(prefixMap, prefix);
+            }
+        }
+    }
+
+    @Test
+    void testSameAsStringPrefixMap() {
+        for (boolean caseSensitive : new boolean[]{true, false}) {
+            Utf8PrefixMap<String> utf8PrefixMap = new Utf8PrefixMap<>(caseSensitive);
+            StringPrefixMap<String> stringPrefixMap = new StringPrefixMap<>(caseSensitive);
+            for (String prefix : PREFIXES) {
+                utf8PrefixMap.put(prefix, "Result " + prefix);
+                stringPrefixMap.put(prefix, "Result " + prefix);
+            }
+            assertEquals(stringPrefixMap.entrySet(), utf8PrefixMap.entrySet());
+            assertEquals(stringPrefixMap.freeze().entrySet(), utf8PrefixMap.freeze().entrySet());
+            for (String input : INPUTS) {
+                String message = "Input \"" + input + "\" (caseSensitive=" + caseSensitive + ")";
+                assertEquals(stringPrefixMap.getShortestMatch(input), utf8PrefixMap.getShortestMatch(input), message);
+                assertEquals(stringPrefixMap.getLongestMatch(input),  utf8PrefixMap.getLongestMatch(input),  message);
+                assertEquals(stringPrefixMap.containsPrefix(input),   utf8PrefixMap.containsPrefix(input),   message);
+                assertEquals(toList(stringPrefixMap.getAllMatches(input)), toList(utf8PrefixMap.getAllMatches(input)), message);
+            }
+        }
+    }
+
+    @Test
+    void testCaseInsensitiveBytes() {
+        Utf8PrefixMap<String> prefixMap = new Utf8PrefixMap<>(false);
+        prefixMap.put("GT-I", "Samsung");
+        prefixMap.put("École", "School");
+
+        assertEquals("Samsung", prefixMap.getLongestMatch("gt-i9300".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("School",  prefixMap.getLongestMatch("ÉCOLE normale".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("School",  prefixMap.getLongestMatch("école".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(prefixMap.containsPrefix("ÉcOlE".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(prefixMap.containsPrefix("Ecole".getBytes(StandardCharsets.UTF_8)));
+
+        // Invalid UTF-8 simply does not match
+        assertEquals("Samsung", prefixMap.getLongestMatch(new byte[]{'G', 'T', '-', 'I', (byte) 0xFF}));
+        assertEquals(null, prefixMap.getLongestMatch(new byte[]{(byte) 0xC3}));
+    }
+
+    @Test
+    void testByteRangeOutOfBounds() {
+        Utf8PrefixMap<String> prefixMap = new Utf8PrefixMap<>(true);
+        prefixMap.put("Bar", "Bar");
+        byte[] input = "FooBar".getBytes(StandardCharsets.UTF_8);
+        assertEquals("Bar", prefixMap.getLongestMatch(input, 3, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixMap.getLongestMatch(input, -1, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixMap.getShortestMatch(input, 4, -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixMap.containsPrefix(input, 3, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> prefixMap.getAllMatches(input, 7, 0));
+        assertThrows(NullPointerException.class, () -> prefixMap.getLongestMatch((ByteBuffer) null));
+    }
+}
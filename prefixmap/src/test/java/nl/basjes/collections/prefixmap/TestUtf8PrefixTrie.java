@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestUtf8PrefixTrie extends AbstractPrefixTrieTests {
+
+    @Override
+    PrefixTrie<String> createPrefixTrie(boolean caseSensitive) {
+        return new Utf8PrefixTrie<>(caseSensitive);
+    }
+
+    @Test
+    void testUtf8Encoding() {
+        String[] samples = {"A", "~", "\u007F", "\u0080", "é", "߿", "ࠀ", "€", "你", "￿", "🖖", "􏿿"};
+        for (String sample : samples) {
+            int codePoint = sample.codePointAt(0);
+            int length = Utf8PrefixTrie.utf8Length(codePoint);
+            byte[] bytes = new byte[length];
+            for (int position = 0; position < length; position++) {
+                bytes[position] = (byte) Utf8PrefixTrie.utf8Byte(codePoint, length, position);
+            }
+            assertArrayEquals(sample.getBytes(StandardCharsets.UTF_8), bytes, "UTF-8 of " + sample);
+        }
+        assertEquals(-1, Utf8PrefixTrie.utf8Length(-1));
+        assertEquals(-1, Utf8PrefixTrie.utf8Length(Character.MAX_CODE_POINT + 1));
+    }
+
+    @Test
+    void testInvalidCodePoint() {
+        Utf8PrefixTrie<String> prefixLookup = new Utf8PrefixTrie<>(true);
+        assertThrows(IllegalArgumentException.class, () -> prefixLookup.add(IntStream.of('A', -1).iterator(), "Invalid"));
+        prefixLookup.add("A", "Result A");
+        assertEquals("Result A", prefixLookup.getLongestMatch(new int[]{'A', -1, 0x110000}, 0, 3));
+        assertNull(prefixLookup.get(new int[]{0x110000}, 0, 1));
+    }
+
+    @Test
+    void testNodeGrowth() {
+        Utf8PrefixTrie<String> prefixLookup = new Utf8PrefixTrie<>(true);
+        // Add the children in a 'random' order so the sorted insert is also tested.
+        for (int i = 0; i < 64; i++) {
+            char myChar = (char) ('0' + ((i * 37) % 64));
+            prefixLookup.add("x" + myChar, "Result " + myChar);
+
+            int childCount = i + 1;
+            int expectedCapacity = childCount <= 4 ? 4 : childCount <= 8 ? 8 : childCount <= 16 ? 16 : 256;
+            assertEquals(expectedCapacity, prefixLookup.nodeCapacity(new byte[]{'x'}), "After " + childCount + " children");
+
+            // All previously added children must still be there
+            for (int j = 0; j <= i; j++) {
+                char checkChar = (char) ('0' + ((j * 37) % 64));
+                checkLongest(prefixLookup, "x" + checkChar + "Something", "Result " + checkChar);
+            }
+        }
+        assertEquals(0, prefixLookup.nodeCapacity(new byte[]{'x', '0'}));
+
+        // Multi byte characters share the nodes of the common lead bytes.
+        prefixLookup.add("é", "Result é");
+        prefixLookup.add("ë", "Result ë");
+        assertEquals(4, prefixLookup.nodeCapacity(new byte[]{(byte) 0xC3}));
+        checkLongest(prefixLookup, "ée", "Result é");
+        checkLongest(prefixLookup, "ëe", "Result ë");
+        checkLongest(prefixLookup, "ê",  null);
+    }
+}
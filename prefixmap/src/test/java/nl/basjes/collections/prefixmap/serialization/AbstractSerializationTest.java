@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -70,6 +71,55 @@ public abstract class AbstractSerializationTest {
         LOG.info("Ok");
     }
 
+    // Prefixes that share only a part of a surrogate pair must survive the front coded serialized form.
+    private static final String[] UNICODE_PREFIXES = {
+        "", "a", "a\uD83D\uDD96", "a\uD83D\uDD97", "a\uD83D\uDD97b", "\uD83D\uDD96", "\uD83D\uDD97", "\uD83D\uDD97\uD83D\uDD96",
+        "\u4F60", "\u4F60\u597D", "\u4F60\u597DDE", "\u00C0\u00E9\u00EF", "\u00C0\u00E9\u00EFx" };
+
+    public void serializeAndDeserializeUnicode() throws IOException, ClassNotFoundException {
+        PrefixMap<String> prefixMapBefore = createInstance();
+        for (String prefix : UNICODE_PREFIXES) {
+            prefixMapBefore.put(prefix, "Value " + prefix);
+        }
+        PrefixMap<String> prefixMapAfter = deserialize(serialize(prefixMapBefore));
+        assertEquals(UNICODE_PREFIXES.length, prefixMapAfter.size());
+        assertEquals(prefixMapBefore.keySet(), prefixMapAfter.keySet());
+        for (String prefix : UNICODE_PREFIXES) {
+            assertEquals("Value " + prefix, prefixMapAfter.get(prefix));
+            assertEquals("Value " + prefix, prefixMapAfter.getLongestMatch(prefix));
+            assertEquals("Value " + prefix, prefixMapAfter.getLongestMatch(prefix.toUpperCase() + "\u0000"));
+        }
+    }
+
+    // Which case variants of a prefix match depends on the case in which it was put ("İ" matches "i" but not "I")
+    // and on the order ("Σ" is the upper case of both "σ" and "ς").
+    private static final String[] CASE_INPUTS = {
+        "σασ", "ΣΑΣ", "σας", "İstanbul", "istanbul", "Istanbul", "ISTANBUL", "İSTANBUL", "σx", "Σx", "ςx", "σy", "Σy", "ςy" };
+
+    public void serializeAndDeserializeCaseLinks() throws IOException, ClassNotFoundException {
+        PrefixMap<String> words = createInstance();
+        words.put("ΣΑΣ", "Sigma");
+        words.put("İstanbul", "Istanbul");
+        PrefixMap<String> sigmas = createInstance();
+        sigmas.put("σx", "Sigma");
+        sigmas.put("ςy", "Final sigma");
+
+        for (PrefixMap<String> prefixMapBefore : Arrays.asList(words, sigmas)) {
+            PrefixMap<String> prefixMapAfter = deserialize(serialize(prefixMapBefore));
+            assertEquals(prefixMapBefore.keySet(), prefixMapAfter.keySet());
+            for (String input : CASE_INPUTS) {
+                assertEquals(prefixMapBefore.get(input), prefixMapAfter.get(input), input);
+                assertEquals(prefixMapBefore.getLongestMatch(input + "z"), prefixMapAfter.getLongestMatch(input + "z"), input);
+            }
+        }
+
+        PrefixMap<String> prefixMapAfter = deserialize(serialize(words));
+        assertEquals("Sigma",    prefixMapAfter.get("σασ"));
+        assertEquals("Istanbul", prefixMapAfter.get("İstanbul"));
+        assertEquals("Istanbul", prefixMapAfter.get("istanbul"));
+        assertNull(prefixMapAfter.get("Istanbul"));
+    }
+
     public void fillPrefixMap(PrefixMap<String> prefixLookup) {
         prefixLookup.put("a", "one");
         prefixLookup.put("ab", "two");
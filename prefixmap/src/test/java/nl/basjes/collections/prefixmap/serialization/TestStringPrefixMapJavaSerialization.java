@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap.serialization;
+
+import nl.basjes.collections.PrefixMap;
+import nl.basjes.collections.prefixmap.StringPrefixMap;
+import nl.basjes.collections.prefixmap.Utf8PrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class TestStringPrefixMapJavaSerialization {
+
+    public static class ThisTest extends AbstractSerializationTest {
+        @Override
+        byte[] serialize(PrefixMap<String> instance) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(instance);
+            }
+            return bytes.toByteArray();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        PrefixMap<String> deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return (PrefixMap<String>) in.readObject();
+            }
+        }
+
+        @Override
+        PrefixMap<String> createInstance() {
+            return new StringPrefixMap<>(false);
+        }
+    }
+
+    public static class CompactKeysTest extends ThisTest {
+        @Override
+        PrefixMap<String> createInstance() {
+            return new StringPrefixMap<>(false, false, true);
+        }
+    }
+
+    public static class Utf8Test extends ThisTest {
+        @Override
+        PrefixMap<String> createInstance() {
+            return new Utf8PrefixMap<>(false);
+        }
+    }
+
+    @Test
+    public void serializeAndDeserialize() throws IOException, ClassNotFoundException {
+        new ThisTest().serializeAndDeserialize();
+        new CompactKeysTest().serializeAndDeserialize();
+        new Utf8Test().serializeAndDeserialize();
+    }
+
+    @Test
+    public void serializeAndDeserializeUnicode() throws IOException, ClassNotFoundException {
+        new ThisTest().serializeAndDeserializeUnicode();
+        new CompactKeysTest().serializeAndDeserializeUnicode();
+        new Utf8Test().serializeAndDeserializeUnicode();
+    }
+
+    @Test
+    public void serializeAndDeserializeCaseLinks() throws IOException, ClassNotFoundException {
+        new ThisTest().serializeAndDeserializeCaseLinks();
+        new CompactKeysTest().serializeAndDeserializeCaseLinks();
+        new Utf8Test().serializeAndDeserializeCaseLinks();
+    }
+
+}
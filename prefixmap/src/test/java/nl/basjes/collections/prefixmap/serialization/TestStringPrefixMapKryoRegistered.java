@@ -16,11 +16,16 @@
 package nl.basjes.collections.prefixmap.serialization;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import nl.basjes.collections.PrefixMap;
 import nl.basjes.collections.prefixmap.StringPrefixMap;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.io.Serializable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class TestStringPrefixMapKryoRegistered {
 
@@ -38,9 +43,53 @@ public class TestStringPrefixMapKryoRegistered {
         }
     }
 
+    public static class CompactKeysTest extends ThisTest {
+        @Override
+        PrefixMap<String> createInstance() {
+            return new StringPrefixMap<>(false, false, true);
+        }
+    }
+
     @Test
     public void serializeAndDeserialize() throws IOException, ClassNotFoundException {
         new ThisTest().serializeAndDeserialize();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializeAndDeserializeMixedValueTypes() {
+        StringPrefixMap<Serializable> prefixMap = new StringPrefixMap<>(true);
+        prefixMap.put("One", 1);
+        prefixMap.put("OneDotFive", 1.5D);
+        prefixMap.put("Two", "Two");
+
+        Kryo kryo = new Kryo();
+        StringPrefixMap.configureKryo(kryo);
+        kryo.register(Integer.class);
+        kryo.register(Double.class);
+        Output output = new Output(1024, -1);
+        kryo.writeClassAndObject(output, prefixMap);
+
+        StringPrefixMap<Serializable> result = (StringPrefixMap<Serializable>) kryo.readClassAndObject(new Input(output.toBytes()));
+        assertEquals(prefixMap.entrySet(), result.entrySet());
+        assertEquals(1.5D, result.getLongestMatch("OneDotFiveAndMore"));
+    }
+
+    @Test
+    public void serializeAndDeserializeUnicode() throws IOException, ClassNotFoundException {
+        new ThisTest().serializeAndDeserializeUnicode();
+    }
+
+    @Test
+    public void serializeAndDeserializeCompactKeys() throws IOException, ClassNotFoundException {
+        new CompactKeysTest().serializeAndDeserialize();
+        new CompactKeysTest().serializeAndDeserializeUnicode();
+    }
+
+    @Test
+    public void serializeAndDeserializeCaseLinks() throws IOException, ClassNotFoundException {
+        new ThisTest().serializeAndDeserializeCaseLinks();
+        new CompactKeysTest().serializeAndDeserializeCaseLinks();
+    }
+
 }
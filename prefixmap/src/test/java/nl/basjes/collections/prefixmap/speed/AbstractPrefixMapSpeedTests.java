@@ -74,6 +74,30 @@ public abstract class AbstractPrefixMapSpeedTests {
                 (((stop - start)/iterations)/1000) + "us) .");
     }
 
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public void runMemoryTest(Map<String, String> prefixes) {
+        long before = usedMemory();
+        PrefixMap<String> prefixMap = create(prefixes);
+        long after = usedMemory();
+        long used = Math.max(0, after - before);
+        System.out.println("Memory stats " + prefixMap.getClass().getSimpleName() +
+                "\t (" + prefixMap.size() + "\t rules): " +
+                (used / 1024) + " KiB --> " +
+                (used / prefixes.size()) + " bytes per rule.");
+    }
+
+    @Test
+    public void testHugePrefixSetMemoryUsage() {
+        runMemoryTest(FULL_PREFIX_MAP);
+    }
+
     @Test
     public void testBaseLookupSpeed() {
         runLookupSpeedTest(PREFIX_MAP);
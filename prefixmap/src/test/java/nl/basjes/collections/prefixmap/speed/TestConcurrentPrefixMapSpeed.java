@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap.speed;
+
+import nl.basjes.collections.PrefixMap;
+import nl.basjes.collections.prefixmap.ConcurrentPrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static nl.basjes.collections.prefixmap.speed.PrefixMapSpeedTestData.FULL_PREFIX_MAP;
+import static nl.basjes.collections.prefixmap.speed.PrefixMapSpeedTestData.TEST_MODELS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestConcurrentPrefixMapSpeed extends AbstractPrefixMapSpeedTests {
+
+    private static final int LOOKUPS_PER_READER = 5_000_000;
+
+    @Override
+    protected PrefixMap<String> create(Map<String, String> prefixMap) {
+        ConcurrentPrefixMap<String> result = new ConcurrentPrefixMap<>(false);
+        result.putAll(prefixMap);
+        return result;
+    }
+
+    @Override
+    long getIterations() {
+        return 10_000_000;
+    }
+
+    private long runReaders(PrefixMap<String> prefixMap, int readers) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        AtomicLong matches = new AtomicLong();
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                long found = 0;
+                int lookups = 0;
+                while (lookups < LOOKUPS_PER_READER) {
+                    for (String model : TEST_MODELS) {
+                        if (prefixMap.getLongestMatch(model) != null) {
+                            found++;
+                        }
+                        lookups++;
+                    }
+                }
+                matches.addAndGet(found);
+            }));
+        }
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long stop = System.nanoTime();
+        return stop - start;
+    }
+
+    @Test
+    public void testReadScalingWithBackgroundWriter() throws InterruptedException {
+        PrefixMap<String> prefixMap = create(FULL_PREFIX_MAP);
+        int size = prefixMap.size();
+
+        // A writer that keeps adding and removing prefixes (that are not used by the readers).
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong writes = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                String prefix = "Writer-" + (i++ % 10_000);
+                if (prefixMap.put(prefix, prefix) != null) {
+                    prefixMap.remove(prefix);
+                }
+                writes.incrementAndGet();
+            }
+        });
+        writer.start();
+
+        // Heat it up
+        runReaders(prefixMap, 1);
+
+        long singleReaderNs = 0;
+        int maxReaders = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int readers = 1; readers <= maxReaders; readers *= 2) {
+            long ns = runReaders(prefixMap, readers);
+            if (readers == 1) {
+                singleReaderNs = ns;
+            }
+            long lookups = (long) readers * LOOKUPS_PER_READER;
+            System.out.println("Speed stats ConcurrentPrefixMap " + readers + " readers + 1 writer\t (" + size + "\t rules): " +
+                lookups + " runs took " + (ns / 1_000_000) + "ms --> " +
+                (lookups * 1_000_000_000L / ns) + " lookups/s (scaling " +
+                String.format("%.2f", (double) lookups * singleReaderNs / ns / LOOKUPS_PER_READER) + "x).");
+        }
+        running.set(false);
+        writer.join();
+        System.out.println("Speed stats ConcurrentPrefixMap background writer did " + writes.get() + " changes.");
+
+        // The writer only added and removed its own prefixes
+        for (int i = 0; i < 10_000; i++) {
+            prefixMap.remove("Writer-" + i);
+        }
+        assertEquals(size, prefixMap.size());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap.speed;
+
+import nl.basjes.collections.PrefixMap;
+import nl.basjes.collections.prefixmap.OverlayPrefixMap;
+import nl.basjes.collections.prefixmap.StringPrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static nl.basjes.collections.prefixmap.speed.PrefixMapSpeedTestData.FULL_PREFIX_MAP;
+
+public class TestOverlayPrefixMapSpeed extends AbstractPrefixMapSpeedTests {
+
+    // Every 100th prefix is put in the overlay instead of the base.
+    @Override
+    protected PrefixMap<String> create(Map<String, String> prefixMap) {
+        StringPrefixMap.Builder<String> builder = StringPrefixMap.builder(false);
+        int count = 0;
+        for (Map.Entry<String, String> entry : prefixMap.entrySet()) {
+            if (count++ % 100 != 0) {
+                builder.put(entry.getKey(), entry.getValue());
+            }
+        }
+        OverlayPrefixMap<String> overlay = new OverlayPrefixMap<>(builder.buildFrozen());
+        count = 0;
+        for (Map.Entry<String, String> entry : prefixMap.entrySet()) {
+            if (count++ % 100 == 0) {
+                overlay.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return overlay;
+    }
+
+    @Override
+    long getIterations() {
+        return 10_000_000;
+    }
+
+    @Test
+    public void testOverrideSpeed() {
+        OverlayPrefixMap<String> prefixMap = (OverlayPrefixMap<String>) create(FULL_PREFIX_MAP);
+        int iterations = 1_000_000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String prefix = "GT-I" + (i % 1000);
+            if (i % 2 == 0) {
+                prefixMap.put(prefix, prefix);
+            } else {
+                prefixMap.remove(prefix);
+            }
+        }
+        long stop = System.nanoTime();
+        System.out.println("Speed stats OverlayPrefixMap overrides\t (" + prefixMap.size() + "\t rules): " +
+            iterations + " runs took " + ((stop - start) / 1_000_000) + "ms --> " +
+            ((stop - start) / iterations) + "ns each.");
+
+        start = System.nanoTime();
+        prefixMap.compact();
+        stop = System.nanoTime();
+        System.out.println("Speed stats OverlayPrefixMap compact\t (" + prefixMap.size() + "\t rules): " +
+            ((stop - start) / 1_000_000) + "ms.");
+    }
+}
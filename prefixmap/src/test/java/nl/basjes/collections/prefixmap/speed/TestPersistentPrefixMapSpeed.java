@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap.speed;
+
+import nl.basjes.collections.PrefixMap;
+import nl.basjes.collections.prefixmap.PersistentPrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static nl.basjes.collections.prefixmap.speed.PrefixMapSpeedTestData.FULL_PREFIX_MAP;
+
+public class TestPersistentPrefixMapSpeed extends AbstractPrefixMapSpeedTests {
+
+    @Override
+    protected PrefixMap<String> create(Map<String, String> prefixMap) {
+        return new PersistentPrefixMap<String>(false).withAll(prefixMap);
+    }
+
+    @Override
+    long getIterations() {
+        return 10_000_000;
+    }
+
+    @Test
+    public void testNewVersionSpeed() {
+        PersistentPrefixMap<String> prefixMap = (PersistentPrefixMap<String>) create(FULL_PREFIX_MAP);
+        int iterations = 1_000_000;
+
+        long start = System.nanoTime();
+        PersistentPrefixMap<String> version = prefixMap;
+        for (int i = 0; i < iterations; i++) {
+            String prefix = "GT-I" + (i % 1000);
+            version = (i % 2 == 0) ? version.with(prefix, prefix) : version.without(prefix);
+        }
+        long stop = System.nanoTime();
+        System.out.println("Speed stats PersistentPrefixMap new versions\t (" + prefixMap.size() + "\t rules): " +
+            iterations + " runs took " + ((stop - start) / 1_000_000) + "ms --> " +
+            ((stop - start) / iterations) + "ns each.");
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap.speed;
+
+import nl.basjes.collections.PrefixMap;
+import nl.basjes.collections.prefixmap.ASCIIPrefixMap;
+import nl.basjes.collections.prefixmap.StringPrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static nl.basjes.collections.prefixmap.speed.PrefixMapSpeedTestData.FULL_PREFIX_MAP;
+
+public class TestPrefixMapBuilderSpeed {
+
+    // Every iteration builds the full set of prefixes so only a few of them to keep the normal build fast.
+    private static final int ITERATIONS = 2;
+
+    private void runBuildSpeedTest(String name, Supplier<PrefixMap<String>> creator) {
+        // Heat it up
+        creator.get();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            creator.get();
+        }
+        long stop = System.nanoTime();
+        System.out.println("Build stats " + name +
+                "\t (" + FULL_PREFIX_MAP.size() + "\t rules): " +
+                ((stop - start) / ITERATIONS / 1000000) + "ms each.");
+    }
+
+    @Test
+    public void testBuildSpeed() {
+        runBuildSpeedTest("ASCIIPrefixMap putAll       ", () -> {
+            PrefixMap<String> result = new ASCIIPrefixMap<>(false);
+            result.putAll(FULL_PREFIX_MAP);
+            return result;
+        });
+        runBuildSpeedTest("ASCIIPrefixMap builder      ", () -> ASCIIPrefixMap.<String>builder(false).putAll(FULL_PREFIX_MAP).build());
+        runBuildSpeedTest("ASCIIPrefixMap parallel     ", () -> ASCIIPrefixMap.<String>builder(false).putAll(FULL_PREFIX_MAP).buildParallel());
+        runBuildSpeedTest("ASCIIPrefixMap putAll+freeze", () -> {
+            ASCIIPrefixMap<String> result = new ASCIIPrefixMap<>(false);
+            result.putAll(FULL_PREFIX_MAP);
+            return result.freeze();
+        });
+        runBuildSpeedTest("ASCIIPrefixMap buildFrozen  ", () -> ASCIIPrefixMap.<String>builder(false).putAll(FULL_PREFIX_MAP).buildFrozen());
+        runBuildSpeedTest("StringPrefixMap putAll      ", () -> {
+            PrefixMap<String> result = new StringPrefixMap<>(false);
+            result.putAll(FULL_PREFIX_MAP);
+            return result;
+        });
+        runBuildSpeedTest("StringPrefixMap builder     ", () -> StringPrefixMap.<String>builder(false).putAll(FULL_PREFIX_MAP).build());
+        runBuildSpeedTest("StringPrefixMap parallel    ", () -> StringPrefixMap.<String>builder(false).putAll(FULL_PREFIX_MAP).buildParallel());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018-2025 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.collections.prefixmap.speed;
+
+import nl.basjes.collections.prefixmap.FrozenPrefixMap;
+import nl.basjes.collections.prefixmap.PrefixMaps;
+import nl.basjes.collections.prefixmap.StringPrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import static nl.basjes.collections.prefixmap.speed.PrefixMapSpeedTestData.FULL_PREFIX_MAP;
+
+public class TestPrefixMapsSpeed {
+
+    private static final int ITERATIONS = 5;
+
+    private void runSpeedTest(String name, Supplier<Object> operation) {
+        // Heat it up
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.get();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.get();
+        }
+        long stop = System.nanoTime();
+        System.out.println("Speed stats " + name +
+                "\t (" + FULL_PREFIX_MAP.size() + "\t rules): " +
+                ((stop - start) / ITERATIONS / 1000000) + "ms each.");
+    }
+
+    @Test
+    public void testDiffAndMergeSpeed() {
+        // The new rules have 100 changes
+        Map<String, String> newRules = new HashMap<>(FULL_PREFIX_MAP);
+        int count = 0;
+        for (String prefix : FULL_PREFIX_MAP.keySet()) {
+            if (count++ % (FULL_PREFIX_MAP.size() / 100) == 0) {
+                newRules.put(prefix, "Changed");
+            }
+        }
+        FrozenPrefixMap<String> oldMap = StringPrefixMap.<String>builder(false).putAll(FULL_PREFIX_MAP).buildFrozen();
+        FrozenPrefixMap<String> newMap = StringPrefixMap.<String>builder(false).putAll(newRules).buildFrozen();
+
+        runSpeedTest("diff via entrySet  ", () -> {
+            Map<String, String> changed = new TreeMap<>();
+            Map<String, String> oldEntries = new TreeMap<>();
+            oldMap.entrySet().forEach(entry -> oldEntries.put(entry.getKey(), entry.getValue()));
+            for (Map.Entry<String, String> entry : newMap.entrySet()) {
+                if (!entry.getValue().equals(oldEntries.get(entry.getKey()))) {
+                    changed.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return changed;
+        });
+        runSpeedTest("PrefixMaps.diff    ", () -> PrefixMaps.diff(oldMap, newMap));
+
+        runSpeedTest("merge via builder  ", () -> {
+            StringPrefixMap.Builder<String> builder = StringPrefixMap.builder(false);
+            oldMap.entrySet().forEach(entry -> builder.put(entry.getKey(), entry.getValue()));
+            newMap.entrySet().forEach(entry -> builder.put(entry.getKey(), entry.getValue()));
+            return builder.buildFrozen();
+        });
+        runSpeedTest("PrefixMaps.merge   ", () -> PrefixMaps.merge(oldMap, newMap, (oldValue, newValue) -> newValue));
+    }
+}
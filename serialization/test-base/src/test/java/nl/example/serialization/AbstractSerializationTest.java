@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public abstract class AbstractSerializationTest {
 
@@ -69,6 +70,41 @@ public abstract class AbstractSerializationTest {
 //        LOG.info("Ok");
     }
 
+    private static final int  LARGE_MAP_SIZE             = 100_000;
+    private static final int  LARGE_MAP_LONGEST_PREFIX   = 50_000;
+    private static final int  MAX_BYTES_PER_PREFIX       = 30;
+
+    public void serializeAndDeserializeLargeMap() throws IOException, ClassNotFoundException {
+        PrefixMap<String> prefixMapBefore = createInstance();
+        String[] values = {"one", "two", "three", "four", "five"};
+        for (int i = 0; i < LARGE_MAP_SIZE; i++) {
+            prefixMapBefore.put("prefix-" + Integer.toHexString(i * 7919), values[i % values.length]);
+        }
+        // A single very long prefix must not be a problem (i.e. no recursion into the trie).
+        StringBuilder longPrefix = new StringBuilder(LARGE_MAP_LONGEST_PREFIX);
+        for (int i = 0; i < LARGE_MAP_LONGEST_PREFIX; i++) {
+            longPrefix.append((char) ('a' + (i % 26)));
+        }
+        prefixMapBefore.put(longPrefix.toString(), "long");
+
+        byte[] bytes = serialize(prefixMapBefore);
+        assertTrue(bytes.length < (LARGE_MAP_SIZE * MAX_BYTES_PER_PREFIX) + LARGE_MAP_LONGEST_PREFIX,
+            "Serialized form is too large: " + bytes.length + " bytes");
+
+        long deserializeStartNs = System.nanoTime();
+        PrefixMap<String> prefixMapAfter = deserialize(bytes);
+        long deserializeMs = (System.nanoTime() - deserializeStartNs) / 1_000_000;
+
+        LOG.info("{}: {} prefixes serialized into {} bytes, deserialize took {} ms",
+            getClass().getSimpleName(), prefixMapAfter.size(), bytes.length, deserializeMs);
+
+        assertEquals(LARGE_MAP_SIZE + 1, prefixMapAfter.size());
+        for (int i = 0; i < LARGE_MAP_SIZE; i += 997) {
+            assertEquals(values[i % values.length], prefixMapAfter.get("PREFIX-" + Integer.toHexString(i * 7919)));
+        }
+        assertEquals("long", prefixMapAfter.getLongestMatch(longPrefix + "xyz"));
+    }
+
     public void fillPrefixMap(PrefixMap<String> prefixLookup) {
         prefixLookup.put("a", "one");
         prefixLookup.put("ab", "two");
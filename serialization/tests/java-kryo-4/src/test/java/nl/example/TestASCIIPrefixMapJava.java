@@ -27,4 +27,9 @@ public class TestASCIIPrefixMapJava {
         new SerializeASCIIPrefixMapWithJava().serializeAndDeserialize();
     }
 
+    @Test
+    public void serializeAndDeserializeLargeMap() throws IOException, ClassNotFoundException {
+        new SerializeASCIIPrefixMapWithJava().serializeAndDeserializeLargeMap();
+    }
+
 }
@@ -26,4 +26,9 @@ public class TestASCIIPrefixMapKryo {
     public void serializeAndDeserialize() throws IOException, ClassNotFoundException {
         new SerializeASCIIPrefixMapWithKryo().serializeAndDeserialize();
     }
+
+    @Test
+    public void serializeAndDeserializeLargeMap() throws IOException, ClassNotFoundException {
+        new SerializeASCIIPrefixMapWithKryo().serializeAndDeserializeLargeMap();
+    }
 }
@@ -26,4 +26,9 @@ public class TestASCIIPrefixMapKryoRegistered {
     public void serializeAndDeserialize() throws IOException, ClassNotFoundException {
         new SerializeASCIIPrefixMapWithKryoRegistered().serializeAndDeserialize();
     }
+
+    @Test
+    public void serializeAndDeserializeLargeMap() throws IOException, ClassNotFoundException {
+        new SerializeASCIIPrefixMapWithKryoRegistered().serializeAndDeserializeLargeMap();
+    }
 }
@@ -27,4 +27,9 @@ public class TestStringPrefixMapJava {
         new SerializeStringPrefixMapWithJava().serializeAndDeserialize();
     }
 
+    @Test
+    public void serializeAndDeserializeLargeMap() throws IOException, ClassNotFoundException {
+        new SerializeStringPrefixMapWithJava().serializeAndDeserializeLargeMap();
+    }
+
 }
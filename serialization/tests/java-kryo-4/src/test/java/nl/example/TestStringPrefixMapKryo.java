@@ -28,4 +28,9 @@ public class TestStringPrefixMapKryo {
         new SerializeStringPrefixMapWithKryo().serializeAndDeserialize();
     }
 
+    @Test
+    public void serializeAndDeserializeLargeMap() throws IOException, ClassNotFoundException {
+        new SerializeStringPrefixMapWithKryo().serializeAndDeserializeLargeMap();
+    }
+
 }
@@ -27,4 +27,9 @@ public class TestStringPrefixMapKryoRegistered {
         new SerializeStringPrefixMapKryoRegistered().serializeAndDeserialize();
     }
 
+    @Test
+    public void serializeAndDeserializeLargeMap() throws IOException, ClassNotFoundException {
+        new SerializeStringPrefixMapKryoRegistered().serializeAndDeserializeLargeMap();
+    }
+
 }